@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.rest.data;
+
+/**
+ * Data transfer object for the information about one connected municipality.
+ */
+public class MunicipalityDTO {
+
+    /** The municipality code. */
+    private String id;
+
+    /** The name of the municipality. */
+    private String name;
+
+    /** The integration status: design, test, production or retired. */
+    private String status;
+
+    /**
+     * Constructor.
+     *
+     * @param code The municipality code.
+     * @param municipalityName The name of the municipality.
+     * @param integrationStatus The integration status.
+     */
+    public MunicipalityDTO(final String code, final String municipalityName, final String integrationStatus) {
+        id = code;
+        name = municipalityName;
+        status = integrationStatus;
+    }
+
+    /**
+     * Get the municipality code.
+     * @return The municipality code.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Set the municipality code.
+     * @param code What to set.
+     */
+    public void setId(final String code) {
+        id = code;
+    }
+
+    /**
+     * Get the name of the municipality.
+     * @return The name of the municipality.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Set the name of the municipality.
+     * @param municipalityName What to set.
+     */
+    public void setName(final String municipalityName) {
+        name = municipalityName;
+    }
+
+    /**
+     * Get the integration status.
+     * @return The integration status.
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * Set the integration status.
+     * @param integrationStatus What to set.
+     */
+    public void setStatus(final String integrationStatus) {
+        status = integrationStatus;
+    }
+}
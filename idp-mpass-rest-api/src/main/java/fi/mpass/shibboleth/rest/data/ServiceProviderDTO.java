@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.rest.data;
+
+/**
+ * Data transfer object for the information about one connected service provider.
+ */
+public class ServiceProviderDTO {
+
+    /** The identifier (entity ID) of the service provider. */
+    private String id;
+
+    /** The name of the organization behind the service provider. */
+    private String name;
+
+    /** The URL of the organization behind the service provider. */
+    private String url;
+
+    /**
+     * Constructor.
+     *
+     * @param entityId The identifier (entity ID) of the service provider.
+     * @param organizationName The name of the organization behind the service provider.
+     * @param organizationUrl The URL of the organization behind the service provider.
+     */
+    public ServiceProviderDTO(final String entityId, final String organizationName, final String organizationUrl) {
+        id = entityId;
+        name = organizationName;
+        url = organizationUrl;
+    }
+
+    /**
+     * Get the identifier (entity ID) of the service provider.
+     * @return The identifier of the service provider.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Set the identifier (entity ID) of the service provider.
+     * @param entityId What to set.
+     */
+    public void setId(final String entityId) {
+        id = entityId;
+    }
+
+    /**
+     * Get the name of the organization behind the service provider.
+     * @return The name of the organization.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Set the name of the organization behind the service provider.
+     * @param organizationName What to set.
+     */
+    public void setName(final String organizationName) {
+        name = organizationName;
+    }
+
+    /**
+     * Get the URL of the organization behind the service provider.
+     * @return The URL of the organization.
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Set the URL of the organization behind the service provider.
+     * @param organizationUrl What to set.
+     */
+    public void setUrl(final String organizationUrl) {
+        url = organizationUrl;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.rest.data.json;
+
+import java.util.List;
+
+import fi.mpass.shibboleth.rest.data.AuthnSourceDTO;
+
+/**
+ * The JSON writer for {@link AuthnSourceDTO}.
+ */
+public class AuthnSourceDTOWriter extends AbstractTitledDTOWriter<AuthnSourceDTO> {
+
+    /** The name for the tags. */
+    private static final byte[] TAGS = JsonByteWriter.encodeName("tags");
+
+    /** The name for the icon URL. */
+    private static final byte[] ICON_URL = JsonByteWriter.encodeName("iconUrl");
+
+    /** The name for the direct registry connection flag. */
+    private static final byte[] DIRECT_REGISTRY_CONNECTION = JsonByteWriter.encodeName("directRegistryConnection");
+
+    /** The name for the forced authentication support flag. */
+    private static final byte[] SUPPORTS_FORCED = JsonByteWriter.encodeName("supportsForced");
+
+    /** The name for the passive authentication support flag. */
+    private static final byte[] SUPPORTS_PASSIVE = JsonByteWriter.encodeName("supportsPassive");
+
+    /** {@inheritDoc} */
+    @Override
+    protected void writeFields(final JsonByteWriter out, final AuthnSourceDTO dto) {
+        final List<String> tags = dto.getTags();
+        if (tags != null) {
+            out.name(TAGS).beginArray();
+            for (final String tag : tags) {
+                out.value(tag);
+            }
+            out.endArray();
+        }
+        out.stringMember(ICON_URL, dto.getIconUrl());
+        out.name(DIRECT_REGISTRY_CONNECTION).value(dto.isDirectRegistryConnection());
+        out.name(SUPPORTS_FORCED).value(dto.isSupportsForced());
+        out.name(SUPPORTS_PASSIVE).value(dto.isSupportsPassive());
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.rest.data.json;
+
+/**
+ * A reflection-free JSON writer for a data transfer object type. The implementations are stateless and
+ * thread-safe.
+ *
+ * @param <T> The type of the data transfer object.
+ */
+public interface DTOWriter<T> {
+
+    /**
+     * Writes the given object as the next value, or null if the object is null.
+     *
+     * @param out The JSON writer.
+     * @param dto The object to write.
+     */
+    void write(JsonByteWriter out, T dto);
+
+    /**
+     * Encodes the given object into UTF-8 JSON.
+     *
+     * @param dto The object to encode.
+     * @return The encoded object.
+     */
+    default byte[] toByteArray(final T dto) {
+        final JsonByteWriter out = new JsonByteWriter();
+        write(out, dto);
+        return out.toByteArray();
+    }
+}
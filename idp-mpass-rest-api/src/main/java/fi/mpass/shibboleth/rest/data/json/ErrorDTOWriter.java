@@ -0,0 +1,55 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.rest.data.json;
+
+import fi.mpass.shibboleth.rest.data.ErrorDTO;
+
+/**
+ * The JSON writer for {@link ErrorDTO}.
+ */
+public class ErrorDTOWriter implements DTOWriter<ErrorDTO> {
+
+    /** The name for the code. */
+    private static final byte[] CODE = JsonByteWriter.encodeName("code");
+
+    /** The name for the message. */
+    private static final byte[] MESSAGE = JsonByteWriter.encodeName("message");
+
+    /** The name for the fields. */
+    private static final byte[] FIELDS = JsonByteWriter.encodeName("fields");
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final JsonByteWriter out, final ErrorDTO dto) {
+        if (dto == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name(CODE).value(dto.getCode());
+        out.stringMember(MESSAGE, dto.getMessage());
+        out.stringMember(FIELDS, dto.getFields());
+        out.endObject();
+    }
+}
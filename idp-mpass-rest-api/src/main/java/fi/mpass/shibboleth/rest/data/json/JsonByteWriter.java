@@ -0,0 +1,462 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.rest.data.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A minimal streaming JSON writer emitting UTF-8 bytes directly into a growable buffer.
+ * 
+ * <p>The output is byte-compatible with the default {@link com.google.gson.Gson} configuration encoded in
+ * UTF-8: no whitespace, and the same (HTML-safe) escaping of the strings. Lone surrogates are written as
+ * <code>?</code>, like {@link String#getBytes(java.nio.charset.Charset)} does.</p>
+ * 
+ * <p>The writer does not validate the structure of the document, the callers are responsible for balancing
+ * the objects and arrays and for writing the names only inside objects. Instances are not thread-safe.</p>
+ */
+public final class JsonByteWriter {
+
+    /** The default initial capacity of the buffer. */
+    private static final int DEFAULT_CAPACITY = 256;
+
+    /** The lower case hexadecimal digits. */
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /** The escape sequences for the ASCII characters, null if the character is written as it is. */
+    private static final byte[][] ASCII_REPLACEMENTS = new byte[128][];
+
+    /** The literal null. */
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+    /** The literal true. */
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+
+    /** The literal false. */
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+
+    static {
+        for (int i = 0; i < 0x20; i++) {
+            ASCII_REPLACEMENTS[i] = unicodeEscape((char) i);
+        }
+        ASCII_REPLACEMENTS['"'] = "\\\"".getBytes(StandardCharsets.US_ASCII);
+        ASCII_REPLACEMENTS['\\'] = "\\\\".getBytes(StandardCharsets.US_ASCII);
+        ASCII_REPLACEMENTS['\t'] = "\\t".getBytes(StandardCharsets.US_ASCII);
+        ASCII_REPLACEMENTS['\b'] = "\\b".getBytes(StandardCharsets.US_ASCII);
+        ASCII_REPLACEMENTS['\n'] = "\\n".getBytes(StandardCharsets.US_ASCII);
+        ASCII_REPLACEMENTS['\r'] = "\\r".getBytes(StandardCharsets.US_ASCII);
+        ASCII_REPLACEMENTS['\f'] = "\\f".getBytes(StandardCharsets.US_ASCII);
+        for (final char c : new char[] {'<', '>', '&', '=', '\''}) {
+            ASCII_REPLACEMENTS[c] = unicodeEscape(c);
+        }
+    }
+
+    /** The buffer for the written bytes. */
+    private byte[] buffer;
+
+    /** The number of bytes written into the buffer. */
+    private int count;
+
+    /** Whether a separator must be written before the next name or array element. */
+    private boolean needsSeparator;
+
+    /**
+     * Constructor.
+     */
+    public JsonByteWriter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param initialCapacity The initial capacity of the buffer.
+     */
+    public JsonByteWriter(final int initialCapacity) {
+        buffer = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    /**
+     * Encodes the given name into its quoted and escaped form followed by the name separator, to be written with
+     * {@link #name(byte[])}. Meant for precomputing the constant names.
+     *
+     * @param name The name to encode.
+     * @return The encoded name.
+     */
+    public static byte[] encodeName(final String name) {
+        final JsonByteWriter writer = new JsonByteWriter(name.length() + 8);
+        writer.writeString(name);
+        writer.writeByte(':');
+        return writer.toByteArray();
+    }
+
+    /**
+     * Begins a new object.
+     *
+     * @return This writer.
+     */
+    public JsonByteWriter beginObject() {
+        beforeValue();
+        writeByte('{');
+        needsSeparator = false;
+        return this;
+    }
+
+    /**
+     * Ends the current object.
+     *
+     * @return This writer.
+     */
+    public JsonByteWriter endObject() {
+        writeByte('}');
+        needsSeparator = true;
+        return this;
+    }
+
+    /**
+     * Begins a new array.
+     *
+     * @return This writer.
+     */
+    public JsonByteWriter beginArray() {
+        beforeValue();
+        writeByte('[');
+        needsSeparator = false;
+        return this;
+    }
+
+    /**
+     * Ends the current array.
+     *
+     * @return This writer.
+     */
+    public JsonByteWriter endArray() {
+        writeByte(']');
+        needsSeparator = true;
+        return this;
+    }
+
+    /**
+     * Writes the name of the next member of the current object.
+     *
+     * @param encodedName The name encoded with {@link #encodeName(String)}.
+     * @return This writer.
+     */
+    public JsonByteWriter name(final byte[] encodedName) {
+        if (needsSeparator) {
+            writeByte(',');
+        }
+        writeBytes(encodedName);
+        needsSeparator = false;
+        return this;
+    }
+
+    /**
+     * Writes the name of the next member of the current object.
+     *
+     * @param name The name.
+     * @return This writer.
+     */
+    public JsonByteWriter name(final String name) {
+        if (needsSeparator) {
+            writeByte(',');
+        }
+        writeString(name);
+        writeByte(':');
+        needsSeparator = false;
+        return this;
+    }
+
+    /**
+     * Writes a string value, or null.
+     *
+     * @param value The value.
+     * @return This writer.
+     */
+    public JsonByteWriter value(final String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeString(value);
+        needsSeparator = true;
+        return this;
+    }
+
+    /**
+     * Writes a boolean value.
+     *
+     * @param value The value.
+     * @return This writer.
+     */
+    public JsonByteWriter value(final boolean value) {
+        beforeValue();
+        writeBytes(value ? TRUE : FALSE);
+        needsSeparator = true;
+        return this;
+    }
+
+    /**
+     * Writes a numeric value.
+     *
+     * @param value The value.
+     * @return This writer.
+     */
+    public JsonByteWriter value(final long value) {
+        beforeValue();
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                writeBytes(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+                needsSeparator = true;
+                return this;
+            }
+            writeByte('-');
+        }
+        long remaining = Math.abs(value);
+        final int start = count;
+        do {
+            writeByte((int) ('0' + remaining % 10));
+            remaining /= 10;
+        } while (remaining != 0);
+        for (int i = start, j = count - 1; i < j; i++, j--) {
+            final byte tmp = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = tmp;
+        }
+        needsSeparator = true;
+        return this;
+    }
+
+    /**
+     * Writes a null value.
+     *
+     * @return This writer.
+     */
+    public JsonByteWriter nullValue() {
+        beforeValue();
+        writeBytes(NULL);
+        needsSeparator = true;
+        return this;
+    }
+
+    /**
+     * Writes the given member if the value is not null, like Gson does when serializing the fields.
+     *
+     * @param encodedName The name encoded with {@link #encodeName(String)}.
+     * @param value The value.
+     * @return This writer.
+     */
+    public JsonByteWriter stringMember(final byte[] encodedName, final String value) {
+        if (value != null) {
+            name(encodedName);
+            value(value);
+        }
+        return this;
+    }
+
+    /**
+     * Writes already encoded JSON as the next value. The caller is responsible for its validity.
+     *
+     * @param json The encoded JSON value.
+     * @param offset The offset of the value in the array.
+     * @param length The length of the value.
+     * @return This writer.
+     */
+    public JsonByteWriter rawValue(final byte[] json, final int offset, final int length) {
+        beforeValue();
+        ensureCapacity(length);
+        System.arraycopy(json, offset, buffer, count, length);
+        count += length;
+        needsSeparator = true;
+        return this;
+    }
+
+    /**
+     * Get the number of bytes written so far.
+     *
+     * @return The number of bytes written so far.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Discards everything written so far, keeping the buffer for reuse.
+     */
+    public void reset() {
+        count = 0;
+        needsSeparator = false;
+    }
+
+    /**
+     * Get a copy of the bytes written so far.
+     *
+     * @return The bytes written so far.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, count);
+    }
+
+    /**
+     * Writes the bytes written so far into the given stream.
+     *
+     * @param out The stream to write to.
+     * @throws IOException If the stream could not be written.
+     */
+    public void writeTo(final OutputStream out) throws IOException {
+        out.write(buffer, 0, count);
+    }
+
+    /**
+     * Writes the bytes written so far into the given stream and discards them from the buffer, keeping the state
+     * needed for continuing the document. Allows streaming large documents in chunks of bounded size.
+     *
+     * @param out The stream to write to.
+     * @throws IOException If the stream could not be written.
+     */
+    public void flushTo(final OutputStream out) throws IOException {
+        out.write(buffer, 0, count);
+        count = 0;
+    }
+
+    /**
+     * Writes the separator if the value is an element following another one in an array.
+     */
+    private void beforeValue() {
+        if (needsSeparator) {
+            writeByte(',');
+        }
+    }
+
+    /**
+     * Writes the given string quoted and escaped.
+     *
+     * @param value The string to write.
+     */
+    private void writeString(final String value) {
+        final int length = value.length();
+        ensureCapacity(length + 2);
+        writeByte('"');
+        int i = 0;
+        while (i < length) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                final byte[] replacement = ASCII_REPLACEMENTS[c];
+                if (replacement == null) {
+                    writeByte(c);
+                } else {
+                    writeBytes(replacement);
+                }
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                writeSupplementaryCodePoint(Character.toCodePoint(c, value.charAt(i + 1)));
+                i++;
+            } else {
+                writeNonAsciiChar(c);
+            }
+            i++;
+        }
+        writeByte('"');
+    }
+
+    /**
+     * Writes the given non-ASCII character from the basic multilingual plane in UTF-8. A lone surrogate
+     * is written as <code>?</code>.
+     *
+     * @param c The character to write.
+     */
+    private void writeNonAsciiChar(final char c) {
+        if (c < 0x800) {
+            writeByte(0xc0 | c >> 6);
+            writeByte(0x80 | c & 0x3f);
+        } else if (Character.isSurrogate(c)) {
+            writeByte('?');
+        } else if (c == '\u2028' || c == '\u2029') {
+            writeBytes(unicodeEscape(c));
+        } else {
+            writeByte(0xe0 | c >> 12);
+            writeByte(0x80 | c >> 6 & 0x3f);
+            writeByte(0x80 | c & 0x3f);
+        }
+    }
+
+    /**
+     * Writes the given supplementary code point in UTF-8.
+     *
+     * @param codePoint The code point to write.
+     */
+    private void writeSupplementaryCodePoint(final int codePoint) {
+        writeByte(0xf0 | codePoint >> 18);
+        writeByte(0x80 | codePoint >> 12 & 0x3f);
+        writeByte(0x80 | codePoint >> 6 & 0x3f);
+        writeByte(0x80 | codePoint & 0x3f);
+    }
+
+    /**
+     * Writes a single byte.
+     *
+     * @param b The byte to write.
+     */
+    private void writeByte(final int b) {
+        if (count == buffer.length) {
+            ensureCapacity(1);
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    /**
+     * Writes the given bytes.
+     *
+     * @param bytes The bytes to write.
+     */
+    private void writeBytes(final byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    /**
+     * Grows the buffer if needed, so that the given number of bytes fits in it.
+     *
+     * @param additional The number of bytes to be written.
+     */
+    private void ensureCapacity(final int additional) {
+        if (count + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + additional));
+        }
+    }
+
+    /**
+     * Builds the six byte unicode escape sequence for the given character.
+     *
+     * @param c The character.
+     * @return The escape sequence.
+     */
+    private static byte[] unicodeEscape(final char c) {
+        return new byte[] {'\\', 'u', HEX_DIGITS[c >> 12], HEX_DIGITS[c >> 8 & 0xf], HEX_DIGITS[c >> 4 & 0xf],
+            HEX_DIGITS[c & 0xf]};
+    }
+}
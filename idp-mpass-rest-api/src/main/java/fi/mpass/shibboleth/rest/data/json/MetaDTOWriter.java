@@ -0,0 +1,76 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.rest.data.json;
+
+import fi.mpass.shibboleth.rest.data.MetaDTO;
+
+/**
+ * The JSON writer for {@link MetaDTO}, using the same member names as its <code>@SerializedName</code>
+ * annotations.
+ */
+public class MetaDTOWriter implements DTOWriter<MetaDTO> {
+
+    /** The name for the identifier. */
+    private static final byte[] ID = JsonByteWriter.encodeName("id");
+
+    /** The name for the SAML entity ID. */
+    private static final byte[] SAML_ENTITY_ID = JsonByteWriter.encodeName("saml_entity_id");
+
+    /** The name for the SAML metadata URL. */
+    private static final byte[] SAML_METADATA_URL = JsonByteWriter.encodeName("saml_metadata_url");
+
+    /** The name for the name. */
+    private static final byte[] NAME = JsonByteWriter.encodeName("name");
+
+    /** The name for the organization. */
+    private static final byte[] ORGANIZATION = JsonByteWriter.encodeName("organisation");
+
+    /** The name for the country code. */
+    private static final byte[] COUNTRY_CODE = JsonByteWriter.encodeName("country_code");
+
+    /** The name for the service description. */
+    private static final byte[] SERVICE_DESCRIPTION = JsonByteWriter.encodeName("service_description");
+
+    /** The name for the contact email. */
+    private static final byte[] CONTACT_EMAIL = JsonByteWriter.encodeName("contact_email");
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final JsonByteWriter out, final MetaDTO dto) {
+        if (dto == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.stringMember(ID, dto.getId());
+        out.stringMember(SAML_ENTITY_ID, dto.getSamlEntityId());
+        out.stringMember(SAML_METADATA_URL, dto.getSamlMetadataUrl());
+        out.stringMember(NAME, dto.getName());
+        out.stringMember(ORGANIZATION, dto.getOrganization());
+        out.stringMember(COUNTRY_CODE, dto.getCountryCode());
+        out.stringMember(SERVICE_DESCRIPTION, dto.getServiceDescription());
+        out.stringMember(CONTACT_EMAIL, dto.getContactEmail());
+        out.endObject();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.rest.data.json;
+
+import fi.mpass.shibboleth.rest.data.MunicipalityDTO;
+
+/**
+ * The JSON writer for {@link MunicipalityDTO}.
+ */
+public class MunicipalityDTOWriter implements DTOWriter<MunicipalityDTO> {
+
+    /** The name for the municipality code. */
+    private static final byte[] ID = JsonByteWriter.encodeName("id");
+
+    /** The name for the name of the municipality. */
+    private static final byte[] NAME = JsonByteWriter.encodeName("name");
+
+    /** The name for the integration status. */
+    private static final byte[] STATUS = JsonByteWriter.encodeName("status");
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final JsonByteWriter out, final MunicipalityDTO dto) {
+        if (dto == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.stringMember(ID, dto.getId());
+        out.stringMember(NAME, dto.getName());
+        out.stringMember(STATUS, dto.getStatus());
+        out.endObject();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.rest.data.json;
+
+import fi.mpass.shibboleth.rest.data.ServiceDTO;
+
+/**
+ * The JSON writer for {@link ServiceDTO}.
+ */
+public class ServiceDTOWriter extends AbstractTitledDTOWriter<ServiceDTO> {
+
+    /** The name for the service URL. */
+    private static final byte[] SERVICE_URL = JsonByteWriter.encodeName("serviceUrl");
+
+    /** The name for the SSO URL. */
+    private static final byte[] SSO_URL = JsonByteWriter.encodeName("ssoUrl");
+
+    /** The name for the description. */
+    private static final byte[] DESCRIPTION = JsonByteWriter.encodeName("description");
+
+    /** The name for the icon URL. */
+    private static final byte[] ICON_URL = JsonByteWriter.encodeName("iconUrl");
+
+    /** {@inheritDoc} */
+    @Override
+    protected void writeFields(final JsonByteWriter out, final ServiceDTO dto) {
+        out.stringMember(SERVICE_URL, dto.getServiceUrl());
+        out.stringMember(SSO_URL, dto.getSsoUrl());
+        out.stringMember(DESCRIPTION, dto.getDescription());
+        out.stringMember(ICON_URL, dto.getIconUrl());
+    }
+}
@@ -23,12 +23,27 @@
 
 package fi.mpass.shibboleth.rest.data;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import com.google.gson.Gson;
 
+import fi.mpass.shibboleth.rest.data.json.AuthnSourceDTOWriter;
+import fi.mpass.shibboleth.rest.data.json.AuthnTagDTOWriter;
+import fi.mpass.shibboleth.rest.data.json.ErrorDTOWriter;
+import fi.mpass.shibboleth.rest.data.json.JsonByteWriter;
+import fi.mpass.shibboleth.rest.data.json.MetaDTOWriter;
+import fi.mpass.shibboleth.rest.data.json.MunicipalityDTOWriter;
+import fi.mpass.shibboleth.rest.data.json.ServiceDTOWriter;
+import fi.mpass.shibboleth.rest.data.json.ServiceProviderDTOWriter;
+
 /**
  * Unit tests for the data transfer objects.
  */
@@ -67,6 +82,10 @@ public class GsonEncodeDecodeTest {
     /** The fields for {@link ErrorDTO}. */
     private String fields;
 
+    /** A string containing characters requiring escaping or multi-byte encoding. */
+    private final String special = "<a href='x'>&amp;=</a> \"\\ \t\b\n\r\f\u0001\u001f\u007f \u2028\u2029 "
+            + "äöå € \uD83D\uDE00 \uD800x \uDC00";
+
     /** The JSON encoder/decoder. */
     private final Gson gson = new Gson();
     
@@ -131,4 +150,120 @@ public class GsonEncodeDecodeTest {
         Assert.assertEquals(mapped.getMessage(), message);
     }
 
+    /**
+     * Test that {@link MetaDTOWriter} produces the same bytes as Gson, honoring the serialized names.
+     */
+    @Test
+    public void testMetaWriter() {
+        final MetaDTO initial = new MetaDTO();
+        initial.setId(id);
+        initial.setSamlEntityId(samlEntityId);
+        initial.setSamlMetadataUrl(samlMetadataUrl);
+        initial.setName(special);
+        initial.setOrganization(organization);
+        initial.setCountryCode(countryCode);
+        initial.setServiceDescription(serviceDescription);
+        assertSameBytes(new MetaDTOWriter().toByteArray(initial), initial);
+        assertSameBytes(new MetaDTOWriter().toByteArray(new MetaDTO()), new MetaDTO());
+    }
+
+    /**
+     * Test that {@link ErrorDTOWriter} produces the same bytes as Gson.
+     */
+    @Test
+    public void testErrorWriter() {
+        final ErrorDTO initial = new ErrorDTO();
+        initial.setCode(code);
+        initial.setMessage(special);
+        assertSameBytes(new ErrorDTOWriter().toByteArray(initial), initial);
+        initial.setCode(-1);
+        initial.setFields(fields);
+        assertSameBytes(new ErrorDTOWriter().toByteArray(initial), initial);
+    }
+
+    /**
+     * Test that {@link AuthnSourceDTOWriter} produces the same bytes as Gson.
+     */
+    @Test
+    public void testAuthnSourceWriter() {
+        final AuthnSourceDTO initial = new AuthnSourceDTO(id, special, Arrays.asList("school", null, special),
+                "https://example.org/icon.png?a=1&b=2", true, false, true);
+        assertSameBytes(new AuthnSourceDTOWriter().toByteArray(initial), initial);
+        final AuthnSourceDTO empty = new AuthnSourceDTO(null, null, null, null, false, true, false);
+        assertSameBytes(new AuthnSourceDTOWriter().toByteArray(empty), empty);
+    }
+
+    /**
+     * Test that {@link AuthnTagDTOWriter} and {@link ServiceDTOWriter} produce the same bytes as Gson.
+     */
+    @Test
+    public void testTitledWriters() {
+        final AuthnTagDTO tag = new AuthnTagDTO(id, special);
+        assertSameBytes(new AuthnTagDTOWriter().toByteArray(tag), tag);
+        final ServiceDTO service = new ServiceDTO();
+        service.setId(id);
+        service.setServiceUrl("https://example.org/service");
+        service.setDescription(special);
+        assertSameBytes(new ServiceDTOWriter().toByteArray(service), service);
+    }
+
+    /**
+     * Test that {@link MunicipalityDTOWriter} and {@link ServiceProviderDTOWriter} produce the same bytes as Gson.
+     */
+    @Test
+    public void testNamedWriters() {
+        final MunicipalityDTO initial = new MunicipalityDTO("091", special, "production");
+        assertSameBytes(new MunicipalityDTOWriter().toByteArray(initial), initial);
+        final MunicipalityDTO empty = new MunicipalityDTO(id, null, null);
+        assertSameBytes(new MunicipalityDTOWriter().toByteArray(empty), empty);
+        final ServiceProviderDTO provider = new ServiceProviderDTO(id, special, "https://example.org/?a=1&b=2");
+        assertSameBytes(new ServiceProviderDTOWriter().toByteArray(provider), provider);
+        final ServiceProviderDTO unnamed = new ServiceProviderDTO(id, null, null);
+        assertSameBytes(new ServiceProviderDTOWriter().toByteArray(unnamed), unnamed);
+    }
+
+    /**
+     * Test that the arrays, numbers and nulls written by {@link JsonByteWriter} match Gson.
+     */
+    @Test
+    public void testByteWriter() {
+        final JsonByteWriter out = new JsonByteWriter(1);
+        out.beginArray().value(0).value(Long.MIN_VALUE).value(Long.MAX_VALUE).value(-42).nullValue();
+        out.beginArray().endArray().beginObject().endObject().value(special).endArray();
+        final Object[] expected = new Object[] {0L, Long.MIN_VALUE, Long.MAX_VALUE, -42L, null, new Object[0],
+            new Object(), special, };
+        Assert.assertEquals(out.toByteArray(), gson.toJson(expected).getBytes(StandardCharsets.UTF_8));
+        out.reset();
+        Assert.assertEquals(out.size(), 0);
+    }
+
+    /**
+     * Tests that the flushed chunks form the same document as the one written at once.
+     * @throws IOException
+     */
+    @Test
+    public void testByteWriterFlush() throws IOException {
+        final ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        final JsonByteWriter out = new JsonByteWriter();
+        out.beginArray().value("first");
+        out.flushTo(streamed);
+        Assert.assertEquals(out.size(), 0);
+        out.value("second").beginObject();
+        out.flushTo(streamed);
+        out.name("third").value(3).endObject().endArray();
+        out.flushTo(streamed);
+        Assert.assertEquals(streamed.toByteArray(), gson.toJson(new Object[] {"first", "second",
+            Collections.singletonMap("third", 3L), }).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Asserts that the given bytes are equal to the UTF-8 encoded Gson serialization of the given object.
+     * @param bytes The bytes to compare.
+     * @param object The object serialized by Gson.
+     */
+    protected void assertSameBytes(final byte[] bytes, final Object object) {
+        final String expected = gson.toJson(object);
+        Assert.assertEquals(bytes, expected.getBytes(StandardCharsets.UTF_8), expected);
+    }
+
 }
@@ -0,0 +1,170 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.rest.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpMethod;
+import org.springframework.webflow.execution.Event;
+import org.springframework.webflow.execution.RequestContext;
+
+import fi.mpass.shibboleth.profile.impl.AbstractAuthnFlowRestResponseAction;
+import fi.mpass.shibboleth.profile.impl.AuthnCatalog;
+import fi.mpass.shibboleth.profile.impl.BuildAuthnSourceRestResponse;
+import fi.mpass.shibboleth.profile.impl.BuildAuthnTagsRestResponse;
+import net.shibboleth.shared.component.ComponentInitializationException;
+
+/**
+ * Benchmarks for {@link BuildAuthnSourceRestResponse} and {@link BuildAuthnTagsRestResponse}, covering the
+ * successful responses as well as the unsupported language (400) and method (405) responses.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AuthnFlowActionBenchmark {
+
+    /** The number of active authentication flows. */
+    @Param({"1", "10", "100"})
+    private int flows;
+
+    /** The number of supported locales. */
+    @Param({"2", "8"})
+    private int locales;
+
+    /** The exchange for a successful request. */
+    private MockExchange success;
+
+    /** The exchange for a request with an unsupported language. */
+    private MockExchange badLanguage;
+
+    /** The exchange for a request with an unsupported method. */
+    private MockExchange badMethod;
+
+    /** The authentication sources action for a successful request. */
+    private BuildAuthnSourceRestResponse sourcesAction;
+
+    /** The authentication tags action for a successful request. */
+    private BuildAuthnTagsRestResponse tagsAction;
+
+    /** The authentication sources action for a request with an unsupported language. */
+    private BuildAuthnSourceRestResponse badLanguageAction;
+
+    /** The authentication sources action for a request with an unsupported method. */
+    private BuildAuthnSourceRestResponse badMethodAction;
+
+    /**
+     * Builds the catalog and the actions.
+     *
+     * @throws ComponentInitializationException If the catalog or the actions could not be initialized.
+     */
+    @Setup
+    public void setUp() throws ComponentInitializationException {
+        final AuthnCatalog catalog = CatalogFixture.build(flows, locales);
+        final String lastLanguage = CatalogFixture.getLanguages(locales).get(locales - 1);
+        success = new MockExchange(HttpMethod.GET, lastLanguage);
+        badLanguage = new MockExchange(HttpMethod.GET, "XX");
+        badMethod = new MockExchange(HttpMethod.POST, lastLanguage);
+        sourcesAction = initAction(new BuildAuthnSourceRestResponse(), catalog, success);
+        tagsAction = initAction(new BuildAuthnTagsRestResponse(), catalog, success);
+        badLanguageAction = initAction(new BuildAuthnSourceRestResponse(), catalog, badLanguage);
+        badMethodAction = initAction(new BuildAuthnSourceRestResponse(), catalog, badMethod);
+    }
+
+    /**
+     * Responds with the authentication sources.
+     *
+     * @return The event of the action.
+     */
+    @Benchmark
+    public Event sources() {
+        success.resetResponse();
+        return sourcesAction.execute((RequestContext) null);
+    }
+
+    /**
+     * Responds with the authentication tags.
+     *
+     * @return The event of the action.
+     */
+    @Benchmark
+    public Event tags() {
+        success.resetResponse();
+        return tagsAction.execute((RequestContext) null);
+    }
+
+    /**
+     * Responds to a request with an unsupported language.
+     *
+     * @return The event of the action.
+     */
+    @Benchmark
+    public Event sourcesUnsupportedLanguage() {
+        badLanguage.resetResponse();
+        return badLanguageAction.execute((RequestContext) null);
+    }
+
+    /**
+     * Responds to a request with an unsupported method.
+     *
+     * @return The event of the action.
+     */
+    @Benchmark
+    public Event sourcesUnsupportedMethod() {
+        badMethod.resetResponse();
+        return badMethodAction.execute((RequestContext) null);
+    }
+
+    /**
+     * Wires and initializes the given action.
+     *
+     * @param <T> The type of the action.
+     * @param action The action.
+     * @param catalog The catalog for the action.
+     * @param exchange The exchange for the action.
+     * @return The initialized action.
+     * @throws ComponentInitializationException If the action could not be initialized.
+     */
+    private <T extends AbstractAuthnFlowRestResponseAction> T initAction(final T action, final AuthnCatalog catalog,
+            final MockExchange exchange) throws ComponentInitializationException {
+        action.setCatalog(catalog);
+        action.setHttpServletRequestSupplier(exchange.getRequestSupplier());
+        action.setHttpServletResponseSupplier(exchange.getResponseSupplier());
+        action.initialize();
+        return action;
+    }
+}
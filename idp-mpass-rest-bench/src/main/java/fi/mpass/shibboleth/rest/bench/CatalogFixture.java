@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.rest.bench;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.StringJoiner;
+
+import org.springframework.context.support.StaticMessageSource;
+
+import fi.mpass.shibboleth.profile.impl.AuthnCatalog;
+import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
+import net.shibboleth.idp.saml.authn.principal.AuthnContextClassRefPrincipal;
+import net.shibboleth.shared.component.ComponentInitializationException;
+
+/**
+ * Builds {@link AuthnCatalog}s of synthetic authentication flows for the benchmarks.
+ */
+public final class CatalogFixture {
+
+    /** The language codes used for the locales, in order. */
+    private static final List<String> LANGUAGES = Arrays.asList("FI", "SV", "EN", "DE", "FR", "ES", "IT", "NO");
+
+    /** The number of distinct tags spread over the flows. */
+    private static final int TAG_COUNT = 8;
+
+    /** Constructor. */
+    private CatalogFixture() {
+    }
+
+    /**
+     * Get the supported language codes for the given number of locales.
+     *
+     * @param locales The number of locales, at most eight.
+     * @return The language codes.
+     */
+    public static List<String> getLanguages(final int locales) {
+        return LANGUAGES.subList(0, locales);
+    }
+
+    /**
+     * Builds and initializes a catalog with the given number of flows and locales. Each flow has two of the
+     * tags and a localized title and icon URL in each locale.
+     *
+     * @param flowCount The number of active authentication flows.
+     * @param locales The number of supported locales, at most eight.
+     * @return The initialized catalog.
+     * @throws ComponentInitializationException If the catalog could not be initialized.
+     */
+    public static AuthnCatalog build(final int flowCount, final int locales)
+            throws ComponentInitializationException {
+        final StaticMessageSource messageSource = new StaticMessageSource();
+        final Properties additionalInfo = new Properties();
+        for (final String language : getLanguages(locales)) {
+            final Locale locale = Locale.forLanguageTag(language);
+            for (int i = 0; i < flowCount; i++) {
+                messageSource.addMessage("source" + i + ".title", locale, "Lähde " + i + " (" + language + ")");
+                messageSource.addMessage("source" + i + ".iconUrl", locale,
+                        "https://example.org/" + language + "/source" + i + ".png");
+            }
+            for (int i = 0; i < TAG_COUNT; i++) {
+                messageSource.addMessage("tag.tag" + i, locale, "Tägi " + i + " (" + language + ")");
+            }
+        }
+        for (int i = 0; i < TAG_COUNT; i++) {
+            additionalInfo.setProperty("tag" + i + ".title", "tag.tag" + i);
+        }
+        final List<AuthenticationFlowDescriptor> flows = new ArrayList<>();
+        final StringJoiner activeFlowIds = new StringJoiner("|");
+        for (int i = 0; i < flowCount; i++) {
+            final AuthenticationFlowDescriptor flow = new AuthenticationFlowDescriptor();
+            flow.setId("authn/source" + i);
+            final List<Principal> principals = new ArrayList<>();
+            principals.add(new AuthnContextClassRefPrincipal("urn:mpass.id:authntag:tag" + i % TAG_COUNT));
+            principals.add(new AuthnContextClassRefPrincipal("urn:mpass.id:authntag:tag" + (i + 1) % TAG_COUNT));
+            flow.setSupportedPrincipals(principals);
+            flows.add(flow);
+            activeFlowIds.add("source" + i);
+            if (i % 2 == 0) {
+                additionalInfo.setProperty("source" + i + ".isRegistry", "true");
+            }
+        }
+        final AuthnCatalog catalog = new AuthnCatalog();
+        catalog.setId("benchmarkCatalog");
+        catalog.setMessageSource(messageSource);
+        catalog.setAdditionalInfo(additionalInfo);
+        catalog.setSupportedLocales(getLanguages(locales));
+        catalog.setActiveFlowIds(activeFlowIds.toString());
+        catalog.setFlows(flows);
+        catalog.initialize();
+        return catalog;
+    }
+}
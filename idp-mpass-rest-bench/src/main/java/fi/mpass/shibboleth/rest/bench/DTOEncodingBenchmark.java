@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.rest.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+
+import fi.mpass.shibboleth.rest.data.AuthnSourceDTO;
+import fi.mpass.shibboleth.rest.data.ErrorDTO;
+import fi.mpass.shibboleth.rest.data.json.AuthnSourceDTOWriter;
+import fi.mpass.shibboleth.rest.data.json.DTOWriter;
+import fi.mpass.shibboleth.rest.data.json.ErrorDTOWriter;
+import fi.mpass.shibboleth.rest.data.json.JsonByteWriter;
+
+/**
+ * Benchmarks for encoding the DTOs into UTF-8 JSON, with Gson and with the streaming writers of the api module.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DTOEncodingBenchmark {
+
+    /** The writer for the authentication sources. */
+    private static final DTOWriter<AuthnSourceDTO> SOURCE_WRITER = new AuthnSourceDTOWriter();
+
+    /** The writer for the errors. */
+    private static final DTOWriter<ErrorDTO> ERROR_WRITER = new ErrorDTOWriter();
+
+    /** The number of authentication sources in the list. */
+    @Param({"1", "10", "100"})
+    private int sources;
+
+    /** The authentication sources to encode. */
+    private List<AuthnSourceDTO> sourceList;
+
+    /** The error to encode. */
+    private ErrorDTO error;
+
+    /** The shared Gson instance. */
+    private Gson gson;
+
+    /**
+     * Builds the objects to encode.
+     */
+    @Setup
+    public void setUp() {
+        sourceList = new ArrayList<>();
+        for (int i = 0; i < sources; i++) {
+            sourceList.add(new AuthnSourceDTO("source" + i, "Lähde " + i, Arrays.asList("school", "city"),
+                    "https://example.org/source" + i + ".png", i % 2 == 0, true, false));
+        }
+        error = new ErrorDTO();
+        error.setCode(400);
+        error.setMessage("Language 'XX' not supported");
+        error.setFields("Supported languages: [FI, SV]");
+        gson = new Gson();
+    }
+
+    /**
+     * Encodes the authentication sources with a new Gson instance, like the actions originally did.
+     *
+     * @return The encoded sources.
+     */
+    @Benchmark
+    public byte[] sourcesNewGson() {
+        return new Gson().toJson(sourceList).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes the authentication sources with a shared Gson instance.
+     *
+     * @return The encoded sources.
+     */
+    @Benchmark
+    public byte[] sourcesSharedGson() {
+        return gson.toJson(sourceList).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes the authentication sources with the streaming writer.
+     *
+     * @return The encoded sources.
+     */
+    @Benchmark
+    public byte[] sourcesWriter() {
+        final JsonByteWriter out = new JsonByteWriter();
+        out.beginArray();
+        for (final AuthnSourceDTO source : sourceList) {
+            SOURCE_WRITER.write(out, source);
+        }
+        out.endArray();
+        return out.toByteArray();
+    }
+
+    /**
+     * Encodes the error with a new Gson instance, like the actions originally did.
+     *
+     * @return The encoded error.
+     */
+    @Benchmark
+    public byte[] errorNewGson() {
+        return new Gson().toJson(error).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes the error with the streaming writer.
+     *
+     * @return The encoded error.
+     */
+    @Benchmark
+    public byte[] errorWriter() {
+        return ERROR_WRITER.toByteArray(error);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.rest.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpMethod;
+import org.springframework.webflow.execution.Event;
+import org.springframework.webflow.execution.RequestContext;
+
+import fi.mpass.shibboleth.profile.impl.BuildMetaRestResponse;
+import fi.mpass.shibboleth.rest.data.MetaDTO;
+import net.shibboleth.shared.component.ComponentInitializationException;
+
+/**
+ * Benchmarks for {@link BuildMetaRestResponse}, covering the successful and the unsupported method (405)
+ * responses.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MetaActionBenchmark {
+
+    /** The exchange for a successful request. */
+    private MockExchange success;
+
+    /** The exchange for a request with an unsupported method. */
+    private MockExchange badMethod;
+
+    /** The action for a successful request. */
+    private BuildMetaRestResponse successAction;
+
+    /** The action for a request with an unsupported method. */
+    private BuildMetaRestResponse badMethodAction;
+
+    /**
+     * Builds the actions.
+     *
+     * @throws ComponentInitializationException If the actions could not be initialized.
+     */
+    @Setup
+    public void setUp() throws ComponentInitializationException {
+        success = new MockExchange(HttpMethod.GET, null);
+        badMethod = new MockExchange(HttpMethod.POST, null);
+        successAction = initAction(success);
+        badMethodAction = initAction(badMethod);
+    }
+
+    /**
+     * Responds with the meta information.
+     *
+     * @return The event of the action.
+     */
+    @Benchmark
+    public Event meta() {
+        success.resetResponse();
+        return successAction.execute((RequestContext) null);
+    }
+
+    /**
+     * Responds to a request with an unsupported method.
+     *
+     * @return The event of the action.
+     */
+    @Benchmark
+    public Event metaUnsupportedMethod() {
+        badMethod.resetResponse();
+        return badMethodAction.execute((RequestContext) null);
+    }
+
+    /**
+     * Builds, wires and initializes an action.
+     *
+     * @param exchange The exchange for the action.
+     * @return The initialized action.
+     * @throws ComponentInitializationException If the action could not be initialized.
+     */
+    private BuildMetaRestResponse initAction(final MockExchange exchange) throws ComponentInitializationException {
+        final MetaDTO metaDTO = new MetaDTO();
+        metaDTO.setId("mpassid");
+        metaDTO.setSamlEntityId("https://mpass-proxy.csc.fi/idp/shibboleth");
+        metaDTO.setSamlMetadataUrl("https://mpass-proxy.csc.fi/idp/shibboleth");
+        metaDTO.setName("MPASSid");
+        metaDTO.setOrganization("Opetushallitus");
+        metaDTO.setCountryCode("fi");
+        metaDTO.setServiceDescription("Oppilaiden ja opettajien tunnistuspalvelu");
+        metaDTO.setContactEmail("mpass@example.org");
+        final BuildMetaRestResponse action = new BuildMetaRestResponse();
+        action.setMetaDTO(metaDTO);
+        action.setHttpServletRequestSupplier(exchange.getRequestSupplier());
+        action.setHttpServletResponseSupplier(exchange.getResponseSupplier());
+        action.initialize();
+        return action;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.rest.bench;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import net.shibboleth.shared.primitive.NonnullSupplier;
+
+/**
+ * A mock HTTP request and response pair wired to the actions, like in the unit tests. The response is reset
+ * and reused between the invocations, so that its allocation is not measured.
+ */
+public class MockExchange {
+
+    /** The HTTP request. */
+    private final MockHttpServletRequest request;
+
+    /** The HTTP response. */
+    private final MockHttpServletResponse response;
+
+    /**
+     * Constructor.
+     *
+     * @param method The HTTP method of the request.
+     * @param lang The value for the lang parameter, or null if not set.
+     */
+    public MockExchange(final HttpMethod method, final String lang) {
+        request = new MockHttpServletRequest();
+        request.setMethod(method.toString());
+        if (lang != null) {
+            request.setParameter("lang", lang);
+        }
+        response = new MockHttpServletResponse();
+    }
+
+    /**
+     * Get the HTTP request.
+     *
+     * @return The HTTP request.
+     */
+    public MockHttpServletRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * Get the HTTP response, reset for the next invocation.
+     *
+     * @return The HTTP response.
+     */
+    public MockHttpServletResponse resetResponse() {
+        response.setCommitted(false);
+        response.reset();
+        return response;
+    }
+
+    /**
+     * Get the supplier for the HTTP request.
+     *
+     * @return The supplier for the HTTP request.
+     */
+    public NonnullSupplier<HttpServletRequest> getRequestSupplier() {
+        return new NonnullSupplier<HttpServletRequest>() {
+
+            @Override
+            public HttpServletRequest get() {
+                return request;
+            }
+        };
+    }
+
+    /**
+     * Get the supplier for the HTTP response.
+     *
+     * @return The supplier for the HTTP response.
+     */
+    public NonnullSupplier<HttpServletResponse> getResponseSupplier() {
+        return new NonnullSupplier<HttpServletResponse>() {
+
+            @Override
+            public HttpServletResponse get() {
+                return response;
+            }
+        };
+    }
+}
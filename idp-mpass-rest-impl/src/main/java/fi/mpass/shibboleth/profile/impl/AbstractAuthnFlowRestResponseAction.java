@@ -21,275 +21,104 @@
  * THE SOFTWARE.
  */
 
+
 package fi.mpass.shibboleth.profile.impl;
 
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.security.Principal;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.Properties;
-import java.util.StringTokenizer;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
 import jakarta.servlet.http.HttpServletRequest;
-import jakarta.servlet.http.HttpServletResponse;
 
 import org.apache.http.HttpStatus;
 import org.opensaml.profile.action.EventIds;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.context.MessageSource;
-import org.springframework.http.HttpMethod;
 import org.springframework.webflow.execution.Event;
 import org.springframework.webflow.execution.RequestContext;
 
-import com.google.gson.Gson;
-
-import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
 import net.shibboleth.idp.profile.ActionSupport;
+import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
 import net.shibboleth.shared.component.ComponentInitializationException;
 import net.shibboleth.shared.logic.Constraint;
-import net.shibboleth.shared.primitive.StringSupport;
 
 /**
- * A base class for REST actions dealing with authentication flows.
+ * A base class for REST actions dealing with authentication flows. The contents are served from the shared
+ * {@link AuthnCatalog}.
  */
 public abstract class AbstractAuthnFlowRestResponseAction extends AbstractRestResponseAction {
     
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(AbstractAuthnFlowRestResponseAction.class);
 
-    /** All the configured authentication flows to filter from. */
-    private List<AuthenticationFlowDescriptor> flows;
-    
-    /** The list of ids of the active flows. */
-    private List<String> activeFlowIds;
-    
-    /** The list of ids of the flows to be ignored. */
-    private List<String> ignoredFlowIds;
-    
-    /** The complementary information for the authentication tags. */
-    private Properties additionalInfo;
-    
-    /** The message source containing localized messages. */
-    private MessageSource messageSource;
-    
-    /** The list of supported locales (parseable by {@link Locale.forLanguageTag(String)}). */
-    private List<String> supportedLocales;
-    
-    /**
-     * Set all the configured authentication flows to filter from.
-     * @param allFlows What to set.
-     */
-    public void setFlows(final List<AuthenticationFlowDescriptor> allFlows) {
-        flows = Constraint.isNotNull(allFlows, "The list of flows cannot be null!");
-    }
-    
-    /**
-     * Set the list of supported locales (parseable by {@link Locale.forLanguageTag(String)}).
-     * @param locales What to set.
-     */
-    public void setSupportedLocales(final List<String> locales) {
-        Constraint.isNotEmpty(locales, "The list of supported locales cannot be empty");
-        supportedLocales = new ArrayList<String>();
-        for (final String locale : locales) {
-            supportedLocales.add(locale.toUpperCase());
-        }
-    }
-    
-    /**
-     * Get the list of supported locales (parseable by {@link Locale.forLanguageTag(String)}).
-     * @return The list of supported locales (parseable by {@link Locale.forLanguageTag(String)}). 5tvc 
-     */
-    protected List<String> getSupportedLocales() {
-        return supportedLocales;
-    }
-    
-    /**
-     * Get all the configured authentication flows to filter from.
-     * @return All the configured authentication flows to filter from.
-     */
-    protected List<AuthenticationFlowDescriptor> getFlows() {
-        return flows;
-    }
-    
-    /**
-     * Set the list of ids of the active flows.
-     * @param flowIds What to set (<pre>|</pre> -separated list of flow ids)
-     */
-    public void setActiveFlowIds(final String flowIds) {
-        activeFlowIds = new ArrayList<String>();
-        log.trace("{} Processing {}", getLogPrefix(), flowIds);
-        if (flowIds != null) {
-            final StringTokenizer tokenizer = new StringTokenizer(flowIds, "|");
-            while (tokenizer.hasMoreTokens()) {
-                final String flowId = tokenizer.nextToken();
-                log.debug("{} Set flow {} as active", getLogPrefix(), flowId);
-                activeFlowIds.add(flowId);
-            }
-        } else {
-            log.warn("{} No authentication flows configured to be active", getLogPrefix());
-        }
-    }
-    
-    /**
-     * Get the list of ids of the active flows.
-     * @return The list of ids of the active flows.
-     */
-    protected List<String> getActiveFlowIds() {
-        return activeFlowIds;
-    }
-    
-    /**
-     * Set the complementary information for the authentication flows.
-     * @param properties What to set.
-     */
-    public void setAdditionalInfo(final Properties properties) {
-        additionalInfo = Constraint.isNotNull(properties, "The additional info properties cannot be null!");
-    }
-    
-    /**
-     * Get the complementary information for the authentication flows.
-     * @return The complementary information for the authentication flows.
-     */
-    protected Properties getAdditionalInfo() {
-        return additionalInfo;
-    }
-    
-    /**
-     * Set the list of ids of the flows to be ignored.
-     * @param flowIds What to set.
-     */
-    public void setIgnoredFlowIds(final List<String> flowIds) {
-        ignoredFlowIds = flowIds;
-    }
-    
-    /**
-     * Checks if the given flow exists in the list of ignored flows.
-     * @param flow The flow to be checked.
-     * @param flowId The (stripped) flow id to be checked.
-     * @return true if it exists, false otherwise.
-     */
-    protected boolean isIgnoredFlow(final AuthenticationFlowDescriptor flow, final String flowId) {
-        final Collection<Principal> principals = flow.getSupportedPrincipals();
-        if (principals == null || principals.isEmpty()) {
-            log.trace("{} Empty set of supported principals for {}, will be ignored", getLogPrefix(), flowId);
-            return true;
-        }
-        boolean mpassPrincipalFound = false;
-        for (final Principal principal : principals) {
-            if (principal.getName().startsWith("urn:mpass.id:")) {
-                mpassPrincipalFound = true;
-            }
-        }
-        if (!mpassPrincipalFound) {
-            return true;
-        }
-        if (ignoredFlowIds == null || ignoredFlowIds.isEmpty()) {
-            return false;
-        }
-        return ignoredFlowIds.contains(flowId);
-    } 
-    
-    /**
-     * Set the message source containing localized messages.
-     * @param source What to set.
-     */
-    public void setMessageSource(final MessageSource source) {
-        messageSource = Constraint.isNotNull(source, "The message source cannot be null");
-    }
+    /** The catalog of the authentication sources and tags. */
+    @NonnullAfterInit private AuthnCatalog catalog;
 
+    /** The responder sharing the request handling with {@link AuthnCatalogFilter}. */
+    @NonnullAfterInit private AuthnCatalogResponder responder;
+    
     /**
-     * Get the message source containing localized messages.
-     * @return The message source containing localized messages.
+     * Set the catalog of the authentication sources and tags.
+     * @param authnCatalog What to set.
      */
-    protected MessageSource getMessageSource() {
-        return messageSource;
+    public void setCatalog(@Nonnull final AuthnCatalog authnCatalog) {
+        checkSetterPreconditions();
+        catalog = Constraint.isNotNull(authnCatalog, "The authentication catalog cannot be null");
     }
     
     /**
-     * Gets the list of tags for the given flow. They are parsed from the list of supported principals of the flow.
-     * 
-     * @param flow The authentication flow.
-     * @param id The authentication flow identifier.
-     * @return The list of tags.
+     * Get the catalog of the authentication sources and tags.
+     * @return The catalog of the authentication sources and tags.
      */
-    protected List<String> getTags(final AuthenticationFlowDescriptor flow, final String id) {
-        final List<String> tags = new ArrayList<>();
-        for (final Principal principal : flow.getSupportedPrincipals()) {
-            final String name = principal.getName();
-            if (name.startsWith("urn:mpass.id:authntag:")) {
-                final String strippedName = 
-                        name.substring(("urn:mpass.id:authntag:").length());
-                tags.add(strippedName);
-                log.debug("{} Added {} as a tag for {}", getLogPrefix(), strippedName, id);
-            } else {
-                log.trace("{} Ignoring {} from the list of tags", getLogPrefix(), name);
-            }
-        }
-        return tags;
+    @NonnullAfterInit protected AuthnCatalog getCatalog() {
+        return catalog;
     }
     
     /** {@inheritDoc} */
     @Override
-    @Nonnull public Event execute(@Nonnull final RequestContext springRequestContext) {
-        ifNotInitializedThrowUninitializedComponentException();
-        final HttpServletRequest httpRequest = getHttpServletRequest();
-        final String lang = (StringSupport.trimOrNull(httpRequest.getParameter("lang")) == null) 
-                ? supportedLocales.get(0) : StringSupport.trim(httpRequest.getParameter("lang")).toUpperCase();
-        pushHttpResponseProperties();
-        final HttpServletResponse httpResponse = getHttpServletResponse();
-        
+    @Nonnull protected Event buildResponse(@Nonnull final RequestContext springRequestContext) {
         try {
-            final Writer out = new OutputStreamWriter(httpResponse.getOutputStream(), "UTF-8");
-            
-            if (!HttpMethod.GET.toString().equals(httpRequest.getMethod())) {
-                log.warn("{}: Unsupported method attempted {}", getLogPrefix(), httpRequest.getMethod());
-                out.append(makeErrorResponse(HttpStatus.SC_METHOD_NOT_ALLOWED, httpRequest.getMethod()
-                        + " not allowed", "Only GET is allowed"));
-            } else if (!getSupportedLocales().contains(lang)) {
-                log.warn("{}: Unsupported language attempted {}", getLogPrefix(), lang);
-                out.append(makeErrorResponse(HttpStatus.SC_BAD_REQUEST, "Language '" + lang + "' not supported", 
-                        "Supported languages: " + supportedLocales));
-            } else {
-                final Object response = getResponse(lang);
-                if (response != null) {
-                    final Gson gson = new Gson();
-                    final LocalizedResponse localizedResponse = new LocalizedResponse();
-                    localizedResponse.setLang(lang);
-                    localizedResponse.setResponse(response);
-                    out.append(gson.toJson(localizedResponse));
-                    httpResponse.setStatus(HttpStatus.SC_OK);
-                } else {
-                    out.append(makeErrorResponse(HttpStatus.SC_NOT_IMPLEMENTED,
-                            "Not implemented on the server side", ""));
-                }
-            }
-            out.flush();
+            responder.respond(getHttpServletRequest(), getHttpServletResponse());
         } catch (IOException e) {
-            log.error("{}: Could not encode the JSON response", getLogPrefix(), e);
-            httpResponse.setStatus(HttpStatus.SC_SERVICE_UNAVAILABLE);
+            log.error("{}: Could not write the JSON response", getLogPrefix(), e);
+            getHttpServletResponse().setStatus(HttpStatus.SC_SERVICE_UNAVAILABLE);
             return ActionSupport.buildEvent(this, EventIds.IO_ERROR);
         }
         return ActionSupport.buildProceedEvent(this);
     }
     
+    /** {@inheritDoc} */
+    @Override
+    @Nullable protected String getMetricsLocale(@Nonnull final HttpServletRequest httpRequest) {
+        return responder.getMetricsLocale(httpRequest);
+    }
+
+    /**
+     * Get the supported locale negotiated for the given request, see {@link LanguageNegotiator}.
+     * @param httpRequest The HTTP request.
+     * @return The negotiated locale, or null if the requested language parameter is not supported.
+     */
+    @Nullable protected String getRequestedLanguage(@Nonnull final HttpServletRequest httpRequest) {
+        return responder.getRequestedLanguage(httpRequest);
+    }
+
     /**
-     * Get the response object corresponding to the given language to be returned if not null.
+     * Get the encoded list corresponding to the given request and language to be returned if not null.
+     * @param httpRequest The HTTP request.
      * @param lang the language code.
-     * @return The response object to be returned if not null.
+     * @return The encoded list to be returned if not null.
      */
-    protected abstract Object getResponse(final String lang);
+    @Nullable protected abstract EncodedList getEncodedList(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final String lang);
     
     /** {@inheritDoc} */
     @Override
     protected void doInitialize() throws ComponentInitializationException {
         super.doInitialize();
-        if (messageSource == null) {
-            throw new ComponentInitializationException("The message source cannot be null");
+        if (catalog == null) {
+            throw new ComponentInitializationException("The authentication catalog cannot be null");
         }
+        responder = new AuthnCatalogResponder(catalog, this::getEncodedList, getResponseWriter(), getLogPrefix());
     }
-    }
+}
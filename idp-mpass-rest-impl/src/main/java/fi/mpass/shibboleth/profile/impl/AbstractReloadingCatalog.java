@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.time.Duration;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.shared.component.AbstractIdentifiableInitializableComponent;
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * Base class for the catalogs that are reloaded periodically in the background.
+ * 
+ * <p>If a reload check delay is configured, {@link #checkReload()} is run by a timer task once the subclass has
+ * called {@link #scheduleReloadChecks()} at the end of its initialization. Unless a timer is given, a daemon timer
+ * is created for the component. The task, and the timer created by the component, are cancelled when the
+ * component is destroyed.</p>
+ */
+public abstract class AbstractReloadingCatalog extends AbstractIdentifiableInitializableComponent {
+
+    /** The delay between the reload checks, zero or negative to disable the reloading. */
+    @Nonnull private Duration reloadCheckDelay;
+
+    /** The timer used for scheduling the reload checks. */
+    @Nullable private Timer reloadTaskTimer;
+
+    /** Whether the timer was created by this component. */
+    private boolean ownTimer;
+
+    /** The scheduled reload check task. */
+    @Nullable private TimerTask reloadTask;
+
+    /** Constructor. */
+    protected AbstractReloadingCatalog() {
+        reloadCheckDelay = Duration.ZERO;
+    }
+
+    /**
+     * Set the delay between the reload checks. Zero (default) disables the reloading.
+     * @param delay What to set.
+     */
+    public void setReloadCheckDelay(@Nonnull final Duration delay) {
+        checkSetterPreconditions();
+        reloadCheckDelay = Constraint.isNotNull(delay, "The reload check delay cannot be null");
+    }
+
+    /**
+     * Set the timer used for scheduling the reload checks. If not set, a daemon timer is created when needed.
+     * @param timer What to set.
+     */
+    public void setReloadTaskTimer(@Nullable final Timer timer) {
+        checkSetterPreconditions();
+        reloadTaskTimer = timer;
+    }
+
+    /**
+     * Schedules the periodic reload checks, if a reload check delay is configured. Called by the subclasses once
+     * the initial content has been loaded.
+     */
+    protected void scheduleReloadChecks() {
+        if (reloadCheckDelay.isZero() || reloadCheckDelay.isNegative()) {
+            return;
+        }
+        if (reloadTaskTimer == null) {
+            reloadTaskTimer = new Timer(getClass().getSimpleName() + "Reloader-" + getId(), true);
+            ownTimer = true;
+        }
+        reloadTask = new TimerTask() {
+            @Override
+            public void run() {
+                checkReload();
+            }
+        };
+        reloadTaskTimer.schedule(reloadTask, reloadCheckDelay.toMillis(), reloadCheckDelay.toMillis());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (reloadTask != null) {
+            reloadTask.cancel();
+            reloadTask = null;
+        }
+        if (ownTimer) {
+            reloadTaskTimer.cancel();
+            reloadTaskTimer = null;
+            ownTimer = false;
+        }
+        super.doDestroy();
+    }
+
+    /**
+     * Checks whether the content has been modified, and if so, reloads it. Run by the reload task; the failures
+     * are expected to be handled by keeping the previous content.
+     */
+    protected abstract void checkReload();
+
+}
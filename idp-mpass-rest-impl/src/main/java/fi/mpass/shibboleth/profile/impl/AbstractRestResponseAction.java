@@ -24,31 +24,102 @@
 package fi.mpass.shibboleth.profile.impl;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
+import org.apache.http.HttpStatus;
+import org.opensaml.profile.action.EventIds;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-
-import com.google.gson.Gson;
+import org.springframework.http.HttpMethod;
+import org.springframework.webflow.execution.Event;
+import org.springframework.webflow.execution.RequestContext;
 
 import fi.mpass.shibboleth.rest.data.ErrorDTO;
 import net.shibboleth.idp.profile.AbstractProfileAction;
-import net.shibboleth.shared.servlet.HttpServletSupport;
-
-import com.google.common.net.MediaType;
+import net.shibboleth.idp.profile.ActionSupport;
+import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.Constraint;
+import net.shibboleth.shared.primitive.StringSupport;
+import net.shibboleth.shared.security.AccessControlService;
 
 /**
  * A base class for actions publishing JSON information.
+ * 
+ * <p>If {@link ApiMetrics} is set, the status code, latency and body size of each response are recorded
+ * for the configured endpoint.</p>
+ * 
+ * <p>The cross-origin requests are allowed according to the configured CORS settings, see {@link CorsPolicy}. The
+ * OPTIONS requests are answered by {@link AnswerOptionsRequest} before the profile request context is created.</p>
+ * 
+ * <p>If {@link RateLimiter} is set, the clients exceeding their rate are answered with 429 before the response is
+ * built.</p>
+ * 
+ * <p>If an access control policy is set, the clients denied by the policy are answered with 403 before the rate
+ * is checked.</p>
  */
-public class AbstractRestResponseAction extends AbstractProfileAction {
+public abstract class AbstractRestResponseAction extends AbstractProfileAction {
 
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(AbstractRestResponseAction.class);
-    
+
     /** The additional headers to be added to the HTTP response. */
     protected Map<String, String> additionalHeaders;
     
+    /** The registry of the endpoint metrics. */
+    @Nullable private ApiMetrics metrics;
+
+    /** The identifier of the endpoint in the metrics. */
+    @Nullable private String metricsEndpointId;
+
+    /** Whether the encoded responses are written with the non-blocking I/O when supported. */
+    private boolean asyncWriting;
+
+    /** The maximum time to write a response with the non-blocking I/O, zero for no limit. */
+    @Nonnull private Duration asyncWriteTimeout = AsyncBodyWriter.DEFAULT_TIMEOUT;
+
+    /** The cache policy of the validated responses, or null if they are not stored. */
+    @Nullable private CachePolicy cachePolicy;
+
+    /** The origins allowed to read the responses, or {@value CorsPolicy#ANY_ORIGIN} for any origin. */
+    @Nullable private List<String> corsAllowedOrigins;
+
+    /** The allowed methods of the cross-origin requests. */
+    @Nonnull private List<String> corsAllowedMethods = Collections.singletonList(HttpMethod.GET.name());
+
+    /** The allowed request headers of the cross-origin requests. */
+    @Nullable private List<String> corsAllowedHeaders;
+
+    /** How long the browsers may cache the preflight responses. */
+    @Nonnull private Duration corsMaxAge = Duration.ofHours(1);
+
+    /** The CORS policy of this endpoint. */
+    @NonnullAfterInit private CorsPolicy corsPolicy;
+
+    /** The service of the access control policies, or null if the access is not restricted. */
+    @Nullable private AccessControlService accessControlService;
+
+    /** The name of the access control policy of this endpoint. */
+    @Nullable private String accessPolicy;
+
+    /** The rate limiter of this endpoint, or null if not limited. */
+    @Nullable private RateLimiter rateLimiter;
+
+    /** The metrics of this endpoint, null if not recorded. */
+    @Nullable private EndpointMetrics endpointMetrics;
+
+    /** The writer for the responses of this endpoint. */
+    @NonnullAfterInit private RestResponseWriter responseWriter;
+
     /**
      * Set the additional headers to be added to the HTTP response.
      * @param headers What to set.
@@ -56,83 +127,256 @@ public class AbstractRestResponseAction extends AbstractProfileAction {
     public void setAdditionalHeaders(final Map<String, String> headers) {
         additionalHeaders = headers;
     }
+
+    /**
+     * Set the registry of the endpoint metrics, if the responses are to be recorded.
+     * @param apiMetrics What to set.
+     */
+    public void setMetrics(@Nullable final ApiMetrics apiMetrics) {
+        checkSetterPreconditions();
+        metrics = apiMetrics;
+    }
+
+    /**
+     * Set the identifier of the endpoint in the metrics. Required if the metrics are set.
+     * @param id What to set.
+     */
+    public void setMetricsEndpointId(@Nullable final String id) {
+        checkSetterPreconditions();
+        metricsEndpointId = id;
+    }
+
+    /**
+     * Set whether the response bodies are written with the non-blocking I/O of the Servlet async API, releasing
+     * the container thread before the body has been sent. The blocking I/O is used for the requests not supporting
+     * the async mode. Default is false.
+     * @param flag What to set.
+     */
+    public void setAsyncWriting(final boolean flag) {
+        checkSetterPreconditions();
+        asyncWriting = flag;
+    }
+
+    /**
+     * Set the maximum time to write a response with the non-blocking I/O, zero for no limit. The response is
+     * completed when the time expires. Replaces the default async timeout of the container, which is typically too
+     * short for the slow clients. Default is five minutes.
+     * @param timeout What to set.
+     */
+    public void setAsyncWriteTimeout(@Nonnull final Duration timeout) {
+        checkSetterPreconditions();
+        Constraint.isNotNull(timeout, "The write timeout cannot be null");
+        Constraint.isFalse(timeout.isNegative(), "The write timeout cannot be negative");
+        asyncWriteTimeout = timeout;
+    }
+
+    /**
+     * Set the cache policy of the validated responses of this endpoint. Default is none, i.e. the responses may
+     * be stored by the clients only if revalidated before each use.
+     * @param policy What to set.
+     */
+    public void setCachePolicy(@Nullable final CachePolicy policy) {
+        checkSetterPreconditions();
+        cachePolicy = policy;
+    }
+
+    /**
+     * Set the origins allowed to read the responses, or {@value CorsPolicy#ANY_ORIGIN} for any origin. Default is
+     * none, i.e. no CORS headers are added.
+     * @param origins What to set.
+     */
+    public void setCorsAllowedOrigins(@Nullable final List<String> origins) {
+        checkSetterPreconditions();
+        corsAllowedOrigins = origins;
+    }
+
+    /**
+     * Set the allowed methods of the cross-origin requests. Default is GET.
+     * @param methods What to set.
+     */
+    public void setCorsAllowedMethods(@Nonnull final List<String> methods) {
+        checkSetterPreconditions();
+        corsAllowedMethods = Constraint.isNotEmpty(methods, "The list of allowed methods cannot be empty");
+    }
+
+    /**
+     * Set the allowed request headers of the cross-origin requests, in addition to the CORS-safelisted ones.
+     * Default is none.
+     * @param headers What to set.
+     */
+    public void setCorsAllowedHeaders(@Nullable final List<String> headers) {
+        checkSetterPreconditions();
+        corsAllowedHeaders = headers;
+    }
+
+    /**
+     * Set how long the browsers may cache the preflight responses. Default is one hour.
+     * @param maxAge What to set.
+     */
+    public void setCorsMaxAge(@Nonnull final Duration maxAge) {
+        checkSetterPreconditions();
+        corsMaxAge = Constraint.isNotNull(maxAge, "The maximum age cannot be null");
+    }
+
+    /**
+     * Set the rate limiter of this endpoint, if the requests of each client are to be limited. Default is none.
+     * @param limiter What to set.
+     */
+    public void setRateLimiter(@Nullable final RateLimiter limiter) {
+        checkSetterPreconditions();
+        rateLimiter = limiter;
+    }
+
+    /**
+     * Set the service of the access control policies, if the access to this endpoint is to be restricted.
+     * Default is none.
+     * @param service What to set.
+     */
+    public void setAccessControlService(@Nullable final AccessControlService service) {
+        checkSetterPreconditions();
+        accessControlService = service;
+    }
+
+    /**
+     * Set the name of the access control policy of this endpoint, e.g. AccessByIPAddress. Required if the service
+     * of the access control policies is set.
+     * @param name What to set.
+     */
+    public void setAccessPolicy(@Nullable final String name) {
+        checkSetterPreconditions();
+        accessPolicy = StringSupport.trimOrNull(name);
+    }
+
+    /**
+     * Get the CORS policy of this endpoint.
+     * @return The CORS policy of this endpoint.
+     */
+    @NonnullAfterInit public CorsPolicy getCorsPolicy() {
+        return corsPolicy;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        corsPolicy = new CorsPolicy(corsAllowedOrigins, corsAllowedMethods, corsAllowedHeaders, corsMaxAge);
+        if (accessControlService != null && accessPolicy == null) {
+            throw new ComponentInitializationException("The access control policy cannot be empty");
+        }
+        if (metrics != null) {
+            if (metricsEndpointId == null || metricsEndpointId.isEmpty()) {
+                throw new ComponentInitializationException("The metrics endpoint identifier cannot be empty");
+            }
+            endpointMetrics = metrics.getEndpoint(metricsEndpointId);
+        }
+        responseWriter = new RestResponseWriter(new ResponseHeaders(additionalHeaders, cachePolicy, corsPolicy),
+                endpointMetrics, getLogPrefix(), asyncWriting ? asyncWriteTimeout : null);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull public Event execute(@Nonnull final RequestContext springRequestContext) {
+        ifNotInitializedThrowUninitializedComponentException();
+        if (endpointMetrics == null) {
+            return respond(springRequestContext);
+        }
+        final long start = System.nanoTime();
+        final Event event = respond(springRequestContext);
+        final HttpServletRequest httpRequest = getHttpServletRequest();
+        responseWriter.recordCompletion(httpRequest, getHttpServletResponse(), getMetricsLocale(httpRequest), start);
+        return event;
+    }
+
+    /**
+     * Answers the request with 403 if the client is denied by the access control policy, or with 429 if the client
+     * has exceeded its rate, otherwise builds the response.
+     * 
+     * @param springRequestContext The Spring request context.
+     * @return The event to signal.
+     */
+    @Nonnull private Event respond(@Nonnull final RequestContext springRequestContext) {
+        try {
+            if (responseWriter.rejectIfAccessDenied(getHttpServletRequest(), getHttpServletResponse(),
+                    accessControlService != null ? accessControlService.getInstance(accessPolicy) : null)
+                    || responseWriter.rejectIfRateLimited(getHttpServletRequest(), getHttpServletResponse(),
+                    rateLimiter)) {
+                return ActionSupport.buildProceedEvent(this);
+            }
+        } catch (final IOException e) {
+            log.error("{}: Could not write the JSON response", getLogPrefix(), e);
+            getHttpServletResponse().setStatus(HttpStatus.SC_SERVICE_UNAVAILABLE);
+            return ActionSupport.buildEvent(this, EventIds.IO_ERROR);
+        }
+        return buildResponse(springRequestContext);
+    }
+
+    /**
+     * Builds and writes the response to the {@link HttpServletResponse}.
+     * 
+     * @param springRequestContext The Spring request context.
+     * @return The event to signal.
+     */
+    @Nonnull protected abstract Event buildResponse(@Nonnull final RequestContext springRequestContext);
+
+    /**
+     * Get the locale of the response for recording the metrics. The number of distinct values must be
+     * bounded, i.e. the values must not be copied from the request as such.
+     * 
+     * @param httpRequest The HTTP request.
+     * @return The locale of the response, or null if not localized.
+     */
+    @Nullable protected String getMetricsLocale(@Nonnull final HttpServletRequest httpRequest) {
+        return null;
+    }
     
-     /**
+    /**
+     * Get the writer for the responses of this endpoint.
+     * 
+     * @return The writer for the responses of this endpoint.
+     */
+    @Nonnull protected RestResponseWriter getResponseWriter() {
+        return responseWriter;
+    }
+
+    /**
      * Push common REST/JSON settings to {@link HttpServletResponse}.
      */
     protected void pushHttpResponseProperties() {
-        final HttpServletResponse httpResponse = getHttpServletResponse();
-        HttpServletSupport.addNoCacheHeaders(httpResponse);
-        HttpServletSupport.setUTF8Encoding(httpResponse);
-        HttpServletSupport.setContentType(httpResponse, MediaType.JSON_UTF_8.toString());
-        if (additionalHeaders != null) {
-            for (String name : additionalHeaders.keySet()) {
-                httpResponse.addHeader(name, additionalHeaders.get(name));
-                log.debug("{} Added an additional header {}", getLogPrefix(), name);
-            }
-        }
+        responseWriter.pushHttpResponseProperties(getHttpServletRequest(), getHttpServletResponse());
+    }
+
+    /**
+     * Writes the given UTF-8 encoded JSON as the body of the {@link HttpServletResponse}, together with
+     * its exact content length. The body of a HEAD response is omitted.
+     * 
+     * @param body The encoded response body.
+     * @throws IOException If the body could not be written.
+     */
+    protected void writeResponse(@Nonnull final byte[] body) throws IOException {
+        responseWriter.writeResponse(getHttpServletRequest(), getHttpServletResponse(), body);
+    }
+
+    /**
+     * Writes the given {@link EncodedResponse} together with its validators, see
+     * {@link RestResponseWriter#writeResponse(HttpServletRequest, HttpServletResponse, EncodedResponse)}.
+     * 
+     * @param response The encoded response.
+     * @throws IOException If the body could not be written.
+     */
+    protected void writeResponse(@Nonnull final EncodedResponse response) throws IOException {
+        responseWriter.writeResponse(getHttpServletRequest(), getHttpServletResponse(), response);
     }
 
     /**
-     * Helper method for constructing a {@link ErrorDTO} with desired content and returning it as JSON
-     * string. The given code is also set as a status for {@link HttpServletResponse}.
+     * Helper method for constructing a {@link ErrorDTO} with desired content and returning it as UTF-8 encoded
+     * JSON. The given code is also set as a status for {@link HttpServletResponse}.
      * 
      * @param code The status code of the error.
      * @param message The message of the error.
      * @param fields The fields for the error.
-     * @return
+     * @return The encoded error response.
      */
-    protected String makeErrorResponse(final int code, final String message, final String fields) {
-        final ErrorDTO errorDTO = new ErrorDTO();
-        errorDTO.setCode(code);
-        errorDTO.setMessage(message);
-        errorDTO.setFields(fields);
-        getHttpServletResponse().setStatus(code);
-        final Gson gson = new Gson();
-        return gson.toJson(errorDTO);
-    }
-    
-    /**
-     * The DTO class for localized response.
-     */
-    protected class LocalizedResponse {
-        
-        /** The language used in the response. */
-        private String lang;
-        
-        /** The response. */
-        private Object response;
-        
-        /**
-         * Get the language used in the response.
-         * @return The language used in the response.
-         */
-        public String getLang() {
-            return lang;
-        }
-        
-        /**
-         * Set the language used in the response.
-         * @param language What to set.
-         */
-        public void setLang(final String language) {
-            lang = language;
-        }
-        
-        /**
-         * Get the response.
-         * @return The response.
-         */
-        public Object getResponse() {
-            return response;
-        }
-        
-        /**
-         * Set the response.
-         * @param resp What to set.
-         */
-        public void setResponse(final Object resp) {
-            response = resp;
-        }
+    @Nonnull protected byte[] makeErrorResponse(final int code, final String message, final String fields) {
+        return responseWriter.makeErrorResponse(getHttpServletResponse(), code, message, fields);
     }
 }
@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import javax.annotation.Nonnull;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.webflow.action.AbstractAction;
+import org.springframework.webflow.execution.Event;
+import org.springframework.webflow.execution.RequestContext;
+
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * This action answers the OPTIONS requests of an API flow, including the CORS preflights, with the
+ * {@link CorsPolicy} of the flow's {@link AbstractRestResponseAction}. It is meant to be the first state of the
+ * flow, so that the OPTIONS requests are answered with precomputed headers and an empty body before the profile
+ * request context is created.
+ * 
+ * <p>Signals {@value #OPTIONS_ANSWERED} if the request was answered, and success otherwise.</p>
+ */
+public class AnswerOptionsRequest extends AbstractAction {
+
+    /** The event signaled when the OPTIONS request was answered. */
+    @Nonnull public static final String OPTIONS_ANSWERED = "OptionsAnswered";
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(AnswerOptionsRequest.class);
+
+    /** The action building the responses of the flow. */
+    private AbstractRestResponseAction responseAction;
+
+    /**
+     * Set the action building the responses of the flow, whose CORS policy is used.
+     * @param action What to set.
+     */
+    public void setResponseAction(@Nonnull final AbstractRestResponseAction action) {
+        responseAction = Constraint.isNotNull(action, "The response action cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void initAction() {
+        Constraint.isNotNull(responseAction, "The response action cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull protected Event doExecute(@Nonnull final RequestContext springRequestContext) {
+        final HttpServletRequest httpRequest =
+                (HttpServletRequest) springRequestContext.getExternalContext().getNativeRequest();
+        if (!HttpMethod.OPTIONS.name().equals(httpRequest.getMethod())) {
+            return success();
+        }
+        final HttpServletResponse httpResponse =
+                (HttpServletResponse) springRequestContext.getExternalContext().getNativeResponse();
+        if (!responseAction.getCorsPolicy().writeOptions(httpRequest, httpResponse)) {
+            log.debug("{}: Rejected a preflight from origin {} for method {}", responseAction.getId(),
+                    httpRequest.getHeader(HttpHeaders.ORIGIN),
+                    httpRequest.getHeader(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD));
+        }
+        springRequestContext.getExternalContext().recordResponseComplete();
+        return result(OPTIONS_ANSWERED);
+    }
+}
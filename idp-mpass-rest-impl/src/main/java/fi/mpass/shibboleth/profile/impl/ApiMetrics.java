@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
+import net.shibboleth.shared.component.AbstractIdentifiableInitializableComponent;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * The registry of the {@link EndpointMetrics} of the REST endpoints. A single instance is meant to be shared
+ * by all the flows, the actions look up their own endpoint once when they are initialized.
+ */
+public class ApiMetrics extends AbstractIdentifiableInitializableComponent {
+
+    /** The metrics of the endpoints, keyed by the endpoint identifier. */
+    @Nonnull private final ConcurrentMap<String, EndpointMetrics> endpoints;
+
+    /** The time since when the metrics have been collected. */
+    @Nonnull private Instant startInstant;
+
+    /** Constructor. */
+    public ApiMetrics() {
+        endpoints = new ConcurrentHashMap<>();
+        startInstant = Instant.now();
+    }
+
+    /**
+     * Get the metrics of the given endpoint, registering them if needed.
+     * 
+     * @param endpointId The identifier of the endpoint.
+     * @return The metrics of the endpoint.
+     */
+    @Nonnull public EndpointMetrics getEndpoint(@Nonnull @NotEmpty final String endpointId) {
+        Constraint.isNotEmpty(endpointId, "The endpoint identifier cannot be empty");
+        return endpoints.computeIfAbsent(endpointId, EndpointMetrics::new);
+    }
+
+    /**
+     * Get the metrics of all the registered endpoints, ordered by their identifiers.
+     * 
+     * @return The metrics of all the registered endpoints.
+     */
+    @Nonnull public List<EndpointMetrics> getEndpoints() {
+        final List<EndpointMetrics> list = new ArrayList<>(endpoints.values());
+        list.sort(Comparator.comparing(EndpointMetrics::getId));
+        return list;
+    }
+
+    /**
+     * Get the time since when the metrics have been collected.
+     * 
+     * @return The time since when the metrics have been collected.
+     */
+    @Nonnull public Instant getStartInstant() {
+        return startInstant;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        startInstant = Instant.now();
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * Writes pre-encoded response bodies with the non-blocking I/O of the Servlet async API. The body is written in
+ * bounded chunks whenever the container reports the connection writable, so that slow clients do not pin a
+ * container thread for the whole transfer. The response is completed when the whole body has been written, the
+ * write has failed, or the configured timeout has expired. The callers are notified of the completion, e.g. for
+ * recording the metrics of the transfer. Instances are immutable and thread-safe.
+ * 
+ * <p>The body is given either as slices of a single array, allowing the pages of an {@link EncodedList} to be
+ * written without copying them, or as a {@link BodySource} generating the chunks while the body is written.</p>
+ */
+public final class AsyncBodyWriter {
+
+    /** The default maximum time to write a body. */
+    @Nonnull public static final Duration DEFAULT_TIMEOUT = Duration.ofMinutes(5);
+
+    /** The maximum number of bytes written at once. */
+    private static final int CHUNK_SIZE = 16384;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(AsyncBodyWriter.class);
+
+    /** The maximum time to write a body, zero for no limit. */
+    @Nonnull private final Duration timeout;
+
+    /** The prefix for the log messages. */
+    @Nonnull private final String logPrefix;
+
+    /**
+     * Constructor.
+     *
+     * @param writeTimeout The maximum time to write a body, zero for no limit. Replaces the default async timeout
+     *            of the container, which is typically too short for the slow clients.
+     * @param prefix The prefix for the log messages.
+     */
+    public AsyncBodyWriter(@Nonnull final Duration writeTimeout, @Nonnull final String prefix) {
+        Constraint.isNotNull(writeTimeout, "The write timeout cannot be null");
+        Constraint.isFalse(writeTimeout.isNegative(), "The write timeout cannot be negative");
+        timeout = writeTimeout;
+        logPrefix = prefix;
+    }
+
+    /**
+     * Get the maximum time to write a body.
+     * 
+     * @return The maximum time to write a body, zero for no limit.
+     */
+    @Nonnull public Duration getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Checks whether the given request can be answered asynchronously, i.e. the container supports the async
+     * mode for it and it has not been started already.
+     * 
+     * @param httpRequest The HTTP request.
+     * @return true if the async mode can be started, false otherwise.
+     */
+    public static boolean isSupported(@Nonnull final HttpServletRequest httpRequest) {
+        return httpRequest.isAsyncSupported() && !httpRequest.isAsyncStarted();
+    }
+
+    /**
+     * Puts the request into the async mode and starts writing the given slices of the body as the response body.
+     * The calling thread returns as soon as the first writable chunks have been handed over to the container.
+     * The returned stage is completed once the response has been completed, possibly before this method returns.
+     * 
+     * @param httpRequest The HTTP request, see {@link #isSupported(HttpServletRequest)}.
+     * @param httpResponse The HTTP response, with the status and the headers already set.
+     * @param array The array containing the body.
+     * @param bounds The start and end (exclusive) positions of the slices of the body, interleaved. Not copied.
+     * @return The stage completed with the number of body bytes written when the response has been completed.
+     * @throws IOException If the output stream could not be obtained.
+     */
+    @Nonnull public CompletionStage<Long> write(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final HttpServletResponse httpResponse, @Nonnull final byte[] array,
+            @Nonnull final int[] bounds) throws IOException {
+        Constraint.isTrue(bounds.length % 2 == 0, "The slice bounds must be in pairs");
+        return write(httpRequest, httpResponse, new SliceSource(array, bounds));
+    }
+
+    /**
+     * Puts the request into the async mode and starts writing the chunks generated by the given source as the
+     * response body. The source is called whenever the connection is writable, by the container threads.
+     * The returned stage is completed once the response has been completed, possibly before this method returns.
+     * 
+     * @param httpRequest The HTTP request, see {@link #isSupported(HttpServletRequest)}.
+     * @param httpResponse The HTTP response, with the status and the headers already set.
+     * @param source The source of the body chunks.
+     * @return The stage completed with the number of body bytes written when the response has been completed.
+     * @throws IOException If the output stream could not be obtained.
+     */
+    @Nonnull public CompletionStage<Long> write(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final HttpServletResponse httpResponse, @Nonnull final BodySource source) throws IOException {
+        final AsyncContext context = httpRequest.startAsync(httpRequest, httpResponse);
+        context.setTimeout(timeout.toMillis());
+        final ServletOutputStream stream = httpResponse.getOutputStream();
+        final Transfer transfer = new Transfer(context, stream, source);
+        context.addListener(transfer);
+        stream.setWriteListener(transfer);
+        return transfer.completion;
+    }
+
+    /**
+     * A source of the chunks of a response body, generating them while the body is written. The source is called
+     * by one thread at a time, but not necessarily by the same one.
+     */
+    public interface BodySource {
+
+        /**
+         * Writes the next chunk of the body to the given stream. The chunks should be of bounded size, so that
+         * writing them does not block for long.
+         * 
+         * @param out The stream to write to.
+         * @return The number of bytes written, or -1 if the whole body has already been written.
+         * @throws IOException If the stream could not be written.
+         */
+        int writeNext(@Nonnull OutputStream out) throws IOException;
+    }
+
+    /**
+     * The body given as slices of a single array, written in chunks of at most {@value #CHUNK_SIZE} bytes.
+     */
+    private static final class SliceSource implements BodySource {
+
+        /** The array containing the body. */
+        @Nonnull private final byte[] body;
+
+        /** The start and end (exclusive) positions of the slices of the body, interleaved. */
+        @Nonnull private final int[] slices;
+
+        /** The position of the current slice in {@link #slices}. */
+        private int slice;
+
+        /** The position of the next byte to write. */
+        private int position;
+
+        /**
+         * Constructor.
+         *
+         * @param array The array containing the body.
+         * @param bounds The start and end (exclusive) positions of the slices of the body, interleaved.
+         */
+        private SliceSource(@Nonnull final byte[] array, @Nonnull final int[] bounds) {
+            body = array;
+            slices = bounds;
+            position = slices.length == 0 ? 0 : slices[0];
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int writeNext(@Nonnull final OutputStream out) throws IOException {
+            if (slice >= slices.length) {
+                return -1;
+            }
+            final int length = Math.min(CHUNK_SIZE, slices[slice + 1] - position);
+            out.write(body, position, length);
+            position += length;
+            if (position == slices[slice + 1]) {
+                slice += 2;
+                position = slice < slices.length ? slices[slice] : position;
+            }
+            return length;
+        }
+    }
+
+    /**
+     * The writing of a single response body, notified by the container both when the connection is writable and
+     * of the async events of the request.
+     */
+    private final class Transfer implements WriteListener, AsyncListener {
+
+        /** The async context of the request. */
+        @Nonnull private final AsyncContext asyncContext;
+
+        /** The output stream of the response. */
+        @Nonnull private final ServletOutputStream out;
+
+        /** The source of the body chunks. */
+        @Nonnull private final BodySource body;
+
+        /** Whether the response has been completed by this transfer. */
+        @Nonnull private final AtomicBoolean completed;
+
+        /** Completed with the number of bytes written when the response has been completed. */
+        @Nonnull private final CompletableFuture<Long> completion;
+
+        /** The number of bytes written. */
+        private volatile long written;
+
+        /**
+         * Constructor.
+         *
+         * @param context The async context of the request.
+         * @param stream The output stream of the response.
+         * @param source The source of the body chunks.
+         */
+        private Transfer(@Nonnull final AsyncContext context, @Nonnull final ServletOutputStream stream,
+                @Nonnull final BodySource source) {
+            asyncContext = context;
+            out = stream;
+            body = source;
+            completed = new AtomicBoolean();
+            completion = new CompletableFuture<>();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void onWritePossible() throws IOException {
+            while (out.isReady()) {
+                final int length = body.writeNext(out);
+                if (length < 0) {
+                    complete();
+                    return;
+                }
+                written += length;
+            }
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void onError(final Throwable t) {
+            log.warn("{} Could not write the response body asynchronously: {}", logPrefix, t.getMessage());
+            complete();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void onTimeout(final AsyncEvent event) {
+            log.warn("{} Timed out writing the response body asynchronously after {}, {} bytes written", logPrefix,
+                    timeout, written);
+            complete();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void onError(final AsyncEvent event) {
+            log.warn("{} The asynchronous request failed: {}", logPrefix,
+                    event.getThrowable() != null ? event.getThrowable().getMessage() : null);
+            complete();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void onComplete(final AsyncEvent event) {
+            completed.set(true);
+            completion.complete(written);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void onStartAsync(final AsyncEvent event) {
+            // not restarted
+        }
+
+        /**
+         * Completes the response, unless already completed.
+         */
+        private void complete() {
+            if (completed.compareAndSet(false, true)) {
+                asyncContext.complete();
+            }
+        }
+    }
+}
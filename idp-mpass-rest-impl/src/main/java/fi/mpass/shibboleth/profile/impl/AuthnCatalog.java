@@ -0,0 +1,1002 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.MessageSource;
+import org.springframework.context.NoSuchMessageException;
+import org.springframework.context.support.ReloadableResourceBundleMessageSource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+
+import fi.mpass.shibboleth.rest.data.AuthnSourceDTO;
+import fi.mpass.shibboleth.rest.data.AuthnTagDTO;
+import fi.mpass.shibboleth.rest.data.json.AuthnSourceDTOWriter;
+import fi.mpass.shibboleth.rest.data.json.AuthnTagDTOWriter;
+import fi.mpass.shibboleth.rest.data.json.DTOWriter;
+import fi.mpass.shibboleth.rest.data.json.JsonByteWriter;
+import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
+import net.shibboleth.shared.collection.CollectionSupport;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.Constraint;
+import net.shibboleth.shared.primitive.StringSupport;
+
+/**
+ * The catalog of the authentication sources and tags published by the REST API.
+ * 
+ * <p>The catalog is built when the component is initialized, into an immutable snapshot. The same instance is
+ * meant to be shared by all the actions (and threads) responding with its contents. The plugin defines a single
+ * instance in its <code>postconfig.xml</code>, whereas the legacy flows under <code>flows/api</code> build one per
+ * flow, as every flow has its own application context.</p>
+ * 
+ * <p>If a reload check delay is configured, the additional info and watched resources (typically the message
+ * bundles) are checked periodically in the background. When any of them has been modified, a new snapshot is
+ * built and published with a single atomic reference swap, so that the requests never see a partially built
+ * catalog nor wait for the rebuild. If the rebuild fails, the previous snapshot stays in use.</p>
+ * 
+ * <p>Only the locale-independent contents are collected when a snapshot is built. The localized lists of each
+ * locale are materialized once, on the first request for the locale, unless the locale has been configured to be
+ * pre-warmed with the snapshot. The deployments with many supported locales thus only pay for the locales in
+ * actual use. The messages are nevertheless checked to resolve in every supported locale before the snapshot is
+ * published, so that a missing message keeps the previous snapshot in use.</p>
+ * 
+ * <p>The concurrent requests missing the same localized or filtered list are coalesced with {@link SingleFlight}:
+ * one of them builds the list while the others wait for it. Right after a rebuild, the waiting requests are
+ * served the list of the previous snapshot if the build takes longer than the configured stale wait. Without a
+ * previous list, they fail once the build has taken longer than the configured build wait.</p>
+ * 
+ * <p>The authentication sources are either filtered from the configured authentication flows, or, if
+ * {@link FlowPropertiesConfiguration} has been set, read from its flow properties.</p>
+ */
+public class AuthnCatalog extends AbstractReloadingCatalog {
+
+    /** The writer for the authentication sources. */
+    @Nonnull private static final DTOWriter<AuthnSourceDTO> SOURCE_WRITER = new AuthnSourceDTOWriter();
+
+    /** The writer for the authentication tags. */
+    @Nonnull private static final DTOWriter<AuthnTagDTO> TAG_WRITER = new AuthnTagDTOWriter();
+
+    /** The default maximum number of the cached responses for the filtered authentication sources. */
+    private static final int DEFAULT_FILTERED_CACHE_SIZE = 256;
+
+    /** The default maximum time to wait for a concurrent build when a stale list is available, in milliseconds. */
+    private static final long DEFAULT_STALE_WAIT = 500;
+
+    /** The default maximum time to wait for a concurrent build when no stale list is available, in milliseconds. */
+    private static final long DEFAULT_BUILD_WAIT = 5000;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(AuthnCatalog.class);
+
+    /** All the configured authentication flows to filter from. */
+    @Nullable private List<AuthenticationFlowDescriptor> flows;
+    
+    /** The list of ids of the active flows. */
+    @Nonnull private List<String> activeFlowIds;
+    
+    /** The list of ids of the flows to be ignored. */
+    @Nullable private List<String> ignoredFlowIds;
+    
+    /** The complementary information for the authentication flows and tags. */
+    @Nullable private Properties additionalInfo;
+    
+    /** The resources to (re)load the complementary information from, overriding the static one if set. */
+    @Nullable private List<Resource> additionalInfoResources;
+    
+    /** The additional resources whose modification triggers a rebuild, typically the message bundles. */
+    @Nonnull private List<Resource> watchedResources;
+
+    /** The base file of the message bundle watched in each supported locale, or null if not watched. */
+    @Nullable private Resource watchedMessageBundle;
+    
+    /** The message source containing localized messages. */
+    @Nullable private MessageSource messageSource;
+    
+    /** The list of supported locales (parseable by {@link Locale#forLanguageTag(String)}). */
+    @Nullable private List<String> supportedLocales;
+
+    /** The negotiator of the response language among the supported locales. */
+    @Nullable private LanguageNegotiator languageNegotiator;
+
+    /** The locales materialized together with each snapshot, null for the default locale only. */
+    @Nullable private List<String> prewarmedLocales;
+
+    /** The flow properties configuration, used as the source for the authentication sources if set. */
+    @Nullable private FlowPropertiesConfiguration flowPropertiesConfiguration;
+
+    /** The maximum number of the cached responses for the filtered authentication sources, per snapshot. */
+    private int filteredCacheSize;
+
+    /** The maximum time to wait for a concurrent build of a list when the previous snapshot has one. */
+    @Nonnull private Duration staleWait;
+
+    /** The maximum time to wait for a concurrent build of a list when the previous snapshot has none. */
+    @Nonnull private Duration buildWait;
+
+    /** The latest modification time of the monitored resources seen when the current snapshot was built. */
+    private long resourcesModified;
+
+    /** The currently published snapshot of the catalog. */
+    @Nonnull private final AtomicReference<Snapshot> snapshot;
+
+    /** Constructor. */
+    public AuthnCatalog() {
+        activeFlowIds = CollectionSupport.emptyList();
+        watchedResources = CollectionSupport.emptyList();
+        filteredCacheSize = DEFAULT_FILTERED_CACHE_SIZE;
+        staleWait = Duration.ofMillis(DEFAULT_STALE_WAIT);
+        buildWait = Duration.ofMillis(DEFAULT_BUILD_WAIT);
+        snapshot = new AtomicReference<>();
+    }
+
+    /**
+     * Set all the configured authentication flows to filter from.
+     * @param allFlows What to set.
+     */
+    public void setFlows(@Nonnull final List<AuthenticationFlowDescriptor> allFlows) {
+        checkSetterPreconditions();
+        flows = Constraint.isNotNull(allFlows, "The list of flows cannot be null!");
+    }
+
+    /**
+     * Set the list of ids of the active flows.
+     * @param flowIds What to set (<pre>|</pre> -separated list of flow ids)
+     */
+    public void setActiveFlowIds(@Nullable final String flowIds) {
+        checkSetterPreconditions();
+        activeFlowIds = new ArrayList<>();
+        log.trace("Processing {}", flowIds);
+        if (flowIds != null) {
+            final StringTokenizer tokenizer = new StringTokenizer(flowIds, "|");
+            while (tokenizer.hasMoreTokens()) {
+                final String flowId = tokenizer.nextToken();
+                log.debug("Set flow {} as active", flowId);
+                activeFlowIds.add(flowId);
+            }
+        } else {
+            log.warn("No authentication flows configured to be active");
+        }
+    }
+
+    /**
+     * Set the list of ids of the flows to be ignored.
+     * @param flowIds What to set.
+     */
+    public void setIgnoredFlowIds(@Nullable final List<String> flowIds) {
+        checkSetterPreconditions();
+        ignoredFlowIds = flowIds;
+    }
+
+    /**
+     * Set the complementary information for the authentication flows and tags.
+     * @param properties What to set.
+     */
+    public void setAdditionalInfo(@Nonnull final Properties properties) {
+        checkSetterPreconditions();
+        additionalInfo = Constraint.isNotNull(properties, "The additional info properties cannot be null!");
+    }
+
+    /**
+     * Set the resources to (re)load the complementary information for the authentication flows and tags from.
+     * If set, they override the static properties set via {@link #setAdditionalInfo(Properties)}.
+     * @param resources What to set.
+     */
+    public void setAdditionalInfoResources(@Nullable final List<Resource> resources) {
+        checkSetterPreconditions();
+        additionalInfoResources = resources;
+    }
+
+    /**
+     * Set the additional resources whose modification triggers a rebuild, typically the message bundles.
+     * @param resources What to set.
+     */
+    public void setWatchedResources(@Nullable final List<Resource> resources) {
+        checkSetterPreconditions();
+        watchedResources = resources != null ? resources : CollectionSupport.emptyList();
+    }
+
+    /**
+     * Set the base file of the message bundle whose modification triggers a rebuild, e.g.
+     * <code>messages/mpassid-messages.properties</code>. The base file and its variant for each supported locale,
+     * e.g. <code>messages/mpassid-messages_fi.properties</code>, are watched in addition to the other watched
+     * resources, so that the watched files follow the supported locales.
+     * @param resource What to set.
+     */
+    public void setWatchedMessageBundle(@Nullable final Resource resource) {
+        checkSetterPreconditions();
+        watchedMessageBundle = resource;
+    }
+
+    /**
+     * Set the maximum number of the cached responses for the filtered authentication sources. When the cache is
+     * full, an arbitrary response is evicted. Default is {@value #DEFAULT_FILTERED_CACHE_SIZE}, zero disables the
+     * cache.
+     * @param size What to set.
+     */
+    public void setFilteredCacheSize(final int size) {
+        checkSetterPreconditions();
+        filteredCacheSize = (int) Constraint.isGreaterThanOrEqual(0, size,
+                "The filtered cache size cannot be negative");
+    }
+
+    /**
+     * Set the maximum time to wait for a concurrent build of a localized or filtered list, when the list of the
+     * previous snapshot can be served instead. Default is {@value #DEFAULT_STALE_WAIT} milliseconds.
+     * @param wait What to set.
+     */
+    public void setStaleWait(@Nonnull final Duration wait) {
+        checkSetterPreconditions();
+        Constraint.isNotNull(wait, "The stale wait cannot be null");
+        Constraint.isFalse(wait.isNegative(), "The stale wait cannot be negative");
+        staleWait = wait;
+    }
+
+    /**
+     * Set the maximum time to wait for a concurrent build of a localized or filtered list, when no list of the
+     * previous snapshot can be served instead. The waiting requests then fail, to be answered with an error.
+     * Default is {@value #DEFAULT_BUILD_WAIT} milliseconds.
+     * @param wait What to set.
+     */
+    public void setBuildWait(@Nonnull final Duration wait) {
+        checkSetterPreconditions();
+        Constraint.isNotNull(wait, "The build wait cannot be null");
+        Constraint.isFalse(wait.isNegative(), "The build wait cannot be negative");
+        buildWait = wait;
+    }
+
+    /**
+     * Set the locales whose lists are materialized together with each snapshot, instead of on their first
+     * request. Default is the default locale only, an empty list materializes every locale on demand.
+     * @param locales What to set.
+     */
+    public void setPrewarmedLocales(@Nullable final List<String> locales) {
+        checkSetterPreconditions();
+        if (locales == null) {
+            prewarmedLocales = null;
+            return;
+        }
+        prewarmedLocales = new ArrayList<>();
+        for (final String locale : locales) {
+            final String trimmed = StringSupport.trimOrNull(locale);
+            if (trimmed != null) {
+                prewarmedLocales.add(trimmed.toUpperCase());
+            }
+        }
+    }
+
+    /**
+     * Set the message source containing localized messages.
+     * @param source What to set.
+     */
+    public void setMessageSource(@Nonnull final MessageSource source) {
+        checkSetterPreconditions();
+        messageSource = Constraint.isNotNull(source, "The message source cannot be null");
+    }
+
+    /**
+     * Set the list of supported locales (parseable by {@link Locale#forLanguageTag(String)}).
+     * @param locales What to set.
+     */
+    public void setSupportedLocales(@Nonnull final List<String> locales) {
+        checkSetterPreconditions();
+        Constraint.isNotEmpty(locales, "The list of supported locales cannot be empty");
+        supportedLocales = new ArrayList<>();
+        for (final String locale : locales) {
+            supportedLocales.add(locale.toUpperCase());
+        }
+        languageNegotiator = new LanguageNegotiator(supportedLocales);
+    }
+
+    /**
+     * Set the flow properties configuration, used as the source for the authentication sources if set.
+     * @param config What to set.
+     */
+    public void setFlowPropertiesConfiguration(@Nullable final FlowPropertiesConfiguration config) {
+        checkSetterPreconditions();
+        flowPropertiesConfiguration = config;
+    }
+
+    /**
+     * Get the list of supported locales, the first one being the default.
+     * @return The list of supported locales.
+     */
+    @Nonnull public List<String> getSupportedLocales() {
+        checkComponentActive();
+        return supportedLocales;
+    }
+
+    /**
+     * Get the negotiator of the response language among the supported locales.
+     * @return The language negotiator.
+     */
+    @Nonnull public LanguageNegotiator getLanguageNegotiator() {
+        checkComponentActive();
+        return languageNegotiator;
+    }
+
+    /**
+     * Get the time when the catalog was built.
+     * @return The time when the catalog was built.
+     */
+    @Nonnull public Instant getBuildInstant() {
+        checkComponentActive();
+        return snapshot.get().buildInstant;
+    }
+
+    /**
+     * Get the encoded response for the authentication sources in the given language.
+     * @param lang The language code.
+     * @return The encoded response, or null if the language is not supported.
+     */
+    @Nullable public EncodedResponse getEncodedSources(@Nonnull final String lang) {
+        return getResponse(getSourceList(lang, null));
+    }
+
+    /**
+     * Get the encoded response for the authentication sources matching the given type query in the given language.
+     * 
+     * @param lang The language code.
+     * @param type The type query, or null for all the sources.
+     * @return The encoded response, or null if the language is not supported.
+     */
+    @Nullable public EncodedResponse getEncodedSources(@Nonnull final String lang, @Nullable final String type) {
+        return getResponse(getSourceList(lang, type));
+    }
+
+    /**
+     * Get the encoded response for the authentication tags in the given language.
+     * @param lang The language code.
+     * @return The encoded response, or null if the language is not supported.
+     */
+    @Nullable public EncodedResponse getEncodedTags(@Nonnull final String lang) {
+        return getResponse(getTagList(lang));
+    }
+
+    /**
+     * Get the encoded list of the authentication sources matching the given type query in the given language.
+     * The matching sources are selected from the tag index of the catalog, see {@link AuthnTagIndex}, and the
+     * lists are cached until the catalog is rebuilt.
+     * 
+     * @param lang The language code.
+     * @param type The type query, or null for all the sources.
+     * @return The encoded list, or null if the language is not supported.
+     */
+    @Nullable public EncodedList getSourceList(@Nonnull final String lang, @Nullable final String type) {
+        checkComponentActive();
+        final Snapshot current = snapshot.get();
+        final LocalizedLists lists = current.getLocalizedLists(lang);
+        final String query = StringSupport.trimOrNull(type);
+        if (query == null || lists == null) {
+            return lists == null ? null : lists.sourceList;
+        }
+        return current.filteredSources.getList(lang, lists.sourceList, query, current.buildInstant);
+    }
+
+    /**
+     * Get the encoded list of the authentication tags in the given language.
+     * @param lang The language code.
+     * @return The encoded list, or null if the language is not supported.
+     */
+    @Nullable public EncodedList getTagList(@Nonnull final String lang) {
+        checkComponentActive();
+        final LocalizedLists lists = snapshot.get().getLocalizedLists(lang);
+        return lists == null ? null : lists.tagList;
+    }
+
+    /**
+     * Get the encoded list for the given content in the given language.
+     * @param content The content of the list.
+     * @param lang The language code.
+     * @param type The type query for the authentication sources, or null for all of them.
+     * @return The encoded list, or null if the language is not supported.
+     */
+    @Nullable public EncodedList getList(@Nonnull final Content content, @Nonnull final String lang,
+            @Nullable final String type) {
+        return content == Content.TAGS ? getTagList(lang) : getSourceList(lang, type);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (messageSource == null) {
+            throw new ComponentInitializationException("The message source cannot be null");
+        }
+        if (supportedLocales == null) {
+            throw new ComponentInitializationException("The list of supported locales cannot be null");
+        }
+        if (additionalInfo == null && additionalInfoResources == null) {
+            throw new ComponentInitializationException("The additional info properties cannot be null");
+        }
+        if (flows == null && flowPropertiesConfiguration == null) {
+            throw new ComponentInitializationException("Either flows or flow properties configuration must be set");
+        }
+        if (prewarmedLocales == null) {
+            prewarmedLocales = Collections.singletonList(supportedLocales.get(0));
+        } else if (!supportedLocales.containsAll(prewarmedLocales)) {
+            throw new ComponentInitializationException("The pre-warmed locales " + prewarmedLocales
+                    + " must be among the supported locales " + supportedLocales);
+        }
+        if (watchedMessageBundle != null) {
+            watchedResources = new ArrayList<>(watchedResources);
+            watchedResources.addAll(getLocalizedResources(watchedMessageBundle));
+        }
+        resourcesModified = getResourcesModified();
+        try {
+            snapshot.set(buildSnapshot());
+        } catch (final IOException e) {
+            throw new ComponentInitializationException("Could not load the additional info properties", e);
+        } catch (final NoSuchMessageException e) {
+            throw new ComponentInitializationException("Could not resolve the localized messages", e);
+        }
+        scheduleReloadChecks();
+    }
+
+    /**
+     * Checks whether any of the monitored resources has been modified since the current snapshot was built, and
+     * if so, builds and publishes a new snapshot. Run by the reload task.
+     */
+    @Override
+    protected void checkReload() {
+        final long modified = getResourcesModified();
+        if (modified == resourcesModified) {
+            return;
+        }
+        log.info("{} The monitored resources have been modified, rebuilding the catalog", getLogPrefix());
+        if (messageSource instanceof ReloadableResourceBundleMessageSource) {
+            ((ReloadableResourceBundleMessageSource) messageSource).clearCacheIncludingAncestors();
+        }
+        try {
+            snapshot.set(buildSnapshot());
+            resourcesModified = modified;
+        } catch (final IOException | RuntimeException e) {
+            log.error("{} Could not rebuild the catalog, keeping the previous one", getLogPrefix(), e);
+        }
+    }
+
+    /**
+     * Builds a new snapshot of the catalog.
+     * 
+     * @return The new snapshot.
+     * @throws IOException If the additional info properties could not be loaded.
+     * @throws NoSuchMessageException If a message is missing in any of the supported locales.
+     */
+    @Nonnull protected Snapshot buildSnapshot() throws IOException {
+        final long start = System.currentTimeMillis();
+        final Properties info = loadAdditionalInfo();
+        final AuthnCatalogBuilder builder = new AuthnCatalogBuilder(messageSource, supportedLocales, info);
+        if (flowPropertiesConfiguration != null) {
+            addSourcesFromProperties(builder);
+        } else {
+            addSourcesFromFlows(builder);
+        }
+        builder.checkMessages();
+        final Instant buildInstant = Instant.ofEpochMilli(start);
+        final Snapshot previous = snapshot.get();
+        final ConcurrentMap<String, LocalizedLists> previousLists = previous != null ? previous.localizedLists : null;
+        final Snapshot newSnapshot = new Snapshot(buildInstant, builder,
+                new FilteredSources(builder.buildTagIndex(), filteredCacheSize,
+                        new SingleFlight<>(staleWait, buildWait,
+                                previous != null ? previous.filteredSources.cache::get : null)),
+                locale -> materialize(builder, locale, buildInstant, previousLists),
+                new SingleFlight<>(staleWait, buildWait, previousLists != null ? previousLists::get : null));
+        for (final String locale : prewarmedLocales) {
+            newSnapshot.getLocalizedLists(locale);
+        }
+        log.info("{} Built the catalog of {} sources and {} tags, pre-warmed {} of {} locales, in {} ms",
+                getLogPrefix(), builder.getSourceCount(), builder.getTagCount(), prewarmedLocales,
+                supportedLocales, System.currentTimeMillis() - start);
+        return newSnapshot;
+    }
+
+    /**
+     * Loads the complementary information for the authentication flows and tags.
+     * 
+     * @return The complementary information.
+     * @throws IOException If the properties could not be loaded from the resources.
+     */
+    @Nonnull protected Properties loadAdditionalInfo() throws IOException {
+        if (additionalInfoResources == null) {
+            return additionalInfo;
+        }
+        final Properties properties = new Properties();
+        for (final Resource resource : additionalInfoResources) {
+            PropertiesLoaderUtils.fillProperties(properties, resource);
+        }
+        return properties;
+    }
+
+    /**
+     * Get the given base file of a message bundle and its variant for each supported locale, named as by
+     * {@link java.util.ResourceBundle}.
+     * 
+     * @param bundle The base file of the message bundle.
+     * @return The base file and its localized variants.
+     * @throws ComponentInitializationException If the localized variants could not be resolved.
+     */
+    @Nonnull protected List<Resource> getLocalizedResources(@Nonnull final Resource bundle)
+            throws ComponentInitializationException {
+        final String filename = bundle.getFilename();
+        if (filename == null) {
+            throw new ComponentInitializationException("The watched message bundle must be a file");
+        }
+        final int extension = filename.lastIndexOf('.');
+        final String baseName = extension > 0 ? filename.substring(0, extension) : filename;
+        final String suffix = extension > 0 ? filename.substring(extension) : "";
+        final List<Resource> resources = new ArrayList<>();
+        resources.add(bundle);
+        try {
+            for (final String locale : supportedLocales) {
+                resources.add(bundle.createRelative(baseName + '_' + Locale.forLanguageTag(locale) + suffix));
+            }
+        } catch (final IOException e) {
+            throw new ComponentInitializationException("Could not resolve the localized message bundles", e);
+        }
+        return resources;
+    }
+
+    /**
+     * Get the latest modification time of the monitored resources. Missing resources are ignored.
+     * 
+     * @return The latest modification time of the monitored resources.
+     */
+    protected long getResourcesModified() {
+        long modified = 0;
+        final List<Resource> resources = new ArrayList<>(watchedResources);
+        if (additionalInfoResources != null) {
+            resources.addAll(additionalInfoResources);
+        }
+        for (final Resource resource : resources) {
+            try {
+                modified = Math.max(modified, resource.lastModified());
+            } catch (final IOException e) {
+                log.trace("{} Could not get the modification time of {}", getLogPrefix(), resource);
+            }
+        }
+        return modified;
+    }
+
+    /**
+     * Adds the active and not ignored authentication flows, together with their tags, to the given builder.
+     * 
+     * @param builder The catalog builder.
+     */
+    protected void addSourcesFromFlows(@Nonnull final AuthnCatalogBuilder builder) {
+        for (final AuthenticationFlowDescriptor flow : flows) {
+            final String id = (flow.getId().startsWith("authn")) ? flow.getId().substring(6) : flow.getId();
+            if (activeFlowIds.contains(id) && !isIgnoredFlow(flow, id)) {
+                log.debug("{} Adding flow {}", getLogPrefix(), id);
+                builder.addSource(id, getTags(flow, id), flow.isForcedAuthenticationSupported(),
+                        flow.isPassiveAuthenticationSupported());
+            } else {
+                log.trace("{} Ignoring {}", getLogPrefix(), id);
+            }
+        }
+    }
+
+    /**
+     * Adds the authentication flows of the flow properties configuration to the given builder. They have no tags.
+     * 
+     * @param builder The catalog builder.
+     */
+    protected void addSourcesFromProperties(@Nonnull final AuthnCatalogBuilder builder) {
+        for (final String flow : flowPropertiesConfiguration.getFlowProperties().keySet()) {
+            final String id = (flow.startsWith("authn")) ? flow.substring(6) : flow;
+            log.debug("{} Adding flow {}", getLogPrefix(), id);
+            builder.addSource(id, CollectionSupport.emptyList(), true, false);
+        }
+    }
+
+    /**
+     * Checks if the given flow exists in the list of ignored flows.
+     * @param flow The flow to be checked.
+     * @param flowId The (stripped) flow id to be checked.
+     * @return true if it exists, false otherwise.
+     */
+    protected boolean isIgnoredFlow(@Nonnull final AuthenticationFlowDescriptor flow, @Nonnull final String flowId) {
+        final Collection<Principal> principals = flow.getSupportedPrincipals();
+        if (principals == null || principals.isEmpty()) {
+            log.trace("{} Empty set of supported principals for {}, will be ignored", getLogPrefix(), flowId);
+            return true;
+        }
+        boolean mpassPrincipalFound = false;
+        for (final Principal principal : principals) {
+            if (principal.getName().startsWith("urn:mpass.id:")) {
+                mpassPrincipalFound = true;
+            }
+        }
+        if (!mpassPrincipalFound) {
+            return true;
+        }
+        if (ignoredFlowIds == null || ignoredFlowIds.isEmpty()) {
+            return false;
+        }
+        return ignoredFlowIds.contains(flowId);
+    }
+
+    /**
+     * Gets the list of tags for the given flow. They are parsed from the list of supported principals of the flow.
+     * 
+     * @param flow The authentication flow.
+     * @param id The authentication flow identifier.
+     * @return The list of tags.
+     */
+    @Nonnull protected List<String> getTags(@Nonnull final AuthenticationFlowDescriptor flow,
+            @Nonnull final String id) {
+        final List<String> tags = new ArrayList<>();
+        for (final Principal principal : flow.getSupportedPrincipals()) {
+            final String name = principal.getName();
+            if (name.startsWith("urn:mpass.id:authntag:")) {
+                final String strippedName = 
+                        name.substring(("urn:mpass.id:authntag:").length());
+                tags.add(strippedName);
+                log.debug("{} Added {} as a tag for {}", getLogPrefix(), strippedName, id);
+            } else {
+                log.trace("{} Ignoring {} from the list of tags", getLogPrefix(), name);
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * Materializes the localized lists of the given locale from the contents of a snapshot.
+     * 
+     * @param contents The contents of the snapshot.
+     * @param locale The supported locale.
+     * @param buildInstant The build time of the snapshot.
+     * @return The localized lists.
+     */
+    @Nonnull protected LocalizedLists materialize(@Nonnull final AuthnCatalogBuilder contents,
+            @Nonnull final String locale, @Nonnull final Instant buildInstant) {
+        final long start = System.currentTimeMillis();
+        final JsonByteWriter out = new JsonByteWriter();
+        final byte[][] sourceElements = encodeElements(out, contents.getSources(locale), SOURCE_WRITER);
+        final LocalizedLists lists = new LocalizedLists(
+                EncodedList.encodeLocalized(out, locale, sourceElements, null, buildInstant),
+                EncodedList.encodeLocalized(out, locale, encodeElements(out, contents.getTags(locale), TAG_WRITER),
+                        null, buildInstant));
+        log.debug("{} Materialized the locale {} in {} ms", getLogPrefix(), locale,
+                System.currentTimeMillis() - start);
+        return lists;
+    }
+
+    /**
+     * Materializes the localized lists of the given locale, falling back to the lists of the previous snapshot if
+     * the materialization fails.
+     * 
+     * @param contents The contents of the snapshot.
+     * @param locale The supported locale.
+     * @param buildInstant The build time of the snapshot.
+     * @param previousLists The localized lists of the previous snapshot, or null if none.
+     * @return The localized lists.
+     */
+    @Nonnull private LocalizedLists materialize(@Nonnull final AuthnCatalogBuilder contents,
+            @Nonnull final String locale, @Nonnull final Instant buildInstant,
+            @Nullable final Map<String, LocalizedLists> previousLists) {
+        try {
+            return materialize(contents, locale, buildInstant);
+        } catch (final RuntimeException e) {
+            final LocalizedLists stale = previousLists != null ? previousLists.get(locale) : null;
+            if (stale == null) {
+                log.error("{} Could not materialize the locale {}", getLogPrefix(), locale, e);
+                throw e;
+            }
+            log.error("{} Could not materialize the locale {}, keeping the previous lists", getLogPrefix(), locale,
+                    e);
+            return stale;
+        }
+    }
+
+    /**
+     * Encodes each element of the given list into UTF-8 JSON.
+     * 
+     * @param <T> The type of the list elements.
+     * @param out The writer to encode with, reset before each element.
+     * @param items The list to encode.
+     * @param writer The writer for the list elements.
+     * @return The encoded elements in the order of the list.
+     */
+    @Nonnull private static <T> byte[][] encodeElements(@Nonnull final JsonByteWriter out,
+            @Nonnull final List<T> items, @Nonnull final DTOWriter<T> writer) {
+        final byte[][] elements = new byte[items.size()][];
+        for (int i = 0; i < elements.length; i++) {
+            out.reset();
+            writer.write(out, items.get(i));
+            elements[i] = out.toByteArray();
+        }
+        return elements;
+    }
+
+    /**
+     * Get the encoded response containing the whole given list.
+     * 
+     * @param list The encoded list, may be null.
+     * @return The encoded response, or null if the list is null.
+     */
+    @Nullable private static EncodedResponse getResponse(@Nullable final EncodedList list) {
+        return list == null ? null : list.getResponse();
+    }
+
+    /**
+     * Get the prefix for the log messages.
+     * 
+     * @return The prefix for the log messages.
+     */
+    @Nonnull private String getLogPrefix() {
+        return "Authentication catalog '" + getId() + "':";
+    }
+
+    /**
+     * The lists published from the catalog.
+     */
+    public enum Content {
+        /** The authentication sources. */
+        SOURCES,
+        /** The authentication tags. */
+        TAGS,
+    }
+
+    /**
+     * A snapshot of the catalog contents. The contents never change, but the localized lists of each locale are
+     * materialized on their first request, exactly once. The concurrent first requests wait for the same
+     * materialization, or get the lists of the previous snapshot if it takes too long. If the materialization
+     * fails, the lists of the previous snapshot are kept, or without them, the failure is remembered.
+     */
+    protected static final class Snapshot {
+
+        /** The time when the snapshot was built. */
+        @Nonnull private final Instant buildInstant;
+
+        /** The locale-independent contents of the snapshot. */
+        @Nonnull private final AuthnCatalogBuilder contents;
+
+        /** The authentication sources selectable by their tags. */
+        @Nonnull private final FilteredSources filteredSources;
+
+        /** The function materializing the localized lists of a supported locale. */
+        @Nonnull private final Function<String, LocalizedLists> materializer;
+
+        /** The localized lists materialized so far, keyed by the language code. */
+        @Nonnull private final ConcurrentMap<String, LocalizedLists> localizedLists;
+
+        /** The materializations in progress, falling back to the lists of the previous snapshot. */
+        @Nonnull private final SingleFlight<String, LocalizedLists> materializations;
+
+        /** The failures of the materializations without previous lists, keyed by the language code. */
+        @Nonnull private final ConcurrentMap<String, RuntimeException> failures;
+
+        /**
+         * Constructor.
+         *
+         * @param instant The time when the snapshot was built.
+         * @param snapshotContents The locale-independent contents of the snapshot.
+         * @param filtered The authentication sources selectable by their tags.
+         * @param localizer The function materializing the localized lists of a supported locale.
+         * @param flight The materializations in progress.
+         */
+        private Snapshot(@Nonnull final Instant instant, @Nonnull final AuthnCatalogBuilder snapshotContents,
+                @Nonnull final FilteredSources filtered, @Nonnull final Function<String, LocalizedLists> localizer,
+                @Nonnull final SingleFlight<String, LocalizedLists> flight) {
+            buildInstant = instant;
+            contents = snapshotContents;
+            filteredSources = filtered;
+            materializer = localizer;
+            localizedLists = new ConcurrentHashMap<>();
+            materializations = flight;
+            failures = new ConcurrentHashMap<>();
+        }
+
+        /**
+         * Get the localized lists of the given locale, materializing them if this is the first request for the
+         * locale. The concurrent first requests wait for the same materialization. A failed materialization is
+         * not retried for the lifetime of the snapshot.
+         *
+         * @param lang The language code.
+         * @return The localized lists, or null if the language is not supported.
+         */
+        @Nullable private LocalizedLists getLocalizedLists(@Nonnull final String lang) {
+            final LocalizedLists lists = localizedLists.get(lang);
+            if (lists != null || !contents.isSupportedLocale(lang)) {
+                return lists;
+            }
+            final RuntimeException failure = failures.get(lang);
+            if (failure != null) {
+                throw failure;
+            }
+            return materializations.get(lang, this::materialize);
+        }
+
+        /**
+         * Materializes and publishes the localized lists of the given locale, unless already published.
+         *
+         * @param lang The supported language code.
+         * @return The localized lists.
+         */
+        @Nonnull private LocalizedLists materialize(@Nonnull final String lang) {
+            final LocalizedLists published = localizedLists.get(lang);
+            if (published != null) {
+                return published;
+            }
+            final LocalizedLists lists;
+            try {
+                lists = materializer.apply(lang);
+            } catch (final RuntimeException e) {
+                failures.put(lang, e);
+                throw e;
+            }
+            localizedLists.put(lang, lists);
+            return lists;
+        }
+    }
+
+    /**
+     * The encoded lists of a snapshot in one locale.
+     */
+    protected static final class LocalizedLists {
+
+        /** The encoded list of all the authentication sources. */
+        @Nonnull private final EncodedList sourceList;
+
+        /** The encoded list of the authentication tags. */
+        @Nonnull private final EncodedList tagList;
+
+        /**
+         * Constructor.
+         *
+         * @param sources The encoded list of all the authentication sources.
+         * @param tags The encoded list of the authentication tags.
+         */
+        private LocalizedLists(@Nonnull final EncodedList sources, @Nonnull final EncodedList tags) {
+            sourceList = sources;
+            tagList = tags;
+        }
+    }
+
+    /**
+     * The encoded authentication sources of a snapshot, selectable by their tags. The responses for the selections
+     * are encoded on demand from the pre-encoded sources, and cached for the lifetime of the snapshot. The concurrent
+     * requests for the same selection wait for a single encoding, or get the list of the previous snapshot if it
+     * takes too long.
+     * 
+     * <p>The lists are cached by the normalized query, see {@link AuthnTagIndex#normalize(String)}, and looked up
+     * first by the query as requested, so that a repeated query is answered from the lock-free maps without
+     * normalizing it. When a cache is full, an arbitrary entry is evicted to make room for the new one.</p>
+     */
+    protected static final class FilteredSources {
+
+        /** The index of the authentication sources by their tags. */
+        @Nonnull private final AuthnTagIndex tagIndex;
+
+        /** The maximum number of the cached lists, and of the cached queries per language. */
+        private final int cacheSize;
+
+        /** The cached lists, keyed by the language and the normalized query. */
+        @Nonnull private final ConcurrentMap<String, EncodedList> cache;
+
+        /** The cached lists, keyed by the language and then by the query as requested. */
+        @Nonnull private final ConcurrentMap<String, ConcurrentMap<String, EncodedList>> requested;
+
+        /** The encodings in progress, falling back to the lists of the previous snapshot. */
+        @Nonnull private final SingleFlight<String, EncodedList> selections;
+
+        /**
+         * Constructor.
+         *
+         * @param index The index of the authentication sources by their tags.
+         * @param size The maximum number of the cached lists.
+         * @param flight The encodings in progress.
+         */
+        private FilteredSources(@Nonnull final AuthnTagIndex index, final int size,
+                @Nonnull final SingleFlight<String, EncodedList> flight) {
+            tagIndex = index;
+            cacheSize = size;
+            selections = flight;
+            cache = new ConcurrentHashMap<>();
+            requested = new ConcurrentHashMap<>();
+        }
+
+        /**
+         * Get the encoded list of the authentication sources matching the given type query.
+         *
+         * @param lang The supported language code.
+         * @param sources The encoded list of all the authentication sources in the language.
+         * @param query The type query.
+         * @param buildInstant The build time of the catalog.
+         * @return The encoded list.
+         */
+        @Nonnull private EncodedList getList(@Nonnull final String lang, @Nonnull final EncodedList sources,
+                @Nonnull final String query, @Nonnull final Instant buildInstant) {
+            final ConcurrentMap<String, EncodedList> queries = requested.get(lang);
+            final EncodedList requestedList = queries != null ? queries.get(query) : null;
+            if (requestedList != null) {
+                return requestedList;
+            }
+            final String normalizedQuery = tagIndex.normalize(query);
+            final String key = lang + ':' + normalizedQuery;
+            EncodedList list = cache.get(key);
+            if (list == null) {
+                list = selections.get(key, selection -> {
+                    final EncodedList published = cache.get(selection);
+                    if (published != null) {
+                        return published;
+                    }
+                    final EncodedList selected = sources.select(new JsonByteWriter(), lang,
+                            tagIndex.select(normalizedQuery), buildInstant);
+                    putBounded(cache, selection, selected);
+                    return selected;
+                });
+            }
+            if (cacheSize > 0) {
+                putBounded(queries != null ? queries
+                        : requested.computeIfAbsent(lang, language -> new ConcurrentHashMap<>()), query, list);
+            }
+            return list;
+        }
+
+        /**
+         * Puts the given entry into the given cache, first evicting an arbitrary entry if the cache is full.
+         *
+         * @param map The cache.
+         * @param key The key of the entry.
+         * @param value The value of the entry.
+         */
+        private void putBounded(@Nonnull final ConcurrentMap<String, EncodedList> map, @Nonnull final String key,
+                @Nonnull final EncodedList value) {
+            if (cacheSize == 0) {
+                return;
+            }
+            if (map.size() >= cacheSize && !map.containsKey(key)) {
+                final Iterator<String> keys = map.keySet().iterator();
+                if (keys.hasNext()) {
+                    keys.next();
+                    keys.remove();
+                }
+            }
+            map.put(key, value);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import org.springframework.context.MessageSource;
+import org.springframework.context.NoSuchMessageException;
+
+import fi.mpass.shibboleth.rest.data.AuthnSourceDTO;
+import fi.mpass.shibboleth.rest.data.AuthnTagDTO;
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * Builds the contents of an {@link AuthnCatalog} snapshot in a single pass over the authentication sources: the
+ * sources, the tags deduplicated by their identifiers, and the {@link AuthnTagIndex} from the tags to the sources
+ * having them. The build time is linear in the number of the sources and their tags.
+ * 
+ * <p>The pass only collects the locale-independent contents and the message codes of the titles and icons. The
+ * localized sources and tags are materialized separately for each locale, so that the locales never requested
+ * cost nothing. The messages can still be checked to resolve in every locale up front, see
+ * {@link #checkMessages()}. Instances are not thread-safe while the sources are added, but the materialization
+ * may be run concurrently once all of them have been added.</p>
+ * 
+ * <p>The contents are kept compact for the lifetime of the snapshot: the sources are stored in parallel arrays,
+ * their tags as positions in the shared tag table and their boolean properties packed into a single byte, so
+ * that the retained heap grows with the unique data only.</p>
+ */
+public final class AuthnCatalogBuilder {
+
+    /** The flag of the sources directly connected to the registry. */
+    private static final byte REGISTRY = 1;
+
+    /** The flag of the sources supporting forced authentication. */
+    private static final byte FORCED_AUTHN = 2;
+
+    /** The flag of the sources supporting passive authentication. */
+    private static final byte PASSIVE_AUTHN = 4;
+
+    /** The initial capacity of the source arrays. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** The message source containing the localized titles and icons. */
+    @Nonnull private final MessageSource messageSource;
+
+    /** The supported locales parsed for the message source lookups, keyed by the upper-cased language code. */
+    @Nonnull private final Map<String, Locale> locales;
+
+    /** The complementary information for the authentication sources and tags. */
+    @Nonnull private final Properties info;
+
+    /** The identifiers of the sources. */
+    @Nonnull private String[] sourceIds;
+
+    /** The message codes of the source titles, parallel to {@link #sourceIds}. */
+    @Nonnull private String[] titleCodes;
+
+    /** The message codes of the source icon URLs, parallel to {@link #sourceIds}. */
+    @Nonnull private String[] iconUrlCodes;
+
+    /** The positions of the tags of each source in the tag table, parallel to {@link #sourceIds}. */
+    @Nonnull private int[][] sourceTags;
+
+    /** The packed boolean properties of the sources, parallel to {@link #sourceIds}. */
+    @Nonnull private byte[] flags;
+
+    /** The number of the sources added so far. */
+    private int sourceCount;
+
+    /** The tag table: the identifiers of the distinct tags, in the order of their first occurrence. */
+    @Nonnull private final List<String> tagIds;
+
+    /** The message codes of the tag titles, parallel to {@link #tagIds}. */
+    @Nonnull private final List<String> tagTitleCodes;
+
+    /** The positions of the sources having each tag, parallel to {@link #tagIds}. */
+    @Nonnull private final List<BitSet> tagSources;
+
+    /** The positions of the tags in the tag table. */
+    @Nonnull private final Map<String, Integer> tagPositions;
+
+    /**
+     * Constructor.
+     *
+     * @param source The message source containing the localized titles and icons.
+     * @param localeCodes The supported locales, upper-cased.
+     * @param additionalInfo The complementary information for the authentication sources and tags.
+     */
+    public AuthnCatalogBuilder(@Nonnull final MessageSource source, @Nonnull final List<String> localeCodes,
+            @Nonnull final Properties additionalInfo) {
+        messageSource = Constraint.isNotNull(source, "The message source cannot be null");
+        Constraint.isNotEmpty(localeCodes, "The list of supported locales cannot be empty");
+        info = Constraint.isNotNull(additionalInfo, "The additional info properties cannot be null");
+        locales = new HashMap<>();
+        for (final String localeCode : localeCodes) {
+            locales.put(localeCode, Locale.forLanguageTag(localeCode));
+        }
+        sourceIds = new String[INITIAL_CAPACITY];
+        titleCodes = new String[INITIAL_CAPACITY];
+        iconUrlCodes = new String[INITIAL_CAPACITY];
+        sourceTags = new int[INITIAL_CAPACITY][];
+        flags = new byte[INITIAL_CAPACITY];
+        tagIds = new ArrayList<>();
+        tagTitleCodes = new ArrayList<>();
+        tagSources = new ArrayList<>();
+        tagPositions = new HashMap<>();
+    }
+
+    /**
+     * Adds an authentication source with the given tags. The tags not seen before are added to the tag table, in
+     * the order of their first occurrence.
+     * 
+     * @param id The (stripped) identifier of the authentication source.
+     * @param sourceTagIds The tags of the authentication source.
+     * @param forcedAuthn Whether the source supports forced authentication.
+     * @param passiveAuthn Whether the source supports passive authentication.
+     */
+    public void addSource(@Nonnull final String id, @Nonnull final List<String> sourceTagIds,
+            final boolean forcedAuthn, final boolean passiveAuthn) {
+        if (sourceCount == sourceIds.length) {
+            grow();
+        }
+        sourceIds[sourceCount] = id;
+        titleCodes[sourceCount] = info.getProperty(id + ".title", id + ".title");
+        iconUrlCodes[sourceCount] = info.getProperty(id + ".iconUrl", id + ".iconUrl");
+        flags[sourceCount] = (byte) (("true".equalsIgnoreCase(info.getProperty(id + ".isRegistry")) ? REGISTRY : 0)
+                | (forcedAuthn ? FORCED_AUTHN : 0) | (passiveAuthn ? PASSIVE_AUTHN : 0));
+        final int[] tags = new int[sourceTagIds.size()];
+        for (int i = 0; i < tags.length; i++) {
+            tags[i] = getTagPosition(sourceTagIds.get(i));
+            tagSources.get(tags[i]).set(sourceCount);
+        }
+        sourceTags[sourceCount++] = tags;
+    }
+
+    /**
+     * Checks whether the given locale is supported.
+     * 
+     * @param locale The upper-cased language code.
+     * @return true if the locale is supported, false otherwise.
+     */
+    public boolean isSupportedLocale(@Nonnull final String locale) {
+        return locales.containsKey(locale);
+    }
+
+    /**
+     * Get the number of the authentication sources added so far.
+     * 
+     * @return The number of the authentication sources.
+     */
+    public int getSourceCount() {
+        return sourceCount;
+    }
+
+    /**
+     * Get the number of the distinct authentication tags of the sources added so far.
+     * 
+     * @return The number of the authentication tags.
+     */
+    public int getTagCount() {
+        return tagIds.size();
+    }
+
+    /**
+     * Checks that the titles and icons of the sources and the titles of the tags resolve in every supported
+     * locale, without materializing them. A missing message thus fails the build of the snapshot rather than the
+     * first request for the locale.
+     * 
+     * @throws NoSuchMessageException If a message is missing in any of the supported locales.
+     */
+    public void checkMessages() {
+        final Set<String> codes = new LinkedHashSet<>();
+        codes.addAll(Arrays.asList(titleCodes).subList(0, sourceCount));
+        codes.addAll(Arrays.asList(iconUrlCodes).subList(0, sourceCount));
+        codes.addAll(tagTitleCodes);
+        for (final Locale locale : locales.values()) {
+            for (final String code : codes) {
+                messageSource.getMessage(code, null, locale);
+            }
+        }
+    }
+
+    /**
+     * Materializes the authentication sources in the given locale.
+     * 
+     * @param locale The supported locale, upper-cased.
+     * @return The localized authentication sources.
+     */
+    @Nonnull public List<AuthnSourceDTO> getSources(@Nonnull final String locale) {
+        final Locale parsed = getLocale(locale);
+        final List<AuthnSourceDTO> localized = new ArrayList<>(sourceCount);
+        for (int i = 0; i < sourceCount; i++) {
+            final String[] tags = new String[sourceTags[i].length];
+            for (int j = 0; j < tags.length; j++) {
+                tags[j] = tagIds.get(sourceTags[i][j]);
+            }
+            localized.add(new AuthnSourceDTO(sourceIds[i], messageSource.getMessage(titleCodes[i], null, parsed),
+                    Arrays.asList(tags), messageSource.getMessage(iconUrlCodes[i], null, parsed),
+                    (flags[i] & REGISTRY) != 0, (flags[i] & FORCED_AUTHN) != 0, (flags[i] & PASSIVE_AUTHN) != 0));
+        }
+        return localized;
+    }
+
+    /**
+     * Materializes the distinct authentication tags in the given locale.
+     * 
+     * @param locale The supported locale, upper-cased.
+     * @return The localized authentication tags.
+     */
+    @Nonnull public List<AuthnTagDTO> getTags(@Nonnull final String locale) {
+        final Locale parsed = getLocale(locale);
+        final List<AuthnTagDTO> localized = new ArrayList<>(tagIds.size());
+        for (int i = 0; i < tagIds.size(); i++) {
+            localized.add(new AuthnTagDTO(tagIds.get(i), messageSource.getMessage(tagTitleCodes.get(i), null,
+                    parsed)));
+        }
+        return localized;
+    }
+
+    /**
+     * Builds the index from the tags to the positions of the sources having them.
+     * 
+     * @return The tag index of the sources added so far.
+     */
+    @Nonnull public AuthnTagIndex buildTagIndex() {
+        final Map<String, BitSet> sourcesByTag = new HashMap<>();
+        for (int i = 0; i < tagIds.size(); i++) {
+            sourcesByTag.put(tagIds.get(i), tagSources.get(i));
+        }
+        return new AuthnTagIndex(sourcesByTag, sourceCount);
+    }
+
+    /**
+     * Get the position of the given tag in the tag table, adding it if not seen before.
+     * 
+     * @param tagId The identifier of the tag.
+     * @return The position of the tag.
+     */
+    private int getTagPosition(@Nonnull final String tagId) {
+        final Integer position = tagPositions.get(tagId);
+        if (position != null) {
+            return position;
+        }
+        tagPositions.put(tagId, tagIds.size());
+        tagIds.add(tagId);
+        tagTitleCodes.add(info.getProperty(tagId + ".title"));
+        tagSources.add(new BitSet());
+        return tagIds.size() - 1;
+    }
+
+    /**
+     * Doubles the capacity of the source arrays.
+     */
+    private void grow() {
+        final int capacity = 2 * sourceIds.length;
+        sourceIds = Arrays.copyOf(sourceIds, capacity);
+        titleCodes = Arrays.copyOf(titleCodes, capacity);
+        iconUrlCodes = Arrays.copyOf(iconUrlCodes, capacity);
+        sourceTags = Arrays.copyOf(sourceTags, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+    }
+
+    /**
+     * Get the parsed form of the given supported locale.
+     * 
+     * @param locale The supported locale, upper-cased.
+     * @return The parsed locale.
+     */
+    @Nonnull private Locale getLocale(@Nonnull final String locale) {
+        return Constraint.isNotNull(locales.get(locale), "The locale " + locale + " is not supported");
+    }
+}
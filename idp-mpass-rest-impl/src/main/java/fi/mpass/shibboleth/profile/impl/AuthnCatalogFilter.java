@@ -0,0 +1,376 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+
+import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.shared.component.AbstractInitializableComponent;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.Constraint;
+import net.shibboleth.shared.primitive.StringSupport;
+import net.shibboleth.shared.spring.servlet.ChainableFilter;
+
+/**
+ * An optional servlet filter answering the requests to a catalog endpoint directly from the prebuilt
+ * {@link AuthnCatalog}, without entering Spring Web Flow. The responses, including the headers and the errors,
+ * are identical to the ones of the corresponding flow, which remains as the fallback when the filter is
+ * disabled. The OPTIONS requests to the endpoint are answered with the configured {@link CorsPolicy}. Other
+ * requests are passed on to the rest of the chain.
+ */
+public class AuthnCatalogFilter extends AbstractInitializableComponent implements ChainableFilter {
+
+    /** The default path of the endpoint, relative to the context path. */
+    @Nonnull public static final String DEFAULT_PATH = "/profile/api/authnsources";
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(AuthnCatalogFilter.class);
+
+    /** Whether the requests are answered by this filter. */
+    private boolean enabled;
+
+    /** The path of the endpoint, relative to the context path. */
+    @Nonnull private String path;
+
+    /** The catalog of the authentication sources and tags. */
+    @NonnullAfterInit private AuthnCatalog catalog;
+
+    /** The list published from the catalog. */
+    @Nonnull private AuthnCatalog.Content content;
+
+    /** The additional headers to be added to the HTTP response. */
+    @Nullable private Map<String, String> additionalHeaders;
+
+    /** The registry of the endpoint metrics. */
+    @Nullable private ApiMetrics metrics;
+
+    /** The identifier of the endpoint in the metrics. */
+    @Nullable private String metricsEndpointId;
+
+    /** Whether the responses are written with the non-blocking I/O when supported. */
+    private boolean asyncWriting;
+
+    /** The maximum time to write a response with the non-blocking I/O, zero for no limit. */
+    @Nonnull private Duration asyncWriteTimeout;
+
+    /** The cache policy of the validated responses, or null if they are not stored. */
+    @Nullable private CachePolicy cachePolicy;
+
+    /** The origins allowed to read the responses, or {@value CorsPolicy#ANY_ORIGIN} for any origin. */
+    @Nullable private List<String> corsAllowedOrigins;
+
+    /** The allowed methods of the cross-origin requests. */
+    @Nonnull private List<String> corsAllowedMethods;
+
+    /** The allowed request headers of the cross-origin requests. */
+    @Nullable private List<String> corsAllowedHeaders;
+
+    /** How long the browsers may cache the preflight responses. */
+    @Nonnull private Duration corsMaxAge;
+
+    /** The order of this filter in the chain. */
+    private int order;
+
+    /** The rate limiter of the endpoint, or null if not limited. */
+    @Nullable private RateLimiter rateLimiter;
+
+    /** The metrics of the endpoint, null if not recorded. */
+    @Nullable private EndpointMetrics endpointMetrics;
+
+    /** The CORS policy of the endpoint. */
+    @NonnullAfterInit private CorsPolicy corsPolicy;
+
+    /** The writer for the responses of the endpoint. */
+    @NonnullAfterInit private RestResponseWriter responseWriter;
+
+    /** The responder sharing the request handling with the flow. */
+    @NonnullAfterInit private AuthnCatalogResponder responder;
+
+    /** Constructor. */
+    public AuthnCatalogFilter() {
+        path = DEFAULT_PATH;
+        content = AuthnCatalog.Content.SOURCES;
+        order = LOWEST_PRECEDENCE;
+        corsAllowedMethods = Arrays.asList(HttpMethod.GET.name(), HttpMethod.HEAD.name());
+        corsMaxAge = Duration.ofHours(1);
+        asyncWriteTimeout = AsyncBodyWriter.DEFAULT_TIMEOUT;
+    }
+
+    /**
+     * Set whether the requests are answered by this filter. Default is false.
+     * @param flag What to set.
+     */
+    public void setEnabled(final boolean flag) {
+        checkSetterPreconditions();
+        enabled = flag;
+    }
+
+    /**
+     * Set the path of the endpoint, relative to the context path. Default is {@value #DEFAULT_PATH}.
+     * @param endpointPath What to set.
+     */
+    public void setPath(@Nonnull final String endpointPath) {
+        checkSetterPreconditions();
+        path = Constraint.isNotNull(StringSupport.trimOrNull(endpointPath), "The path cannot be empty");
+    }
+
+    /**
+     * Set the catalog of the authentication sources and tags.
+     * @param authnCatalog What to set.
+     */
+    public void setCatalog(@Nonnull final AuthnCatalog authnCatalog) {
+        checkSetterPreconditions();
+        catalog = Constraint.isNotNull(authnCatalog, "The authentication catalog cannot be null");
+    }
+
+    /**
+     * Set the list published from the catalog. Default is {@link AuthnCatalog.Content#SOURCES}.
+     * @param catalogContent What to set.
+     */
+    public void setContent(@Nonnull final AuthnCatalog.Content catalogContent) {
+        checkSetterPreconditions();
+        content = Constraint.isNotNull(catalogContent, "The content cannot be null");
+    }
+
+    /**
+     * Set the additional headers to be added to the HTTP response.
+     * @param headers What to set.
+     */
+    public void setAdditionalHeaders(@Nullable final Map<String, String> headers) {
+        checkSetterPreconditions();
+        additionalHeaders = headers;
+    }
+
+    /**
+     * Set the registry of the endpoint metrics, if the responses are to be recorded.
+     * @param apiMetrics What to set.
+     */
+    public void setMetrics(@Nullable final ApiMetrics apiMetrics) {
+        checkSetterPreconditions();
+        metrics = apiMetrics;
+    }
+
+    /**
+     * Set the identifier of the endpoint in the metrics. Required if the metrics are set.
+     * @param id What to set.
+     */
+    public void setMetricsEndpointId(@Nullable final String id) {
+        checkSetterPreconditions();
+        metricsEndpointId = id;
+    }
+
+    /**
+     * Set whether the responses are written with the non-blocking I/O of the Servlet async API, see
+     * {@link AsyncBodyWriter}. The blocking I/O is used for the requests not supporting the async mode.
+     * Default is false.
+     * @param flag What to set.
+     */
+    public void setAsyncWriting(final boolean flag) {
+        checkSetterPreconditions();
+        asyncWriting = flag;
+    }
+
+    /**
+     * Set the maximum time to write a response with the non-blocking I/O, zero for no limit. The response is
+     * completed when the time expires. Replaces the default async timeout of the container, which is typically too
+     * short for the slow clients. Default is five minutes.
+     * @param timeout What to set.
+     */
+    public void setAsyncWriteTimeout(@Nonnull final Duration timeout) {
+        checkSetterPreconditions();
+        Constraint.isNotNull(timeout, "The write timeout cannot be null");
+        Constraint.isFalse(timeout.isNegative(), "The write timeout cannot be negative");
+        asyncWriteTimeout = timeout;
+    }
+
+    /**
+     * Set the cache policy of the validated responses. Default is none, i.e. the responses may be stored by the
+     * clients only if revalidated before each use.
+     * @param policy What to set.
+     */
+    public void setCachePolicy(@Nullable final CachePolicy policy) {
+        checkSetterPreconditions();
+        cachePolicy = policy;
+    }
+
+    /**
+     * Set the origins allowed to read the responses, or {@value CorsPolicy#ANY_ORIGIN} for any origin. Default is
+     * none, i.e. no CORS headers are added.
+     * @param origins What to set.
+     */
+    public void setCorsAllowedOrigins(@Nullable final List<String> origins) {
+        checkSetterPreconditions();
+        corsAllowedOrigins = origins;
+    }
+
+    /**
+     * Set the allowed methods of the cross-origin requests. Default is GET and HEAD.
+     * @param methods What to set.
+     */
+    public void setCorsAllowedMethods(@Nonnull final List<String> methods) {
+        checkSetterPreconditions();
+        corsAllowedMethods = Constraint.isNotEmpty(methods, "The list of allowed methods cannot be empty");
+    }
+
+    /**
+     * Set the allowed request headers of the cross-origin requests, in addition to the CORS-safelisted ones.
+     * Default is none.
+     * @param headers What to set.
+     */
+    public void setCorsAllowedHeaders(@Nullable final List<String> headers) {
+        checkSetterPreconditions();
+        corsAllowedHeaders = headers;
+    }
+
+    /**
+     * Set how long the browsers may cache the preflight responses. Default is one hour.
+     * @param maxAge What to set.
+     */
+    public void setCorsMaxAge(@Nonnull final Duration maxAge) {
+        checkSetterPreconditions();
+        corsMaxAge = Constraint.isNotNull(maxAge, "The maximum age cannot be null");
+    }
+
+    /**
+     * Set the rate limiter of the endpoint, if the requests of each client are to be limited. Should be the same
+     * instance as in the flow. Default is none.
+     * @param limiter What to set.
+     */
+    public void setRateLimiter(@Nullable final RateLimiter limiter) {
+        checkSetterPreconditions();
+        rateLimiter = limiter;
+    }
+
+    /**
+     * Set the order of this filter in the chain. Default is {@link #LOWEST_PRECEDENCE}.
+     * @param filterOrder What to set.
+     */
+    public void setOrder(final int filterOrder) {
+        checkSetterPreconditions();
+        order = filterOrder;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getOrder() {
+        return order;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (catalog == null) {
+            throw new ComponentInitializationException("The authentication catalog cannot be null");
+        }
+        if (metrics != null) {
+            if (metricsEndpointId == null || metricsEndpointId.isEmpty()) {
+                throw new ComponentInitializationException("The metrics endpoint identifier cannot be empty");
+            }
+            endpointMetrics = metrics.getEndpoint(metricsEndpointId);
+        }
+        corsPolicy = new CorsPolicy(corsAllowedOrigins, corsAllowedMethods, corsAllowedHeaders, corsMaxAge);
+        final String logPrefix = "Catalog filter '" + path + "'";
+        responseWriter = new RestResponseWriter(new ResponseHeaders(additionalHeaders, cachePolicy, corsPolicy),
+                endpointMetrics, logPrefix, asyncWriting ? asyncWriteTimeout : null);
+        responder = new AuthnCatalogResponder(catalog, (request, lang) -> catalog.getList(content, lang,
+                request.getParameter(AuthnCatalogResponder.TYPE_PARAMETER)), responseWriter, logPrefix);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain)
+            throws IOException, ServletException {
+        if (enabled && request instanceof HttpServletRequest && response instanceof HttpServletResponse
+                && isEndpointRequest((HttpServletRequest) request)) {
+            respond((HttpServletRequest) request, (HttpServletResponse) response);
+        } else {
+            chain.doFilter(request, response);
+        }
+    }
+
+    /**
+     * Checks whether the given request targets the endpoint of this filter.
+     * @param httpRequest The HTTP request.
+     * @return true if the request targets the endpoint, false otherwise.
+     */
+    protected boolean isEndpointRequest(@Nonnull final HttpServletRequest httpRequest) {
+        final String uri = httpRequest.getRequestURI();
+        final String contextPath = httpRequest.getContextPath();
+        if (uri == null || contextPath == null || !uri.startsWith(contextPath)) {
+            return false;
+        }
+        return uri.length() == contextPath.length() + path.length() && uri.startsWith(path, contextPath.length());
+    }
+
+    /**
+     * Answers the request and records the metrics, if configured. The OPTIONS requests are answered without
+     * recording the metrics.
+     * @param httpRequest The HTTP request.
+     * @param httpResponse The HTTP response.
+     */
+    protected void respond(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final HttpServletResponse httpResponse) {
+        checkComponentActive();
+        if (HttpMethod.OPTIONS.name().equals(httpRequest.getMethod())) {
+            if (!corsPolicy.writeOptions(httpRequest, httpResponse)) {
+                log.debug("Catalog filter '{}': Rejected a preflight from origin {}", path,
+                        httpRequest.getHeader(HttpHeaders.ORIGIN));
+            }
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            if (!responseWriter.rejectIfRateLimited(httpRequest, httpResponse, rateLimiter)) {
+                responder.respond(httpRequest, httpResponse);
+            }
+        } catch (final IOException e) {
+            log.error("Catalog filter '{}': Could not write the JSON response", path, e);
+            httpResponse.setStatus(HttpStatus.SC_SERVICE_UNAVAILABLE);
+        }
+        if (endpointMetrics != null) {
+            responseWriter.recordCompletion(httpRequest, httpResponse, responder.getMetricsLocale(httpRequest), start);
+        }
+    }
+}
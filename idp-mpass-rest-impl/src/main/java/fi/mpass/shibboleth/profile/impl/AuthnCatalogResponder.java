@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.io.IOException;
+import java.util.function.BiFunction;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * Answers the requests for a localized list of the {@link AuthnCatalog}. The same logic is used both by the
+ * Web Flow actions and by the {@link AuthnCatalogFilter}, so that the responses, including the errors, are
+ * identical in both paths. Instances are thread-safe.
+ * 
+ * <p>The lists are paginated as described in {@link RestResponseWriter#writeList(HttpServletRequest,
+ * HttpServletResponse, EncodedList)}.</p>
+ */
+public class AuthnCatalogResponder {
+
+    /** The name of the query parameter for filtering the authentication sources by their tags. */
+    @Nonnull public static final String TYPE_PARAMETER = "type";
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(AuthnCatalogResponder.class);
+
+    /** The catalog of the authentication sources and tags. */
+    @Nonnull private final AuthnCatalog catalog;
+
+    /** The function returning the encoded list for the given request and language. */
+    @Nonnull private final BiFunction<HttpServletRequest, String, EncodedList> listLookup;
+
+    /** The writer for the responses. */
+    @Nonnull private final RestResponseWriter responseWriter;
+
+    /** The prefix for the log messages. */
+    @Nonnull private final String logPrefix;
+
+    /**
+     * Constructor.
+     *
+     * @param authnCatalog The catalog of the authentication sources and tags.
+     * @param lookup The function returning the encoded list for the given request and language, or null if
+     *     not available.
+     * @param writer The writer for the responses.
+     * @param prefix The prefix for the log messages.
+     */
+    public AuthnCatalogResponder(@Nonnull final AuthnCatalog authnCatalog,
+            @Nonnull final BiFunction<HttpServletRequest, String, EncodedList> lookup,
+            @Nonnull final RestResponseWriter writer, @Nonnull final String prefix) {
+        catalog = Constraint.isNotNull(authnCatalog, "The authentication catalog cannot be null");
+        listLookup = Constraint.isNotNull(lookup, "The list lookup cannot be null");
+        responseWriter = Constraint.isNotNull(writer, "The response writer cannot be null");
+        logPrefix = prefix;
+    }
+
+    /**
+     * Writes the response for the given request: the encoded list or its page in the requested language, or an
+     * error if the method, the language or the page is not supported, or if the list could not be built in time.
+     * 
+     * @param httpRequest The HTTP request.
+     * @param httpResponse The HTTP response.
+     * @throws IOException If the response could not be written.
+     */
+    public void respond(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final HttpServletResponse httpResponse) throws IOException {
+        final String lang = getRequestedLanguage(httpRequest);
+        responseWriter.pushHttpResponseProperties(httpRequest, httpResponse);
+        if (!RestResponseWriter.isGetOrHead(httpRequest)) {
+            log.warn("{}: Unsupported method attempted {}", logPrefix, httpRequest.getMethod());
+            responseWriter.writeResponse(httpRequest, httpResponse, responseWriter.makeErrorResponse(httpResponse,
+                    HttpStatus.SC_METHOD_NOT_ALLOWED, httpRequest.getMethod() + " not allowed",
+                    "Only GET and HEAD are allowed"));
+        } else if (lang == null) {
+            final String requested = LanguageNegotiator.getLanguageParameter(httpRequest);
+            log.warn("{}: Unsupported language attempted {}", logPrefix, requested);
+            responseWriter.writeResponse(httpRequest, httpResponse, responseWriter.makeErrorResponse(httpResponse,
+                    HttpStatus.SC_BAD_REQUEST, "Language '" + requested + "' not supported",
+                    "Supported languages: " + catalog.getSupportedLocales()));
+        } else {
+            final EncodedList list;
+            try {
+                list = listLookup.apply(httpRequest, lang);
+            } catch (final RuntimeException e) {
+                log.error("{}: Could not build the list in language {}", logPrefix, lang, e);
+                responseWriter.writeResponse(httpRequest, httpResponse, responseWriter.makeErrorResponse(httpResponse,
+                        HttpStatus.SC_SERVICE_UNAVAILABLE, "Service unavailable", "The list is not available"));
+                return;
+            }
+            if (list != null) {
+                responseWriter.setContentLanguage(httpResponse,
+                        catalog.getLanguageNegotiator().getContentLanguage(lang));
+                responseWriter.writeList(httpRequest, httpResponse, list);
+            } else {
+                responseWriter.writeResponse(httpRequest, httpResponse, responseWriter.makeErrorResponse(httpResponse,
+                        HttpStatus.SC_NOT_IMPLEMENTED, "Not implemented on the server side", ""));
+            }
+        }
+    }
+
+    /**
+     * Get the locale of the response for recording the metrics.
+     * @param httpRequest The HTTP request.
+     * @return The requested language if it is supported, null otherwise.
+     */
+    @Nullable public String getMetricsLocale(@Nonnull final HttpServletRequest httpRequest) {
+        return getRequestedLanguage(httpRequest);
+    }
+
+    /**
+     * Get the supported locale negotiated for the given request, see {@link LanguageNegotiator}.
+     * @param httpRequest The HTTP request.
+     * @return The negotiated locale, or null if the requested language parameter is not supported.
+     */
+    @Nullable public String getRequestedLanguage(@Nonnull final HttpServletRequest httpRequest) {
+        return catalog.getLanguageNegotiator().negotiate(httpRequest);
+    }
+}
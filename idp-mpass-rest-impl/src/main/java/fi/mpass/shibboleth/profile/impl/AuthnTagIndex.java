@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.TreeSet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable index from the authentication tags to the positions of the authentication sources having them,
+ * built together with the {@link AuthnCatalog} snapshot.
+ * 
+ * <p>The type queries are comma-separated lists of terms, each term being one or more tags separated by
+ * '+' (or a space, as '+' is decoded into one in the query strings). A source is selected if it has all the
+ * tags of any of the terms, i.e. the commas are unions and the pluses are intersections.</p>
+ */
+public final class AuthnTagIndex {
+
+    /** The separator of the union terms in the queries. */
+    private static final String TERM_SEPARATOR = ",";
+
+    /** The separators of the intersected tags within a term. */
+    private static final String TAG_SEPARATORS = "+ ";
+
+    /** The positions of the sources having each tag. */
+    @Nonnull private final Map<String, BitSet> sourcesByTag;
+
+    /** The number of the indexed sources. */
+    private final int size;
+
+    /**
+     * Constructor.
+     *
+     * @param index The positions of the sources having each tag, as collected by {@link AuthnCatalogBuilder}.
+     * @param sourceCount The number of the indexed sources.
+     */
+    public AuthnTagIndex(@Nonnull final Map<String, BitSet> index, final int sourceCount) {
+        sourcesByTag = Collections.unmodifiableMap(new HashMap<>(index));
+        size = sourceCount;
+    }
+
+    /**
+     * Get the number of the indexed sources.
+     *
+     * @return The number of the indexed sources.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Normalizes the given type query into its canonical form: the tags of each term sorted and joined with '+',
+     * the terms sorted and joined with ','. Duplicates and the terms containing unknown tags, which cannot match
+     * any source, are dropped. The queries selecting the same sources by the same terms thus share the form,
+     * which is usable as a cache key.
+     *
+     * @param query The type query.
+     * @return The canonical form of the query, empty if no source can match.
+     */
+    @Nonnull public String normalize(@Nonnull final String query) {
+        final TreeSet<String> terms = new TreeSet<>();
+        final StringTokenizer termTokenizer = new StringTokenizer(query, TERM_SEPARATOR);
+        while (termTokenizer.hasMoreTokens()) {
+            final String term = normalizeTerm(termTokenizer.nextToken());
+            if (term != null) {
+                terms.add(term);
+            }
+        }
+        return String.join(TERM_SEPARATOR, terms);
+    }
+
+    /**
+     * Selects the sources matching the given type query.
+     *
+     * @param normalizedQuery The type query in its canonical form, see {@link #normalize(String)}.
+     * @return The positions of the matching sources, owned by the caller.
+     */
+    @Nonnull public BitSet select(@Nonnull final String normalizedQuery) {
+        final BitSet selected = new BitSet(size);
+        final StringTokenizer termTokenizer = new StringTokenizer(normalizedQuery, TERM_SEPARATOR);
+        while (termTokenizer.hasMoreTokens()) {
+            final StringTokenizer tagTokenizer = new StringTokenizer(termTokenizer.nextToken(), TAG_SEPARATORS);
+            final BitSet term = (BitSet) sourcesByTag.get(tagTokenizer.nextToken()).clone();
+            while (tagTokenizer.hasMoreTokens()) {
+                term.and(sourcesByTag.get(tagTokenizer.nextToken()));
+            }
+            selected.or(term);
+        }
+        return selected;
+    }
+
+    /**
+     * Normalizes a single term of a type query.
+     *
+     * @param term The term.
+     * @return The sorted tags joined with '+', or null if the term is empty or contains an unknown tag.
+     */
+    @Nullable private String normalizeTerm(@Nonnull final String term) {
+        final TreeSet<String> tags = new TreeSet<>();
+        final StringTokenizer tagTokenizer = new StringTokenizer(term, TAG_SEPARATORS);
+        while (tagTokenizer.hasMoreTokens()) {
+            final String tag = tagTokenizer.nextToken();
+            if (!sourcesByTag.containsKey(tag)) {
+                return null;
+            }
+            tags.add(tag);
+        }
+        return tags.isEmpty() ? null : String.join("+", tags);
+    }
+}
@@ -21,67 +21,26 @@
  * THE SOFTWARE.
  */
 
-package fi.mpass.shibboleth.profile.impl;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Locale;
-import java.util.Map;
+package fi.mpass.shibboleth.profile.impl;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import jakarta.servlet.http.HttpServletRequest;
 
 import fi.mpass.shibboleth.rest.data.AuthnSourceDTO;
-import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
-import net.shibboleth.shared.component.ComponentInitializationException;
 
 /**
- * This action builds a response containing {@link AuthnSourceDTO}s.
+ * This action builds a response containing {@link AuthnSourceDTO}s, optionally filtered by their tags with the
+ * {@value AuthnCatalogResponder#TYPE_PARAMETER} query parameter (see {@link AuthnTagIndex}).
  */
 public class BuildAuthnSourceRestResponse extends AbstractAuthnFlowRestResponseAction {
 
-    /** Class logger. */
-    @Nonnull private final Logger log = LoggerFactory.getLogger(BuildAuthnSourceRestResponse.class);
-    
-    /** The full flow information to be responded by the API. */
-    private Map<String, List<AuthnSourceDTO>> flowInformation;
-    
-    /** {@inheritDoc} */
-    @Override
-    protected void doInitialize() throws ComponentInitializationException {
-        log.debug("Initializing");
-        super.doInitialize();
-        flowInformation = new HashMap<>();
-        for (final String locale : getSupportedLocales()) {
-            flowInformation.put(locale, new ArrayList<AuthnSourceDTO>());
-        }
-        for (final AuthenticationFlowDescriptor flow : getFlows()) {
-            final String id = (flow.getId().startsWith("authn")) ? flow.getId().substring(6) : flow.getId();
-            if (getActiveFlowIds().contains(id) && !isIgnoredFlow(flow, id)) {
-                log.debug("{} Adding flow {}", getLogPrefix(), id);
-                final String titleProperty = getAdditionalInfo().getProperty(id + ".title", id + ".title");
-                final String iconUrlProperty = getAdditionalInfo().getProperty(id + ".iconUrl", id + ".iconUrl");
-                final List<String> tags = getTags(flow, id);
-                for (final String locale : getSupportedLocales()) {
-                    flowInformation.get(locale).add(new AuthnSourceDTO(id, 
-                        getMessageSource().getMessage(titleProperty, null, Locale.forLanguageTag(locale)), 
-                        tags,
-                        getMessageSource().getMessage(iconUrlProperty, null, Locale.forLanguageTag(locale)),
-                        "true".equalsIgnoreCase(getAdditionalInfo().getProperty(id + ".isRegistry")),
-                        flow.isForcedAuthenticationSupported(), flow.isPassiveAuthenticationSupported()));
-                }
-            } else {
-                log.trace("{} Ignoring {}", getLogPrefix(), id);
-            }
-        }
-    }
-    
     /** {@inheritDoc} */
     @Override
-    protected Object getResponse(final String lang) {
-        return flowInformation.get(lang.toUpperCase());
+    @Nullable protected EncodedList getEncodedList(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final String lang) {
+        return getCatalog().getSourceList(lang, httpRequest.getParameter(AuthnCatalogResponder.TYPE_PARAMETER));
     }
 }
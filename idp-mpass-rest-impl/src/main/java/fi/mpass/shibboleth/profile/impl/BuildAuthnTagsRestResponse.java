@@ -21,75 +21,25 @@
  * THE SOFTWARE.
  */
 
-package fi.mpass.shibboleth.profile.impl;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Locale;
-import java.util.Map;
+package fi.mpass.shibboleth.profile.impl;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import jakarta.servlet.http.HttpServletRequest;
 
 import fi.mpass.shibboleth.rest.data.AuthnTagDTO;
-import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
-import net.shibboleth.shared.component.ComponentInitializationException;
 
 /**
  * This action builds a response containing {@link AuthnTagDTO}s.
  */
 public class BuildAuthnTagsRestResponse extends AbstractAuthnFlowRestResponseAction {
 
-    /** Class logger. */
-    @Nonnull
-    private final Logger log = LoggerFactory.getLogger(BuildAuthnTagsRestResponse.class);
-
-    /** The full flow information to be responded by the API. */
-    private Map<String, List<AuthnTagDTO>> tagInformation;
-
-    /** {@inheritDoc} */
-    @Override
-    protected void doInitialize() throws ComponentInitializationException {
-        log.debug("Initializing");
-        super.doInitialize();
-        tagInformation = new HashMap<>();
-        for (final String locale : getSupportedLocales()) {
-            tagInformation.put(locale, new ArrayList<AuthnTagDTO>());
-        }
-        for (final AuthenticationFlowDescriptor flow : getFlows()) {
-            final String id = (flow.getId().startsWith("authn")) ? flow.getId().substring(6) : flow.getId();
-            if (getActiveFlowIds().contains(id) && !isIgnoredFlow(flow, id)) {
-                log.debug("{} Adding details from flow {}", getLogPrefix(), id);
-                final List<String> tagIds = getTags(flow, id);
-                for (final String tagId : tagIds) {
-                    boolean found = false;
-                    for (final AuthnTagDTO tag : tagInformation.get(tagInformation.keySet().iterator().next())) {
-                        if (tag.getId().equals(tagId)) {
-                            found = true;
-                        }
-                    }
-                    if (!found) {
-                        final String titleProperty = getAdditionalInfo().getProperty(tagId + ".title");
-                        log.trace("{} Resolving a localized {}", getLogPrefix(), titleProperty);
-                        for (final String locale : getSupportedLocales()) {
-                            tagInformation.get(locale).add(new AuthnTagDTO(tagId, getMessageSource()
-                                    .getMessage(titleProperty, null, Locale.forLanguageTag(locale))));
-                        }
-                        log.debug("{} Added a tag {} to be returned", getLogPrefix(), tagId);
-                    }
-                }
-            } else {
-                log.trace("{} Ignoring {}", getLogPrefix(), id);
-            }
-        }
-    }
-
     /** {@inheritDoc} */
     @Override
-    protected Object getResponse(final String lang) {
-        return tagInformation.get(lang);
+    @Nullable protected EncodedList getEncodedList(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final String lang) {
+        return getCatalog().getTagList(lang);
     }
-}
\ No newline at end of file
+}
@@ -24,10 +24,10 @@
 package fi.mpass.shibboleth.profile.impl;
 
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
@@ -35,13 +35,12 @@ import org.apache.http.HttpStatus;
 import org.opensaml.profile.action.EventIds;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.http.HttpMethod;
 import org.springframework.webflow.execution.Event;
 import org.springframework.webflow.execution.RequestContext;
 
-import com.google.gson.Gson;
-
 import fi.mpass.shibboleth.rest.data.MetaDTO;
+import fi.mpass.shibboleth.rest.data.json.DTOWriter;
+import fi.mpass.shibboleth.rest.data.json.MetaDTOWriter;
 import net.shibboleth.idp.profile.ActionSupport;
 import net.shibboleth.shared.component.ComponentInitializationException;
 import net.shibboleth.shared.logic.Constraint;
@@ -49,15 +48,24 @@ import net.shibboleth.shared.logic.Constraint;
 /**
  * This class builds a JSON response corresponding to the attached {@link MetaDTO} object.
  * The JSON is directly to the {@link HttpServletResponse}'s output.
+ * 
+ * <p>The object is encoded once when the action is initialized. GET and HEAD requests are answered with the
+ * same headers and exact content length, the latter without a body.</p>
  */
 public class BuildMetaRestResponse extends AbstractRestResponseAction {
 
+    /** The writer for the proxy meta object. */
+    @Nonnull private static final DTOWriter<MetaDTO> META_WRITER = new MetaDTOWriter();
+
     /** Class logger. */
     @Nonnull private final Logger log = LoggerFactory.getLogger(BuildMetaRestResponse.class);
     
     /** The proxy meta object to be returned to the client. */
     @Nonnull private MetaDTO metaDTO;
 
+    /** The encoded proxy meta object, or null if not set. */
+    @Nullable private byte[] encodedMeta;
+
     /** 
      * Get the proxy meta object to be returned to the client.
      * 
@@ -73,6 +81,7 @@ public class BuildMetaRestResponse extends AbstractRestResponseAction {
      * @param newMetaDto The object to set, cannot be null.
      */
     public void setMetaDTO(MetaDTO newMetaDto) {
+        checkSetterPreconditions();
         metaDTO = Constraint.isNotNull(newMetaDto, "metaDTO cannot be null!");
     }
     
@@ -81,30 +90,28 @@ public class BuildMetaRestResponse extends AbstractRestResponseAction {
     protected void doInitialize() throws ComponentInitializationException {
         log.debug("Initializing");
         super.doInitialize();
+        encodedMeta = metaDTO != null ? META_WRITER.toByteArray(metaDTO) : null;
     }
     
     /** {@inheritDoc} */
     @Override
-    @Nonnull public Event execute(@Nonnull final RequestContext springRequestContext) {
-        ifNotInitializedThrowUninitializedComponentException();        
+    @Nonnull protected Event buildResponse(@Nonnull final RequestContext springRequestContext) {
         final HttpServletRequest httpRequest = getHttpServletRequest();
         pushHttpResponseProperties();
         final HttpServletResponse httpResponse = getHttpServletResponse();
 
         try {
-            final Writer out = new OutputStreamWriter(httpResponse.getOutputStream(), "UTF-8");
-
-            if (!HttpMethod.GET.toString().equals(httpRequest.getMethod())) {
+            if (!RestResponseWriter.isGetOrHead(httpRequest)) {
                 log.warn("{}: Unsupported method attempted {}", getLogPrefix(), httpRequest.getMethod());
-                out.append(makeErrorResponse(HttpStatus.SC_METHOD_NOT_ALLOWED, httpRequest.getMethod() + " not allowed", "Only GET is allowed"));
-            } else if (metaDTO != null) {
-                final Gson gson = new Gson();
-                out.append(gson.toJson(getMetaDTO()));
+                writeResponse(makeErrorResponse(HttpStatus.SC_METHOD_NOT_ALLOWED, httpRequest.getMethod()
+                        + " not allowed", "Only GET and HEAD are allowed"));
+            } else if (encodedMeta != null) {
                 httpResponse.setStatus(HttpStatus.SC_OK);
+                writeResponse(encodedMeta);
             } else {
-                out.append(makeErrorResponse(HttpStatus.SC_NOT_IMPLEMENTED, "Not implemented on the server side", ""));
+                writeResponse(makeErrorResponse(HttpStatus.SC_NOT_IMPLEMENTED, "Not implemented on the server side",
+                        ""));
             }
-            out.flush();
         } catch (IOException e) {
             log.error("{}: Could not encode the JSON response", getLogPrefix(), e);
             httpResponse.setStatus(HttpStatus.SC_SERVICE_UNAVAILABLE);
@@ -0,0 +1,195 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.apache.http.HttpStatus;
+import org.opensaml.profile.action.EventIds;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.webflow.execution.Event;
+import org.springframework.webflow.execution.RequestContext;
+
+import fi.mpass.shibboleth.rest.data.json.JsonByteWriter;
+import net.shibboleth.idp.profile.ActionSupport;
+import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * This class builds a JSON response of the request counters and latency histograms collected in
+ * {@link ApiMetrics}. The latencies are in microseconds.
+ */
+public class BuildMetricsRestResponse extends AbstractRestResponseAction {
+
+    /** The name for the collection start time. */
+    @Nonnull private static final byte[] SINCE = JsonByteWriter.encodeName("since");
+
+    /** The name for the endpoints. */
+    @Nonnull private static final byte[] ENDPOINTS = JsonByteWriter.encodeName("endpoints");
+
+    /** The name for the endpoint identifier. */
+    @Nonnull private static final byte[] ID = JsonByteWriter.encodeName("id");
+
+    /** The name for the request counts by status code. */
+    @Nonnull private static final byte[] REQUESTS = JsonByteWriter.encodeName("requests");
+
+    /** The name for the request count of the other status codes. */
+    @Nonnull private static final byte[] OTHER = JsonByteWriter.encodeName("other");
+
+    /** The name for the body bytes written. */
+    @Nonnull private static final byte[] BYTES_WRITTEN = JsonByteWriter.encodeName("bytesWritten");
+
+    /** The name for the latencies by locale. */
+    @Nonnull private static final byte[] LATENCY = JsonByteWriter.encodeName("latency");
+
+    /** The name for the number of requests. */
+    @Nonnull private static final byte[] COUNT = JsonByteWriter.encodeName("count");
+
+    /** The name for the mean latency. */
+    @Nonnull private static final byte[] MEAN = JsonByteWriter.encodeName("mean");
+
+    /** The name for the median latency. */
+    @Nonnull private static final byte[] P50 = JsonByteWriter.encodeName("p50");
+
+    /** The name for the 90th percentile latency. */
+    @Nonnull private static final byte[] P90 = JsonByteWriter.encodeName("p90");
+
+    /** The name for the 99th percentile latency. */
+    @Nonnull private static final byte[] P99 = JsonByteWriter.encodeName("p99");
+
+    /** The name for the 99.9th percentile latency. */
+    @Nonnull private static final byte[] P999 = JsonByteWriter.encodeName("p999");
+
+    /** The name for the maximum latency. */
+    @Nonnull private static final byte[] MAX = JsonByteWriter.encodeName("max");
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(BuildMetricsRestResponse.class);
+
+    /** The metrics to publish. */
+    @NonnullAfterInit private ApiMetrics publishedMetrics;
+
+    /**
+     * Set the metrics to publish.
+     * @param apiMetrics What to set.
+     */
+    public void setPublishedMetrics(@Nonnull final ApiMetrics apiMetrics) {
+        checkSetterPreconditions();
+        publishedMetrics = Constraint.isNotNull(apiMetrics, "The published metrics cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (publishedMetrics == null) {
+            throw new ComponentInitializationException("The published metrics cannot be null");
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull protected Event buildResponse(@Nonnull final RequestContext springRequestContext) {
+        final HttpServletRequest httpRequest = getHttpServletRequest();
+        pushHttpResponseProperties();
+        final HttpServletResponse httpResponse = getHttpServletResponse();
+
+        try {
+            if (!HttpMethod.GET.toString().equals(httpRequest.getMethod())) {
+                log.warn("{}: Unsupported method attempted {}", getLogPrefix(), httpRequest.getMethod());
+                writeResponse(makeErrorResponse(HttpStatus.SC_METHOD_NOT_ALLOWED, httpRequest.getMethod()
+                        + " not allowed", "Only GET is allowed"));
+            } else {
+                httpResponse.setStatus(HttpStatus.SC_OK);
+                writeResponse(encodeMetrics());
+            }
+        } catch (IOException e) {
+            log.error("{}: Could not write the JSON response", getLogPrefix(), e);
+            httpResponse.setStatus(HttpStatus.SC_SERVICE_UNAVAILABLE);
+            return ActionSupport.buildEvent(this, EventIds.IO_ERROR);
+        }
+        return ActionSupport.buildProceedEvent(this);
+    }
+
+    /**
+     * Encodes the current state of the metrics.
+     * 
+     * @return The encoded metrics.
+     */
+    @Nonnull protected byte[] encodeMetrics() {
+        final JsonByteWriter out = new JsonByteWriter(1024);
+        out.beginObject();
+        out.name(SINCE).value(publishedMetrics.getStartInstant().toString());
+        out.name(ENDPOINTS).beginArray();
+        for (final EndpointMetrics endpoint : publishedMetrics.getEndpoints()) {
+            out.beginObject();
+            out.name(ID).value(endpoint.getId());
+            out.name(REQUESTS).beginObject();
+            for (final Map.Entry<Integer, Long> entry : endpoint.getStatusCounts().entrySet()) {
+                out.name(entry.getKey().toString()).value(entry.getValue());
+            }
+            out.name(OTHER).value(endpoint.getOtherStatusCount());
+            out.endObject();
+            out.name(BYTES_WRITTEN).value(endpoint.getBytesWritten());
+            out.name(LATENCY).beginObject();
+            for (final Map.Entry<String, LatencyHistogram.Snapshot> entry : endpoint.getLatencies().entrySet()) {
+                final LatencyHistogram.Snapshot snapshot = entry.getValue();
+                out.name(entry.getKey()).beginObject();
+                out.name(COUNT).value(snapshot.getCount());
+                out.name(MEAN).value(toMicros(snapshot.getMean()));
+                out.name(P50).value(toMicros(snapshot.getValueAtPercentile(50.0)));
+                out.name(P90).value(toMicros(snapshot.getValueAtPercentile(90.0)));
+                out.name(P99).value(toMicros(snapshot.getValueAtPercentile(99.0)));
+                out.name(P999).value(toMicros(snapshot.getValueAtPercentile(99.9)));
+                out.name(MAX).value(toMicros(snapshot.getMax()));
+                out.endObject();
+            }
+            out.endObject();
+            out.endObject();
+        }
+        out.endArray();
+        out.endObject();
+        return out.toByteArray();
+    }
+
+    /**
+     * Converts the given nanoseconds to microseconds.
+     * 
+     * @param nanos The nanoseconds.
+     * @return The microseconds.
+     */
+    private static long toMicros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
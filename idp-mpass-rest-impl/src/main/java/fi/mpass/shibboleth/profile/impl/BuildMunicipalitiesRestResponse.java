@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.apache.http.HttpStatus;
+import org.opensaml.profile.action.EventIds;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.webflow.execution.Event;
+import org.springframework.webflow.execution.RequestContext;
+
+import fi.mpass.shibboleth.rest.data.MunicipalityDTO;
+import net.shibboleth.idp.profile.ActionSupport;
+import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * This action builds a response containing {@link MunicipalityDTO}s of the connected municipalities, served from
+ * the pre-encoded lists of the shared {@link MunicipalityCatalog}.
+ * 
+ * <p>The municipalities may be filtered by their integration status with the {@value #STATUS_PARAMETER} query
+ * parameter, containing a comma-separated list of the accepted statuses. The lists are paginated as described in
+ * {@link RestResponseWriter#writeList(HttpServletRequest, HttpServletResponse, EncodedList)}.</p>
+ */
+public class BuildMunicipalitiesRestResponse extends AbstractRestResponseAction {
+
+    /** The name of the query parameter for filtering the municipalities by their integration status. */
+    @Nonnull public static final String STATUS_PARAMETER = "status";
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(BuildMunicipalitiesRestResponse.class);
+
+    /** The catalog of the municipalities. */
+    @NonnullAfterInit private MunicipalityCatalog catalog;
+
+    /**
+     * Set the catalog of the municipalities.
+     * @param municipalityCatalog What to set.
+     */
+    public void setCatalog(@Nonnull final MunicipalityCatalog municipalityCatalog) {
+        checkSetterPreconditions();
+        catalog = Constraint.isNotNull(municipalityCatalog, "The municipality catalog cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (catalog == null) {
+            throw new ComponentInitializationException("The municipality catalog cannot be null");
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull protected Event buildResponse(@Nonnull final RequestContext springRequestContext) {
+        final HttpServletRequest httpRequest = getHttpServletRequest();
+        final String lang = getRequestedLanguage(httpRequest);
+        final String status = httpRequest.getParameter(STATUS_PARAMETER);
+        final int statusMask = MunicipalityIndex.parseStatuses(status);
+        pushHttpResponseProperties();
+
+        try {
+            if (!RestResponseWriter.isGetOrHead(httpRequest)) {
+                log.warn("{}: Unsupported method attempted {}", getLogPrefix(), httpRequest.getMethod());
+                writeResponse(makeErrorResponse(HttpStatus.SC_METHOD_NOT_ALLOWED, httpRequest.getMethod()
+                        + " not allowed", "Only GET and HEAD are allowed"));
+            } else if (lang == null) {
+                final String requested = LanguageNegotiator.getLanguageParameter(httpRequest);
+                log.warn("{}: Unsupported language attempted {}", getLogPrefix(), requested);
+                writeResponse(makeErrorResponse(HttpStatus.SC_BAD_REQUEST, "Language '" + requested
+                        + "' not supported", "Supported languages: " + catalog.getSupportedLocales()));
+            } else if (statusMask < 0) {
+                log.warn("{}: Unsupported status attempted {}", getLogPrefix(), status);
+                writeResponse(makeErrorResponse(HttpStatus.SC_BAD_REQUEST, "Invalid status",
+                        "Supported statuses: design, test, production, retired"));
+            } else {
+                getResponseWriter().setContentLanguage(getHttpServletResponse(),
+                        catalog.getLanguageNegotiator().getContentLanguage(lang));
+                getResponseWriter().writeList(httpRequest, getHttpServletResponse(),
+                        catalog.getList(lang, statusMask));
+            }
+        } catch (IOException e) {
+            log.error("{}: Could not write the JSON response", getLogPrefix(), e);
+            getHttpServletResponse().setStatus(HttpStatus.SC_SERVICE_UNAVAILABLE);
+            return ActionSupport.buildEvent(this, EventIds.IO_ERROR);
+        }
+        return ActionSupport.buildProceedEvent(this);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable protected String getMetricsLocale(@Nonnull final HttpServletRequest httpRequest) {
+        return getRequestedLanguage(httpRequest);
+    }
+
+    /**
+     * Get the supported locale negotiated for the given request, see {@link LanguageNegotiator}.
+     * @param httpRequest The HTTP request.
+     * @return The negotiated locale, or null if the requested language parameter is not supported.
+     */
+    @Nullable protected String getRequestedLanguage(@Nonnull final HttpServletRequest httpRequest) {
+        return catalog.getLanguageNegotiator().negotiate(httpRequest);
+    }
+}
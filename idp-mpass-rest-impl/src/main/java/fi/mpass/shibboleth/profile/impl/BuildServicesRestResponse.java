@@ -0,0 +1,406 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.apache.http.HttpStatus;
+import org.opensaml.profile.action.EventIds;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.ext.saml2mdui.Description;
+import org.opensaml.saml.ext.saml2mdui.DisplayName;
+import org.opensaml.saml.ext.saml2mdui.InformationURL;
+import org.opensaml.saml.ext.saml2mdui.Logo;
+import org.opensaml.saml.ext.saml2mdui.UIInfo;
+import org.opensaml.saml.metadata.IterableMetadataSource;
+import org.opensaml.saml.metadata.resolver.RefreshableMetadataResolver;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.webflow.execution.Event;
+import org.springframework.webflow.execution.RequestContext;
+
+import fi.mpass.shibboleth.rest.data.ServiceDTO;
+import fi.mpass.shibboleth.rest.data.json.DTOWriter;
+import fi.mpass.shibboleth.rest.data.json.JsonByteWriter;
+import fi.mpass.shibboleth.rest.data.json.ServiceDTOWriter;
+import net.shibboleth.idp.profile.ActionSupport;
+import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.Constraint;
+import net.shibboleth.shared.primitive.StringSupport;
+
+/**
+ * This action builds a response containing {@link ServiceDTO}s of the service providers found from the SAML
+ * metadata. The titles, descriptions, icons and service URLs are read from the mdui:UIInfo extension of the
+ * SP role, preferring the values in the requested language.
+ * 
+ * <p>The metadata may contain thousands of services, so the response is streamed to the client in chunks of
+ * bounded size, without materializing the whole list in memory. The chunks may also be generated and written
+ * with the non-blocking I/O whenever the connection is writable, see {@link AsyncBodyWriter}.</p>
+ * 
+ * <p>A page of the services may be requested with the offset and limit query parameters, as for the catalog
+ * endpoints: the services are counted before the page is streamed, skipping the services before it.</p>
+ * 
+ * <p>If the metadata source is a {@link RefreshableMetadataResolver}, the responses are validated with the time
+ * of its last update, and may be stored according to the cache policy of the endpoint. The number of the services
+ * is then counted only once per update of the metadata.</p>
+ */
+public class BuildServicesRestResponse extends AbstractRestResponseAction {
+
+    /** The name for the language in the localized responses. */
+    @Nonnull private static final byte[] LANG = JsonByteWriter.encodeName("lang");
+
+    /** The name for the contents of the localized responses. */
+    @Nonnull private static final byte[] RESPONSE = JsonByteWriter.encodeName("response");
+
+    /** The writer for the services. */
+    @Nonnull private static final DTOWriter<ServiceDTO> SERVICE_WRITER = new ServiceDTOWriter();
+
+    /** The size of the chunks written to the response. */
+    private static final int CHUNK_SIZE = 8192;
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(BuildServicesRestResponse.class);
+
+    /** The metadata of the services. */
+    @NonnullAfterInit private IterableMetadataSource metadataSource;
+
+    /** The list of supported locales, upper-cased. The first one is the default. */
+    @NonnullAfterInit private List<String> supportedLocales;
+
+    /** The negotiator of the response language among the supported locales. */
+    @NonnullAfterInit private LanguageNegotiator languageNegotiator;
+
+    /** The URL of the unsolicited SSO endpoint of the IdP, or null if not published. */
+    @Nullable private String unsolicitedSsoUrl;
+
+    /** The number of the services counted from the last update of the metadata, null if not counted yet. */
+    @Nonnull private final AtomicReference<ServiceCount> serviceCount = new AtomicReference<>();
+
+    /**
+     * Set the metadata of the services, typically a metadata resolver loading a local metadata file.
+     * @param source What to set.
+     */
+    public void setMetadataSource(@Nonnull final IterableMetadataSource source) {
+        checkSetterPreconditions();
+        metadataSource = Constraint.isNotNull(source, "The metadata source cannot be null");
+    }
+
+    /**
+     * Set the list of supported locales. The first one is the default.
+     * @param locales What to set.
+     */
+    public void setSupportedLocales(@Nonnull final List<String> locales) {
+        checkSetterPreconditions();
+        Constraint.isNotEmpty(locales, "The list of supported locales cannot be empty");
+        supportedLocales = new ArrayList<>();
+        for (final String locale : locales) {
+            supportedLocales.add(locale.toUpperCase());
+        }
+        languageNegotiator = new LanguageNegotiator(supportedLocales);
+    }
+
+    /**
+     * Set the URL of the unsolicited SSO endpoint of the IdP. If set, the SSO URL of each service is this URL
+     * with the entity ID of the service as the providerId parameter.
+     * @param url What to set.
+     */
+    public void setUnsolicitedSsoUrl(@Nullable final String url) {
+        checkSetterPreconditions();
+        unsolicitedSsoUrl = StringSupport.trimOrNull(url);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (metadataSource == null) {
+            throw new ComponentInitializationException("The metadata source cannot be null");
+        }
+        if (supportedLocales == null) {
+            throw new ComponentInitializationException("The list of supported locales cannot be null");
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull protected Event buildResponse(@Nonnull final RequestContext springRequestContext) {
+        final HttpServletRequest httpRequest = getHttpServletRequest();
+        final String lang = getRequestedLanguage(httpRequest);
+        pushHttpResponseProperties();
+        final HttpServletResponse httpResponse = getHttpServletResponse();
+
+        try {
+            if (!HttpMethod.GET.toString().equals(httpRequest.getMethod())) {
+                log.warn("{}: Unsupported method attempted {}", getLogPrefix(), httpRequest.getMethod());
+                writeResponse(makeErrorResponse(HttpStatus.SC_METHOD_NOT_ALLOWED, httpRequest.getMethod()
+                        + " not allowed", "Only GET is allowed"));
+            } else if (lang == null) {
+                final String requested = LanguageNegotiator.getLanguageParameter(httpRequest);
+                log.warn("{}: Unsupported language attempted {}", getLogPrefix(), requested);
+                writeResponse(makeErrorResponse(HttpStatus.SC_BAD_REQUEST, "Language '" + requested
+                        + "' not supported", "Supported languages: " + supportedLocales));
+            } else {
+                getResponseWriter().setContentLanguage(httpResponse, languageNegotiator.getContentLanguage(lang));
+                writeServices(httpRequest, httpResponse, lang);
+            }
+        } catch (IOException e) {
+            log.error("{}: Could not write the JSON response", getLogPrefix(), e);
+            httpResponse.setStatus(HttpStatus.SC_SERVICE_UNAVAILABLE);
+            return ActionSupport.buildEvent(this, EventIds.IO_ERROR);
+        }
+        return ActionSupport.buildProceedEvent(this);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable protected String getMetricsLocale(@Nonnull final HttpServletRequest httpRequest) {
+        return getRequestedLanguage(httpRequest);
+    }
+
+    /**
+     * Get the supported locale negotiated for the given request, see {@link LanguageNegotiator}.
+     * @param httpRequest The HTTP request.
+     * @return The negotiated locale, or null if the requested language parameter is not supported.
+     */
+    @Nullable protected String getRequestedLanguage(@Nonnull final HttpServletRequest httpRequest) {
+        return languageNegotiator.negotiate(httpRequest);
+    }
+
+    /**
+     * Writes the services, or the requested page of them, in the given language. If the conditional request
+     * headers show that the client already has the same content, a body-less 304 response is returned instead.
+     * 
+     * @param httpRequest The HTTP request.
+     * @param httpResponse The HTTP response.
+     * @param lang The language code.
+     * @throws IOException If the response could not be written.
+     */
+    protected void writeServices(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final HttpServletResponse httpResponse, @Nonnull final String lang) throws IOException {
+        final RestResponseWriter responseWriter = getResponseWriter();
+        final Instant lastUpdate = metadataSource instanceof RefreshableMetadataResolver
+                ? ((RefreshableMetadataResolver) metadataSource).getLastUpdate() : null;
+        final int[] page = RestResponseWriter.getRequestedPage(httpRequest);
+        if (page != null) {
+            if (responseWriter.rejectIfInvalidPage(httpRequest, httpResponse, page)) {
+                return;
+            }
+            responseWriter.setPageHeaders(httpRequest, httpResponse, page, countServices(lastUpdate));
+        }
+        if (lastUpdate != null) {
+            final String etag = '"' + Long.toHexString(lastUpdate.toEpochMilli()) + '-' + lang
+                    + (page != null ? "-" + page[0] + "-" + page[1] : "") + '"';
+            if (responseWriter.answerIfNotModified(httpRequest, httpResponse, etag, lastUpdate.toEpochMilli())) {
+                return;
+            }
+        }
+        httpResponse.setStatus(HttpStatus.SC_OK);
+        responseWriter.writeStream(httpRequest, httpResponse, new ServiceSource(lang, page != null ? page[0] : 0,
+                page != null ? page[1] : Integer.MAX_VALUE));
+    }
+
+    /**
+     * Get the number of the services in the metadata, counted without building them. The count is reused as long
+     * as the metadata has not been updated.
+     * 
+     * @param lastUpdate The time of the last update of the metadata, or null if not known.
+     * @return The number of the services.
+     */
+    protected int countServices(@Nullable final Instant lastUpdate) {
+        final ServiceCount cached = serviceCount.get();
+        if (lastUpdate != null && cached != null && lastUpdate.equals(cached.lastUpdate)) {
+            return cached.count;
+        }
+        int services = 0;
+        for (final EntityDescriptor entity : metadataSource) {
+            if (isService(entity)) {
+                services++;
+            }
+        }
+        if (lastUpdate != null) {
+            serviceCount.set(new ServiceCount(lastUpdate, services));
+        }
+        return services;
+    }
+
+    /**
+     * Checks whether the given entity is a SAML 2.0 service provider listed as a service.
+     * 
+     * @param entity The entity descriptor.
+     * @return true if the entity is a service, false otherwise.
+     */
+    protected boolean isService(@Nonnull final EntityDescriptor entity) {
+        return entity.getEntityID() != null && entity.getSPSSODescriptor(SAMLConstants.SAML20P_NS) != null;
+    }
+
+    /**
+     * Builds the service corresponding to the given entity.
+     * 
+     * @param entity The entity descriptor.
+     * @param lang The language code.
+     * @return The service, or null if the entity is not a service, see {@link #isService(EntityDescriptor)}.
+     */
+    @Nullable protected ServiceDTO buildService(@Nonnull final EntityDescriptor entity, @Nonnull final String lang) {
+        if (!isService(entity)) {
+            return null;
+        }
+        final SPSSODescriptor spDescriptor = entity.getSPSSODescriptor(SAMLConstants.SAML20P_NS);
+        final ServiceDTO service = new ServiceDTO();
+        service.setId(entity.getEntityID());
+        service.setTitle(entity.getEntityID());
+        if (unsolicitedSsoUrl != null) {
+            service.setSsoUrl(unsolicitedSsoUrl + (unsolicitedSsoUrl.contains("?") ? '&' : '?') + "providerId="
+                    + URLEncoder.encode(entity.getEntityID(), StandardCharsets.UTF_8));
+        }
+        final UIInfo uiInfo = MetadataUISupport.getUIInfo(spDescriptor);
+        if (uiInfo != null) {
+            final DisplayName displayName = MetadataUISupport.selectLocalized(uiInfo.getDisplayNames(), lang);
+            if (displayName != null && displayName.getValue() != null) {
+                service.setTitle(displayName.getValue());
+            }
+            final Description description = MetadataUISupport.selectLocalized(uiInfo.getDescriptions(), lang);
+            service.setDescription(description != null ? description.getValue() : null);
+            final Logo logo = MetadataUISupport.selectLocalized(uiInfo.getLogos(), lang);
+            service.setIconUrl(logo != null ? logo.getURI() : null);
+            final InformationURL informationUrl =
+                    MetadataUISupport.selectLocalized(uiInfo.getInformationURLs(), lang);
+            service.setServiceUrl(informationUrl != null ? informationUrl.getURI() : null);
+        }
+        return service;
+    }
+
+    /** The number of the services counted from an update of the metadata. */
+    private static final class ServiceCount {
+
+        /** The time of the update of the metadata. */
+        @Nonnull private final Instant lastUpdate;
+
+        /** The number of the services. */
+        private final int count;
+
+        /**
+         * Constructor.
+         * @param update The time of the update of the metadata.
+         * @param services The number of the services.
+         */
+        private ServiceCount(@Nonnull final Instant update, final int services) {
+            lastUpdate = update;
+            count = services;
+        }
+    }
+
+    /**
+     * The source of the chunks of the services response, building the given page of the services in the given
+     * language while iterating the metadata. The services before the page are skipped, and the iteration stops
+     * at the end of the page.
+     */
+    private final class ServiceSource implements AsyncBodyWriter.BodySource {
+
+        /** The writer of the current chunk. */
+        @Nonnull private final JsonByteWriter writer;
+
+        /** The entities in the metadata. */
+        @Nonnull private final Iterator<EntityDescriptor> entities;
+
+        /** The language code. */
+        @Nonnull private final String lang;
+
+        /** The number of the services still to skip. */
+        private int skipped;
+
+        /** The number of the services still to write. */
+        private int remaining;
+
+        /** The number of the bytes written. */
+        private long written;
+
+        /** Whether the whole response has been written. */
+        private boolean ended;
+
+        /**
+         * Constructor.
+         *
+         * @param language The language code.
+         * @param offset The position of the first service to write.
+         * @param limit The maximum number of the services to write.
+         */
+        private ServiceSource(@Nonnull final String language, final int offset, final int limit) {
+            writer = new JsonByteWriter(CHUNK_SIZE + CHUNK_SIZE / 2);
+            entities = metadataSource.iterator();
+            lang = language;
+            skipped = offset;
+            remaining = limit;
+            writer.beginObject().name(LANG).value(lang).name(RESPONSE).beginArray();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int writeNext(@Nonnull final OutputStream out) throws IOException {
+            if (ended) {
+                return -1;
+            }
+            while (writer.size() < CHUNK_SIZE && remaining > 0 && entities.hasNext()) {
+                final EntityDescriptor entity = entities.next();
+                if (!isService(entity)) {
+                    continue;
+                }
+                if (skipped > 0) {
+                    skipped--;
+                    continue;
+                }
+                SERVICE_WRITER.write(writer, buildService(entity, lang));
+                remaining--;
+            }
+            if (writer.size() < CHUNK_SIZE) {
+                writer.endArray().endObject();
+                ended = true;
+            }
+            final int length = writer.size();
+            written += length;
+            writer.flushTo(out);
+            if (ended) {
+                log.debug("{}: Streamed the services in {} bytes", getLogPrefix(), written);
+            }
+            return length;
+        }
+    }
+}
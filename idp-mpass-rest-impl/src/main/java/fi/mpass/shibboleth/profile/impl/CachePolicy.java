@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.time.Duration;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * The HTTP caching policy of the validated responses of an endpoint, i.e. the responses carrying an entity tag
+ * and a modification time. The Cache-Control header value is precomputed when the policy is built. Instances are
+ * immutable and thread-safe.
+ * 
+ * <p>Without a maximum age the responses may be stored, but they must be revalidated before each use.</p>
+ */
+public final class CachePolicy {
+
+    /** The Cache-Control header value of the validated responses. */
+    @Nonnull private final String cacheControl;
+
+    /**
+     * Constructor.
+     *
+     * @param shared Whether the responses may be stored by the shared caches (public) or only by the clients
+     *            (private).
+     * @param maxAge How long the responses are fresh for the clients, zero if they must always be revalidated.
+     * @param sharedMaxAge How long the responses are fresh for the shared caches, zero if the same as for the
+     *            clients. Ignored for the private responses.
+     * @param staleWhileRevalidate How long a stale response may be served while it is revalidated in the
+     *            background, zero if not allowed.
+     */
+    public CachePolicy(final boolean shared, @Nonnull final Duration maxAge, @Nonnull final Duration sharedMaxAge,
+            @Nonnull final Duration staleWhileRevalidate) {
+        checkNotNegative(maxAge, "The maximum age");
+        checkNotNegative(sharedMaxAge, "The shared maximum age");
+        checkNotNegative(staleWhileRevalidate, "The stale-while-revalidate period");
+        final StringBuilder value = new StringBuilder(shared ? "public" : "private");
+        if (maxAge.isZero()) {
+            value.append(", no-cache");
+        } else {
+            value.append(", max-age=").append(maxAge.getSeconds());
+        }
+        if (shared && !sharedMaxAge.isZero()) {
+            value.append(", s-maxage=").append(sharedMaxAge.getSeconds());
+        }
+        if (!staleWhileRevalidate.isZero()) {
+            value.append(", stale-while-revalidate=").append(staleWhileRevalidate.getSeconds());
+        }
+        cacheControl = value.toString();
+    }
+
+    /**
+     * Get the Cache-Control header value of the validated responses.
+     * 
+     * @return The Cache-Control header value.
+     */
+    @Nonnull public String getCacheControl() {
+        return cacheControl;
+    }
+
+    /**
+     * Checks that the given duration is not null or negative.
+     * 
+     * @param duration The duration to check.
+     * @param name The name of the duration in the error message.
+     */
+    private static void checkNotNegative(final Duration duration, @Nonnull final String name) {
+        Constraint.isNotNull(duration, name + " cannot be null");
+        Constraint.isFalse(duration.isNegative(), name + " cannot be negative");
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.util.Locale;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The content codings available for the encoded responses, as negotiated with the Accept-Encoding header.
+ */
+public enum ContentCoding {
+
+    /** No encoding, always available. */
+    IDENTITY("identity"),
+
+    /** The gzip coding (RFC 1952). */
+    GZIP("gzip"),
+
+    /** The deflate coding (zlib format, RFC 1950). */
+    DEFLATE("deflate");
+
+    /** The name of the coding, as used in the HTTP headers. */
+    @Nonnull private final String headerValue;
+
+    /**
+     * Constructor.
+     *
+     * @param codingName The name of the coding, as used in the HTTP headers.
+     */
+    ContentCoding(@Nonnull final String codingName) {
+        headerValue = codingName;
+    }
+
+    /**
+     * Get the name of the coding, as used in the HTTP headers.
+     *
+     * @return The name of the coding.
+     */
+    @Nonnull public String getHeaderValue() {
+        return headerValue;
+    }
+
+    /**
+     * Selects the coding to be used for the given response, according to the Accept-Encoding header. The
+     * coding with the highest quality value that is available for the response is selected. The compressed
+     * codings are preferred on ties, and identity is used if nothing else is acceptable.
+     *
+     * @param acceptEncoding The Accept-Encoding header value, may be null.
+     * @param response The response to be encoded.
+     * @return The selected coding.
+     */
+    @Nonnull public static ContentCoding negotiate(@Nullable final String acceptEncoding,
+            @Nonnull final EncodedResponse response) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return IDENTITY;
+        }
+        float gzip = -1;
+        float deflate = -1;
+        float identity = -1;
+        float any = -1;
+        for (final String element : acceptEncoding.split(",")) {
+            final int separator = element.indexOf(';');
+            final String coding = (separator == -1 ? element : element.substring(0, separator))
+                    .trim().toLowerCase(Locale.ROOT);
+            final float quality = separator == -1 ? 1 : parseQuality(element.substring(separator + 1));
+            if (GZIP.headerValue.equals(coding) || "x-gzip".equals(coding)) {
+                gzip = quality;
+            } else if (DEFLATE.headerValue.equals(coding)) {
+                deflate = quality;
+            } else if (IDENTITY.headerValue.equals(coding)) {
+                identity = quality;
+            } else if ("*".equals(coding)) {
+                any = quality;
+            }
+        }
+        gzip = response.hasCoding(GZIP) ? (gzip == -1 ? any : gzip) : 0;
+        deflate = response.hasCoding(DEFLATE) ? (deflate == -1 ? any : deflate) : 0;
+        identity = identity == -1 ? 1 : identity;
+        if (gzip > 0 && gzip >= deflate && gzip >= identity) {
+            return GZIP;
+        }
+        if (deflate > 0 && deflate >= identity) {
+            return DEFLATE;
+        }
+        return IDENTITY;
+    }
+
+    /**
+     * Parses the quality value from the parameters of an Accept-Encoding element.
+     *
+     * @param parameters The parameters following the coding name.
+     * @return The quality value, 1 if not given and 0 if it cannot be parsed.
+     */
+    private static float parseQuality(@Nonnull final String parameters) {
+        for (final String parameter : parameters.split(";")) {
+            final String trimmed = parameter.trim();
+            if (trimmed.startsWith("q=") || trimmed.startsWith("Q=")) {
+                try {
+                    return Float.parseFloat(trimmed.substring(2).trim());
+                } catch (final NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.apache.http.HttpStatus;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+
+import net.shibboleth.shared.logic.Constraint;
+import net.shibboleth.shared.primitive.StringSupport;
+
+/**
+ * The Cross-Origin Resource Sharing policy of the API endpoints. The OPTIONS requests, including the CORS
+ * preflights, are answered with an empty 204 response whose headers are precomputed when the policy is built,
+ * and the actual responses get the Access-Control-Allow-Origin header for the allowed origins. The preflights
+ * may be cached by the browsers for the configured maximum age. Instances are immutable and thread-safe.
+ */
+public final class CorsPolicy {
+
+    /** The wildcard allowing any origin. */
+    @Nonnull public static final String ANY_ORIGIN = "*";
+
+    /** The response headers exposed to the scripts of the allowed origins. */
+    @Nonnull private static final String EXPOSED_HEADERS =
+            HttpHeaders.ETAG + ", " + HttpHeaders.LINK + ", " + RestResponseWriter.TOTAL_COUNT_HEADER;
+
+    /** The allowed origins, empty if the cross-origin requests are not allowed. */
+    @Nonnull private final Set<String> allowedOrigins;
+
+    /** Whether any origin is allowed. */
+    private final boolean anyOrigin;
+
+    /** The allowed methods of the actual requests, upper-cased. */
+    @Nonnull private final Set<String> allowedMethods;
+
+    /** The Allow header value of the OPTIONS responses. */
+    @Nonnull private final String allowValue;
+
+    /** The Access-Control-Allow-Methods header value of the preflight responses. */
+    @Nonnull private final String allowMethodsValue;
+
+    /** The Access-Control-Allow-Headers header value of the preflight responses, or null if none. */
+    @Nullable private final String allowHeadersValue;
+
+    /** The Access-Control-Max-Age header value of the preflight responses. */
+    @Nonnull private final String maxAgeValue;
+
+    /**
+     * Constructor.
+     *
+     * @param origins The allowed origins, or {@value #ANY_ORIGIN} for any origin. May be null or empty if the
+     *            cross-origin requests are not allowed.
+     * @param methods The allowed methods of the actual requests.
+     * @param headers The allowed request headers of the actual requests, may be null.
+     * @param maxAge How long the browsers may cache the preflight responses.
+     */
+    public CorsPolicy(@Nullable final Collection<String> origins, @Nonnull final Collection<String> methods,
+            @Nullable final Collection<String> headers, @Nonnull final Duration maxAge) {
+        Constraint.isNotEmpty(methods, "The list of allowed methods cannot be empty");
+        Constraint.isFalse(maxAge.isNegative(), "The maximum age cannot be negative");
+        allowedOrigins = Collections.unmodifiableSet(new HashSet<>(normalize(origins, false)));
+        anyOrigin = allowedOrigins.contains(ANY_ORIGIN);
+        final List<String> methodList = normalize(methods, true);
+        allowedMethods = Collections.unmodifiableSet(new HashSet<>(methodList));
+        allowMethodsValue = String.join(", ", methodList);
+        allowValue = allowedMethods.contains(HttpMethod.OPTIONS.name()) ? allowMethodsValue
+                : allowMethodsValue + ", " + HttpMethod.OPTIONS.name();
+        final List<String> headerList = normalize(headers, false);
+        allowHeadersValue = headerList.isEmpty() ? null : String.join(", ", headerList);
+        maxAgeValue = String.valueOf(maxAge.getSeconds());
+    }
+
+    /**
+     * Checks whether the given origin is allowed to read the responses.
+     * 
+     * @param origin The Origin header value, may be null.
+     * @return true if the origin is allowed, false otherwise.
+     */
+    public boolean isAllowedOrigin(@Nullable final String origin) {
+        return origin != null && (anyOrigin || allowedOrigins.contains(origin));
+    }
+
+    /**
+     * Checks whether the given request is a CORS preflight, i.e. an OPTIONS request with the Origin and
+     * Access-Control-Request-Method headers.
+     * 
+     * @param httpRequest The HTTP request.
+     * @return true if the request is a preflight, false otherwise.
+     */
+    public static boolean isPreflight(@Nonnull final HttpServletRequest httpRequest) {
+        return HttpMethod.OPTIONS.name().equals(httpRequest.getMethod())
+                && httpRequest.getHeader(HttpHeaders.ORIGIN) != null
+                && httpRequest.getHeader(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD) != null;
+    }
+
+    /**
+     * Answers the given OPTIONS request with an empty response. An allowed preflight is answered with 204 and the
+     * CORS headers, a preflight from a disallowed origin or for a disallowed method with 403. Other OPTIONS
+     * requests are answered with 204 and the Allow header.
+     * 
+     * @param httpRequest The HTTP request.
+     * @param httpResponse The HTTP response.
+     * @return true if the request was answered with 204, false if with 403.
+     */
+    public boolean writeOptions(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final HttpServletResponse httpResponse) {
+        if (!isPreflight(httpRequest)) {
+            httpResponse.setHeader(HttpHeaders.ALLOW, allowValue);
+            httpResponse.setStatus(HttpStatus.SC_NO_CONTENT);
+            return true;
+        }
+        final String origin = httpRequest.getHeader(HttpHeaders.ORIGIN);
+        if (!anyOrigin) {
+            httpResponse.setHeader(HttpHeaders.VARY, HttpHeaders.ORIGIN);
+        }
+        if (!isAllowedOrigin(origin)
+                || !allowedMethods.contains(httpRequest.getHeader(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD))) {
+            httpResponse.setStatus(HttpStatus.SC_FORBIDDEN);
+            return false;
+        }
+        httpResponse.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, anyOrigin ? ANY_ORIGIN : origin);
+        httpResponse.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS, allowMethodsValue);
+        if (allowHeadersValue != null) {
+            httpResponse.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS, allowHeadersValue);
+        }
+        httpResponse.setHeader(HttpHeaders.ACCESS_CONTROL_MAX_AGE, maxAgeValue);
+        httpResponse.setStatus(HttpStatus.SC_NO_CONTENT);
+        return true;
+    }
+
+    /**
+     * Adds the CORS headers of an actual response. If specific origins are allowed, the response varies by the
+     * Origin header.
+     * 
+     * @param httpRequest The HTTP request.
+     * @param httpResponse The HTTP response.
+     */
+    public void applyTo(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final HttpServletResponse httpResponse) {
+        if (allowedOrigins.isEmpty()) {
+            return;
+        }
+        if (anyOrigin) {
+            httpResponse.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, ANY_ORIGIN);
+            httpResponse.setHeader(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS, EXPOSED_HEADERS);
+            return;
+        }
+        httpResponse.setHeader(HttpHeaders.VARY, HttpHeaders.ORIGIN);
+        final String origin = httpRequest.getHeader(HttpHeaders.ORIGIN);
+        if (isAllowedOrigin(origin)) {
+            httpResponse.setHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, origin);
+            httpResponse.setHeader(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS, EXPOSED_HEADERS);
+        }
+    }
+
+    /**
+     * Trims the given values and drops the empty ones.
+     * 
+     * @param values The values, may be null.
+     * @param upperCase Whether the values are upper-cased.
+     * @return The normalized values, in the original order without duplicates.
+     */
+    @Nonnull private static List<String> normalize(@Nullable final Collection<String> values,
+            final boolean upperCase) {
+        final List<String> normalized = new ArrayList<>();
+        if (values != null) {
+            for (final String value : values) {
+                final String trimmed = StringSupport.trimOrNull(value);
+                if (trimmed != null) {
+                    final String result = upperCase ? trimmed.toUpperCase(Locale.ROOT) : trimmed;
+                    if (!normalized.contains(result)) {
+                        normalized.add(result);
+                    }
+                }
+            }
+        }
+        return normalized;
+    }
+}
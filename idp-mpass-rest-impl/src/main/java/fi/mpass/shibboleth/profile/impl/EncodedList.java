@@ -0,0 +1,254 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.BitSet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import fi.mpass.shibboleth.rest.data.json.JsonByteWriter;
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * An {@link EncodedResponse} containing a JSON array, together with the positions of the array elements in the
+ * encoded body. The pages of the array are written as slices of the body, without re-encoding or copying it:
+ * the part before the array, the elements of the page with their separating commas, and the part after the
+ * array.
+ * 
+ * <p>The pages are served without content coding, and their entity tags are derived from the entity tag of
+ * the whole response, which determines their contents.</p>
+ */
+public final class EncodedList {
+
+    /** The name for the language in the localized responses. */
+    @Nonnull private static final byte[] LANG = JsonByteWriter.encodeName("lang");
+
+    /** The name for the contents of the localized responses. */
+    @Nonnull private static final byte[] RESPONSE = JsonByteWriter.encodeName("response");
+
+    /** The encoded response containing the whole array. */
+    @Nonnull private final EncodedResponse response;
+
+    /** The position right after the opening bracket of the array. */
+    private final int arrayStart;
+
+    /** The position of the closing bracket of the array. */
+    private final int arrayEnd;
+
+    /** The start and end (exclusive) positions of each element, interleaved. */
+    @Nonnull private final int[] elementBounds;
+
+    /**
+     * Constructor.
+     *
+     * @param encodedResponse The encoded response containing the whole array.
+     * @param start The position right after the opening bracket of the array.
+     * @param end The position of the closing bracket of the array.
+     * @param bounds The start and end (exclusive) positions of each element, interleaved. Not copied.
+     */
+    public EncodedList(@Nonnull final EncodedResponse encodedResponse, final int start, final int end,
+            @Nonnull final int[] bounds) {
+        response = Constraint.isNotNull(encodedResponse, "The encoded response cannot be null");
+        elementBounds = Constraint.isNotNull(bounds, "The element bounds cannot be null");
+        if (start < 1 || end < start || end >= response.getBody().length || bounds.length % 2 != 0) {
+            throw new IllegalArgumentException("Invalid array bounds");
+        }
+        arrayStart = start;
+        arrayEnd = end;
+    }
+
+    /**
+     * Get the encoded response containing the whole array.
+     *
+     * @return The encoded response.
+     */
+    @Nonnull public EncodedResponse getResponse() {
+        return response;
+    }
+
+    /**
+     * Get the number of the elements in the array.
+     *
+     * @return The number of the elements.
+     */
+    public int size() {
+        return elementBounds.length / 2;
+    }
+
+    /**
+     * Get the number of the elements in the given page.
+     *
+     * @param offset The position of the first element of the page, non-negative.
+     * @param limit The maximum number of the elements in the page, non-negative.
+     * @return The number of the elements in the page, zero if the offset is beyond the last element.
+     */
+    public int getPageSize(final int offset, final int limit) {
+        return offset >= size() ? 0 : Math.min(limit, size() - offset);
+    }
+
+    /**
+     * Get the length of the encoded page.
+     *
+     * @param offset The position of the first element of the page.
+     * @param count The number of the elements in the page, see {@link #getPageSize(int, int)}.
+     * @return The length of the encoded page.
+     */
+    public int getPageLength(final int offset, final int count) {
+        final int outside = arrayStart + response.getBody().length - arrayEnd;
+        return count == 0 ? outside
+                : outside + elementBounds[2 * (offset + count - 1) + 1] - elementBounds[2 * offset];
+    }
+
+    /**
+     * Get the strong entity tag of the page, including the surrounding quotes.
+     *
+     * @param offset The position of the first element of the page.
+     * @param count The number of the elements in the page, see {@link #getPageSize(int, int)}.
+     * @return The strong entity tag.
+     */
+    @Nonnull public String getPageETag(final int offset, final int count) {
+        final String etag = response.getETag();
+        return etag.substring(0, etag.length() - 1) + "-p" + offset + '-' + count + '"';
+    }
+
+    /**
+     * Writes the encoded page to the given stream.
+     *
+     * @param out The stream to write to.
+     * @param offset The position of the first element of the page.
+     * @param count The number of the elements in the page, see {@link #getPageSize(int, int)}.
+     * @throws IOException If the page could not be written.
+     */
+    public void writePage(@Nonnull final OutputStream out, final int offset, final int count) throws IOException {
+        final byte[] body = response.getBody();
+        final int[] slices = getPageSlices(offset, count);
+        for (int i = 0; i < slices.length; i += 2) {
+            out.write(body, slices[i], slices[i + 1] - slices[i]);
+        }
+    }
+
+    /**
+     * Get the slices of the encoded body forming the encoded page.
+     *
+     * @param offset The position of the first element of the page.
+     * @param count The number of the elements in the page, see {@link #getPageSize(int, int)}.
+     * @return The start and end (exclusive) positions of the slices in the body of {@link #getResponse()},
+     *         interleaved.
+     */
+    @Nonnull public int[] getPageSlices(final int offset, final int count) {
+        final int length = response.getBody().length;
+        if (count == 0) {
+            return new int[] {0, arrayStart, arrayEnd, length};
+        }
+        return new int[] {0, arrayStart, elementBounds[2 * offset], elementBounds[2 * (offset + count - 1) + 1],
+                arrayEnd, length};
+    }
+
+    /**
+     * Encodes a localized list containing the selected elements of this list, copied from the encoded body
+     * without re-encoding them. The list must be in the common form of the localized responses.
+     * 
+     * @param out The writer to use, reset before writing.
+     * @param locale The language code of the response.
+     * @param selection The positions of the elements to include.
+     * @param modified The modification time of the list.
+     * @return The encoded list.
+     */
+    @Nonnull public EncodedList select(@Nonnull final JsonByteWriter out, @Nonnull final String locale,
+            @Nonnull final BitSet selection, @Nonnull final Instant modified) {
+        final byte[] body = response.getBody();
+        final int arrayStart = beginLocalized(out, locale);
+        final int[] bounds = new int[2 * selection.cardinality()];
+        int position = selection.nextSetBit(0);
+        for (int i = 0; i < bounds.length; i += 2) {
+            final int start = elementBounds[2 * position];
+            final int length = elementBounds[2 * position + 1] - start;
+            out.rawValue(body, start, length);
+            bounds[i] = out.size() - length;
+            bounds[i + 1] = out.size();
+            position = selection.nextSetBit(position + 1);
+        }
+        return endLocalized(out, arrayStart, bounds, modified);
+    }
+
+    /**
+     * Encodes a localized list containing the selected encoded elements, in the common form of the localized
+     * responses: an object with the language code and the array of the elements.
+     * 
+     * @param out The writer to use, reset before writing.
+     * @param locale The language code of the response.
+     * @param elements The encoded elements.
+     * @param selection The positions of the elements to include, or null for all of them.
+     * @param modified The modification time of the list.
+     * @return The encoded list.
+     */
+    @Nonnull public static EncodedList encodeLocalized(@Nonnull final JsonByteWriter out,
+            @Nonnull final String locale, @Nonnull final byte[][] elements, @Nullable final BitSet selection,
+            @Nonnull final Instant modified) {
+        final int arrayStart = beginLocalized(out, locale);
+        final int[] bounds = new int[2 * (selection == null ? elements.length : selection.cardinality())];
+        int position = selection == null ? 0 : selection.nextSetBit(0);
+        for (int i = 0; i < bounds.length; i += 2) {
+            out.rawValue(elements[position], 0, elements[position].length);
+            bounds[i] = out.size() - elements[position].length;
+            bounds[i + 1] = out.size();
+            position = selection == null ? position + 1 : selection.nextSetBit(position + 1);
+        }
+        return endLocalized(out, arrayStart, bounds, modified);
+    }
+
+    /**
+     * Resets the given writer and writes the beginning of a localized response, up to the opening bracket of the
+     * array.
+     * 
+     * @param out The writer to use.
+     * @param locale The language code of the response.
+     * @return The position right after the opening bracket of the array.
+     */
+    private static int beginLocalized(@Nonnull final JsonByteWriter out, @Nonnull final String locale) {
+        out.reset();
+        out.beginObject().name(LANG).value(locale).name(RESPONSE).beginArray();
+        return out.size();
+    }
+
+    /**
+     * Writes the end of a localized response after its array elements, and builds the encoded list.
+     * 
+     * @param out The writer containing the beginning and the elements of the response.
+     * @param arrayStart The position right after the opening bracket of the array.
+     * @param bounds The start and end (exclusive) positions of each element, interleaved.
+     * @param modified The modification time of the list.
+     * @return The encoded list.
+     */
+    @Nonnull private static EncodedList endLocalized(@Nonnull final JsonByteWriter out, final int arrayStart,
+            @Nonnull final int[] bounds, @Nonnull final Instant modified) {
+        final int arrayEnd = out.size();
+        out.endArray().endObject();
+        return new EncodedList(new EncodedResponse(out.toByteArray(), modified), arrayStart, arrayEnd, bounds);
+    }
+}
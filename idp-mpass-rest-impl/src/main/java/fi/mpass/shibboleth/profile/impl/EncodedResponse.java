@@ -0,0 +1,208 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * An immutable, UTF-8 encoded JSON response together with its validators: a strong entity tag computed from
+ * the content and the last modification time of the content.
+ * 
+ * <p>The gzip and deflate variants of the body are compressed once when the response is constructed, and
+ * they are kept only if they are smaller than the body itself. Each variant has its own entity tag.</p>
+ */
+public final class EncodedResponse {
+
+    /** The number of digest bytes included in the entity tag. */
+    private static final int ETAG_DIGEST_LENGTH = 16;
+
+    /** The body variants, indexed by the ordinal of their {@link ContentCoding}. */
+    @Nonnull private final byte[][] bodies;
+
+    /** The strong entity tags including the surrounding quotes, indexed by the ordinal of their coding. */
+    @Nonnull private final String[] etags;
+
+    /** The last modification time, in milliseconds since the epoch, truncated to seconds. */
+    private final long lastModified;
+
+    /**
+     * Constructor.
+     *
+     * @param encodedBody The encoded response body.
+     * @param modified The last modification time of the content.
+     */
+    public EncodedResponse(@Nonnull final byte[] encodedBody, @Nonnull final Instant modified) {
+        Constraint.isNotNull(encodedBody, "The response body cannot be null");
+        lastModified = Constraint.isNotNull(modified, "The modification time cannot be null")
+                .getEpochSecond() * 1000;
+        final String tag = HexFormat.of().formatHex(digest(encodedBody), 0, ETAG_DIGEST_LENGTH);
+        bodies = new byte[ContentCoding.values().length][];
+        etags = new String[bodies.length];
+        for (final ContentCoding coding : ContentCoding.values()) {
+            final byte[] body = compress(encodedBody, coding);
+            if (body.length < encodedBody.length || coding == ContentCoding.IDENTITY) {
+                bodies[coding.ordinal()] = body;
+                etags[coding.ordinal()] = coding == ContentCoding.IDENTITY ? '"' + tag + '"'
+                        : '"' + tag + '-' + coding.getHeaderValue() + '"';
+            }
+        }
+    }
+
+    /**
+     * Get the encoded response body without content coding. The returned array must not be modified.
+     *
+     * @return The encoded response body.
+     */
+    @Nonnull public byte[] getBody() {
+        return bodies[ContentCoding.IDENTITY.ordinal()];
+    }
+
+    /**
+     * Get the encoded response body with the given content coding. The returned array must not be modified.
+     *
+     * @param coding The content coding.
+     * @return The encoded response body, or null if the coding is not available for this response.
+     */
+    @Nullable public byte[] getBody(@Nonnull final ContentCoding coding) {
+        return bodies[coding.ordinal()];
+    }
+
+    /**
+     * Checks whether the given content coding is available for this response.
+     *
+     * @param coding The content coding.
+     * @return true if available, false otherwise.
+     */
+    public boolean hasCoding(@Nonnull final ContentCoding coding) {
+        return bodies[coding.ordinal()] != null;
+    }
+
+    /**
+     * Get the strong entity tag of the body without content coding, including the surrounding quotes.
+     *
+     * @return The strong entity tag.
+     */
+    @Nonnull public String getETag() {
+        return etags[ContentCoding.IDENTITY.ordinal()];
+    }
+
+    /**
+     * Get the strong entity tag of the body with the given content coding, including the surrounding quotes.
+     *
+     * @param coding The content coding.
+     * @return The strong entity tag, or null if the coding is not available for this response.
+     */
+    @Nullable public String getETag(@Nonnull final ContentCoding coding) {
+        return etags[coding.ordinal()];
+    }
+
+    /**
+     * Get the last modification time, in milliseconds since the epoch, truncated to seconds.
+     *
+     * @return The last modification time.
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Checks whether the given If-None-Match header value matches the entity tag of the body with the given
+     * content coding. As defined for If-None-Match, the weak comparison function is used.
+     *
+     * @param ifNoneMatch The If-None-Match header value.
+     * @param coding The content coding.
+     * @return true if any of the listed entity tags matches, false otherwise.
+     */
+    public boolean matchesETag(@Nonnull final String ifNoneMatch, @Nonnull final ContentCoding coding) {
+        return matchesETag(ifNoneMatch, etags[coding.ordinal()]);
+    }
+
+    /**
+     * Checks whether the given If-None-Match header value matches the given entity tag, using the weak
+     * comparison function.
+     *
+     * @param ifNoneMatch The If-None-Match header value.
+     * @param etag The strong entity tag, including the surrounding quotes.
+     * @return true if any of the listed entity tags matches, false otherwise.
+     */
+    public static boolean matchesETag(@Nonnull final String ifNoneMatch, @Nullable final String etag) {
+        for (final String candidate : ifNoneMatch.split(",")) {
+            final String trimmed = candidate.trim();
+            if ("*".equals(trimmed) || trimmed.equals(etag) || trimmed.startsWith("W/") 
+                    && trimmed.substring(2).equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the SHA-256 digest of the given content.
+     *
+     * @param content The content to digest.
+     * @return The digest.
+     */
+    @Nonnull private static byte[] digest(@Nonnull final byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by the platform", e);
+        }
+    }
+
+    /**
+     * Compresses the given content with the given content coding.
+     *
+     * @param content The content to compress.
+     * @param coding The content coding.
+     * @return The compressed content, or the content itself for identity.
+     */
+    @Nonnull private static byte[] compress(@Nonnull final byte[] content, @Nonnull final ContentCoding coding) {
+        if (coding == ContentCoding.IDENTITY) {
+            return content;
+        }
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 2 + 32);
+        try (OutputStream out = coding == ContentCoding.GZIP ? new GZIPOutputStream(compressed)
+                : new DeflaterOutputStream(compressed)) {
+            out.write(content);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Could not compress an in-memory response", e);
+        }
+        return compressed.toByteArray();
+    }
+}
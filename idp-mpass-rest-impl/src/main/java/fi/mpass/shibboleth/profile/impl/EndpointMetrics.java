@@ -0,0 +1,174 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.shared.annotation.constraint.NotEmpty;
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * The request counters and latency histograms of a single REST endpoint. All the recording methods are
+ * lock-free and safe to call concurrently.
+ */
+public class EndpointMetrics {
+
+    /** The label for the requests without a (supported) locale. */
+    @Nonnull public static final String NO_LOCALE = "none";
+
+    /** The status codes counted separately, the others are counted together. */
+    private static final int[] TRACKED_STATUS_CODES = {200, 204, 304, 400, 405, 429, 501, 503};
+
+    /** The identifier of the endpoint. */
+    @Nonnull @NotEmpty private final String id;
+
+    /** The request counters, indexed like {@link #TRACKED_STATUS_CODES}, the last one for the others. */
+    @Nonnull private final LongAdder[] statusCounters;
+
+    /** The number of body bytes written. */
+    @Nonnull private final LongAdder bytesWritten;
+
+    /** The latency histograms, keyed by the locale. */
+    @Nonnull private final ConcurrentMap<String, LatencyHistogram> latencies;
+
+    /**
+     * Constructor.
+     *
+     * @param endpointId The identifier of the endpoint.
+     */
+    public EndpointMetrics(@Nonnull @NotEmpty final String endpointId) {
+        id = Constraint.isNotEmpty(endpointId, "The endpoint identifier cannot be empty");
+        statusCounters = new LongAdder[TRACKED_STATUS_CODES.length + 1];
+        for (int i = 0; i < statusCounters.length; i++) {
+            statusCounters[i] = new LongAdder();
+        }
+        bytesWritten = new LongAdder();
+        latencies = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Get the identifier of the endpoint.
+     * 
+     * @return The identifier of the endpoint.
+     */
+    @Nonnull @NotEmpty public String getId() {
+        return id;
+    }
+
+    /**
+     * Records a completed request.
+     * 
+     * <p>The callers are responsible for keeping the number of distinct locales bounded, e.g. by passing null
+     * for the unsupported ones.</p>
+     * 
+     * @param status The HTTP status code of the response.
+     * @param locale The locale of the response, or null if not localized.
+     * @param nanos The time spent for the request, in nanoseconds.
+     */
+    public void record(final int status, @Nullable final String locale, final long nanos) {
+        statusCounters[statusIndex(status)].increment();
+        final String key = locale != null ? locale : NO_LOCALE;
+        LatencyHistogram histogram = latencies.get(key);
+        if (histogram == null) {
+            histogram = latencies.computeIfAbsent(key, k -> new LatencyHistogram());
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * Adds the given number of body bytes written.
+     * 
+     * @param bytes The number of bytes.
+     */
+    public void addBytesWritten(final long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    /**
+     * Get the number of body bytes written.
+     * 
+     * @return The number of body bytes written.
+     */
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * Get the number of requests for each of the separately counted status codes.
+     * 
+     * @return The number of requests, keyed by the status code.
+     */
+    @Nonnull public Map<Integer, Long> getStatusCounts() {
+        final Map<Integer, Long> counts = new TreeMap<>();
+        for (int i = 0; i < TRACKED_STATUS_CODES.length; i++) {
+            counts.put(TRACKED_STATUS_CODES[i], statusCounters[i].sum());
+        }
+        return counts;
+    }
+
+    /**
+     * Get the number of requests with any other status code.
+     * 
+     * @return The number of requests with any other status code.
+     */
+    public long getOtherStatusCount() {
+        return statusCounters[TRACKED_STATUS_CODES.length].sum();
+    }
+
+    /**
+     * Takes snapshots of the latency histograms.
+     * 
+     * @return The snapshots, keyed by the locale.
+     */
+    @Nonnull public Map<String, LatencyHistogram.Snapshot> getLatencies() {
+        final Map<String, LatencyHistogram.Snapshot> snapshots = new TreeMap<>();
+        for (final Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return Collections.unmodifiableMap(snapshots);
+    }
+
+    /**
+     * Get the index of the counter for the given status code.
+     * 
+     * @param status The status code.
+     * @return The index of the counter.
+     */
+    private static int statusIndex(final int status) {
+        for (int i = 0; i < TRACKED_STATUS_CODES.length; i++) {
+            if (TRACKED_STATUS_CODES[i] == status) {
+                return i;
+            }
+        }
+        return TRACKED_STATUS_CODES.length;
+    }
+}
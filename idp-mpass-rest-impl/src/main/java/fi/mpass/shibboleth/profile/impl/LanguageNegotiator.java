@@ -0,0 +1,338 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import org.springframework.http.HttpHeaders;
+
+import net.shibboleth.shared.logic.Constraint;
+import net.shibboleth.shared.primitive.StringSupport;
+
+/**
+ * Negotiates the language of a localized response among the supported locales. An explicit
+ * {@value #LANG_PARAMETER} query parameter takes precedence over the Accept-Language header, whose language
+ * ranges are tried in the order of their quality values. Each range is resolved with the BCP 47 lookup fallback,
+ * i.e. by truncating its subtags from the end until a supported locale matches ('sv-FI' and 'sv_FI' resolve to
+ * 'SV'), case-insensitively.
+ * 
+ * <p>The candidates for each two-letter primary language are precomputed into a lookup table when the negotiator
+ * is built. The request values are scanned in place, so the resolution does not allocate. Instances are
+ * immutable and thread-safe.</p>
+ */
+public final class LanguageNegotiator {
+
+    /** The name of the query parameter for the requested language. */
+    @Nonnull public static final String LANG_PARAMETER = "lang";
+
+    /** The number of the letters in the ASCII alphabet. */
+    private static final int LETTERS = 26;
+
+    /** The quality value of the most preferred language ranges, in thousandths. */
+    private static final int MAX_QUALITY = 1000;
+
+    /** The supported locales, the most specific first. */
+    @Nonnull private final String[] locales;
+
+    /** The candidate locales indexed by their two-letter primary language, the most specific first. */
+    @Nonnull private final String[][] candidates;
+
+    /** The Content-Language header values, keyed by the supported locale. */
+    @Nonnull private final Map<String, String> contentLanguages;
+
+    /** The default locale. */
+    @Nonnull private final String defaultLocale;
+
+    /**
+     * Constructor.
+     *
+     * @param supportedLocales The supported locales. The first one is the default.
+     */
+    public LanguageNegotiator(@Nonnull final List<String> supportedLocales) {
+        Constraint.isNotEmpty(supportedLocales, "The list of supported locales cannot be empty");
+        defaultLocale = supportedLocales.get(0);
+        final List<String> sorted = new ArrayList<>(supportedLocales);
+        sorted.sort(Comparator.comparingInt(String::length).reversed());
+        locales = sorted.toArray(new String[0]);
+        candidates = new String[LETTERS * LETTERS][];
+        final Map<String, String> languages = new HashMap<>();
+        for (final String locale : locales) {
+            final int key = primaryLanguageKey(locale, 0, locale.length());
+            if (key >= 0) {
+                final String[] previous = candidates[key] == null ? new String[0] : candidates[key];
+                final String[] extended = new String[previous.length + 1];
+                System.arraycopy(previous, 0, extended, 0, previous.length);
+                extended[previous.length] = locale;
+                candidates[key] = extended;
+            }
+            languages.put(locale, locale.replace('_', '-').toLowerCase(Locale.ROOT));
+        }
+        contentLanguages = Collections.unmodifiableMap(languages);
+    }
+
+    /**
+     * Get the default locale.
+     * 
+     * @return The default locale.
+     */
+    @Nonnull public String getDefaultLocale() {
+        return defaultLocale;
+    }
+
+    /**
+     * Get the Content-Language header value for the given supported locale.
+     * 
+     * @param locale The supported locale, as returned by the negotiation.
+     * @return The language tag in lower case.
+     */
+    @Nonnull public String getContentLanguage(@Nonnull final String locale) {
+        return contentLanguages.get(locale);
+    }
+
+    /**
+     * Get the language requested with the {@value #LANG_PARAMETER} parameter, for the error messages.
+     * 
+     * @param httpRequest The HTTP request.
+     * @return The trimmed and upper-cased parameter value, or null if not set.
+     */
+    @Nullable public static String getLanguageParameter(@Nonnull final HttpServletRequest httpRequest) {
+        final String lang = StringSupport.trimOrNull(httpRequest.getParameter(LANG_PARAMETER));
+        return lang == null ? null : lang.toUpperCase();
+    }
+
+    /**
+     * Negotiates the language of the response to the given request. If the {@value #LANG_PARAMETER} parameter
+     * is set, it must resolve to a supported locale. Otherwise the best supported match of the Accept-Language
+     * header is used, falling back to the default locale.
+     * 
+     * @param httpRequest The HTTP request.
+     * @return The supported locale, or null if the requested language parameter is not supported.
+     */
+    @Nullable public String negotiate(@Nonnull final HttpServletRequest httpRequest) {
+        final String lang = httpRequest.getParameter(LANG_PARAMETER);
+        if (lang != null && !isBlank(lang)) {
+            return resolve(lang, 0, lang.length());
+        }
+        final String accepted = negotiateAcceptLanguage(httpRequest.getHeader(HttpHeaders.ACCEPT_LANGUAGE));
+        return accepted != null ? accepted : defaultLocale;
+    }
+
+    /**
+     * Selects the supported locale best matching the given Accept-Language header value. The ranges with the
+     * same quality value are preferred in their order in the header, and the ranges with zero quality are not
+     * acceptable.
+     * 
+     * @param acceptLanguage The Accept-Language header value.
+     * @return The best matching supported locale, or null if none.
+     */
+    @Nullable public String negotiateAcceptLanguage(@Nullable final String acceptLanguage) {
+        if (acceptLanguage == null) {
+            return null;
+        }
+        String best = null;
+        int bestQuality = 0;
+        int start = 0;
+        while (start < acceptLanguage.length() && bestQuality < MAX_QUALITY) {
+            int end = acceptLanguage.indexOf(',', start);
+            end = end < 0 ? acceptLanguage.length() : end;
+            int rangeEnd = acceptLanguage.indexOf(';', start);
+            rangeEnd = rangeEnd < 0 || rangeEnd > end ? end : rangeEnd;
+            final int quality = rangeEnd == end ? MAX_QUALITY : parseQuality(acceptLanguage, rangeEnd + 1, end);
+            if (quality > bestQuality) {
+                final String locale = resolve(acceptLanguage, start, rangeEnd);
+                if (locale != null) {
+                    best = locale;
+                    bestQuality = quality;
+                }
+            }
+            start = end + 1;
+        }
+        return best;
+    }
+
+    /**
+     * Resolves the given language range to a supported locale with the BCP 47 lookup fallback. The wildcard
+     * range '*' resolves to the default locale.
+     * 
+     * @param value The string containing the language range.
+     * @param from The start position of the range, inclusive.
+     * @param to The end position of the range, exclusive.
+     * @return The supported locale, or null if none matches.
+     */
+    @Nullable public String resolve(@Nonnull final String value, final int from, final int to) {
+        int start = from;
+        int end = to;
+        while (start < end && Character.isWhitespace(value.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(value.charAt(end - 1))) {
+            end--;
+        }
+        if (end - start == 1 && value.charAt(start) == '*') {
+            return defaultLocale;
+        }
+        final int key = primaryLanguageKey(value, start, end);
+        final String[] matching = key >= 0 ? candidates[key] : locales;
+        if (matching != null) {
+            for (final String locale : matching) {
+                if (isPrefixMatch(locale, value, start, end)) {
+                    return locale;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether the given locale equals the given language range truncated at a subtag boundary.
+     * 
+     * @param locale The supported locale.
+     * @param value The string containing the language range.
+     * @param start The start position of the range, inclusive.
+     * @param end The end position of the range, exclusive.
+     * @return true if the locale matches, false otherwise.
+     */
+    private static boolean isPrefixMatch(@Nonnull final String locale, @Nonnull final String value,
+            final int start, final int end) {
+        final int length = locale.length();
+        if (length > end - start || length < end - start && !isSubtagSeparator(value.charAt(start + length))) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            final char expected = locale.charAt(i);
+            final char actual = value.charAt(start + i);
+            if (isSubtagSeparator(expected) ? !isSubtagSeparator(actual)
+                    : Character.toUpperCase(expected) != Character.toUpperCase(actual)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the key of the two-letter primary language of the given language range in the lookup table.
+     * 
+     * @param value The string containing the language range.
+     * @param start The start position of the range, inclusive.
+     * @param end The end position of the range, exclusive.
+     * @return The key, or -1 if the primary language does not consist of two ASCII letters.
+     */
+    private static int primaryLanguageKey(@Nonnull final String value, final int start, final int end) {
+        if (end - start < 2 || end - start > 2 && !isSubtagSeparator(value.charAt(start + 2))) {
+            return -1;
+        }
+        final int first = Character.toUpperCase(value.charAt(start)) - 'A';
+        final int second = Character.toUpperCase(value.charAt(start + 1)) - 'A';
+        if (first < 0 || first >= LETTERS || second < 0 || second >= LETTERS) {
+            return -1;
+        }
+        return first * LETTERS + second;
+    }
+
+    /**
+     * Parses the quality value from the given parameters of a language range.
+     * 
+     * @param value The string containing the parameters.
+     * @param from The start position of the parameters, inclusive.
+     * @param to The end position of the parameters, exclusive.
+     * @return The quality value in thousandths, or 0 if it is invalid.
+     */
+    private static int parseQuality(@Nonnull final String value, final int from, final int to) {
+        int start = from;
+        int end = to;
+        while (start < end && Character.isWhitespace(value.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(value.charAt(end - 1))) {
+            end--;
+        }
+        if (end - start < 3 || Character.toLowerCase(value.charAt(start)) != 'q' || value.charAt(start + 1) != '=') {
+            return 0;
+        }
+        return parseQValue(value, start + 2, end);
+    }
+
+    /**
+     * Parses the given qvalue, i.e. '0' or '1' optionally followed by a dot and at most three decimals.
+     * 
+     * @param value The string containing the qvalue.
+     * @param start The start position of the qvalue, inclusive.
+     * @param end The end position of the qvalue, exclusive.
+     * @return The quality value in thousandths, or 0 if it is invalid.
+     */
+    private static int parseQValue(@Nonnull final String value, final int start, final int end) {
+        final char integer = value.charAt(start);
+        if (integer != '0' && integer != '1' || end - start > 5
+                || end - start > 1 && value.charAt(start + 1) != '.') {
+            return 0;
+        }
+        int quality = (integer - '0') * MAX_QUALITY;
+        int scale = MAX_QUALITY;
+        for (int position = start + 2; position < end; position++) {
+            final char c = value.charAt(position);
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+            scale /= 10;
+            quality += (c - '0') * scale;
+        }
+        return Math.min(quality, MAX_QUALITY);
+    }
+
+    /**
+     * Checks whether the given character separates the subtags of a language tag.
+     * 
+     * @param c The character.
+     * @return true if the character is '-' or '_', false otherwise.
+     */
+    private static boolean isSubtagSeparator(final char c) {
+        return c == '-' || c == '_';
+    }
+
+    /**
+     * Checks whether the given string contains only whitespace.
+     * 
+     * @param value The string.
+     * @return true if the string is empty or contains only whitespace, false otherwise.
+     */
+    private static boolean isBlank(@Nonnull final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (!Character.isWhitespace(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
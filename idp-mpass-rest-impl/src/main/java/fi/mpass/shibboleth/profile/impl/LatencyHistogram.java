@@ -0,0 +1,215 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A lock-free latency histogram with logarithmic buckets, each power of two being split into eight linear
+ * sub-buckets, like in the HDR histograms. The recorded values are thus kept with a relative precision of
+ * 1/8 (12.5 %), from one nanosecond up to about 18 minutes. Larger values are counted in the last bucket.
+ * 
+ * <p>All the counters are {@link LongAdder}s, so that the concurrent recording threads do not contend with
+ * each other. The snapshots are not atomic: the counts recorded while taking a snapshot may or may not be
+ * included in it.</p>
+ */
+public class LatencyHistogram {
+
+    /** The number of bits for the sub-buckets of each power of two. */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /** The number of sub-buckets for each power of two. */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** The number of bits of the largest trackable value. */
+    private static final int MAX_VALUE_BITS = 40;
+
+    /** The largest trackable value. */
+    private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+    /** The number of buckets. */
+    private static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+    /** The counts of the values in each bucket. */
+    @Nonnull private final LongAdder[] buckets;
+
+    /** The sum of the recorded values. */
+    @Nonnull private final LongAdder sum;
+
+    /** The largest recorded value. */
+    @Nonnull private final LongAccumulator max;
+
+    /** Constructor. */
+    public LatencyHistogram() {
+        buckets = new LongAdder[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = new LongAdder();
+        }
+        sum = new LongAdder();
+        max = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * Records a value.
+     * 
+     * @param nanos The value in nanoseconds, negative values are recorded as zero.
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(nanos, 0);
+        buckets[bucketIndex(Math.min(value, MAX_VALUE))].increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Takes a snapshot of the recorded values.
+     * 
+     * @return The snapshot.
+     */
+    @Nonnull public Snapshot snapshot() {
+        final long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        return new Snapshot(counts, total, sum.sum(), max.get());
+    }
+
+    /**
+     * Get the index of the bucket for the given value.
+     * 
+     * @param value The value, between zero and {@link #MAX_VALUE}.
+     * @return The index of the bucket.
+     */
+    private static int bucketIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> exponent - SUB_BUCKET_BITS) & SUB_BUCKET_COUNT - 1;
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * Get the largest value counted in the given bucket.
+     * 
+     * @param index The index of the bucket.
+     * @return The largest value counted in the bucket.
+     */
+    private static long bucketUpperBound(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        final long lowerBound = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    /**
+     * An immutable snapshot of a {@link LatencyHistogram}.
+     */
+    public static final class Snapshot {
+
+        /** The counts of the values in each bucket. */
+        @Nonnull private final long[] counts;
+
+        /** The number of values. */
+        private final long count;
+
+        /** The sum of the values. */
+        private final long sum;
+
+        /** The largest value. */
+        private final long max;
+
+        /**
+         * Constructor.
+         *
+         * @param bucketCounts The counts of the values in each bucket.
+         * @param total The number of values.
+         * @param valueSum The sum of the values.
+         * @param maxValue The largest value.
+         */
+        private Snapshot(@Nonnull final long[] bucketCounts, final long total, final long valueSum,
+                final long maxValue) {
+            counts = bucketCounts;
+            count = total;
+            sum = valueSum;
+            max = maxValue;
+        }
+
+        /**
+         * Get the number of values.
+         * 
+         * @return The number of values.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get the mean of the values.
+         * 
+         * @return The mean of the values, zero if there are none.
+         */
+        public long getMean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        /**
+         * Get the largest value.
+         * 
+         * @return The largest value, zero if there are none.
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Get the value at the given percentile. The value is the upper bound of the bucket containing the
+         * percentile, but never larger than the largest recorded value.
+         * 
+         * @param percentile The percentile, between 0 and 100.
+         * @return The value at the percentile, zero if there are no values.
+         */
+        public long getValueAtPercentile(final double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
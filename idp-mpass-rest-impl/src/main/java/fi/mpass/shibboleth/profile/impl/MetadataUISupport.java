@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.core.xml.LangBearing;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.saml.ext.saml2mdui.UIInfo;
+import org.opensaml.saml.saml2.metadata.Extensions;
+import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
+
+/**
+ * Helper methods for reading the localized user interface information from the SAML metadata.
+ */
+public final class MetadataUISupport {
+
+    /** Constructor. */
+    private MetadataUISupport() {
+    }
+
+    /**
+     * Get the mdui:UIInfo extension of the given SP role.
+     * 
+     * @param spDescriptor The SP role descriptor.
+     * @return The first UIInfo extension, or null if none.
+     */
+    @Nullable public static UIInfo getUIInfo(@Nonnull final SPSSODescriptor spDescriptor) {
+        final Extensions extensions = spDescriptor.getExtensions();
+        if (extensions == null) {
+            return null;
+        }
+        for (final XMLObject object : extensions.getUnknownXMLObjects(UIInfo.DEFAULT_ELEMENT_NAME)) {
+            if (object instanceof UIInfo) {
+                return (UIInfo) object;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Selects the value in the given language from the given values. If none is found, the first value without
+     * a language is preferred over the first value.
+     * 
+     * @param <T> The type of the values.
+     * @param values The values to select from, may be null.
+     * @param lang The language code.
+     * @return The selected value, or null if there are no values.
+     */
+    @Nullable public static <T extends LangBearing> T selectLocalized(@Nullable final List<T> values,
+            @Nonnull final String lang) {
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        T unspecified = null;
+        for (final T value : values) {
+            final String valueLang = value.getXMLLang();
+            if (lang.equalsIgnoreCase(valueLang)) {
+                return value;
+            } else if (valueLang == null && unspecified == null) {
+                unspecified = value;
+            }
+        }
+        return unspecified != null ? unspecified : values.get(0);
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import fi.mpass.shibboleth.rest.data.MunicipalityDTO;
+import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.Constraint;
+import net.shibboleth.shared.primitive.StringSupport;
+
+/**
+ * The catalog of the connected municipalities published by the REST API, loaded from a local JSON file into an
+ * immutable {@link MunicipalityIndex}.
+ * 
+ * <p>The file contains an array of objects with the municipality code (id), the integration status (status) and
+ * the name (name), either as a string or as an object of the names keyed by the language code, for instance:
+ * <code>[{"id": "091", "status": "production", "name": {"fi": "Helsinki", "sv": "Helsingfors"}}]</code>. If the
+ * name is missing in a language, the name in the default language, or in any language, is used instead. The
+ * invalid and duplicate entries are skipped.</p>
+ * 
+ * <p>If a reload check delay is configured, the file is checked periodically in the background, and a new index
+ * is published with a single atomic reference swap when the file has been modified. If the reload fails, the
+ * previous index stays in use.</p>
+ */
+public class MunicipalityCatalog extends AbstractReloadingCatalog {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(MunicipalityCatalog.class);
+
+    /** The resource containing the municipality dataset. */
+    @NonnullAfterInit private Resource resource;
+
+    /** The list of supported locales, the first one being the default. */
+    @NonnullAfterInit private List<String> supportedLocales;
+
+    /** The negotiator of the response language among the supported locales. */
+    @NonnullAfterInit private LanguageNegotiator languageNegotiator;
+
+    /** The modification time of the dataset when the current index was loaded. */
+    private long resourceModified;
+
+    /** The current index. */
+    @Nonnull private final AtomicReference<MunicipalityIndex> index;
+
+    /** Constructor. */
+    public MunicipalityCatalog() {
+        index = new AtomicReference<>();
+    }
+
+    /**
+     * Set the resource containing the municipality dataset.
+     * @param datasetResource What to set.
+     */
+    public void setResource(@Nonnull final Resource datasetResource) {
+        checkSetterPreconditions();
+        resource = Constraint.isNotNull(datasetResource, "The municipality dataset resource cannot be null");
+    }
+
+    /**
+     * Set the list of supported locales (parseable by {@link Locale#forLanguageTag(String)}).
+     * @param locales What to set.
+     */
+    public void setSupportedLocales(@Nonnull final List<String> locales) {
+        checkSetterPreconditions();
+        Constraint.isNotEmpty(locales, "The list of supported locales cannot be empty");
+        supportedLocales = new ArrayList<>();
+        for (final String locale : locales) {
+            supportedLocales.add(locale.toUpperCase());
+        }
+        languageNegotiator = new LanguageNegotiator(supportedLocales);
+    }
+
+    /**
+     * Get the list of supported locales, the first one being the default.
+     * @return The list of supported locales.
+     */
+    @Nonnull public List<String> getSupportedLocales() {
+        checkComponentActive();
+        return supportedLocales;
+    }
+
+    /**
+     * Get the negotiator of the response language among the supported locales.
+     * @return The language negotiator.
+     */
+    @Nonnull public LanguageNegotiator getLanguageNegotiator() {
+        checkComponentActive();
+        return languageNegotiator;
+    }
+
+    /**
+     * Get the current index of the municipalities.
+     * @return The current index.
+     */
+    @Nonnull public MunicipalityIndex getIndex() {
+        checkComponentActive();
+        return index.get();
+    }
+
+    /**
+     * Get the encoded list of the municipalities having any of the selected statuses, in the given language.
+     * 
+     * @param lang The language code.
+     * @param statusMask The selected statuses, see {@link MunicipalityIndex#parseStatuses(String)}.
+     * @return The encoded list, or null if the language is not supported.
+     */
+    @Nullable public EncodedList getList(@Nonnull final String lang, final int statusMask) {
+        return getIndex().getList(lang, statusMask);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (resource == null) {
+            throw new ComponentInitializationException("The municipality dataset resource cannot be null");
+        }
+        if (supportedLocales == null) {
+            throw new ComponentInitializationException("The list of supported locales cannot be null");
+        }
+        resourceModified = getResourceModified();
+        try {
+            index.set(loadIndex());
+        } catch (final IOException e) {
+            throw new ComponentInitializationException("Could not load the municipality dataset", e);
+        }
+        scheduleReloadChecks();
+    }
+
+    /**
+     * Checks whether the dataset has been modified since the current index was loaded, and if so, loads and
+     * publishes a new index. Run by the reload task.
+     */
+    @Override
+    protected void checkReload() {
+        final long modified = getResourceModified();
+        if (modified == resourceModified) {
+            return;
+        }
+        log.info("{} The municipality dataset has been modified, reloading the catalog", getLogPrefix());
+        try {
+            index.set(loadIndex());
+            resourceModified = modified;
+        } catch (final IOException | RuntimeException e) {
+            log.error("{} Could not reload the catalog, keeping the previous one", getLogPrefix(), e);
+        }
+    }
+
+    /**
+     * Loads a new index from the municipality dataset.
+     * 
+     * @return The new index.
+     * @throws IOException If the dataset could not be read or parsed.
+     */
+    @Nonnull protected MunicipalityIndex loadIndex() throws IOException {
+        final long start = System.currentTimeMillis();
+        final JsonElement root;
+        try (Reader reader = new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8)) {
+            root = JsonParser.parseReader(reader);
+        } catch (final JsonParseException e) {
+            throw new IOException("Could not parse the municipality dataset", e);
+        }
+        if (!root.isJsonArray()) {
+            throw new IOException("The municipality dataset must be a JSON array");
+        }
+        final SortedMap<String, JsonObject> entries = new TreeMap<>();
+        for (final JsonElement element : root.getAsJsonArray()) {
+            final String code = validateEntry(element);
+            if (code != null && entries.putIfAbsent(code, element.getAsJsonObject()) != null) {
+                log.warn("{} Skipping the duplicate municipality {}", getLogPrefix(), code);
+            }
+        }
+        final Map<String, List<MunicipalityDTO>> municipalities = new LinkedHashMap<>();
+        for (final String locale : supportedLocales) {
+            final List<MunicipalityDTO> localized = new ArrayList<>(entries.size());
+            for (final Map.Entry<String, JsonObject> entry : entries.entrySet()) {
+                localized.add(new MunicipalityDTO(entry.getKey(), getName(entry.getValue(), locale),
+                        MunicipalityIndex.Status.parse(getString(entry.getValue(), "status")).getValue()));
+            }
+            municipalities.put(locale, localized);
+        }
+        final MunicipalityIndex newIndex = new MunicipalityIndex(municipalities, Instant.ofEpochMilli(start));
+        log.info("{} Loaded the catalog of {} municipalities for {} locales in {} ms", getLogPrefix(),
+                newIndex.size(), supportedLocales.size(), System.currentTimeMillis() - start);
+        return newIndex;
+    }
+
+    /**
+     * Validates an entry of the municipality dataset.
+     * 
+     * @param element The entry to validate.
+     * @return The municipality code of the entry, or null if the entry is invalid.
+     */
+    @Nullable protected String validateEntry(@Nonnull final JsonElement element) {
+        if (!element.isJsonObject()) {
+            log.warn("{} Skipping a municipality that is not a JSON object", getLogPrefix());
+            return null;
+        }
+        final String code = StringSupport.trimOrNull(getString(element.getAsJsonObject(), "id"));
+        if (code == null) {
+            log.warn("{} Skipping a municipality without a code", getLogPrefix());
+            return null;
+        }
+        if (MunicipalityIndex.Status.parse(getString(element.getAsJsonObject(), "status")) == null) {
+            log.warn("{} Skipping the municipality {} without a valid status", getLogPrefix(), code);
+            return null;
+        }
+        return code;
+    }
+
+    /**
+     * Get the name of the municipality in the given language, or in the default language, or in any language.
+     * 
+     * @param entry The entry of the municipality dataset.
+     * @param locale The language code.
+     * @return The name of the municipality, or null if not set.
+     */
+    @Nullable protected String getName(@Nonnull final JsonObject entry, @Nonnull final String locale) {
+        final JsonElement name = entry.get("name");
+        if (name == null || !name.isJsonObject()) {
+            return getString(entry, "name");
+        }
+        final Map<String, String> names = new LinkedHashMap<>();
+        for (final Map.Entry<String, JsonElement> localized : name.getAsJsonObject().entrySet()) {
+            if (localized.getValue().isJsonPrimitive()) {
+                names.put(localized.getKey().toUpperCase(), localized.getValue().getAsString());
+            }
+        }
+        if (names.containsKey(locale)) {
+            return names.get(locale);
+        }
+        if (names.containsKey(supportedLocales.get(0))) {
+            return names.get(supportedLocales.get(0));
+        }
+        return names.isEmpty() ? null : names.values().iterator().next();
+    }
+
+    /**
+     * Get the latest modification time of the dataset, or zero if not available.
+     * 
+     * @return The latest modification time of the dataset.
+     */
+    protected long getResourceModified() {
+        try {
+            return resource.lastModified();
+        } catch (final IOException e) {
+            log.trace("{} Could not get the modification time of {}", getLogPrefix(), resource);
+            return 0;
+        }
+    }
+
+    /**
+     * Get the string value of the given member.
+     * 
+     * @param entry The JSON object.
+     * @param member The name of the member.
+     * @return The string value, or null if the member is missing or not a primitive.
+     */
+    @Nullable private static String getString(@Nonnull final JsonObject entry, @Nonnull final String member) {
+        final JsonElement value = entry.get(member);
+        return value != null && value.isJsonPrimitive() ? value.getAsString() : null;
+    }
+
+    /**
+     * Get the prefix for the log messages.
+     * 
+     * @return The prefix for the log messages.
+     */
+    @Nonnull private String getLogPrefix() {
+        return "Municipality catalog '" + getId() + "':";
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import fi.mpass.shibboleth.rest.data.MunicipalityDTO;
+import fi.mpass.shibboleth.rest.data.json.DTOWriter;
+import fi.mpass.shibboleth.rest.data.json.JsonByteWriter;
+import fi.mpass.shibboleth.rest.data.json.MunicipalityDTOWriter;
+import net.shibboleth.shared.logic.Constraint;
+import net.shibboleth.shared.primitive.StringSupport;
+
+/**
+ * An immutable index of the connected municipalities, keyed by the municipality code.
+ * 
+ * <p>The municipalities are held in parallel arrays sorted by the code, and their integration statuses are
+ * packed into a byte each. The localized lists are encoded once for every combination of the statuses, so that
+ * a filtered list, or its page, is served as a slice of a pre-encoded response.</p>
+ */
+public final class MunicipalityIndex {
+
+    /** The status mask selecting all the municipalities. */
+    public static final int ALL_STATUSES = (1 << Status.values().length) - 1;
+
+    /** The writer for the municipalities. */
+    @Nonnull private static final DTOWriter<MunicipalityDTO> WRITER = new MunicipalityDTOWriter();
+
+    /** The municipality codes in ascending order. */
+    @Nonnull private final String[] codes;
+
+    /** The ordinals of the integration statuses, in the order of the codes. */
+    @Nonnull private final byte[] statuses;
+
+    /** The encoded lists indexed by the status mask, keyed by the language code. */
+    @Nonnull private final Map<String, EncodedList[]> lists;
+
+    /**
+     * Constructor.
+     *
+     * @param municipalities The localized municipalities, keyed by the language code. Each list must contain the
+     *     same municipalities in the ascending order of their codes, with the same valid integration status.
+     * @param modified The modification time of the encoded lists.
+     */
+    public MunicipalityIndex(@Nonnull final Map<String, List<MunicipalityDTO>> municipalities,
+            @Nonnull final Instant modified) {
+        Constraint.isFalse(municipalities.isEmpty(), "The localized municipalities cannot be empty");
+        final List<MunicipalityDTO> first = municipalities.values().iterator().next();
+        codes = new String[first.size()];
+        statuses = new byte[first.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = Constraint.isNotNull(first.get(i).getId(), "The municipality code cannot be null");
+            if (i > 0 && codes[i - 1].compareTo(codes[i]) >= 0) {
+                throw new IllegalArgumentException("The municipality codes must be unique and in ascending order");
+            }
+            final Status status = Status.parse(first.get(i).getStatus());
+            if (status == null) {
+                throw new IllegalArgumentException("Invalid status for the municipality " + codes[i]);
+            }
+            statuses[i] = (byte) status.ordinal();
+        }
+        final BitSet[] selections = selectByStatus(statuses);
+        final Map<String, EncodedList[]> encoded = new HashMap<>();
+        final JsonByteWriter out = new JsonByteWriter();
+        for (final Map.Entry<String, List<MunicipalityDTO>> entry : municipalities.entrySet()) {
+            checkIndexed(entry.getKey(), entry.getValue());
+            final byte[][] elements = encodeElements(out, entry.getValue());
+            final EncodedList[] localized = new EncodedList[ALL_STATUSES + 1];
+            for (int mask = 1; mask <= ALL_STATUSES; mask++) {
+                localized[mask] = EncodedList.encodeLocalized(out, entry.getKey(), elements,
+                        mask == ALL_STATUSES ? null : selections[mask], modified);
+            }
+            encoded.put(entry.getKey(), localized);
+        }
+        lists = Collections.unmodifiableMap(encoded);
+    }
+
+    /**
+     * Get the number of the municipalities.
+     * 
+     * @return The number of the municipalities.
+     */
+    public int size() {
+        return codes.length;
+    }
+
+    /**
+     * Get the position of the municipality with the given code.
+     * 
+     * @param code The municipality code.
+     * @return The position of the municipality, or -1 if not found.
+     */
+    public int indexOf(@Nonnull final String code) {
+        return Math.max(-1, Arrays.binarySearch(codes, code));
+    }
+
+    /**
+     * Get the integration status of the municipality in the given position.
+     * 
+     * @param index The position of the municipality.
+     * @return The integration status.
+     */
+    @Nonnull public Status getStatus(final int index) {
+        return Status.values()[statuses[index]];
+    }
+
+    /**
+     * Get the encoded list of the municipalities having any of the selected statuses, in the given language.
+     * 
+     * @param lang The language code.
+     * @param statusMask The selected statuses, see {@link #parseStatuses(String)}.
+     * @return The encoded list, or null if the language is not supported.
+     */
+    @Nullable public EncodedList getList(@Nonnull final String lang, final int statusMask) {
+        Constraint.isTrue(statusMask > 0 && statusMask <= ALL_STATUSES, "Invalid status mask");
+        final EncodedList[] localized = lists.get(lang);
+        return localized == null ? null : localized[statusMask];
+    }
+
+    /**
+     * Parses a comma-separated list of integration statuses into a status mask, having the bit of each listed
+     * {@link Status#ordinal()} set.
+     * 
+     * @param query The comma-separated list of statuses, or null for all of them. Empty items are ignored.
+     * @return The status mask, or -1 if any of the statuses is unknown.
+     */
+    public static int parseStatuses(@Nullable final String query) {
+        if (StringSupport.trimOrNull(query) == null) {
+            return ALL_STATUSES;
+        }
+        int mask = 0;
+        final StringTokenizer tokenizer = new StringTokenizer(query, ",");
+        while (tokenizer.hasMoreTokens()) {
+            final String token = StringSupport.trimOrNull(tokenizer.nextToken());
+            final Status status = Status.parse(token);
+            if (token != null && status == null) {
+                return -1;
+            } else if (status != null) {
+                mask |= 1 << status.ordinal();
+            }
+        }
+        return mask == 0 ? ALL_STATUSES : mask;
+    }
+
+    /**
+     * Checks that the given localized list contains the indexed municipalities in the same order, with the same
+     * integration statuses.
+     * 
+     * @param lang The language code of the list.
+     * @param municipalities The localized municipalities.
+     */
+    private void checkIndexed(@Nonnull final String lang, @Nonnull final List<MunicipalityDTO> municipalities) {
+        if (municipalities.size() != codes.length) {
+            throw new IllegalArgumentException("The municipalities in " + lang + " differ from the other languages");
+        }
+        for (int i = 0; i < codes.length; i++) {
+            final MunicipalityDTO municipality = municipalities.get(i);
+            final Status status = Status.parse(municipality.getStatus());
+            if (!codes[i].equals(municipality.getId()) || status == null || status.ordinal() != statuses[i]) {
+                throw new IllegalArgumentException("The municipality " + codes[i] + " in " + lang
+                        + " differs from the other languages");
+            }
+        }
+    }
+
+    /**
+     * Selects the positions of the municipalities having any of the statuses, for each status mask.
+     * 
+     * @param statuses The ordinals of the integration statuses.
+     * @return The selected positions indexed by the status mask.
+     */
+    @Nonnull private static BitSet[] selectByStatus(@Nonnull final byte[] statuses) {
+        final BitSet[] selections = new BitSet[ALL_STATUSES + 1];
+        for (int mask = 1; mask <= ALL_STATUSES; mask++) {
+            selections[mask] = new BitSet(statuses.length);
+            for (int i = 0; i < statuses.length; i++) {
+                selections[mask].set(i, (mask & 1 << statuses[i]) != 0);
+            }
+        }
+        return selections;
+    }
+
+    /**
+     * Encodes each of the given municipalities into UTF-8 JSON.
+     * 
+     * @param out The writer to use.
+     * @param municipalities The municipalities to encode.
+     * @return The encoded municipalities.
+     */
+    @Nonnull private static byte[][] encodeElements(@Nonnull final JsonByteWriter out,
+            @Nonnull final List<MunicipalityDTO> municipalities) {
+        final byte[][] elements = new byte[municipalities.size()][];
+        for (int i = 0; i < elements.length; i++) {
+            out.reset();
+            WRITER.write(out, municipalities.get(i));
+            elements[i] = out.toByteArray();
+        }
+        return elements;
+    }
+
+    /**
+     * The integration statuses of the municipalities.
+     */
+    public enum Status {
+
+        /** The integration is being designed. */
+        DESIGN,
+
+        /** The integration is being tested. */
+        TEST,
+
+        /** The integration is in production. */
+        PRODUCTION,
+
+        /** The integration has been retired. */
+        RETIRED;
+
+        /**
+         * Get the value of the status in the API.
+         * 
+         * @return The value of the status.
+         */
+        @Nonnull public String getValue() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        /**
+         * Parses the given value of a status, ignoring the case and the surrounding whitespace.
+         * 
+         * @param value The value to parse.
+         * @return The status, or null if the value is unknown.
+         */
+        @Nullable public static Status parse(@Nullable final String value) {
+            final String trimmed = StringSupport.trimOrNull(value);
+            if (trimmed != null) {
+                for (final Status status : values()) {
+                    if (status.name().equalsIgnoreCase(trimmed)) {
+                        return status;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+}
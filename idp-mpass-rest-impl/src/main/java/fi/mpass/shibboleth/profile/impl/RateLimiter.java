@@ -0,0 +1,336 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import org.apache.http.HttpStatus;
+
+import fi.mpass.shibboleth.rest.data.ErrorDTO;
+import fi.mpass.shibboleth.rest.data.json.ErrorDTOWriter;
+import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.shared.component.AbstractIdentifiableInitializableComponent;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.Constraint;
+import net.shibboleth.shared.primitive.StringSupport;
+
+/**
+ * Limits the request rate of each client of an endpoint with a token bucket. A bucket holds up to the configured
+ * capacity of requests, and regains one request per refill interval. The clients are identified by their IP
+ * address, or when behind trusted proxies, by the value of the configured request header appended by the outermost
+ * trusted proxy. The values before it are set by the client itself, and cannot identify it.
+ * 
+ * <p>The buckets are lock-free: each one is a single atomic theoretical arrival time, updated with
+ * compare-and-set, as in the generic cell rate algorithm. A bucket untouched for long enough is full and carries
+ * no state, so the idle buckets are evicted when the map of the clients reaches its maximum size. If all the
+ * tracked clients are active, the remaining ones share a single bucket.</p>
+ * 
+ * <p>A separate instance is meant to be configured for each endpoint to be limited.</p>
+ */
+public class RateLimiter extends AbstractIdentifiableInitializableComponent {
+
+    /** The client identifier for the requests without one. */
+    @Nonnull private static final String UNKNOWN_CLIENT = "unknown";
+
+    /** Whether the requests are limited. */
+    private boolean enabled;
+
+    /** The maximum number of requests in a full bucket. */
+    private int capacity;
+
+    /** The time to regain one request. */
+    @Nonnull private Duration refillInterval;
+
+    /** The maximum number of the tracked clients. */
+    private int maxClients;
+
+    /** The request header identifying the client, or null if the IP address is used. */
+    @Nullable private String clientIdHeader;
+
+    /** The number of the trusted proxies appending to the client id header. */
+    private int trustedProxies;
+
+    /** The time to regain one request, in nanoseconds. */
+    private long intervalNanos;
+
+    /** The time a bucket may be ahead of the current time while still accepting a request, in nanoseconds. */
+    private long toleranceNanos;
+
+    /** The buckets of the tracked clients. */
+    @Nonnull private final ConcurrentMap<String, TokenBucket> buckets;
+
+    /** The bucket shared by the clients not tracked. */
+    @NonnullAfterInit private TokenBucket overflowBucket;
+
+    /** The earliest time of the next eviction of the idle buckets, in nanoseconds. */
+    @Nonnull private final AtomicLong nextEviction;
+
+    /** The encoded body of the rejected responses. */
+    @NonnullAfterInit private byte[] rejectionBody;
+
+    /** Constructor. */
+    public RateLimiter() {
+        enabled = true;
+        capacity = 20;
+        refillInterval = Duration.ofMillis(100);
+        maxClients = 10000;
+        trustedProxies = 1;
+        buckets = new ConcurrentHashMap<>();
+        nextEviction = new AtomicLong();
+    }
+
+    /**
+     * Set whether the requests are limited. Default is true.
+     * @param flag What to set.
+     */
+    public void setEnabled(final boolean flag) {
+        checkSetterPreconditions();
+        enabled = flag;
+    }
+
+    /**
+     * Set the maximum number of requests in a full bucket, i.e. the allowed burst. Default is 20.
+     * @param requests What to set.
+     */
+    public void setCapacity(final int requests) {
+        checkSetterPreconditions();
+        capacity = (int) Constraint.isGreaterThan(0, requests, "The capacity must be positive");
+    }
+
+    /**
+     * Set the time to regain one request, i.e. the inverse of the sustained rate. Default is 100 milliseconds.
+     * @param interval What to set.
+     */
+    public void setRefillInterval(@Nonnull final Duration interval) {
+        checkSetterPreconditions();
+        Constraint.isNotNull(interval, "The refill interval cannot be null");
+        Constraint.isFalse(interval.isNegative() || interval.isZero(), "The refill interval must be positive");
+        refillInterval = interval;
+    }
+
+    /**
+     * Set the maximum number of the tracked clients. Default is 10000.
+     * @param clients What to set.
+     */
+    public void setMaxClients(final int clients) {
+        checkSetterPreconditions();
+        maxClients = (int) Constraint.isGreaterThan(0, clients, "The maximum number of clients must be positive");
+    }
+
+    /**
+     * Set the request header identifying the client, e.g. X-Forwarded-For when behind a trusted proxy. The value
+     * appended by the outermost trusted proxy is used, see {@link #setTrustedProxies(int)}. Default is none, i.e. the
+     * IP address is used.
+     * @param header What to set.
+     */
+    public void setClientIdHeader(@Nullable final String header) {
+        checkSetterPreconditions();
+        clientIdHeader = StringSupport.trimOrNull(header);
+    }
+
+    /**
+     * Set the number of the trusted proxies appending the client address to the client id header. The client is
+     * identified by the comma-separated value at this position counted from the end, e.g. the last one with a
+     * single proxy. Default is 1.
+     * @param proxies What to set.
+     */
+    public void setTrustedProxies(final int proxies) {
+        checkSetterPreconditions();
+        trustedProxies = (int) Constraint.isGreaterThan(0, proxies, "The number of trusted proxies must be positive");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        intervalNanos = refillInterval.toNanos();
+        toleranceNanos = intervalNanos * capacity;
+        final long now = System.nanoTime();
+        overflowBucket = new TokenBucket(now - toleranceNanos);
+        nextEviction.set(now);
+        final ErrorDTO errorDTO = new ErrorDTO();
+        errorDTO.setCode(HttpStatus.SC_TOO_MANY_REQUESTS);
+        errorDTO.setMessage("Too many requests");
+        errorDTO.setFields("Retry after the time given in the Retry-After header");
+        rejectionBody = new ErrorDTOWriter().toByteArray(errorDTO);
+    }
+
+    /**
+     * Get the encoded body of the rejected responses.
+     * 
+     * @return The encoded body, not to be modified.
+     */
+    @NonnullAfterInit public byte[] getRejectionBody() {
+        return rejectionBody;
+    }
+
+    /**
+     * Get the identifier of the client sending the given request.
+     * 
+     * @param httpRequest The HTTP request.
+     * @return The identifier of the client.
+     */
+    @Nonnull public String getClientId(@Nonnull final HttpServletRequest httpRequest) {
+        String clientId = null;
+        if (clientIdHeader != null) {
+            final List<String> values = new ArrayList<>();
+            final Enumeration<String> headers = httpRequest.getHeaders(clientIdHeader);
+            while (headers != null && headers.hasMoreElements()) {
+                values.addAll(Arrays.asList(headers.nextElement().split(",")));
+            }
+            if (!values.isEmpty()) {
+                clientId = StringSupport.trimOrNull(values.get(Math.max(0, values.size() - trustedProxies)));
+            }
+        } else {
+            clientId = httpRequest.getRemoteAddr();
+        }
+        return clientId != null ? clientId : UNKNOWN_CLIENT;
+    }
+
+    /**
+     * Takes a request from the bucket of the client sending the given request. All the requests are allowed if
+     * the limiter is not enabled.
+     * 
+     * @param httpRequest The HTTP request.
+     * @return Zero if the request is allowed, otherwise the number of seconds until it would be allowed.
+     */
+    public long tryAcquire(@Nonnull final HttpServletRequest httpRequest) {
+        if (!enabled) {
+            return 0;
+        }
+        return tryAcquire(getClientId(httpRequest), System.nanoTime());
+    }
+
+    /**
+     * Takes a request from the bucket of the given client.
+     * 
+     * @param clientId The identifier of the client.
+     * @param now The current time, in nanoseconds.
+     * @return Zero if the request is allowed, otherwise the number of seconds until it would be allowed.
+     */
+    protected long tryAcquire(@Nonnull final String clientId, final long now) {
+        checkComponentActive();
+        final long wait = getBucket(clientId, now).tryAcquire(now, intervalNanos, toleranceNanos);
+        return wait <= 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + TimeUnit.SECONDS.toNanos(1) - 1));
+    }
+
+    /**
+     * Get the number of the tracked clients.
+     * 
+     * @return The number of the tracked clients.
+     */
+    public int getClientCount() {
+        return buckets.size();
+    }
+
+    /**
+     * Get the bucket of the given client, evicting the idle buckets if the map is full.
+     * 
+     * @param clientId The identifier of the client.
+     * @param now The current time, in nanoseconds.
+     * @return The bucket of the client, or the shared bucket if the client cannot be tracked.
+     */
+    @Nonnull private TokenBucket getBucket(@Nonnull final String clientId, final long now) {
+        final TokenBucket bucket = buckets.get(clientId);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (buckets.size() >= maxClients) {
+            final long next = nextEviction.get();
+            if (now - next >= 0 && nextEviction.compareAndSet(next, now + toleranceNanos)) {
+                buckets.values().removeIf(idle -> idle.isFull(now));
+            }
+            if (buckets.size() >= maxClients) {
+                return overflowBucket;
+            }
+        }
+        final TokenBucket created = new TokenBucket(now);
+        final TokenBucket existing = buckets.putIfAbsent(clientId, created);
+        return existing != null ? existing : created;
+    }
+
+    /**
+     * A lock-free token bucket, represented by the theoretical arrival time of the next request. The bucket is full
+     * when the time is not ahead of the current time, and each request moves it one refill interval ahead.
+     */
+    private static final class TokenBucket {
+
+        /** The theoretical arrival time of the next request, in nanoseconds. */
+        @Nonnull private final AtomicLong arrivalTime;
+
+        /**
+         * Constructor.
+         *
+         * @param now The current time, in nanoseconds.
+         */
+        private TokenBucket(final long now) {
+            arrivalTime = new AtomicLong(now);
+        }
+
+        /**
+         * Takes a request from the bucket, if available.
+         * 
+         * @param now The current time, in nanoseconds.
+         * @param interval The time to regain one request, in nanoseconds.
+         * @param tolerance How far ahead of the current time the bucket may be after the request, in nanoseconds.
+         * @return Zero or less if the request was taken, otherwise the time until it would be available.
+         */
+        private long tryAcquire(final long now, final long interval, final long tolerance) {
+            while (true) {
+                final long current = arrivalTime.get();
+                final long next = (current - now > 0 ? current : now) + interval;
+                final long excess = next - now - tolerance;
+                if (excess > 0) {
+                    return excess;
+                }
+                if (arrivalTime.compareAndSet(current, next)) {
+                    return 0;
+                }
+            }
+        }
+
+        /**
+         * Checks whether the bucket is full, i.e. it carries no state and can be evicted.
+         * 
+         * @param now The current time, in nanoseconds.
+         * @return true if the bucket is full, false otherwise.
+         */
+        private boolean isFull(final long now) {
+            return arrivalTime.get() - now <= 0;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.opensaml.saml.metadata.IterableMetadataSource;
+import org.opensaml.saml.metadata.resolver.ChainingMetadataResolver;
+import org.opensaml.saml.metadata.resolver.MetadataResolver;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+
+import net.shibboleth.idp.saml.metadata.impl.RelyingPartyMetadataProvider;
+import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.shared.component.AbstractIdentifiableInitializableComponent;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.Constraint;
+import net.shibboleth.shared.service.ReloadableService;
+import net.shibboleth.shared.service.ServiceableComponent;
+
+/**
+ * The relying-party metadata of the IdP, i.e. the entities of the metadata providers configured in
+ * <code>metadata-providers.xml</code>, as an {@link IterableMetadataSource}.
+ * 
+ * <p>Each iteration takes the current metadata resolver of the service, so that the reloads of the service are
+ * followed, and walks the relying-party and chaining resolvers down to the resolvers that can be iterated, such as
+ * the file-backed and HTTP metadata resolvers. The dynamic resolvers, resolving the entities on demand, cannot be
+ * iterated and are skipped. The entities are listed in the order of the resolvers, so an entity found in several
+ * resolvers is listed more than once.</p>
+ * 
+ * <p>The entities are collected while the resolver is pinned by the service, so an iteration is a snapshot. If the
+ * service has no valid resolver, the iteration fails with the exception of the service.</p>
+ */
+public class RelyingPartyMetadataSource extends AbstractIdentifiableInitializableComponent
+        implements IterableMetadataSource {
+
+    /** The service of the relying-party metadata resolver. */
+    @NonnullAfterInit private ReloadableService<MetadataResolver> metadataResolverService;
+
+    /**
+     * Set the service of the relying-party metadata resolver, typically
+     * <code>shibboleth.MetadataResolverService</code>.
+     * @param service What to set.
+     */
+    public void setMetadataResolverService(@Nonnull final ReloadableService<MetadataResolver> service) {
+        checkSetterPreconditions();
+        metadataResolverService = Constraint.isNotNull(service, "The metadata resolver service cannot be null");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (metadataResolverService == null) {
+            throw new ComponentInitializationException("The metadata resolver service cannot be null");
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @Nonnull public Iterator<EntityDescriptor> iterator() {
+        checkComponentActive();
+        final List<EntityDescriptor> entities = new ArrayList<>();
+        try (ServiceableComponent<MetadataResolver> component = metadataResolverService.getServiceableComponent()) {
+            addEntities(component.getComponent(), entities);
+        }
+        return entities.iterator();
+    }
+
+    /**
+     * Adds the entities of the given resolver, and of the resolvers embedded or chained in it, to the given list.
+     * 
+     * @param resolver The metadata resolver.
+     * @param entities The list of the entities to add to.
+     */
+    protected void addEntities(@Nonnull final MetadataResolver resolver,
+            @Nonnull final List<EntityDescriptor> entities) {
+        if (resolver instanceof RelyingPartyMetadataProvider) {
+            addEntities(((RelyingPartyMetadataProvider) resolver).getEmbeddedResolver(), entities);
+        } else if (resolver instanceof ChainingMetadataResolver) {
+            for (final MetadataResolver chained : ((ChainingMetadataResolver) resolver).getResolvers()) {
+                addEntities(chained, entities);
+            }
+        } else if (resolver instanceof IterableMetadataSource) {
+            for (final EntityDescriptor entity : (IterableMetadataSource) resolver) {
+                entities.add(entity);
+            }
+        }
+    }
+}
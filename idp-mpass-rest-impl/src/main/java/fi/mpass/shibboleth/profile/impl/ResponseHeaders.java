@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+
+import net.shibboleth.shared.servlet.HttpServletSupport;
+
+/**
+ * The headers added to all the responses of an endpoint: the configured additional headers, the caching
+ * headers and the CORS headers. The values are precomputed when the instance is built, so that pushing them
+ * does not iterate maps or build strings per request. Instances are immutable and thread-safe.
+ * 
+ * <p>Without a {@link CachePolicy} the responses are not stored, as before the caching policies were
+ * introduced, except that the validated responses may be stored if revalidated before each use. With a
+ * policy, only the validated responses may be stored, according to the policy.</p>
+ */
+public final class ResponseHeaders {
+
+    /** The Cache-Control header value of the validated responses without a cache policy. */
+    @Nonnull private static final String NO_CACHE = "no-cache";
+
+    /** The Cache-Control header value of the other responses with a cache policy. */
+    @Nonnull private static final String NO_STORE = "no-store";
+
+    /** The names of the additional headers. */
+    @Nonnull private final String[] names;
+
+    /** The values of the additional headers, in the same order as the names. */
+    @Nonnull private final String[] values;
+
+    /** The cache policy of the validated responses, or null if not stored. */
+    @Nullable private final CachePolicy cachePolicy;
+
+    /** The Cache-Control header value of the validated responses. */
+    @Nonnull private final String validatedCacheControl;
+
+    /** The CORS policy of the endpoint, or null if the CORS headers are not added. */
+    @Nullable private final CorsPolicy corsPolicy;
+
+    /**
+     * Constructor.
+     *
+     * @param headers The additional headers, may be null.
+     * @param cache The cache policy of the validated responses, may be null.
+     * @param cors The CORS policy of the endpoint, may be null.
+     */
+    public ResponseHeaders(@Nullable final Map<String, String> headers, @Nullable final CachePolicy cache,
+            @Nullable final CorsPolicy cors) {
+        final int size = headers == null ? 0 : headers.size();
+        names = new String[size];
+        values = new String[size];
+        if (headers != null) {
+            int i = 0;
+            for (final Map.Entry<String, String> header : headers.entrySet()) {
+                names[i] = header.getKey();
+                values[i++] = header.getValue();
+            }
+        }
+        cachePolicy = cache;
+        validatedCacheControl = cache == null ? NO_CACHE : cache.getCacheControl();
+        corsPolicy = cors;
+    }
+
+    /**
+     * Get the Cache-Control header value of the validated responses.
+     * 
+     * @return The Cache-Control header value.
+     */
+    @Nonnull public String getValidatedCacheControl() {
+        return validatedCacheControl;
+    }
+
+    /**
+     * Pushes the headers common to all the responses. The Cache-Control header prevents storing the response,
+     * until overridden with {@link #getValidatedCacheControl()} for a validated response.
+     * 
+     * @param httpRequest The HTTP request.
+     * @param httpResponse The HTTP response.
+     */
+    public void push(@Nonnull final HttpServletRequest httpRequest, @Nonnull final HttpServletResponse httpResponse) {
+        if (corsPolicy != null) {
+            corsPolicy.applyTo(httpRequest, httpResponse);
+        }
+        if (cachePolicy == null) {
+            HttpServletSupport.addNoCacheHeaders(httpResponse);
+        } else {
+            httpResponse.setHeader(HttpHeaders.CACHE_CONTROL, NO_STORE);
+        }
+        for (int i = 0; i < names.length; i++) {
+            httpResponse.addHeader(names[i], values[i]);
+        }
+    }
+}
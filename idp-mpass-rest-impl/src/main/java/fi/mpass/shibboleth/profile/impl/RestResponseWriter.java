@@ -0,0 +1,656 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+
+import com.google.common.net.MediaType;
+
+import fi.mpass.shibboleth.rest.data.ErrorDTO;
+import fi.mpass.shibboleth.rest.data.json.DTOWriter;
+import fi.mpass.shibboleth.rest.data.json.ErrorDTOWriter;
+import net.shibboleth.shared.logic.Constraint;
+import net.shibboleth.shared.primitive.StringSupport;
+import net.shibboleth.shared.security.AccessControl;
+import net.shibboleth.shared.servlet.HttpServletSupport;
+
+/**
+ * Writes the JSON responses of an endpoint to the {@link HttpServletResponse}, with the common headers,
+ * validators and content codings. Used by both the Web Flow actions and the servlet filter serving the
+ * same endpoints, so that their responses are identical. Instances are immutable and thread-safe.
+ */
+public class RestResponseWriter {
+
+    /** The name of the query parameter for the position of the first element of a page. */
+    @Nonnull public static final String OFFSET_PARAMETER = "offset";
+
+    /** The name of the query parameter for the maximum number of the elements in a page. */
+    @Nonnull public static final String LIMIT_PARAMETER = "limit";
+
+    /** The name of the response header for the total number of the elements in a paginated list. */
+    @Nonnull public static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+
+    /** The Vary header value of the responses negotiated by both the content coding and the language. */
+    @Nonnull private static final String VARY_ENCODING_AND_LANGUAGE =
+            HttpHeaders.ACCEPT_ENCODING + ", " + HttpHeaders.ACCEPT_LANGUAGE;
+
+    /** The name of the request attribute for the completion of the body written with the non-blocking I/O. */
+    @Nonnull private static final String ASYNC_COMPLETION_ATTRIBUTE =
+            RestResponseWriter.class.getName() + ".asyncCompletion";
+
+    /** The writer for the error responses. */
+    @Nonnull private static final DTOWriter<ErrorDTO> ERROR_WRITER = new ErrorDTOWriter();
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(RestResponseWriter.class);
+
+    /** The headers added to all the responses. */
+    @Nonnull private final ResponseHeaders responseHeaders;
+
+    /** The metrics of the endpoint for counting the bytes written, or null if not recorded. */
+    @Nullable private final EndpointMetrics endpointMetrics;
+
+    /** The prefix for the log messages. */
+    @Nonnull private final String logPrefix;
+
+    /** The writer of the encoded responses with the non-blocking I/O, or null if the blocking I/O is used. */
+    @Nullable private final AsyncBodyWriter asyncWriter;
+
+    /**
+     * Constructor.
+     *
+     * @param headers The additional headers to be added to the HTTP response, may be null.
+     * @param metrics The metrics of the endpoint for recording the requests and the bytes written, may be null.
+     * @param prefix The prefix for the log messages.
+     */
+    public RestResponseWriter(@Nullable final Map<String, String> headers, @Nullable final EndpointMetrics metrics,
+            @Nonnull final String prefix) {
+        this(new ResponseHeaders(headers, null, null), metrics, prefix, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param headers The headers added to all the responses.
+     * @param metrics The metrics of the endpoint for recording the requests and the bytes written, may be null.
+     * @param prefix The prefix for the log messages.
+     * @param asyncTimeout The maximum time to write a response body with the non-blocking I/O
+     *            (zero for no limit), see {@link AsyncBodyWriter}, or null if the blocking I/O is always used. The
+     *            blocking I/O is also used if the request does not support the async mode.
+     */
+    public RestResponseWriter(@Nonnull final ResponseHeaders headers, @Nullable final EndpointMetrics metrics,
+            @Nonnull final String prefix, @Nullable final Duration asyncTimeout) {
+        responseHeaders = Constraint.isNotNull(headers, "The response headers cannot be null");
+        endpointMetrics = metrics;
+        logPrefix = prefix;
+        asyncWriter = asyncTimeout != null ? new AsyncBodyWriter(asyncTimeout, prefix) : null;
+    }
+
+    /**
+     * Whether the encoded responses are written with the non-blocking I/O when supported.
+     * 
+     * @return true if the non-blocking I/O is used when supported, false otherwise.
+     */
+    public boolean isAsyncWriting() {
+        return asyncWriter != null;
+    }
+
+    /**
+     * Push common REST/JSON settings and the {@link ResponseHeaders} to {@link HttpServletResponse}.
+     *
+     * @param httpRequest The HTTP request.
+     * @param httpResponse The HTTP response.
+     */
+    public void pushHttpResponseProperties(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final HttpServletResponse httpResponse) {
+        responseHeaders.push(httpRequest, httpResponse);
+        HttpServletSupport.setUTF8Encoding(httpResponse);
+        HttpServletSupport.setContentType(httpResponse, MediaType.JSON_UTF_8.toString());
+    }
+
+    /**
+     * Writes the given UTF-8 encoded JSON as the body of the {@link HttpServletResponse}, together with
+     * its exact content length.
+     * 
+     * @param httpResponse The HTTP response.
+     * @param body The encoded response body.
+     * @throws IOException If the body could not be written.
+     */
+    public void writeResponse(@Nonnull final HttpServletResponse httpResponse, @Nonnull final byte[] body)
+            throws IOException {
+        httpResponse.setContentLength(body.length);
+        final OutputStream out = httpResponse.getOutputStream();
+        out.write(body);
+        out.flush();
+        addBytesWritten(body.length);
+    }
+
+    /**
+     * Writes the given UTF-8 encoded JSON as the body of the {@link HttpServletResponse}, together with
+     * its exact content length. The body of a HEAD response is omitted.
+     * 
+     * @param httpRequest The HTTP request.
+     * @param httpResponse The HTTP response.
+     * @param body The encoded response body.
+     * @throws IOException If the body could not be written.
+     */
+    public void writeResponse(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final HttpServletResponse httpResponse, @Nonnull final byte[] body) throws IOException {
+        if (isHead(httpRequest)) {
+            httpResponse.setContentLength(body.length);
+        } else {
+            writeResponse(httpResponse, body);
+        }
+    }
+
+    /**
+     * Checks the access of the client with the given {@link AccessControl}, if any. If the access is denied, the
+     * request is answered with 403.
+     * 
+     * @param httpRequest The HTTP request.
+     * @param httpResponse The HTTP response.
+     * @param accessControl The access control policy of the endpoint, or null if not restricted.
+     * @return true if the request was rejected, false if it is to be answered.
+     * @throws IOException If the body could not be written.
+     */
+    public boolean rejectIfAccessDenied(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final HttpServletResponse httpResponse, @Nullable final AccessControl accessControl)
+                    throws IOException {
+        if (accessControl == null || accessControl.checkAccess(httpRequest, null, null)) {
+            return false;
+        }
+        log.debug("{} Access denied from client {}", logPrefix, httpRequest.getRemoteAddr());
+        pushHttpResponseProperties(httpRequest, httpResponse);
+        writeResponse(httpRequest, httpResponse, makeErrorResponse(httpResponse, HttpStatus.SC_FORBIDDEN,
+                "Access denied", "The client is not allowed to access the endpoint"));
+        return true;
+    }
+
+    /**
+     * Takes a request from the bucket of the client with the given {@link RateLimiter}, if any. If the client has
+     * exceeded its rate, the request is answered with 429 and the Retry-After header, using the error body
+     * precomputed by the limiter.
+     * 
+     * @param httpRequest The HTTP request.
+     * @param httpResponse The HTTP response.
+     * @param rateLimiter The rate limiter of the endpoint, or null if not limited.
+     * @return true if the request was rejected, false if it is to be answered.
+     * @throws IOException If the body could not be written.
+     */
+    public boolean rejectIfRateLimited(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final HttpServletResponse httpResponse, @Nullable final RateLimiter rateLimiter)
+                    throws IOException {
+        if (rateLimiter == null) {
+            return false;
+        }
+        final long retryAfter = rateLimiter.tryAcquire(httpRequest);
+        if (retryAfter == 0) {
+            return false;
+        }
+        log.debug("{} Rate limit exceeded by client {}", logPrefix, rateLimiter.getClientId(httpRequest));
+        pushHttpResponseProperties(httpRequest, httpResponse);
+        httpResponse.setStatus(HttpStatus.SC_TOO_MANY_REQUESTS);
+        httpResponse.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter));
+        writeResponse(httpRequest, httpResponse, rateLimiter.getRejectionBody());
+        return true;
+    }
+
+    /**
+     * Checks whether the given request uses one of the read methods answered by the endpoints, GET or HEAD.
+     * 
+     * @param httpRequest The HTTP request.
+     * @return true if the method is GET or HEAD, false otherwise.
+     */
+    public static boolean isGetOrHead(@Nonnull final HttpServletRequest httpRequest) {
+        return HttpMethod.GET.name().equals(httpRequest.getMethod()) || isHead(httpRequest);
+    }
+
+    /**
+     * Checks whether the given request is a HEAD request, answered with the headers of the GET response only.
+     * 
+     * @param httpRequest The HTTP request.
+     * @return true if the method is HEAD, false otherwise.
+     */
+    public static boolean isHead(@Nonnull final HttpServletRequest httpRequest) {
+        return HttpMethod.HEAD.name().equals(httpRequest.getMethod());
+    }
+
+    /**
+     * Records the given request in the metrics of the endpoint, if recorded, once its response has been completed.
+     * If the body is being written with the non-blocking I/O, the request is recorded when the write has been
+     * completed, has failed or has timed out, so that the latency covers the whole transfer.
+     * 
+     * @param httpRequest The HTTP request.
+     * @param httpResponse The HTTP response, with the status already set.
+     * @param locale The locale of the response, or null if not localized.
+     * @param start The time when the request handling started, see {@link System#nanoTime()}.
+     */
+    public void recordCompletion(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final HttpServletResponse httpResponse, @Nullable final String locale, final long start) {
+        if (endpointMetrics == null) {
+            return;
+        }
+        final int status = httpResponse.getStatus();
+        final Object completion = httpRequest.getAttribute(ASYNC_COMPLETION_ATTRIBUTE);
+        if (completion instanceof CompletionStage) {
+            ((CompletionStage<?>) completion).thenRun(
+                    () -> endpointMetrics.record(status, locale, System.nanoTime() - start));
+        } else {
+            endpointMetrics.record(status, locale, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Adds the given number of body bytes written to the metrics of the endpoint, if recorded.
+     * 
+     * @param bytes The number of bytes written.
+     */
+    private void addBytesWritten(final long bytes) {
+        if (endpointMetrics != null) {
+            endpointMetrics.addBytesWritten(bytes);
+        }
+    }
+
+    /**
+     * Sets the language of the response, negotiated by the {@link LanguageNegotiator}. As the negotiation may
+     * depend on the Accept-Language header, the header is also listed in Vary.
+     * 
+     * @param httpResponse The HTTP response.
+     * @param contentLanguage The Content-Language header value.
+     */
+    public void setContentLanguage(@Nonnull final HttpServletResponse httpResponse,
+            @Nonnull final String contentLanguage) {
+        httpResponse.setHeader(HttpHeaders.CONTENT_LANGUAGE, contentLanguage);
+        setVary(httpResponse, HttpHeaders.ACCEPT_LANGUAGE);
+    }
+
+    /**
+     * Writes the given {@link EncodedResponse} together with its validators, using the content coding
+     * negotiated with the Accept-Encoding header. If the conditional request headers show that the client
+     * already has the same content, a body-less 304 response is returned instead.
+     * 
+     * <p>The response may be stored according to the {@link CachePolicy} of the endpoint. Without a policy it
+     * may be stored by the clients, but it must be revalidated before each use.</p>
+     * 
+     * @param httpRequest The HTTP request.
+     * @param httpResponse The HTTP response.
+     * @param response The encoded response.
+     * @throws IOException If the body could not be written.
+     */
+    public void writeResponse(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final HttpServletResponse httpResponse, @Nonnull final EncodedResponse response)
+                    throws IOException {
+        final ContentCoding coding =
+                ContentCoding.negotiate(httpRequest.getHeader(HttpHeaders.ACCEPT_ENCODING), response);
+        setVary(httpResponse, httpResponse.containsHeader(HttpHeaders.CONTENT_LANGUAGE)
+                ? VARY_ENCODING_AND_LANGUAGE : HttpHeaders.ACCEPT_ENCODING);
+        httpResponse.setHeader(HttpHeaders.CACHE_CONTROL, responseHeaders.getValidatedCacheControl());
+        httpResponse.setHeader(HttpHeaders.ETAG, response.getETag(coding));
+        httpResponse.setDateHeader(HttpHeaders.LAST_MODIFIED, response.getLastModified());
+        if (isNotModified(httpRequest, response, coding)) {
+            log.debug("{} The client already has the current content", logPrefix);
+            httpResponse.setStatus(HttpStatus.SC_NOT_MODIFIED);
+            return;
+        }
+        httpResponse.setStatus(HttpStatus.SC_OK);
+        if (coding != ContentCoding.IDENTITY) {
+            httpResponse.setHeader(HttpHeaders.CONTENT_ENCODING, coding.getHeaderValue());
+        }
+        final byte[] body = response.getBody(coding);
+        writeBody(httpRequest, httpResponse, body, new int[] {0, body.length});
+    }
+
+    /**
+     * Writes the whole given {@link EncodedList}, or its page if the {@value #OFFSET_PARAMETER} or
+     * {@value #LIMIT_PARAMETER} query parameter is set. A page is returned together with the total number of the
+     * elements in the {@value #TOTAL_COUNT_HEADER} header and the links to the first, previous, next and last
+     * pages in the Link header. An invalid page is answered with an error.
+     * 
+     * @param httpRequest The HTTP request.
+     * @param httpResponse The HTTP response.
+     * @param list The encoded list.
+     * @throws IOException If the response could not be written.
+     */
+    public void writeList(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final HttpServletResponse httpResponse, @Nonnull final EncodedList list) throws IOException {
+        final int[] page = getRequestedPage(httpRequest);
+        if (page == null) {
+            writeResponse(httpRequest, httpResponse, list.getResponse());
+            return;
+        }
+        if (rejectIfInvalidPage(httpRequest, httpResponse, page)) {
+            return;
+        }
+        setPageHeaders(httpRequest, httpResponse, page, list.size());
+        writePage(httpRequest, httpResponse, list, page[0], list.getPageSize(page[0], page[1]));
+    }
+
+    /**
+     * Get the page requested with the {@value #OFFSET_PARAMETER} and {@value #LIMIT_PARAMETER} query parameters.
+     * 
+     * @param httpRequest The HTTP request.
+     * @return The offset and the limit of the page, -1 if not a non-negative integer, or null if neither
+     *         parameter is set. Without the limit, the page extends to the end of the list.
+     */
+    @Nullable public static int[] getRequestedPage(@Nonnull final HttpServletRequest httpRequest) {
+        final String offsetValue = StringSupport.trimOrNull(httpRequest.getParameter(OFFSET_PARAMETER));
+        final String limitValue = StringSupport.trimOrNull(httpRequest.getParameter(LIMIT_PARAMETER));
+        if (offsetValue == null && limitValue == null) {
+            return null;
+        }
+        return new int[] {parseNonNegative(offsetValue, 0), parseNonNegative(limitValue, Integer.MAX_VALUE)};
+    }
+
+    /**
+     * Answers the request with 400 if the given page, see {@link #getRequestedPage(HttpServletRequest)}, is
+     * invalid, i.e. the offset is negative or the limit is not positive.
+     * 
+     * @param httpRequest The HTTP request.
+     * @param httpResponse The HTTP response.
+     * @param page The offset and the limit of the requested page.
+     * @return true if the request was rejected, false if it is to be answered.
+     * @throws IOException If the body could not be written.
+     */
+    public boolean rejectIfInvalidPage(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final HttpServletResponse httpResponse, @Nonnull final int[] page) throws IOException {
+        if (page[0] >= 0 && page[1] >= 1) {
+            return false;
+        }
+        log.warn("{} Invalid page attempted, offset {} limit {}", logPrefix,
+                httpRequest.getParameter(OFFSET_PARAMETER), httpRequest.getParameter(LIMIT_PARAMETER));
+        writeResponse(httpRequest, httpResponse, makeErrorResponse(httpResponse, HttpStatus.SC_BAD_REQUEST,
+                "Invalid page", "offset must be a non-negative integer, limit a positive integer"));
+        return true;
+    }
+
+    /**
+     * Sets the total number of the elements in the {@value #TOTAL_COUNT_HEADER} header and the links to the
+     * first, previous, next and last pages in the Link header, see
+     * {@link #buildLinks(HttpServletRequest, int, int, int)}.
+     * 
+     * @param httpRequest The HTTP request.
+     * @param httpResponse The HTTP response.
+     * @param page The offset and the limit of the valid requested page.
+     * @param size The number of the elements in the list.
+     */
+    public void setPageHeaders(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final HttpServletResponse httpResponse, @Nonnull final int[] page, final int size) {
+        httpResponse.setHeader(TOTAL_COUNT_HEADER, String.valueOf(size));
+        httpResponse.setHeader(HttpHeaders.LINK, buildLinks(httpRequest, page[0], page[1], size));
+    }
+
+    /**
+     * Builds the Link header value for the first, previous, next and last pages, relative to the given page.
+     * 
+     * @param httpRequest The HTTP request.
+     * @param offset The position of the first element of the page.
+     * @param limit The maximum number of the elements in a page.
+     * @param size The number of the elements in the list.
+     * @return The Link header value.
+     */
+    @Nonnull public String buildLinks(@Nonnull final HttpServletRequest httpRequest, final int offset,
+            final int limit, final int size) {
+        final StringBuilder base = new StringBuilder(httpRequest.getRequestURI()).append('?');
+        for (final Map.Entry<String, String[]> parameter : httpRequest.getParameterMap().entrySet()) {
+            if (!OFFSET_PARAMETER.equals(parameter.getKey()) && !LIMIT_PARAMETER.equals(parameter.getKey())) {
+                for (final String value : parameter.getValue()) {
+                    base.append(URLEncoder.encode(parameter.getKey(), StandardCharsets.UTF_8)).append('=')
+                        .append(URLEncoder.encode(value, StandardCharsets.UTF_8)).append('&');
+                }
+            }
+        }
+        final String prefix = base.append(OFFSET_PARAMETER).append('=').toString();
+        final String suffix = "&" + LIMIT_PARAMETER + "=" + limit + ">; rel=";
+        final StringBuilder links = new StringBuilder();
+        links.append('<').append(prefix).append(0).append(suffix).append("\"first\"");
+        if (offset > 0) {
+            links.append(", <").append(prefix).append(Math.max(0, offset - limit)).append(suffix)
+                .append("\"prev\"");
+        }
+        if ((long) offset + limit < size) {
+            links.append(", <").append(prefix).append(offset + limit).append(suffix).append("\"next\"");
+        }
+        final int last = size == 0 ? 0 : (size - 1) / limit * limit;
+        links.append(", <").append(prefix).append(last).append(suffix).append("\"last\"");
+        return links.toString();
+    }
+
+    /**
+     * Writes a page of the given {@link EncodedList} together with its validators, as a slice of the encoded
+     * list. If the conditional request headers show that the client already has the same page, a body-less 304
+     * response is returned instead. The pages are not content coded.
+     * 
+     * @param httpRequest The HTTP request.
+     * @param httpResponse The HTTP response.
+     * @param list The encoded list.
+     * @param offset The position of the first element of the page.
+     * @param count The number of the elements in the page, see {@link EncodedList#getPageSize(int, int)}.
+     * @throws IOException If the page could not be written.
+     */
+    public void writePage(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final HttpServletResponse httpResponse, @Nonnull final EncodedList list, final int offset,
+            final int count) throws IOException {
+        if (answerIfNotModified(httpRequest, httpResponse, list.getPageETag(offset, count),
+                list.getResponse().getLastModified())) {
+            return;
+        }
+        httpResponse.setStatus(HttpStatus.SC_OK);
+        writeBody(httpRequest, httpResponse, list.getResponse().getBody(), list.getPageSlices(offset, count));
+    }
+
+    /**
+     * Sets the given validators and the Cache-Control header of the validated responses. If the conditional
+     * request headers show that the client already has the same content, the status is set to 304 and the
+     * response must be left body-less.
+     * 
+     * @param httpRequest The HTTP request.
+     * @param httpResponse The HTTP response.
+     * @param etag The strong entity tag of the response, including the surrounding quotes.
+     * @param lastModified The last modification time of the response, in milliseconds since the epoch.
+     * @return true if the request was answered with 304, false if the body is to be written.
+     */
+    public boolean answerIfNotModified(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final HttpServletResponse httpResponse, @Nonnull final String etag, final long lastModified) {
+        httpResponse.setHeader(HttpHeaders.CACHE_CONTROL, responseHeaders.getValidatedCacheControl());
+        httpResponse.setHeader(HttpHeaders.ETAG, etag);
+        httpResponse.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        if (!isNotModified(httpRequest, etag, lastModified)) {
+            return false;
+        }
+        log.debug("{} The client already has the current content", logPrefix);
+        httpResponse.setStatus(HttpStatus.SC_NOT_MODIFIED);
+        return true;
+    }
+
+    /**
+     * Writes the given slices of the encoded body as the body of the {@link HttpServletResponse}, together with
+     * its exact content length. The non-blocking I/O is used if enabled and supported for the request, otherwise
+     * the body is written before returning. The body of a HEAD response is omitted.
+     * 
+     * @param httpRequest The HTTP request.
+     * @param httpResponse The HTTP response.
+     * @param body The array containing the body.
+     * @param slices The start and end (exclusive) positions of the slices of the body, interleaved.
+     * @throws IOException If the body could not be written.
+     */
+    private void writeBody(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final HttpServletResponse httpResponse, @Nonnull final byte[] body, @Nonnull final int[] slices)
+                    throws IOException {
+        int length = 0;
+        for (int i = 0; i < slices.length; i += 2) {
+            length += slices[i + 1] - slices[i];
+        }
+        httpResponse.setContentLength(length);
+        if (isHead(httpRequest)) {
+            return;
+        }
+        if (asyncWriter != null && AsyncBodyWriter.isSupported(httpRequest)) {
+            log.trace("{} Writing {} bytes asynchronously", logPrefix, length);
+            final CompletionStage<Long> completion = asyncWriter.write(httpRequest, httpResponse, body, slices);
+            completion.thenAccept(this::addBytesWritten);
+            httpRequest.setAttribute(ASYNC_COMPLETION_ATTRIBUTE, completion);
+        } else {
+            final OutputStream out = httpResponse.getOutputStream();
+            for (int i = 0; i < slices.length; i += 2) {
+                out.write(body, slices[i], slices[i + 1] - slices[i]);
+            }
+            out.flush();
+            addBytesWritten(length);
+        }
+    }
+
+    /**
+     * Writes the chunks generated by the given source as the body of the {@link HttpServletResponse}, without a
+     * content length. The non-blocking I/O is used if enabled and supported for the request, otherwise the body
+     * is written before returning.
+     * 
+     * @param httpRequest The HTTP request.
+     * @param httpResponse The HTTP response, with the status and the headers already set.
+     * @param source The source of the body chunks.
+     * @throws IOException If the body could not be written.
+     */
+    public void writeStream(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final HttpServletResponse httpResponse, @Nonnull final AsyncBodyWriter.BodySource source)
+                    throws IOException {
+        if (asyncWriter != null && AsyncBodyWriter.isSupported(httpRequest)) {
+            log.trace("{} Streaming the body asynchronously", logPrefix);
+            final CompletionStage<Long> completion = asyncWriter.write(httpRequest, httpResponse, source);
+            completion.thenAccept(this::addBytesWritten);
+            httpRequest.setAttribute(ASYNC_COMPLETION_ATTRIBUTE, completion);
+        } else {
+            final OutputStream out = httpResponse.getOutputStream();
+            long written = 0;
+            for (int length = source.writeNext(out); length >= 0; length = source.writeNext(out)) {
+                written += length;
+            }
+            out.flush();
+            addBytesWritten(written);
+        }
+    }
+
+    /**
+     * Checks whether the conditional request headers match the given {@link EncodedResponse}. If-Modified-Since
+     * is only evaluated if If-None-Match does not exist.
+     * 
+     * @param httpRequest The HTTP request.
+     * @param response The encoded response.
+     * @param coding The content coding selected for the response.
+     * @return true if the response has not been modified, false otherwise.
+     */
+    public boolean isNotModified(@Nonnull final HttpServletRequest httpRequest,
+            @Nonnull final EncodedResponse response, @Nonnull final ContentCoding coding) {
+        return isNotModified(httpRequest, response.getETag(coding), response.getLastModified());
+    }
+
+    /**
+     * Checks whether the conditional request headers match the given validators. If-Modified-Since is only
+     * evaluated if If-None-Match does not exist.
+     * 
+     * @param httpRequest The HTTP request.
+     * @param etag The strong entity tag of the response, including the surrounding quotes.
+     * @param lastModified The last modification time of the response, in milliseconds since the epoch.
+     * @return true if the response has not been modified, false otherwise.
+     */
+    public boolean isNotModified(@Nonnull final HttpServletRequest httpRequest, @Nonnull final String etag,
+            final long lastModified) {
+        final String ifNoneMatch = httpRequest.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return EncodedResponse.matchesETag(ifNoneMatch, etag);
+        }
+        try {
+            final long ifModifiedSince = httpRequest.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+            return ifModifiedSince != -1 && lastModified <= ifModifiedSince;
+        } catch (final IllegalArgumentException e) {
+            log.debug("{} Ignoring an invalid If-Modified-Since header", logPrefix);
+            return false;
+        }
+    }
+
+    /**
+     * Helper method for constructing a {@link ErrorDTO} with desired content and returning it as UTF-8 encoded
+     * JSON. The given code is also set as a status for {@link HttpServletResponse}.
+     * 
+     * @param httpResponse The HTTP response.
+     * @param code The status code of the error.
+     * @param message The message of the error.
+     * @param fields The fields for the error.
+     * @return The encoded error response.
+     */
+    @Nonnull public byte[] makeErrorResponse(@Nonnull final HttpServletResponse httpResponse, final int code,
+            final String message, final String fields) {
+        final ErrorDTO errorDTO = new ErrorDTO();
+        errorDTO.setCode(code);
+        errorDTO.setMessage(message);
+        errorDTO.setFields(fields);
+        httpResponse.setStatus(code);
+        return ERROR_WRITER.toByteArray(errorDTO);
+    }
+
+    /**
+     * Sets the Vary header to the given value, retaining the Origin set by the {@link CorsPolicy}.
+     * 
+     * @param httpResponse The HTTP response.
+     * @param value The request headers the content negotiation depends on.
+     */
+    private static void setVary(@Nonnull final HttpServletResponse httpResponse, @Nonnull final String value) {
+        final String current = httpResponse.getHeader(HttpHeaders.VARY);
+        httpResponse.setHeader(HttpHeaders.VARY, current != null && current.startsWith(HttpHeaders.ORIGIN)
+                ? HttpHeaders.ORIGIN + ", " + value : value);
+    }
+
+    /**
+     * Parses a non-negative integer parameter value.
+     * @param value The parameter value, may be null.
+     * @param defaultValue The value to return if the parameter value is null.
+     * @return The parsed value, or -1 if it is not a non-negative integer.
+     */
+    private static int parseNonNegative(@Nullable final String value, final int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(-1, Integer.parseInt(value));
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+}
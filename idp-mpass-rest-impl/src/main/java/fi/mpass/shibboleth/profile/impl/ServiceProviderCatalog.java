@@ -0,0 +1,462 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.ext.saml2mdui.DisplayName;
+import org.opensaml.saml.ext.saml2mdui.InformationURL;
+import org.opensaml.saml.ext.saml2mdui.UIInfo;
+import org.opensaml.saml.metadata.IterableMetadataSource;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.LocalizedName;
+import org.opensaml.saml.saml2.metadata.LocalizedURI;
+import org.opensaml.saml.saml2.metadata.Organization;
+import org.opensaml.saml.saml2.metadata.OrganizationDisplayName;
+import org.opensaml.saml.saml2.metadata.OrganizationURL;
+import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fi.mpass.shibboleth.rest.data.ServiceProviderDTO;
+import fi.mpass.shibboleth.rest.data.json.DTOWriter;
+import fi.mpass.shibboleth.rest.data.json.JsonByteWriter;
+import fi.mpass.shibboleth.rest.data.json.ServiceProviderDTOWriter;
+import net.shibboleth.shared.annotation.constraint.NonnullAfterInit;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * The catalog of the service providers published by the REST API, extracted from the SAML metadata.
+ * 
+ * <p>The names and URLs of the service providers are read from the Organization element of the entities, or if
+ * not available, from the mdui:UIInfo extension of their SP role. The entity ID is used as the name of last
+ * resort. The service providers are listed in the order of their entity IDs.</p>
+ * 
+ * <p>If a reload check delay is configured, the metadata is polled in the background and the changed entities are
+ * refreshed incrementally. An entity is unchanged if the metadata still holds the same descriptor instance, or if
+ * the fingerprint (digest) of its extracted values equals the one of the previous descriptor, as after a reload of
+ * an unchanged metadata file. Only the changed entities are re-encoded. If any entity has been added, changed or
+ * removed, the localized lists are re-assembled from the encoded entities and published with a single atomic
+ * reference swap. Until then, and if the refresh fails, the requests are served from the previous snapshot.</p>
+ */
+public class ServiceProviderCatalog extends AbstractReloadingCatalog {
+
+    /** The writer for the service providers. */
+    @Nonnull private static final DTOWriter<ServiceProviderDTO> WRITER = new ServiceProviderDTOWriter();
+
+    /** The algorithm for the fingerprints of the entity descriptors. */
+    @Nonnull private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(ServiceProviderCatalog.class);
+
+    /** The metadata of the service providers. */
+    @NonnullAfterInit private IterableMetadataSource metadataSource;
+
+    /** The list of supported locales, the first one being the default. */
+    @NonnullAfterInit private List<String> supportedLocales;
+
+    /** The negotiator of the response language among the supported locales. */
+    @NonnullAfterInit private LanguageNegotiator languageNegotiator;
+
+    /** The current snapshot. */
+    @Nonnull private final AtomicReference<Snapshot> snapshot;
+
+    /** Constructor. */
+    public ServiceProviderCatalog() {
+        snapshot = new AtomicReference<>();
+    }
+
+    /**
+     * Set the metadata of the service providers.
+     * @param source What to set.
+     */
+    public void setMetadataSource(@Nonnull final IterableMetadataSource source) {
+        checkSetterPreconditions();
+        metadataSource = Constraint.isNotNull(source, "The metadata source cannot be null");
+    }
+
+    /**
+     * Set the list of supported locales (parseable by {@link Locale#forLanguageTag(String)}).
+     * @param locales What to set.
+     */
+    public void setSupportedLocales(@Nonnull final List<String> locales) {
+        checkSetterPreconditions();
+        Constraint.isNotEmpty(locales, "The list of supported locales cannot be empty");
+        supportedLocales = new ArrayList<>();
+        for (final String locale : locales) {
+            supportedLocales.add(locale.toUpperCase());
+        }
+        languageNegotiator = new LanguageNegotiator(supportedLocales);
+    }
+
+    /**
+     * Get the list of supported locales, the first one being the default.
+     * @return The list of supported locales.
+     */
+    @Nonnull public List<String> getSupportedLocales() {
+        checkComponentActive();
+        return supportedLocales;
+    }
+
+    /**
+     * Get the negotiator of the response language among the supported locales.
+     * @return The language negotiator.
+     */
+    @Nonnull public LanguageNegotiator getLanguageNegotiator() {
+        checkComponentActive();
+        return languageNegotiator;
+    }
+
+    /**
+     * Get the time when the current lists were built.
+     * @return The time when the current lists were built.
+     */
+    @Nonnull public Instant getBuildInstant() {
+        checkComponentActive();
+        return snapshot.get().buildInstant;
+    }
+
+    /**
+     * Get the encoded list of the service providers in the given language.
+     * @param lang The language code.
+     * @return The encoded list, or null if the language is not supported.
+     */
+    @Nullable public EncodedList getList(@Nonnull final String lang) {
+        checkComponentActive();
+        return snapshot.get().lists.get(lang);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (metadataSource == null) {
+            throw new ComponentInitializationException("The metadata source cannot be null");
+        }
+        if (supportedLocales == null) {
+            throw new ComponentInitializationException("The list of supported locales cannot be null");
+        }
+        final Instant now = Instant.now();
+        snapshot.set(new Snapshot(now, Collections.emptyMap(), encodeLists(Collections.emptyMap(), now)));
+        refresh();
+        scheduleReloadChecks();
+    }
+
+    /**
+     * Refreshes the catalog from the metadata. Run by the reload task.
+     */
+    @Override
+    protected void checkReload() {
+        refresh();
+    }
+
+    /**
+     * Refreshes the catalog from the metadata, re-encoding only the changed entities.
+     * 
+     * @return true if the lists were changed, false otherwise.
+     */
+    protected synchronized boolean refresh() {
+        final long start = System.currentTimeMillis();
+        final Snapshot previous = snapshot.get();
+        final Map<String, Entry> entries = new TreeMap<>();
+        int encoded = 0;
+        try {
+            for (final EntityDescriptor entity : metadataSource) {
+                final String entityId = entity.getEntityID();
+                if (entityId == null || entries.containsKey(entityId)
+                        || entity.getSPSSODescriptor(SAMLConstants.SAML20P_NS) == null) {
+                    continue;
+                }
+                final Entry old = previous.entries.get(entityId);
+                final Entry entry = refreshEntry(entity, old);
+                if (old == null || entry.elements != old.elements) {
+                    encoded++;
+                }
+                entries.put(entityId, entry);
+            }
+        } catch (final RuntimeException e) {
+            log.error("{} Could not refresh the catalog, keeping the previous one", getLogPrefix(), e);
+            return false;
+        }
+        if (encoded == 0 && entries.size() == previous.entries.size()) {
+            snapshot.set(new Snapshot(previous.buildInstant, entries, previous.lists));
+            log.debug("{} No changes in the {} service providers", getLogPrefix(), entries.size());
+            return false;
+        }
+        final Instant buildInstant = Instant.ofEpochMilli(start);
+        snapshot.set(new Snapshot(buildInstant, entries, encodeLists(entries, buildInstant)));
+        log.info("{} Refreshed the catalog of {} service providers, {} of them re-encoded, in {} ms",
+                getLogPrefix(), entries.size(), encoded, System.currentTimeMillis() - start);
+        return true;
+    }
+
+    /**
+     * Refreshes the entry of the given entity. The encoded elements of the previous entry are reused if the entity
+     * has not been changed.
+     * 
+     * @param entity The entity descriptor.
+     * @param old The previous entry of the entity, or null if none.
+     * @return The refreshed entry.
+     */
+    @Nonnull protected Entry refreshEntry(@Nonnull final EntityDescriptor entity, @Nullable final Entry old) {
+        if (old != null && old.descriptor.get() == entity) {
+            return old;
+        }
+        final byte[] fingerprint = fingerprint(entity);
+        if (old != null && Arrays.equals(fingerprint, old.fingerprint)) {
+            return new Entry(entity, fingerprint, old.elements);
+        }
+        final byte[][] elements = new byte[supportedLocales.size()][];
+        final JsonByteWriter out = new JsonByteWriter();
+        for (int i = 0; i < elements.length; i++) {
+            out.reset();
+            WRITER.write(out, buildServiceProvider(entity, supportedLocales.get(i)));
+            elements[i] = out.toByteArray();
+        }
+        if (old != null && Arrays.deepEquals(elements, old.elements)) {
+            return new Entry(entity, fingerprint, old.elements);
+        }
+        return new Entry(entity, fingerprint, elements);
+    }
+
+    /**
+     * Builds the service provider corresponding to the given entity.
+     * 
+     * @param entity The entity descriptor of a SAML 2.0 service provider.
+     * @param lang The language code.
+     * @return The service provider.
+     */
+    @Nonnull protected ServiceProviderDTO buildServiceProvider(@Nonnull final EntityDescriptor entity,
+            @Nonnull final String lang) {
+        String name = null;
+        String url = null;
+        final Organization organization = entity.getOrganization();
+        if (organization != null) {
+            final OrganizationDisplayName displayName =
+                    MetadataUISupport.selectLocalized(organization.getDisplayNames(), lang);
+            name = displayName != null ? displayName.getValue() : null;
+            final OrganizationURL organizationUrl = MetadataUISupport.selectLocalized(organization.getURLs(), lang);
+            url = organizationUrl != null ? organizationUrl.getURI() : null;
+        }
+        final SPSSODescriptor spDescriptor = entity.getSPSSODescriptor(SAMLConstants.SAML20P_NS);
+        final UIInfo uiInfo = spDescriptor != null ? MetadataUISupport.getUIInfo(spDescriptor) : null;
+        if (uiInfo != null && name == null) {
+            final DisplayName displayName = MetadataUISupport.selectLocalized(uiInfo.getDisplayNames(), lang);
+            name = displayName != null ? displayName.getValue() : null;
+        }
+        if (uiInfo != null && url == null) {
+            final InformationURL informationUrl =
+                    MetadataUISupport.selectLocalized(uiInfo.getInformationURLs(), lang);
+            url = informationUrl != null ? informationUrl.getURI() : null;
+        }
+        return new ServiceProviderDTO(entity.getEntityID(), name != null ? name : entity.getEntityID(), url);
+    }
+
+    /**
+     * Computes the fingerprint of the given entity from the values {@link #buildServiceProvider(EntityDescriptor,
+     * String)} may extract from it: the entity ID, the localized names and URLs of the Organization element and of
+     * the mdui:UIInfo extension of the SP role. Unlike the DOM, these are retained by the reloading metadata
+     * resolvers, which release the DOM after filtering.
+     * 
+     * @param entity The entity descriptor.
+     * @return The fingerprint.
+     */
+    @Nonnull protected byte[] fingerprint(@Nonnull final EntityDescriptor entity) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(FINGERPRINT_ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(FINGERPRINT_ALGORITHM + " is not supported", e);
+        }
+        digestString(digest, entity.getEntityID());
+        final Organization organization = entity.getOrganization();
+        if (organization != null) {
+            digestNames(digest, organization.getDisplayNames());
+            digestURIs(digest, organization.getURLs());
+        }
+        final SPSSODescriptor spDescriptor = entity.getSPSSODescriptor(SAMLConstants.SAML20P_NS);
+        final UIInfo uiInfo = spDescriptor != null ? MetadataUISupport.getUIInfo(spDescriptor) : null;
+        if (uiInfo != null) {
+            digestNames(digest, uiInfo.getDisplayNames());
+            digestURIs(digest, uiInfo.getInformationURLs());
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Encodes the localized lists containing the encoded elements of the given entries.
+     * 
+     * @param entries The entries in the order of the lists.
+     * @param buildInstant The build time of the lists.
+     * @return The encoded lists, keyed by the language code.
+     */
+    @Nonnull private Map<String, EncodedList> encodeLists(@Nonnull final Map<String, Entry> entries,
+            @Nonnull final Instant buildInstant) {
+        final Map<String, EncodedList> lists = new HashMap<>();
+        final JsonByteWriter out = new JsonByteWriter();
+        for (int i = 0; i < supportedLocales.size(); i++) {
+            final byte[][] elements = new byte[entries.size()][];
+            int position = 0;
+            for (final Entry entry : entries.values()) {
+                elements[position++] = entry.elements[i];
+            }
+            lists.put(supportedLocales.get(i),
+                    EncodedList.encodeLocalized(out, supportedLocales.get(i), elements, null, buildInstant));
+        }
+        return Collections.unmodifiableMap(lists);
+    }
+
+    /**
+     * Updates the given digest with the languages and values of the given localized names, followed by a separator.
+     * 
+     * @param digest The digest to update.
+     * @param names The localized names, may be null.
+     */
+    private static void digestNames(@Nonnull final MessageDigest digest,
+            @Nullable final List<? extends LocalizedName> names) {
+        if (names != null) {
+            for (final LocalizedName name : names) {
+                digestString(digest, name.getXMLLang());
+                digestString(digest, name.getValue());
+            }
+        }
+        digest.update((byte) 1);
+    }
+
+    /**
+     * Updates the given digest with the languages and values of the given localized URIs, followed by a separator.
+     * 
+     * @param digest The digest to update.
+     * @param uris The localized URIs, may be null.
+     */
+    private static void digestURIs(@Nonnull final MessageDigest digest,
+            @Nullable final List<? extends LocalizedURI> uris) {
+        if (uris != null) {
+            for (final LocalizedURI uri : uris) {
+                digestString(digest, uri.getXMLLang());
+                digestString(digest, uri.getURI());
+            }
+        }
+        digest.update((byte) 1);
+    }
+
+    /**
+     * Updates the given digest with the given string, followed by a separator.
+     * 
+     * @param digest The digest to update.
+     * @param value The string to digest, may be null.
+     */
+    private static void digestString(@Nonnull final MessageDigest digest, @Nullable final String value) {
+        if (value != null) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Get the prefix for the log messages.
+     * 
+     * @return The prefix for the log messages.
+     */
+    @Nonnull private String getLogPrefix() {
+        return "Service provider catalog '" + getId() + "':";
+    }
+
+    /**
+     * The encoded service provider of one entity.
+     */
+    protected static final class Entry {
+
+        /** The entity descriptor the service provider was refreshed from, not retained by the catalog. */
+        @Nonnull private final WeakReference<EntityDescriptor> descriptor;
+
+        /** The fingerprint of the entity descriptor. */
+        @Nonnull private final byte[] fingerprint;
+
+        /** The encoded service provider in the order of the supported locales. */
+        @Nonnull private final byte[][] elements;
+
+        /**
+         * Constructor.
+         *
+         * @param entity The entity descriptor.
+         * @param entityFingerprint The fingerprint of the entity descriptor.
+         * @param encoded The encoded service provider in the order of the supported locales.
+         */
+        private Entry(@Nonnull final EntityDescriptor entity, @Nonnull final byte[] entityFingerprint,
+                @Nonnull final byte[][] encoded) {
+            descriptor = new WeakReference<>(entity);
+            fingerprint = entityFingerprint;
+            elements = encoded;
+        }
+    }
+
+    /**
+     * An immutable snapshot of the catalog.
+     */
+    protected static final class Snapshot {
+
+        /** The build time of the lists. */
+        @Nonnull private final Instant buildInstant;
+
+        /** The entries keyed by the entity ID, in the order of the lists. */
+        @Nonnull private final Map<String, Entry> entries;
+
+        /** The encoded lists, keyed by the language code. */
+        @Nonnull private final Map<String, EncodedList> lists;
+
+        /**
+         * Constructor.
+         *
+         * @param instant The build time of the lists.
+         * @param refreshedEntries The entries keyed by the entity ID, in the order of the lists.
+         * @param encodedLists The encoded lists, keyed by the language code.
+         */
+        private Snapshot(@Nonnull final Instant instant, @Nonnull final Map<String, Entry> refreshedEntries,
+                @Nonnull final Map<String, EncodedList> encodedLists) {
+            buildInstant = instant;
+            entries = refreshedEntries;
+            lists = encodedLists;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * Coalesces the concurrent computations of the same key into a single one. The first caller for a key computes
+ * the value, and the callers arriving meanwhile wait for its result instead of computing the same value again.
+ * If the computation fails, the waiting callers get the same exception.
+ * 
+ * <p>If a stale value is available for the key, e.g. from the previous generation of a cache, a waiting caller
+ * gets it once the stale wait has elapsed. Without a stale value the callers wait until the computation is done,
+ * but at most the maximum wait, after which they fail with an {@link IllegalStateException}. A stuck computation
+ * thus never holds the waiting callers indefinitely.</p>
+ * 
+ * <p>The computed values are not retained: the loader is expected to publish its value to the cache of the
+ * caller, and to check the cache first, as a caller may miss the cache just before the value is published.</p>
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ */
+public final class SingleFlight<K, V> {
+
+    /** The computations in progress, keyed by their keys. */
+    @Nonnull private final ConcurrentMap<K, CompletableFuture<V>> calls;
+
+    /** The maximum time to wait for a computation when a stale value is available, in nanoseconds. */
+    private final long staleWaitNanos;
+
+    /** The maximum time to wait for a computation when no stale value is available, in nanoseconds. */
+    private final long maxWaitNanos;
+
+    /** The lookup of the stale values, returning null if none. */
+    @Nonnull private final Function<? super K, ? extends V> staleLookup;
+
+    /**
+     * Constructor.
+     *
+     * @param staleWait The maximum time to wait for a computation when a stale value is available.
+     * @param maxWait The maximum time to wait for a computation when no stale value is available.
+     * @param stale The lookup of the stale values, returning null if none, or null if never available.
+     */
+    public SingleFlight(@Nonnull final Duration staleWait, @Nonnull final Duration maxWait,
+            @Nullable final Function<? super K, ? extends V> stale) {
+        Constraint.isNotNull(staleWait, "The stale wait cannot be null");
+        Constraint.isFalse(staleWait.isNegative(), "The stale wait cannot be negative");
+        Constraint.isNotNull(maxWait, "The maximum wait cannot be null");
+        Constraint.isFalse(maxWait.isNegative(), "The maximum wait cannot be negative");
+        calls = new ConcurrentHashMap<>();
+        staleWaitNanos = staleWait.toNanos();
+        maxWaitNanos = maxWait.toNanos();
+        staleLookup = stale != null ? stale : key -> null;
+    }
+
+    /**
+     * Get the value of the given key, computed by this caller or by a concurrent one.
+     * 
+     * @param key The key.
+     * @param loader The computation of the value.
+     * @return The computed value, or the stale value if the computation of another caller took too long.
+     * @throws IllegalStateException If the computation of another caller took longer than the maximum wait, and
+     *     no stale value was available.
+     */
+    public V get(@Nonnull final K key, @Nonnull final Function<? super K, ? extends V> loader) {
+        final CompletableFuture<V> call = new CompletableFuture<>();
+        final CompletableFuture<V> existing = calls.putIfAbsent(key, call);
+        if (existing != null) {
+            return await(existing, staleLookup.apply(key));
+        }
+        try {
+            final V value = loader.apply(key);
+            call.complete(value);
+            return value;
+        } catch (final RuntimeException | Error e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, call);
+        }
+    }
+
+    /**
+     * Get the number of the computations in progress.
+     * 
+     * @return The number of the computations in progress.
+     */
+    public int getInFlight() {
+        return calls.size();
+    }
+
+    /**
+     * Waits for the result of the given computation.
+     * 
+     * @param call The computation.
+     * @param stale The stale value, or null if none.
+     * @return The computed value, or the stale value if the stale wait elapsed.
+     */
+    private V await(@Nonnull final CompletableFuture<V> call, @Nullable final V stale) {
+        try {
+            return call.get(stale == null ? maxWaitNanos : staleWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (final TimeoutException e) {
+            if (stale != null) {
+                return stale;
+            }
+            throw new IllegalStateException("Timed out waiting for the computation", e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (stale != null) {
+                return stale;
+            }
+            throw new IllegalStateException("Interrupted while waiting for the computation", e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
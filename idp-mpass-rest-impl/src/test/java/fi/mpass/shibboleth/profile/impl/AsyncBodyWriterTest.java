@@ -0,0 +1,253 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletionStage;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link AsyncBodyWriter}.
+ */
+public class AsyncBodyWriterTest {
+
+    /** The request to be answered. */
+    private MockHttpServletRequest httpRequest;
+
+    /** The output stream accepting a limited number of writes at a time. */
+    private ThrottledOutputStream out;
+
+    /** The response writing to {@link #out}. */
+    private HttpServletResponseWrapper httpResponse;
+
+    /**
+     * Initialize test variables.
+     */
+    @BeforeMethod
+    public void initTests() {
+        httpRequest = new MockHttpServletRequest();
+        httpRequest.setAsyncSupported(true);
+        out = new ThrottledOutputStream();
+        httpResponse = new HttpServletResponseWrapper(new MockHttpServletResponse()) {
+            @Override
+            public ServletOutputStream getOutputStream() {
+                return out;
+            }
+        };
+    }
+
+    /**
+     * Tests the support of the async mode.
+     */
+    @Test
+    public void testSupported() {
+        Assert.assertFalse(AsyncBodyWriter.isSupported(new MockHttpServletRequest()));
+        Assert.assertTrue(AsyncBodyWriter.isSupported(httpRequest));
+        httpRequest.startAsync();
+        Assert.assertFalse(AsyncBodyWriter.isSupported(httpRequest));
+    }
+
+    /**
+     * Tests writing the slices of a body in several rounds, as the stream becomes writable.
+     * @throws IOException
+     */
+    @Test
+    public void testSlices() throws IOException {
+        final byte[] body = new byte[40000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) ('a' + i % 26);
+        }
+        final int[] slices = new int[] { 0, 2, 100, 35000, 39990, 40000 };
+        final CompletionStage<Long> completion =
+                new AsyncBodyWriter(Duration.ofMinutes(1), "test").write(httpRequest, httpResponse, body, slices);
+        Assert.assertTrue(httpRequest.isAsyncStarted());
+        Assert.assertFalse(completion.toCompletableFuture().isDone());
+        int rounds = 0;
+        while (httpRequest.isAsyncStarted()) {
+            Assert.assertTrue(rounds++ < 10);
+            out.allow(2);
+        }
+        Assert.assertTrue(rounds > 1);
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < slices.length; i += 2) {
+            expected.write(body, slices[i], slices[i + 1] - slices[i]);
+        }
+        Assert.assertEquals(out.toByteArray(), expected.toByteArray());
+        Assert.assertEquals(completion.toCompletableFuture().getNow(null).longValue(), expected.size());
+    }
+
+    /**
+     * Tests writing the chunks generated by a source, as the stream becomes writable.
+     * @throws IOException
+     */
+    @Test
+    public void testSource() throws IOException {
+        final int[] chunks = new int[1];
+        final CompletionStage<Long> completion = new AsyncBodyWriter(Duration.ofMinutes(1), "test")
+                .write(httpRequest, httpResponse, stream -> {
+                    if (chunks[0] == 5) {
+                        return -1;
+                    }
+                    stream.write(("chunk" + chunks[0]++).getBytes(StandardCharsets.UTF_8));
+                    return 6;
+                });
+        Assert.assertEquals(chunks[0], 0);
+        out.allow(2);
+        Assert.assertEquals(chunks[0], 2);
+        Assert.assertTrue(httpRequest.isAsyncStarted());
+        out.allow(10);
+        Assert.assertFalse(httpRequest.isAsyncStarted());
+        Assert.assertEquals(new String(out.toByteArray(), StandardCharsets.UTF_8), "chunk0chunk1chunk2chunk3chunk4");
+        Assert.assertEquals(completion.toCompletableFuture().getNow(null).longValue(), 30);
+    }
+
+    /**
+     * Tests that the response is completed after a write error.
+     * @throws IOException
+     */
+    @Test
+    public void testError() throws IOException {
+        new AsyncBodyWriter(Duration.ofMinutes(1), "test").write(httpRequest, httpResponse,
+                "{}".getBytes(StandardCharsets.UTF_8), new int[] { 0, 2 });
+        Assert.assertTrue(httpRequest.isAsyncStarted());
+        out.listener.onError(new IOException("Connection reset"));
+        Assert.assertFalse(httpRequest.isAsyncStarted());
+    }
+
+    /**
+     * Tests that the configured timeout replaces the default one of the container, and that the response is
+     * completed when the timeout expires.
+     * @throws IOException
+     */
+    @Test
+    public void testTimeout() throws IOException {
+        final CompletionStage<Long> completion = new AsyncBodyWriter(Duration.ofSeconds(90), "test")
+                .write(httpRequest, httpResponse, "{}".getBytes(StandardCharsets.UTF_8), new int[] { 0, 2 });
+        final MockAsyncContext asyncContext = (MockAsyncContext) httpRequest.getAsyncContext();
+        Assert.assertEquals(asyncContext.getTimeout(), 90000);
+        Assert.assertEquals(asyncContext.getListeners().size(), 1);
+        asyncContext.getListeners().get(0).onTimeout(new AsyncEvent(asyncContext));
+        Assert.assertFalse(httpRequest.isAsyncStarted());
+        Assert.assertEquals(out.toByteArray().length, 0);
+        Assert.assertEquals(completion.toCompletableFuture().getNow(null).longValue(), 0);
+    }
+
+    /**
+     * Tests that the bytes written and the latency of an async response are recorded only when the write has
+     * been completed.
+     * @throws IOException
+     */
+    @Test
+    public void testMetricsOnCompletion() throws IOException {
+        final EndpointMetrics metrics = new EndpointMetrics("test");
+        final RestResponseWriter responseWriter = new RestResponseWriter(new ResponseHeaders(null, null, null),
+                metrics, "test", Duration.ofMinutes(1));
+        final byte[] body = new byte[20000];
+        final long start = System.nanoTime();
+        responseWriter.writeResponse(httpRequest, httpResponse, new EncodedResponse(body, Instant.now()));
+        responseWriter.recordCompletion(httpRequest, httpResponse, "FI", start);
+        Assert.assertTrue(httpRequest.isAsyncStarted());
+        Assert.assertEquals(metrics.getBytesWritten(), 0);
+        Assert.assertNull(metrics.getLatencies().get("FI"));
+        while (httpRequest.isAsyncStarted()) {
+            out.allow(1);
+        }
+        Assert.assertEquals(metrics.getBytesWritten(), body.length);
+        Assert.assertEquals(metrics.getLatencies().get("FI").getCount(), 1);
+    }
+
+    /**
+     * An output stream accepting the given number of writes before reporting itself not ready.
+     */
+    private static final class ThrottledOutputStream extends ServletOutputStream {
+
+        /** The bytes written. */
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+        /** The registered listener. */
+        private WriteListener listener;
+
+        /** The number of writes accepted before becoming not ready. */
+        private int remaining;
+
+        /**
+         * Accepts the given number of writes and notifies the listener.
+         * @param writes The number of writes to accept.
+         * @throws IOException If the listener fails.
+         */
+        private void allow(final int writes) throws IOException {
+            remaining = writes;
+            listener.onWritePossible();
+        }
+
+        /**
+         * Get the bytes written.
+         * @return The bytes written.
+         */
+        private byte[] toByteArray() {
+            return written.toByteArray();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean isReady() {
+            return remaining > 0;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void setWriteListener(final WriteListener writeListener) {
+            listener = writeListener;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void write(final int b) {
+            remaining--;
+            written.write(b);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            remaining--;
+            written.write(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import org.springframework.context.support.StaticMessageSource;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.rest.data.AuthnSourceDTO;
+import fi.mpass.shibboleth.rest.data.AuthnTagDTO;
+import net.shibboleth.shared.logic.ConstraintViolationException;
+
+/**
+ * Unit tests for {@link AuthnCatalogBuilder}.
+ */
+public class AuthnCatalogBuilderTest {
+
+    /** The number of the tag title lookups. */
+    private int tagLookups;
+
+    /** The builder to be tested. */
+    private AuthnCatalogBuilder builder;
+
+    /**
+     * Initialize test variables.
+     */
+    @BeforeMethod
+    public void initTests() {
+        tagLookups = 0;
+        final StaticMessageSource messageSource = new StaticMessageSource() {
+            @Override
+            protected String resolveCodeWithoutArguments(final String code, final Locale locale) {
+                if (code.startsWith("tag.")) {
+                    tagLookups++;
+                }
+                return super.resolveCodeWithoutArguments(code, locale);
+            }
+        };
+        messageSource.addMessage("first.title", Locale.forLanguageTag("FI"), "Ensimmäinen");
+        messageSource.addMessage("first.title", Locale.forLanguageTag("SV"), "Första");
+        messageSource.addMessage("second.title", Locale.forLanguageTag("FI"), "Toinen");
+        messageSource.addMessage("second.title", Locale.forLanguageTag("SV"), "Andra");
+        messageSource.addMessage("tag.school", Locale.forLanguageTag("FI"), "Koulu");
+        messageSource.addMessage("tag.school", Locale.forLanguageTag("SV"), "Skola");
+        messageSource.addMessage("tag.city", Locale.forLanguageTag("FI"), "Kunta");
+        messageSource.addMessage("tag.city", Locale.forLanguageTag("SV"), "Kommun");
+        messageSource.setUseCodeAsDefaultMessage(true);
+        final Properties info = new Properties();
+        info.setProperty("school.title", "tag.school");
+        info.setProperty("city.title", "tag.city");
+        info.setProperty("second.isRegistry", "true");
+        builder = new AuthnCatalogBuilder(messageSource, Arrays.asList("FI", "SV"), info);
+    }
+
+    /**
+     * Tests that the sources are localized in the order they were added.
+     */
+    @Test
+    public void testSources() {
+        builder.addSource("first", Arrays.asList("school", "city"), true, false);
+        builder.addSource("second", Arrays.asList("school"), false, true);
+        Assert.assertEquals(builder.getSourceCount(), 2);
+        Assert.assertTrue(builder.isSupportedLocale("SV"));
+        Assert.assertFalse(builder.isSupportedLocale("EN"));
+        final List<AuthnSourceDTO> finnish = builder.getSources("FI");
+        final List<AuthnSourceDTO> swedish = builder.getSources("SV");
+        Assert.assertEquals(finnish.size(), 2);
+        Assert.assertEquals(finnish.get(0).getTitle(), "Ensimmäinen");
+        Assert.assertEquals(swedish.get(0).getTitle(), "Första");
+        Assert.assertEquals(swedish.get(1).getTitle(), "Andra");
+        Assert.assertEquals(swedish.get(1).getIconUrl(), "second.iconUrl");
+        Assert.assertFalse(finnish.get(0).isDirectRegistryConnection());
+        Assert.assertTrue(finnish.get(1).isDirectRegistryConnection());
+        Assert.assertTrue(finnish.get(0).isSupportsForced());
+        Assert.assertTrue(finnish.get(1).isSupportsPassive());
+        Assert.assertEquals(finnish.get(0).getTags(), Arrays.asList("school", "city"));
+    }
+
+    /**
+     * Tests that the tags are deduplicated in the order of their first occurrence and only localized on demand,
+     * once per materialized locale.
+     */
+    @Test
+    public void testTags() {
+        builder.addSource("first", Arrays.asList("school"), true, false);
+        builder.addSource("second", Arrays.asList("city", "school"), true, false);
+        builder.addSource("third", Collections.emptyList(), true, false);
+        builder.addSource("fourth", Arrays.asList("school", "city"), true, false);
+        Assert.assertEquals(builder.getTagCount(), 2);
+        Assert.assertEquals(tagLookups, 0);
+        final List<AuthnTagDTO> finnish = builder.getTags("FI");
+        Assert.assertEquals(tagLookups, 2);
+        Assert.assertEquals(finnish.size(), 2);
+        Assert.assertEquals(finnish.get(0).getId(), "school");
+        Assert.assertEquals(finnish.get(0).getTitle(), "Koulu");
+        final List<AuthnTagDTO> swedish = builder.getTags("SV");
+        Assert.assertEquals(swedish.get(1).getId(), "city");
+        Assert.assertEquals(swedish.get(1).getTitle(), "Kommun");
+        Assert.assertEquals(tagLookups, 4);
+    }
+
+    /**
+     * Tests that the compact source arrays grow with the sources and share the tag table.
+     */
+    @Test
+    public void testManySources() {
+        for (int i = 0; i < 40; i++) {
+            builder.addSource("source" + i, i % 2 == 0 ? Arrays.asList("school") : Arrays.asList("city", "school"),
+                    i % 3 == 0, i % 5 == 0);
+        }
+        Assert.assertEquals(builder.getSourceCount(), 40);
+        Assert.assertEquals(builder.getTagCount(), 2);
+        final List<AuthnSourceDTO> sources = builder.getSources("FI");
+        Assert.assertEquals(sources.get(39).getId(), "source39");
+        Assert.assertEquals(sources.get(39).getTags(), Arrays.asList("city", "school"));
+        Assert.assertSame(sources.get(39).getTags().get(1), sources.get(0).getTags().get(0));
+        Assert.assertTrue(sources.get(30).isSupportsForced());
+        Assert.assertTrue(sources.get(30).isSupportsPassive());
+        Assert.assertFalse(sources.get(31).isSupportsForced());
+        Assert.assertEquals(builder.buildTagIndex().select("city").cardinality(), 20);
+    }
+
+    /**
+     * Tests that an unsupported locale cannot be materialized.
+     */
+    @Test(expectedExceptions = ConstraintViolationException.class)
+    public void testUnsupportedLocale() {
+        builder.getSources("EN");
+    }
+
+    /**
+     * Tests the tag index built from the cross-references collected with the sources.
+     */
+    @Test
+    public void testTagIndex() {
+        builder.addSource("first", Arrays.asList("school"), true, false);
+        builder.addSource("second", Arrays.asList("city", "school"), true, false);
+        builder.addSource("third", Collections.emptyList(), true, false);
+        final AuthnTagIndex index = builder.buildTagIndex();
+        Assert.assertEquals(index.size(), 3);
+        Assert.assertEquals(index.normalize("school,unknown"), "school");
+        Assert.assertEquals(index.select("school"), bits(0, 1));
+        Assert.assertEquals(index.select("city+school"), bits(1));
+    }
+
+    /**
+     * Builds a bit set with the given bits set.
+     * @param positions The positions of the set bits.
+     * @return The bit set.
+     */
+    protected BitSet bits(final int... positions) {
+        final BitSet bits = new BitSet();
+        for (final int position : positions) {
+            bits.set(position);
+        }
+        return bits;
+    }
+}
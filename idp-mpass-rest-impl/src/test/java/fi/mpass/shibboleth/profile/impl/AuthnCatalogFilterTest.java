@@ -0,0 +1,308 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Properties;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.apache.http.HttpStatus;
+import org.springframework.context.support.StaticMessageSource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
+import net.shibboleth.idp.authn.principal.TestPrincipal;
+import net.shibboleth.idp.profile.testing.ActionTestingSupport;
+import net.shibboleth.shared.primitive.NonnullSupplier;
+
+/**
+ * Unit tests for {@link AuthnCatalogFilter}.
+ */
+public class AuthnCatalogFilterTest {
+
+    /** The catalog shared by the filter and the action. */
+    private AuthnCatalog catalog;
+
+    /** The metrics shared by the filter and the action. */
+    private ApiMetrics metrics;
+
+    /** The filter to be tested. */
+    private AuthnCatalogFilter filter;
+
+    /**
+     * Initialize test variables.
+     * @throws Exception
+     */
+    @BeforeMethod
+    public void initTests() throws Exception {
+        final StaticMessageSource messageSource = new StaticMessageSource();
+        messageSource.addMessage("mockSource.title", Locale.forLanguageTag("FI"), "Lähde");
+        messageSource.addMessage("mockSource.iconUrl", Locale.forLanguageTag("FI"), "https://example.org/fi.png");
+        messageSource.addMessage("mockSource.title", Locale.forLanguageTag("SV"), "Källa");
+        messageSource.addMessage("mockSource.iconUrl", Locale.forLanguageTag("SV"), "https://example.org/sv.png");
+        messageSource.addMessage("tag.school", Locale.forLanguageTag("FI"), "Koulu");
+        messageSource.addMessage("tag.school", Locale.forLanguageTag("SV"), "Skola");
+        final Properties additionalInfo = new Properties();
+        additionalInfo.setProperty("school.title", "tag.school");
+        final AuthenticationFlowDescriptor flow = new AuthenticationFlowDescriptor();
+        flow.setId("authn/mockSource");
+        flow.setSupportedPrincipals(Collections.singletonList(new TestPrincipal("urn:mpass.id:authntag:school")));
+        catalog = new AuthnCatalog();
+        catalog.setMessageSource(messageSource);
+        catalog.setAdditionalInfo(additionalInfo);
+        catalog.setSupportedLocales(Arrays.asList("FI", "SV"));
+        catalog.setActiveFlowIds("mockSource");
+        catalog.setFlows(Collections.singletonList(flow));
+        catalog.initialize();
+        metrics = new ApiMetrics();
+        metrics.setId("mockMetrics");
+        metrics.initialize();
+        filter = initFilter(true);
+    }
+
+    /**
+     * Tests that the requests are passed on when the filter is disabled.
+     * @throws Exception
+     */
+    @Test
+    public void testDisabled() throws Exception {
+        filter = initFilter(false);
+        final MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(initRequest(HttpMethod.GET.toString()), new MockHttpServletResponse(), chain);
+        Assert.assertNotNull(chain.getRequest());
+    }
+
+    /**
+     * Tests that the requests to other paths are passed on.
+     * @throws Exception
+     */
+    @Test
+    public void testOtherPath() throws Exception {
+        final MockHttpServletRequest httpRequest = initRequest(HttpMethod.GET.toString());
+        httpRequest.setRequestURI("/idp/profile/api/authnsourcesX");
+        final MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(httpRequest, new MockHttpServletResponse(), chain);
+        Assert.assertNotNull(chain.getRequest());
+    }
+
+    /**
+     * Tests that the preflights are answered without a body and without recording the metrics.
+     * @throws Exception
+     */
+    @Test
+    public void testPreflight() throws Exception {
+        final AuthnCatalogFilter catalogFilter = new AuthnCatalogFilter();
+        catalogFilter.setEnabled(true);
+        catalogFilter.setCatalog(catalog);
+        catalogFilter.setCorsAllowedOrigins(Collections.singletonList("https://disco.example.org"));
+        catalogFilter.setCorsMaxAge(Duration.ofMinutes(30));
+        catalogFilter.setMetrics(metrics);
+        catalogFilter.setMetricsEndpointId("authnsources");
+        catalogFilter.initialize();
+        final MockHttpServletRequest httpRequest = initRequest(HttpMethod.OPTIONS.toString());
+        httpRequest.addHeader(HttpHeaders.ORIGIN, "https://disco.example.org");
+        httpRequest.addHeader(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, HttpMethod.GET.toString());
+        final MockFilterChain chain = new MockFilterChain();
+        final MockHttpServletResponse httpResponse = new MockHttpServletResponse();
+        catalogFilter.doFilter(httpRequest, httpResponse, chain);
+        Assert.assertNull(chain.getRequest());
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_NO_CONTENT);
+        Assert.assertEquals(httpResponse.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN),
+                "https://disco.example.org");
+        Assert.assertEquals(httpResponse.getHeader(HttpHeaders.ACCESS_CONTROL_MAX_AGE), "1800");
+        Assert.assertEquals(httpResponse.getContentLength(), 0);
+        Assert.assertEquals(metrics.getEndpoint("authnsources").getStatusCounts().get(HttpStatus.SC_NO_CONTENT),
+                Long.valueOf(0));
+    }
+
+    /**
+     * Tests that the clients exceeding their rate are answered with 429 and Retry-After.
+     * @throws Exception
+     */
+    @Test
+    public void testRateLimited() throws Exception {
+        final RateLimiter limiter = new RateLimiter();
+        limiter.setId("mockLimiter");
+        limiter.setCapacity(1);
+        limiter.setRefillInterval(Duration.ofMinutes(1));
+        limiter.initialize();
+        final AuthnCatalogFilter catalogFilter = new AuthnCatalogFilter();
+        catalogFilter.setEnabled(true);
+        catalogFilter.setCatalog(catalog);
+        catalogFilter.setRateLimiter(limiter);
+        catalogFilter.setMetrics(metrics);
+        catalogFilter.setMetricsEndpointId("limited");
+        catalogFilter.initialize();
+        MockHttpServletResponse httpResponse = new MockHttpServletResponse();
+        catalogFilter.doFilter(initRequest(HttpMethod.GET.toString()), httpResponse, new MockFilterChain());
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        httpResponse = new MockHttpServletResponse();
+        final MockFilterChain chain = new MockFilterChain();
+        catalogFilter.doFilter(initRequest(HttpMethod.GET.toString()), httpResponse, chain);
+        Assert.assertNull(chain.getRequest());
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_TOO_MANY_REQUESTS);
+        Assert.assertEquals(httpResponse.getHeader(HttpHeaders.RETRY_AFTER), "60");
+        Assert.assertEquals(httpResponse.getContentAsByteArray(), limiter.getRejectionBody());
+        Assert.assertTrue(httpResponse.getContentAsString().contains("\"code\":429"));
+        Assert.assertEquals(metrics.getEndpoint("limited").getStatusCounts().get(HttpStatus.SC_TOO_MANY_REQUESTS)
+                .longValue(), 1);
+    }
+
+    /**
+     * Tests that a list that could not be built is answered with a JSON 503.
+     * @throws Exception
+     */
+    @Test
+    public void testUnavailable() throws Exception {
+        final AuthnCatalog unavailable = new AuthnCatalog() {
+            @Override
+            public EncodedList getList(final Content content, final String lang, final String type) {
+                throw new IllegalStateException("Timed out waiting for the computation");
+            }
+        };
+        unavailable.setId("mockUnavailable");
+        unavailable.setMessageSource(new StaticMessageSource());
+        unavailable.setAdditionalInfo(new Properties());
+        unavailable.setSupportedLocales(Arrays.asList("FI"));
+        unavailable.setFlows(Collections.emptyList());
+        unavailable.initialize();
+        final AuthnCatalogFilter catalogFilter = new AuthnCatalogFilter();
+        catalogFilter.setEnabled(true);
+        catalogFilter.setCatalog(unavailable);
+        catalogFilter.initialize();
+        final MockHttpServletResponse httpResponse = new MockHttpServletResponse();
+        catalogFilter.doFilter(initRequest(HttpMethod.GET.toString()), httpResponse, new MockFilterChain());
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_SERVICE_UNAVAILABLE);
+        Assert.assertTrue(httpResponse.getContentAsString().contains("\"code\":503"));
+    }
+
+    /**
+     * Tests that the filter returns the same response as the flow action.
+     * @throws Exception
+     */
+    @Test
+    public void testSameAsFlow() throws Exception {
+        assertSameAsFlow(HttpMethod.GET.toString(), null, HttpStatus.SC_OK);
+        assertSameAsFlow(HttpMethod.GET.toString(), "sv", HttpStatus.SC_OK);
+        assertSameAsFlow(HttpMethod.GET.toString(), "xx", HttpStatus.SC_BAD_REQUEST);
+        assertSameAsFlow(HttpMethod.POST.toString(), null, HttpStatus.SC_METHOD_NOT_ALLOWED);
+        assertSameAsFlow(HttpMethod.HEAD.toString(), "sv", HttpStatus.SC_OK);
+        final EndpointMetrics endpoint = metrics.getEndpoint("authnsources");
+        Assert.assertEquals(endpoint.getStatusCounts().get(HttpStatus.SC_OK).longValue(), 6);
+        Assert.assertEquals(endpoint.getLatencies().get("SV").getCount(), 4);
+    }
+
+    /**
+     * Runs the filter and the action with the same request and compares the responses.
+     * @param method The HTTP method.
+     * @param lang The lang parameter, or null if not set.
+     * @param expectedStatus The expected status code.
+     * @throws Exception
+     */
+    protected void assertSameAsFlow(final String method, final String lang, final int expectedStatus)
+            throws Exception {
+        final MockHttpServletRequest httpRequest = initRequest(method);
+        if (lang != null) {
+            httpRequest.setParameter("lang", lang);
+        }
+        final MockFilterChain chain = new MockFilterChain();
+        final MockHttpServletResponse filterResponse = new MockHttpServletResponse();
+        filter.doFilter(httpRequest, filterResponse, chain);
+        Assert.assertNull(chain.getRequest());
+
+        final MockHttpServletResponse flowResponse = new MockHttpServletResponse();
+        final BuildAuthnSourceRestResponse action = new BuildAuthnSourceRestResponse();
+        action.setCatalog(catalog);
+        action.setAdditionalHeaders(Collections.singletonMap("Access-Control-Allow-Origin", "*"));
+        action.setMetrics(metrics);
+        action.setMetricsEndpointId("authnsources");
+        action.setHttpServletRequestSupplier(new NonnullSupplier<HttpServletRequest>() {
+
+            @Override
+            public MockHttpServletRequest get() {
+                return httpRequest;
+            }
+
+        });
+        action.setHttpServletResponseSupplier(new NonnullSupplier<HttpServletResponse>() {
+
+            @Override
+            public MockHttpServletResponse get() {
+                return flowResponse;
+            }
+
+        });
+        action.initialize();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+
+        Assert.assertEquals(filterResponse.getStatus(), expectedStatus);
+        Assert.assertEquals(filterResponse.getStatus(), flowResponse.getStatus());
+        Assert.assertEquals(filterResponse.getContentAsByteArray(), flowResponse.getContentAsByteArray());
+        Assert.assertEquals(filterResponse.getHeaderNames(), flowResponse.getHeaderNames());
+        for (final String name : filterResponse.getHeaderNames()) {
+            Assert.assertEquals(filterResponse.getHeaderValues(name), flowResponse.getHeaderValues(name), name);
+        }
+    }
+
+    /**
+     * Initializes the filter.
+     * @param enabled Whether the filter is enabled.
+     * @return The initialized filter.
+     * @throws Exception
+     */
+    protected AuthnCatalogFilter initFilter(final boolean enabled) throws Exception {
+        final AuthnCatalogFilter catalogFilter = new AuthnCatalogFilter();
+        catalogFilter.setEnabled(enabled);
+        catalogFilter.setCatalog(catalog);
+        catalogFilter.setAdditionalHeaders(Collections.singletonMap("Access-Control-Allow-Origin", "*"));
+        catalogFilter.setMetrics(metrics);
+        catalogFilter.setMetricsEndpointId("authnsources");
+        catalogFilter.initialize();
+        return catalogFilter;
+    }
+
+    /**
+     * Initializes a request to the default path.
+     * @param method The HTTP method.
+     * @return The request.
+     */
+    protected MockHttpServletRequest initRequest(final String method) {
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest(method, "/idp/profile/api/authnsources");
+        httpRequest.setContextPath("/idp");
+        return httpRequest;
+    }
+}
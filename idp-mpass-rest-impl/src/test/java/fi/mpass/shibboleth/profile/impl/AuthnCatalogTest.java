@@ -0,0 +1,550 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.Principal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.context.support.StaticMessageSource;
+import org.springframework.core.io.FileSystemResource;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
+import net.shibboleth.idp.authn.principal.TestPrincipal;
+import net.shibboleth.shared.component.ComponentInitializationException;
+
+/**
+ * Unit tests for {@link AuthnCatalog}.
+ */
+public class AuthnCatalogTest {
+
+    /** The catalog to be tested. */
+    private AuthnCatalog catalog;
+
+    /** The message source for the localized titles. */
+    private StaticMessageSource messageSource;
+
+    /** The complementary information for the flows and tags. */
+    private Properties additionalInfo;
+
+    /**
+     * Initialize test variables.
+     */
+    @BeforeMethod
+    public void initTests() {
+        messageSource = new StaticMessageSource();
+        messageSource.addMessage("mockSource.title", Locale.forLanguageTag("FI"), "Lähde");
+        messageSource.addMessage("mockSource.title", Locale.forLanguageTag("SV"), "Källa");
+        messageSource.addMessage("mockSource.iconUrl", Locale.forLanguageTag("FI"), "https://example.org/fi.png");
+        messageSource.addMessage("mockSource.iconUrl", Locale.forLanguageTag("SV"), "https://example.org/sv.png");
+        messageSource.addMessage("mockSource2.title", Locale.forLanguageTag("FI"), "Toinen");
+        messageSource.addMessage("mockSource2.title", Locale.forLanguageTag("SV"), "Annan");
+        messageSource.addMessage("mockSource2.iconUrl", Locale.forLanguageTag("FI"), "https://example.org/fi2.png");
+        messageSource.addMessage("mockSource2.iconUrl", Locale.forLanguageTag("SV"), "https://example.org/sv2.png");
+        messageSource.addMessage("tag.school", Locale.forLanguageTag("FI"), "Koulu");
+        messageSource.addMessage("tag.school", Locale.forLanguageTag("SV"), "Skola");
+        messageSource.addMessage("tag.city", Locale.forLanguageTag("FI"), "Kunta");
+        messageSource.addMessage("tag.city", Locale.forLanguageTag("SV"), "Kommun");
+        additionalInfo = new Properties();
+        additionalInfo.setProperty("school.title", "tag.school");
+        additionalInfo.setProperty("city.title", "tag.city");
+        additionalInfo.setProperty("mockSource.isRegistry", "true");
+        catalog = new AuthnCatalog();
+        catalog.setId("mockCatalog");
+        catalog.setMessageSource(messageSource);
+        catalog.setAdditionalInfo(additionalInfo);
+        catalog.setSupportedLocales(Arrays.asList("fi", "sv"));
+        catalog.setActiveFlowIds("mockSource|mockSource2|mockIgnored|mockNoMpass");
+        catalog.setIgnoredFlowIds(Arrays.asList("mockIgnored"));
+        final List<AuthenticationFlowDescriptor> flows = new ArrayList<>();
+        flows.add(initFlow("authn/mockSource", "urn:mpass.id:authntag:school", "urn:mpass.id:authntag:city"));
+        flows.add(initFlow("authn/mockSource2", "urn:mpass.id:authntag:school"));
+        flows.add(initFlow("authn/mockIgnored", "urn:mpass.id:authntag:school"));
+        flows.add(initFlow("authn/mockNoMpass", "urn:oasis:names:tc:SAML:2.0:ac:classes:Password"));
+        flows.add(initFlow("authn/mockInactive", "urn:mpass.id:authntag:inactive"));
+        catalog.setFlows(flows);
+    }
+
+    /**
+     * Tests initialization without the message source.
+     * @throws ComponentInitializationException
+     */
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoMessageSource() throws ComponentInitializationException {
+        final AuthnCatalog emptyCatalog = new AuthnCatalog();
+        emptyCatalog.setAdditionalInfo(additionalInfo);
+        emptyCatalog.setSupportedLocales(Arrays.asList("fi"));
+        emptyCatalog.initialize();
+    }
+
+    /**
+     * Tests the authentication sources in the catalog.
+     * @throws ComponentInitializationException
+     */
+    @Test
+    public void testSources() throws ComponentInitializationException {
+        catalog.initialize();
+        Assert.assertEquals(catalog.getSupportedLocales(), Arrays.asList("FI", "SV"));
+        final JsonObject response = decode(catalog.getEncodedSources("SV"));
+        Assert.assertEquals(response.get("lang").getAsString(), "SV");
+        final JsonArray sources = response.getAsJsonArray("response");
+        Assert.assertEquals(sources.size(), 2);
+        final JsonObject source = sources.get(0).getAsJsonObject();
+        Assert.assertEquals(source.get("id").getAsString(), "mockSource");
+        Assert.assertEquals(source.get("title").getAsString(), "Källa");
+        Assert.assertEquals(source.get("iconUrl").getAsString(), "https://example.org/sv.png");
+        Assert.assertEquals(source.getAsJsonArray("tags").size(), 2);
+        Assert.assertTrue(source.get("directRegistryConnection").getAsBoolean());
+        Assert.assertFalse(sources.get(1).getAsJsonObject().get("directRegistryConnection").getAsBoolean());
+        Assert.assertNull(catalog.getEncodedSources("EN"));
+    }
+
+    /**
+     * Tests the authentication tags in the catalog.
+     * @throws ComponentInitializationException
+     */
+    @Test
+    public void testTags() throws ComponentInitializationException {
+        catalog.initialize();
+        final JsonObject response = decode(catalog.getEncodedTags("FI"));
+        Assert.assertEquals(response.get("lang").getAsString(), "FI");
+        final JsonArray tags = response.getAsJsonArray("response");
+        Assert.assertEquals(tags.size(), 2);
+        Assert.assertEquals(tags.get(0).getAsJsonObject().get("id").getAsString(), "school");
+        Assert.assertEquals(tags.get(0).getAsJsonObject().get("title").getAsString(), "Koulu");
+        Assert.assertEquals(tags.get(1).getAsJsonObject().get("id").getAsString(), "city");
+        Assert.assertEquals(tags.get(1).getAsJsonObject().get("title").getAsString(), "Kunta");
+    }
+
+    /**
+     * Tests the pages sliced from the encoded lists.
+     * @throws ComponentInitializationException
+     * @throws IOException
+     */
+    @Test
+    public void testPages() throws ComponentInitializationException, IOException {
+        catalog.initialize();
+        final EncodedList sources = catalog.getSourceList("FI", null);
+        Assert.assertEquals(sources.size(), 2);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sources.writePage(out, 1, sources.getPageSize(1, 5));
+        final JsonArray page = new Gson().fromJson(out.toString(StandardCharsets.UTF_8), JsonObject.class)
+                .getAsJsonArray("response");
+        Assert.assertEquals(page.size(), 1);
+        Assert.assertEquals(page.get(0), decode(catalog.getEncodedSources("FI")).getAsJsonArray("response").get(1));
+        Assert.assertEquals(catalog.getTagList("FI").size(), 2);
+        Assert.assertEquals(catalog.getSourceList("FI", "city").size(), 1);
+    }
+
+    /**
+     * Tests the authentication sources filtered by their tags.
+     * @throws ComponentInitializationException
+     */
+    @Test
+    public void testTypeFilter() throws ComponentInitializationException {
+        catalog.initialize();
+        Assert.assertSame(catalog.getEncodedSources("FI", null), catalog.getEncodedSources("FI"));
+        Assert.assertSame(catalog.getEncodedSources("FI", " "), catalog.getEncodedSources("FI"));
+        Assert.assertNull(catalog.getEncodedSources("EN", "school"));
+
+        final JsonArray city = decode(catalog.getEncodedSources("SV", "city")).getAsJsonArray("response");
+        Assert.assertEquals(city.size(), 1);
+        Assert.assertEquals(city.get(0).getAsJsonObject().get("id").getAsString(), "mockSource");
+        Assert.assertEquals(city.get(0).getAsJsonObject().get("title").getAsString(), "Källa");
+        Assert.assertEquals(decode(catalog.getEncodedSources("SV", "city,school")).getAsJsonArray("response")
+                .size(), 2);
+        Assert.assertEquals(decode(catalog.getEncodedSources("SV", "city+school")).getAsJsonArray("response")
+                .size(), 1);
+        Assert.assertEquals(decode(catalog.getEncodedSources("SV", "unknown")).getAsJsonArray("response")
+                .size(), 0);
+        Assert.assertEquals(catalog.getEncodedSources("SV", "school").getBody(),
+                catalog.getEncodedSources("SV").getBody());
+
+        final EncodedResponse cached = catalog.getEncodedSources("FI", "school+city");
+        Assert.assertSame(catalog.getEncodedSources("FI", "city school"), cached);
+        Assert.assertNotSame(catalog.getEncodedSources("SV", "city school"), cached);
+    }
+
+    /**
+     * Tests that the filtered responses are not cached if the cache is disabled.
+     * @throws ComponentInitializationException
+     */
+    @Test
+    public void testTypeFilterNoCache() throws ComponentInitializationException {
+        catalog.setFilteredCacheSize(0);
+        catalog.initialize();
+        final EncodedResponse response = catalog.getEncodedSources("FI", "city");
+        Assert.assertNotSame(catalog.getEncodedSources("FI", "city"), response);
+        Assert.assertEquals(catalog.getEncodedSources("FI", "city").getETag(), response.getETag());
+    }
+
+    /**
+     * Tests that the filtered responses are evicted when the cache is full.
+     * @throws ComponentInitializationException
+     */
+    @Test
+    public void testTypeFilterBounded() throws ComponentInitializationException {
+        catalog.setFilteredCacheSize(1);
+        catalog.initialize();
+        final EncodedResponse city = catalog.getEncodedSources("FI", "city");
+        Assert.assertSame(catalog.getEncodedSources("FI", "city"), city);
+        final EncodedResponse school = catalog.getEncodedSources("FI", "school");
+        Assert.assertSame(catalog.getEncodedSources("FI", "school"), school);
+        final EncodedResponse reencoded = catalog.getEncodedSources("FI", "city");
+        Assert.assertNotSame(reencoded, city);
+        Assert.assertEquals(reencoded.getBody(), city.getBody());
+    }
+
+    /**
+     * Tests that the catalog is rebuilt and swapped when the additional info resource is modified.
+     * @throws ComponentInitializationException
+     * @throws IOException
+     */
+    @Test
+    public void testReload() throws ComponentInitializationException, IOException {
+        final File file = File.createTempFile("mpassid-messages", ".properties");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "school.title=tag.school\ncity.title=tag.city\n"
+                .getBytes(StandardCharsets.ISO_8859_1));
+        catalog.setAdditionalInfoResources(Arrays.asList(new FileSystemResource(file)));
+        catalog.initialize();
+        Assert.assertFalse(decode(catalog.getEncodedSources("FI")).getAsJsonArray("response").get(1)
+                .getAsJsonObject().get("directRegistryConnection").getAsBoolean());
+        final EncodedResponse original = catalog.getEncodedSources("FI");
+
+        catalog.checkReload();
+        Assert.assertSame(catalog.getEncodedSources("FI"), original);
+
+        Files.write(file.toPath(), "school.title=tag.school\ncity.title=tag.city\nmockSource2.isRegistry=true\n"
+                .getBytes(StandardCharsets.ISO_8859_1));
+        Assert.assertTrue(file.setLastModified(file.lastModified() + 10000));
+        catalog.checkReload();
+        Assert.assertNotSame(catalog.getEncodedSources("FI"), original);
+        Assert.assertTrue(decode(catalog.getEncodedSources("FI")).getAsJsonArray("response").get(1)
+                .getAsJsonObject().get("directRegistryConnection").getAsBoolean());
+        catalog.destroy();
+    }
+
+    /**
+     * Tests that the catalog is rebuilt when the message bundle of a supported locale is modified.
+     * @throws ComponentInitializationException
+     * @throws IOException
+     */
+    @Test
+    public void testReloadLocalizedBundle() throws ComponentInitializationException, IOException {
+        final File directory = Files.createTempDirectory("messages").toFile();
+        directory.deleteOnExit();
+        final File swedish = new File(directory, "mpassid-messages_sv.properties");
+        swedish.deleteOnExit();
+        Files.write(swedish.toPath(), "tag.school=Skola\n".getBytes(StandardCharsets.ISO_8859_1));
+        catalog.setWatchedMessageBundle(new FileSystemResource(new File(directory, "mpassid-messages.properties")));
+        catalog.initialize();
+        final EncodedResponse original = catalog.getEncodedSources("FI");
+
+        catalog.checkReload();
+        Assert.assertSame(catalog.getEncodedSources("FI"), original);
+
+        Assert.assertTrue(swedish.setLastModified(swedish.lastModified() + 10000));
+        catalog.checkReload();
+        Assert.assertNotSame(catalog.getEncodedSources("FI"), original);
+        catalog.destroy();
+    }
+
+    /**
+     * Tests that a rebuild with a message missing in a locale that is not pre-warmed keeps the previous catalog.
+     * @throws ComponentInitializationException
+     * @throws IOException
+     */
+    @Test
+    public void testReloadMissingMessage() throws ComponentInitializationException, IOException {
+        messageSource.addMessage("mockSource.newTitle", Locale.forLanguageTag("FI"), "Uusi");
+        final File file = File.createTempFile("mpassid-messages", ".properties");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "school.title=tag.school\ncity.title=tag.city\n"
+                .getBytes(StandardCharsets.ISO_8859_1));
+        catalog.setAdditionalInfoResources(Arrays.asList(new FileSystemResource(file)));
+        catalog.initialize();
+        final EncodedResponse original = catalog.getEncodedSources("FI");
+
+        Files.write(file.toPath(), ("school.title=tag.school\ncity.title=tag.city\n"
+                + "mockSource.title=mockSource.newTitle\n").getBytes(StandardCharsets.ISO_8859_1));
+        Assert.assertTrue(file.setLastModified(file.lastModified() + 10000));
+        catalog.checkReload();
+        Assert.assertSame(catalog.getEncodedSources("FI"), original);
+        Assert.assertEquals(decode(catalog.getEncodedSources("SV")).getAsJsonArray("response").get(0)
+                .getAsJsonObject().get("title").getAsString(), "Källa");
+        catalog.destroy();
+    }
+
+    /**
+     * Tests that a failed materialization keeps the lists of the previous snapshot, and is not retried.
+     * @throws Exception
+     */
+    @Test
+    public void testMaterializationFallback() throws Exception {
+        final Map<String, AtomicInteger> materialized = new ConcurrentHashMap<>();
+        final AtomicInteger failing = new AtomicInteger();
+        catalog = new AuthnCatalog() {
+            @Override
+            protected LocalizedLists materialize(final AuthnCatalogBuilder contents, final String locale,
+                    final Instant buildInstant) {
+                materialized.computeIfAbsent(locale, k -> new AtomicInteger()).incrementAndGet();
+                if ("SV".equals(locale) && failing.get() > 0) {
+                    throw new IllegalStateException("mockException");
+                }
+                return super.materialize(contents, locale, buildInstant);
+            }
+        };
+        final File file = File.createTempFile("mpassid-messages", ".properties");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "school.title=tag.school\n".getBytes(StandardCharsets.ISO_8859_1));
+        catalog.setId("mockCatalog");
+        catalog.setMessageSource(messageSource);
+        catalog.setAdditionalInfoResources(Arrays.asList(new FileSystemResource(file)));
+        catalog.setSupportedLocales(Arrays.asList("fi", "sv"));
+        catalog.setActiveFlowIds("mockSource");
+        catalog.setFlows(Arrays.asList(initFlow("authn/mockSource", "urn:mpass.id:authntag:school")));
+        failing.set(1);
+        catalog.initialize();
+        assertUnavailable("SV");
+        assertUnavailable("SV");
+        Assert.assertEquals(materialized.get("SV").get(), 1);
+
+        failing.set(0);
+        Assert.assertTrue(file.setLastModified(file.lastModified() + 10000));
+        catalog.checkReload();
+        final EncodedResponse swedish = catalog.getEncodedSources("SV");
+        Assert.assertNotNull(swedish);
+
+        failing.set(1);
+        Assert.assertTrue(file.setLastModified(file.lastModified() + 10000));
+        catalog.checkReload();
+        Assert.assertSame(catalog.getEncodedSources("SV"), swedish);
+        Assert.assertSame(catalog.getEncodedSources("SV"), swedish);
+        Assert.assertEquals(materialized.get("SV").get(), 3);
+        catalog.destroy();
+    }
+
+    /**
+     * Tests that only the default locale is materialized with the snapshot, and the others once on demand.
+     * @throws Exception
+     */
+    @Test
+    public void testLazyLocales() throws Exception {
+        final Map<String, AtomicInteger> materialized = new ConcurrentHashMap<>();
+        catalog = initCountingCatalog(materialized);
+        catalog.initialize();
+        Assert.assertEquals(materialized.keySet(), Collections.singleton("FI"));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<EncodedResponse>> responses = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                responses.add(executor.submit(() -> catalog.getEncodedSources("SV")));
+            }
+            for (final Future<EncodedResponse> response : responses) {
+                Assert.assertSame(response.get(), responses.get(0).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertNotNull(catalog.getEncodedTags("SV"));
+        Assert.assertNull(catalog.getEncodedSources("EN"));
+        Assert.assertEquals(materialized.get("FI").get(), 1);
+        Assert.assertEquals(materialized.get("SV").get(), 1);
+        Assert.assertEquals(materialized.size(), 2);
+    }
+
+    /**
+     * Tests that the concurrent first requests for a locale fail once the build wait has elapsed.
+     * @throws Exception
+     */
+    @Test
+    public void testBuildWait() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        catalog = new AuthnCatalog() {
+            @Override
+            protected LocalizedLists materialize(final AuthnCatalogBuilder contents, final String locale,
+                    final Instant buildInstant) {
+                if ("SV".equals(locale)) {
+                    started.countDown();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.materialize(contents, locale, buildInstant);
+            }
+        };
+        catalog.setId("mockCatalog");
+        catalog.setMessageSource(messageSource);
+        catalog.setAdditionalInfo(additionalInfo);
+        catalog.setSupportedLocales(Arrays.asList("fi", "sv"));
+        catalog.setActiveFlowIds("mockSource");
+        catalog.setFlows(Arrays.asList(initFlow("authn/mockSource", "urn:mpass.id:authntag:school")));
+        catalog.setBuildWait(Duration.ofMillis(20));
+        catalog.initialize();
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<EncodedResponse> first = executor.submit(() -> catalog.getEncodedSources("SV"));
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            try {
+                catalog.getEncodedSources("SV");
+                Assert.fail("Expected an exception");
+            } catch (final IllegalStateException e) {
+                Assert.assertFalse(first.isDone());
+            }
+            release.countDown();
+            Assert.assertSame(catalog.getEncodedSources("SV"), first.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Tests the configured pre-warmed locales.
+     * @throws ComponentInitializationException
+     */
+    @Test
+    public void testPrewarmedLocales() throws ComponentInitializationException {
+        final Map<String, AtomicInteger> materialized = new ConcurrentHashMap<>();
+        catalog = initCountingCatalog(materialized);
+        catalog.setPrewarmedLocales(Arrays.asList(" sv", ""));
+        catalog.initialize();
+        Assert.assertEquals(materialized.keySet(), Collections.singleton("SV"));
+
+        materialized.clear();
+        catalog = initCountingCatalog(materialized);
+        catalog.setPrewarmedLocales(Collections.emptyList());
+        catalog.initialize();
+        Assert.assertTrue(materialized.isEmpty());
+        Assert.assertEquals(decode(catalog.getEncodedTags("FI")).getAsJsonArray("response").size(), 2);
+        Assert.assertEquals(materialized.keySet(), Collections.singleton("FI"));
+    }
+
+    /**
+     * Tests initialization with a pre-warmed locale that is not supported.
+     * @throws ComponentInitializationException
+     */
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testUnsupportedPrewarmedLocale() throws ComponentInitializationException {
+        catalog.setPrewarmedLocales(Arrays.asList("fi", "en"));
+        catalog.initialize();
+    }
+
+    /**
+     * Initializes a catalog like the default one, counting the materializations of each locale.
+     * @param materialized The counters of the materializations, keyed by the locale.
+     * @return The catalog.
+     */
+    protected AuthnCatalog initCountingCatalog(final Map<String, AtomicInteger> materialized) {
+        final AuthnCatalog countingCatalog = new AuthnCatalog() {
+            @Override
+            protected LocalizedLists materialize(final AuthnCatalogBuilder contents, final String locale,
+                    final Instant buildInstant) {
+                materialized.computeIfAbsent(locale, k -> new AtomicInteger()).incrementAndGet();
+                return super.materialize(contents, locale, buildInstant);
+            }
+        };
+        countingCatalog.setId("mockCatalog");
+        countingCatalog.setMessageSource(messageSource);
+        countingCatalog.setAdditionalInfo(additionalInfo);
+        countingCatalog.setSupportedLocales(Arrays.asList("fi", "sv"));
+        countingCatalog.setActiveFlowIds("mockSource|mockSource2");
+        countingCatalog.setFlows(Arrays.asList(initFlow("authn/mockSource", "urn:mpass.id:authntag:school",
+                "urn:mpass.id:authntag:city"), initFlow("authn/mockSource2", "urn:mpass.id:authntag:school")));
+        return countingCatalog;
+    }
+
+    /**
+     * Asserts that the authentication sources in the given language could not be materialized.
+     * @param lang The language code.
+     */
+    protected void assertUnavailable(final String lang) {
+        try {
+            catalog.getEncodedSources(lang);
+            Assert.fail("Expected an exception");
+        } catch (final IllegalStateException e) {
+            Assert.assertEquals(e.getMessage(), "mockException");
+        }
+    }
+
+    /**
+     * Decodes the given encoded response.
+     * @param encoded The encoded response.
+     * @return The decoded JSON object.
+     */
+    protected JsonObject decode(final EncodedResponse encoded) {
+        Assert.assertNotNull(encoded);
+        return new Gson().fromJson(new String(encoded.getBody(), StandardCharsets.UTF_8), JsonObject.class);
+    }
+
+    /**
+     * Initializes an authentication flow descriptor supporting the given principals.
+     * @param id The flow identifier.
+     * @param principalNames The names of the supported principals.
+     * @return The authentication flow descriptor.
+     */
+    protected AuthenticationFlowDescriptor initFlow(final String id, final String... principalNames) {
+        final AuthenticationFlowDescriptor flow = new AuthenticationFlowDescriptor();
+        flow.setId(id);
+        final List<Principal> principals = new ArrayList<>();
+        for (final String name : principalNames) {
+            principals.add(new TestPrincipal(name));
+        }
+        flow.setSupportedPrincipals(principals);
+        return flow;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Properties;
+
+import org.springframework.context.support.StaticMessageSource;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link AuthnTagIndex}.
+ */
+public class AuthnTagIndexTest {
+
+    /** The index to be tested. */
+    private AuthnTagIndex index;
+
+    /**
+     * Initialize test variables.
+     */
+    @BeforeMethod
+    public void initTests() {
+        final AuthnCatalogBuilder builder =
+                new AuthnCatalogBuilder(new StaticMessageSource(), Arrays.asList("FI"), new Properties());
+        builder.addSource("first", Arrays.asList("school", "city"), false, false);
+        builder.addSource("second", Arrays.asList("school"), false, false);
+        builder.addSource("third", Arrays.asList("company"), false, false);
+        builder.addSource("fourth", Arrays.asList(), false, false);
+        index = builder.buildTagIndex();
+    }
+
+    /**
+     * Tests the normalization of the queries.
+     */
+    @Test
+    public void testNormalize() {
+        Assert.assertEquals(index.size(), 4);
+        Assert.assertEquals(index.normalize("school"), "school");
+        Assert.assertEquals(index.normalize("school,city"), "city,school");
+        Assert.assertEquals(index.normalize("school+city"), "city+school");
+        Assert.assertEquals(index.normalize(" school city , company,,school"), "city+school,company,school");
+        Assert.assertEquals(index.normalize("school,unknown+city"), "school");
+        Assert.assertEquals(index.normalize("unknown"), "");
+    }
+
+    /**
+     * Tests the unions and intersections of the tags.
+     */
+    @Test
+    public void testSelect() {
+        Assert.assertEquals(index.select("school"), bits(0, 1));
+        Assert.assertEquals(index.select("city,school"), bits(0, 1));
+        Assert.assertEquals(index.select("city+school"), bits(0));
+        Assert.assertEquals(index.select("city+school,company"), bits(0, 2));
+        Assert.assertEquals(index.select("city+company"), bits());
+        Assert.assertEquals(index.select(""), bits());
+    }
+
+    /**
+     * Tests that the selections do not modify the index.
+     */
+    @Test
+    public void testSelectionOwnership() {
+        index.select("school").clear();
+        index.select("school+city");
+        Assert.assertEquals(index.select("school"), bits(0, 1));
+    }
+
+    /**
+     * Builds a bit set with the given bits set.
+     * @param positions The positions of the set bits.
+     * @return The bit set.
+     */
+    protected BitSet bits(final int... positions) {
+        final BitSet bits = new BitSet();
+        for (final int position : positions) {
+            bits.set(position);
+        }
+        return bits;
+    }
+}
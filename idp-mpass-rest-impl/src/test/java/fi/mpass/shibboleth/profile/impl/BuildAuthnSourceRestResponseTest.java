@@ -0,0 +1,330 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.GZIPInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Properties;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.apache.http.HttpStatus;
+import org.springframework.context.support.StaticMessageSource;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.Gson;
+
+import fi.mpass.shibboleth.rest.data.ErrorDTO;
+import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
+import net.shibboleth.idp.authn.principal.TestPrincipal;
+import net.shibboleth.idp.profile.testing.ActionTestingSupport;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.primitive.NonnullSupplier;
+
+/**
+ * Unit tests for {@link BuildAuthnSourceRestResponse}.
+ */
+public class BuildAuthnSourceRestResponseTest {
+
+    /** The action to be tested. */
+    private BuildAuthnSourceRestResponse action;
+
+    /** The HTTP request used by the action. */
+    private MockHttpServletRequest httpRequest;
+
+    /** The HTTP response used by the action. */
+    private MockHttpServletResponse httpResponse;
+
+    /**
+     * Initialize test variables.
+     * @throws ComponentInitializationException
+     */
+    @BeforeMethod
+    public void initTests() throws ComponentInitializationException {
+        final StaticMessageSource messageSource = new StaticMessageSource();
+        messageSource.addMessage("mockSource.title", Locale.forLanguageTag("FI"), "Lähde");
+        messageSource.addMessage("mockSource.iconUrl", Locale.forLanguageTag("FI"), "https://example.org/fi.png");
+        messageSource.addMessage("mockSource.title", Locale.forLanguageTag("SV"), "Källa");
+        messageSource.addMessage("mockSource.iconUrl", Locale.forLanguageTag("SV"), "https://example.org/sv.png");
+        messageSource.addMessage("tag.school", Locale.forLanguageTag("FI"), "Koulu");
+        messageSource.addMessage("tag.school", Locale.forLanguageTag("SV"), "Skola");
+        final Properties additionalInfo = new Properties();
+        additionalInfo.setProperty("school.title", "tag.school");
+        final AuthenticationFlowDescriptor flow = new AuthenticationFlowDescriptor();
+        flow.setId("authn/mockSource");
+        flow.setSupportedPrincipals(Collections.singletonList(new TestPrincipal("urn:mpass.id:authntag:school")));
+        final AuthnCatalog catalog = new AuthnCatalog();
+        catalog.setMessageSource(messageSource);
+        catalog.setAdditionalInfo(additionalInfo);
+        catalog.setSupportedLocales(Arrays.asList("FI", "SV"));
+        catalog.setActiveFlowIds("mockSource");
+        catalog.setFlows(Collections.singletonList(flow));
+        catalog.initialize();
+
+        action = new BuildAuthnSourceRestResponse();
+        action.setCatalog(catalog);
+        httpRequest = new MockHttpServletRequest();
+        httpRequest.setMethod(HttpMethod.GET.toString());
+        action.setHttpServletRequestSupplier(new NonnullSupplier<HttpServletRequest>() {
+
+            @Override
+            public MockHttpServletRequest get() {
+                return httpRequest;
+            }
+
+        });
+        httpResponse = new MockHttpServletResponse();
+        action.setHttpServletResponseSupplier(new NonnullSupplier<HttpServletResponse>() {
+
+            @Override
+            public MockHttpServletResponse get() {
+                return httpResponse;
+            }
+
+        });
+        action.initialize();
+    }
+
+    /**
+     * Runs action with unsupported HTTP method.
+     * @throws UnsupportedEncodingException
+     */
+    @Test
+    public void testInvalidMethod() throws UnsupportedEncodingException {
+        httpRequest.setMethod(HttpMethod.POST.toString());
+        verifyErrorDTO(HttpStatus.SC_METHOD_NOT_ALLOWED);
+    }
+
+    /**
+     * Runs action with unsupported language.
+     * @throws UnsupportedEncodingException
+     */
+    @Test
+    public void testInvalidLanguage() throws UnsupportedEncodingException {
+        httpRequest.setParameter("lang", "xx");
+        verifyErrorDTO(HttpStatus.SC_BAD_REQUEST);
+    }
+
+    /**
+     * Runs action successfully with the given and default languages.
+     * @throws UnsupportedEncodingException
+     */
+    @Test
+    public void testSuccess() throws UnsupportedEncodingException {
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        Assert.assertTrue(httpResponse.getContentAsString().contains("Lähde"));
+        Assert.assertEquals(httpResponse.getContentLength(), httpResponse.getContentAsByteArray().length);
+        Assert.assertNotNull(httpResponse.getHeader("ETag"));
+        Assert.assertNotNull(httpResponse.getHeader("Last-Modified"));
+
+        httpRequest.setParameter("lang", "sv");
+        httpResponse = new MockHttpServletResponse();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        Assert.assertTrue(httpResponse.getContentAsString().contains("Källa"));
+    }
+
+    /**
+     * Runs action with HEAD, expecting the headers of the GET response without a body.
+     * @throws UnsupportedEncodingException
+     */
+    @Test
+    public void testHead() throws UnsupportedEncodingException {
+        httpRequest.setParameter("limit", "1");
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        final MockHttpServletResponse getResponse = httpResponse;
+        httpRequest.setMethod(HttpMethod.HEAD.toString());
+        httpResponse = new MockHttpServletResponse();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        Assert.assertEquals(httpResponse.getContentAsByteArray().length, 0);
+        Assert.assertEquals(httpResponse.getContentLength(), getResponse.getContentAsByteArray().length);
+        Assert.assertEquals(httpResponse.getHeaderNames(), getResponse.getHeaderNames());
+        for (final String name : getResponse.getHeaderNames()) {
+            Assert.assertEquals(httpResponse.getHeaderValues(name), getResponse.getHeaderValues(name), name);
+        }
+
+        httpRequest.setParameter("lang", "xx");
+        httpResponse = new MockHttpServletResponse();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_BAD_REQUEST);
+        Assert.assertEquals(httpResponse.getContentAsByteArray().length, 0);
+        Assert.assertTrue(httpResponse.getContentLength() > 0);
+    }
+
+    /**
+     * Runs action with the language negotiated from the lang parameter and the Accept-Language header.
+     * @throws UnsupportedEncodingException
+     */
+    @Test
+    public void testLanguageNegotiation() throws UnsupportedEncodingException {
+        httpRequest.addHeader("Accept-Language", "en-GB, sv-FI;q=0.8, fi;q=0.5");
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        Assert.assertTrue(httpResponse.getContentAsString().contains("Källa"));
+        Assert.assertEquals(httpResponse.getHeader("Content-Language"), "sv");
+
+        httpRequest.setParameter("lang", "fi_FI");
+        httpResponse = new MockHttpServletResponse();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        Assert.assertTrue(httpResponse.getContentAsString().contains("Lähde"));
+        Assert.assertEquals(httpResponse.getHeader("Content-Language"), "fi");
+    }
+
+    /**
+     * Runs action with matching and non-matching type filters.
+     * @throws UnsupportedEncodingException
+     */
+    @Test
+    public void testType() throws UnsupportedEncodingException {
+        httpRequest.setParameter("type", "school");
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        Assert.assertTrue(httpResponse.getContentAsString().contains("Lähde"));
+
+        httpRequest.setParameter("type", "school+unknown");
+        httpResponse = new MockHttpServletResponse();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        Assert.assertEquals(httpResponse.getContentAsString(), "{\"lang\":\"FI\",\"response\":[]}");
+    }
+
+    /**
+     * Runs action with valid and invalid pages.
+     * @throws UnsupportedEncodingException
+     */
+    @Test
+    public void testPagination() throws UnsupportedEncodingException {
+        httpRequest.setRequestURI("/idp/profile/api/authnsources");
+        httpRequest.setParameter("lang", "sv");
+        httpRequest.setParameter("limit", "1");
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        Assert.assertTrue(httpResponse.getContentAsString().contains("Källa"));
+        Assert.assertEquals(httpResponse.getContentLength(), httpResponse.getContentAsByteArray().length);
+        Assert.assertEquals(httpResponse.getHeader("X-Total-Count"), "1");
+        Assert.assertEquals(httpResponse.getHeader("Link"),
+                "</idp/profile/api/authnsources?lang=sv&offset=0&limit=1>; rel=\"first\", "
+                + "</idp/profile/api/authnsources?lang=sv&offset=0&limit=1>; rel=\"last\"");
+        final String etag = httpResponse.getHeader("ETag");
+        Assert.assertTrue(etag.endsWith("-p0-1\""));
+
+        httpRequest.setParameter("offset", "1");
+        httpResponse = new MockHttpServletResponse();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        Assert.assertEquals(httpResponse.getContentAsString(), "{\"lang\":\"SV\",\"response\":[]}");
+        Assert.assertTrue(httpResponse.getHeader("Link").contains("offset=0&limit=1>; rel=\"prev\""));
+
+        httpRequest.setParameter("offset", "0");
+        httpRequest.addHeader("If-None-Match", etag);
+        httpResponse = new MockHttpServletResponse();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_NOT_MODIFIED);
+
+        httpRequest.setParameter("limit", "0");
+        httpResponse = new MockHttpServletResponse();
+        verifyErrorDTO(HttpStatus.SC_BAD_REQUEST);
+        httpRequest.setParameter("limit", "x");
+        httpResponse = new MockHttpServletResponse();
+        verifyErrorDTO(HttpStatus.SC_BAD_REQUEST);
+        httpRequest.setParameter("limit", "1");
+        httpRequest.setParameter("offset", "-1");
+        httpResponse = new MockHttpServletResponse();
+        verifyErrorDTO(HttpStatus.SC_BAD_REQUEST);
+    }
+
+    /**
+     * Runs action with matching and non-matching conditional request headers.
+     * @throws UnsupportedEncodingException
+     */
+    @Test
+    public void testConditional() throws UnsupportedEncodingException {
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        final String etag = httpResponse.getHeader("ETag");
+
+        httpRequest.addHeader("If-None-Match", "\"other\", " + etag);
+        httpResponse = new MockHttpServletResponse();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_NOT_MODIFIED);
+        Assert.assertEquals(httpResponse.getContentAsByteArray().length, 0);
+
+        httpRequest.setParameter("lang", "sv");
+        httpResponse = new MockHttpServletResponse();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+    }
+
+    /**
+     * Runs action with gzip accepted by the client.
+     * @throws IOException
+     */
+    @Test
+    public void testGzip() throws IOException {
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        final byte[] identity = httpResponse.getContentAsByteArray();
+        Assert.assertNull(httpResponse.getHeader("Content-Encoding"));
+        Assert.assertEquals(httpResponse.getHeader("Vary"), "Accept-Encoding, Accept-Language");
+
+        httpRequest.addHeader("Accept-Encoding", "deflate;q=0.5, gzip");
+        httpResponse = new MockHttpServletResponse();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        Assert.assertEquals(httpResponse.getHeader("Content-Encoding"), "gzip");
+        Assert.assertEquals(httpResponse.getHeader("Vary"), "Accept-Encoding, Accept-Language");
+        Assert.assertEquals(httpResponse.getContentLength(), httpResponse.getContentAsByteArray().length);
+        try (GZIPInputStream in = new GZIPInputStream(
+                new ByteArrayInputStream(httpResponse.getContentAsByteArray()))) {
+            Assert.assertEquals(in.readAllBytes(), identity);
+        }
+    }
+
+    /**
+     * Verifies the {@link ErrorDTO} contents produced by the action.
+     * @param code The expected status code.
+     * @throws UnsupportedEncodingException
+     */
+    protected void verifyErrorDTO(final int code) throws UnsupportedEncodingException {
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), code);
+        final ErrorDTO errorDTO = new Gson().fromJson(httpResponse.getContentAsString(), ErrorDTO.class);
+        Assert.assertNotNull(errorDTO);
+        Assert.assertEquals(errorDTO.getCode(), code);
+    }
+}
@@ -45,6 +45,7 @@ import com.google.gson.Gson;
 
 import fi.mpass.shibboleth.rest.data.ErrorDTO;
 import fi.mpass.shibboleth.rest.data.MetaDTO;
+import fi.mpass.shibboleth.rest.data.json.MetaDTOWriter;
 import net.shibboleth.idp.profile.testing.ActionTestingSupport;
 import net.shibboleth.shared.component.ComponentInitializationException;
 import net.shibboleth.shared.primitive.NonnullSupplier;
@@ -200,6 +201,33 @@ public class BuildMetaRestResponseTest {
         Assert.assertEquals(resultDTO.getOrganization(), metaDTO.getOrganization());
     }
 
+    /**
+     * Runs action with HEAD, expecting the content length of the GET response without a body.
+     * @throws ComponentInitializationException
+     */
+    @Test
+    public void testHead() throws ComponentInitializationException {
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        httpRequest.setMethod(HttpMethod.HEAD.toString());
+        action.setHttpServletRequestSupplier(new NonnullSupplier<HttpServletRequest>() {
+
+            @Override
+            public MockHttpServletRequest get() {
+                return httpRequest;
+            }
+            
+        });
+        final MetaDTO metaDTO = populateMetaDTO();
+        action.setMetaDTO(metaDTO);
+        action.initialize();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        final MockHttpServletResponse httpResponse = (MockHttpServletResponse) action.getHttpServletResponse();
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        Assert.assertEquals(httpResponse.getContentAsByteArray().length, 0);
+        Assert.assertEquals(httpResponse.getContentLength(), new MetaDTOWriter().toByteArray(metaDTO).length);
+        Assert.assertEquals(httpResponse.getHeaderValue("Content-Type"), MediaType.JSON_UTF_8.toString());
+    }
+
     /**
      * Populate the {@link MetaDTO} contents.
      * @return
@@ -0,0 +1,221 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.io.UnsupportedEncodingException;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.apache.http.HttpStatus;
+import org.mockito.Mockito;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import fi.mpass.shibboleth.rest.data.MetaDTO;
+import net.shibboleth.idp.profile.testing.ActionTestingSupport;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.primitive.NonnullSupplier;
+import net.shibboleth.shared.security.AccessControl;
+import net.shibboleth.shared.security.AccessControlService;
+
+/**
+ * Unit tests for {@link BuildMetricsRestResponse} and the recording of the metrics.
+ */
+public class BuildMetricsRestResponseTest {
+
+    /** The metrics to be published. */
+    private ApiMetrics metrics;
+
+    /** The HTTP request used by the actions. */
+    private MockHttpServletRequest httpRequest;
+
+    /** The HTTP response used by the actions. */
+    private MockHttpServletResponse httpResponse;
+
+    /**
+     * Initialize test variables.
+     * @throws ComponentInitializationException
+     */
+    @BeforeMethod
+    public void initTests() throws ComponentInitializationException {
+        metrics = new ApiMetrics();
+        metrics.setId("mockMetrics");
+        metrics.initialize();
+        httpRequest = new MockHttpServletRequest();
+        httpRequest.setMethod(HttpMethod.GET.toString());
+        httpResponse = new MockHttpServletResponse();
+    }
+
+    /**
+     * Tests that the metrics are required.
+     * @throws ComponentInitializationException
+     */
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoMetrics() throws ComponentInitializationException {
+        initAction(new BuildMetricsRestResponse()).initialize();
+    }
+
+    /**
+     * Tests that the endpoint identifier is required if the responses are recorded.
+     * @throws ComponentInitializationException
+     */
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoEndpointId() throws ComponentInitializationException {
+        final BuildMetaRestResponse action = initAction(new BuildMetaRestResponse());
+        action.setMetaDTO(new MetaDTO());
+        action.setMetrics(metrics);
+        action.initialize();
+    }
+
+    /**
+     * Runs action with unsupported HTTP method.
+     * @throws ComponentInitializationException
+     */
+    @Test
+    public void testInvalidMethod() throws ComponentInitializationException {
+        httpRequest.setMethod(HttpMethod.POST.toString());
+        final BuildMetricsRestResponse action = initAction(new BuildMetricsRestResponse());
+        action.setPublishedMetrics(metrics);
+        action.initialize();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_METHOD_NOT_ALLOWED);
+    }
+
+    /**
+     * Tests that the access control policy is required if the service of the policies is set.
+     * @throws ComponentInitializationException
+     */
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoAccessPolicy() throws ComponentInitializationException {
+        final BuildMetricsRestResponse action = initAction(new BuildMetricsRestResponse());
+        action.setPublishedMetrics(metrics);
+        action.setAccessControlService(Mockito.mock(AccessControlService.class));
+        action.initialize();
+    }
+
+    /**
+     * Runs action with the access control policy allowing only the localhost.
+     * @throws ComponentInitializationException
+     * @throws UnsupportedEncodingException
+     */
+    @Test
+    public void testAccessPolicy() throws ComponentInitializationException, UnsupportedEncodingException {
+        final AccessControl accessControl = Mockito.mock(AccessControl.class);
+        Mockito.when(accessControl.checkAccess(Mockito.any(), Mockito.any(), Mockito.any())).thenAnswer(
+                invocation -> "127.0.0.1".equals(httpRequest.getRemoteAddr()));
+        final AccessControlService accessControlService = Mockito.mock(AccessControlService.class);
+        Mockito.when(accessControlService.getInstance("AccessByIPAddress")).thenReturn(accessControl);
+        final BuildMetricsRestResponse action = initAction(new BuildMetricsRestResponse());
+        action.setPublishedMetrics(metrics);
+        action.setAccessControlService(accessControlService);
+        action.setAccessPolicy("AccessByIPAddress");
+        action.initialize();
+        httpRequest.setRemoteAddr("192.0.2.1");
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_FORBIDDEN);
+        final JsonObject error = new Gson().fromJson(httpResponse.getContentAsString(), JsonObject.class);
+        Assert.assertEquals(error.get("code").getAsInt(), HttpStatus.SC_FORBIDDEN);
+
+        httpResponse = new MockHttpServletResponse();
+        httpRequest.setRemoteAddr("127.0.0.1");
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        Assert.assertNotNull(new Gson().fromJson(httpResponse.getContentAsString(), JsonObject.class).get("since"));
+    }
+
+    /**
+     * Runs the meta action twice with the metrics recorded, and then publishes the metrics.
+     * @throws ComponentInitializationException
+     * @throws UnsupportedEncodingException
+     */
+    @Test
+    public void testRecorded() throws ComponentInitializationException, UnsupportedEncodingException {
+        final BuildMetaRestResponse metaAction = initAction(new BuildMetaRestResponse());
+        metaAction.setMetaDTO(new MetaDTO());
+        metaAction.setMetrics(metrics);
+        metaAction.setMetricsEndpointId("meta");
+        metaAction.initialize();
+        ActionTestingSupport.assertProceedEvent(metaAction.execute((RequestContext) null));
+        final int bytes = httpResponse.getContentAsByteArray().length;
+        httpResponse = new MockHttpServletResponse();
+        httpRequest.setMethod(HttpMethod.POST.toString());
+        ActionTestingSupport.assertProceedEvent(metaAction.execute((RequestContext) null));
+        final int errorBytes = httpResponse.getContentAsByteArray().length;
+
+        httpResponse = new MockHttpServletResponse();
+        httpRequest.setMethod(HttpMethod.GET.toString());
+        final BuildMetricsRestResponse action = initAction(new BuildMetricsRestResponse());
+        action.setPublishedMetrics(metrics);
+        action.initialize();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        final JsonObject json = new Gson().fromJson(httpResponse.getContentAsString(), JsonObject.class);
+        Assert.assertEquals(json.get("since").getAsString(), metrics.getStartInstant().toString());
+        Assert.assertEquals(json.getAsJsonArray("endpoints").size(), 1);
+        final JsonObject endpoint = json.getAsJsonArray("endpoints").get(0).getAsJsonObject();
+        Assert.assertEquals(endpoint.get("id").getAsString(), "meta");
+        Assert.assertEquals(endpoint.getAsJsonObject("requests").get("200").getAsLong(), 1);
+        Assert.assertEquals(endpoint.getAsJsonObject("requests").get("405").getAsLong(), 1);
+        Assert.assertEquals(endpoint.getAsJsonObject("requests").get("other").getAsLong(), 0);
+        Assert.assertEquals(endpoint.get("bytesWritten").getAsLong(), bytes + errorBytes);
+        final JsonObject latency = endpoint.getAsJsonObject("latency").getAsJsonObject(EndpointMetrics.NO_LOCALE);
+        Assert.assertEquals(latency.get("count").getAsLong(), 2);
+        Assert.assertTrue(latency.get("max").getAsLong() >= latency.get("p50").getAsLong());
+    }
+
+    /**
+     * Wires the mock HTTP request and response to the given action.
+     * @param <T> The type of the action.
+     * @param action The action.
+     * @return The action.
+     */
+    protected <T extends AbstractRestResponseAction> T initAction(final T action) {
+        action.setHttpServletRequestSupplier(new NonnullSupplier<HttpServletRequest>() {
+
+            @Override
+            public MockHttpServletRequest get() {
+                return httpRequest;
+            }
+
+        });
+        action.setHttpServletResponseSupplier(new NonnullSupplier<HttpServletResponse>() {
+
+            @Override
+            public MockHttpServletResponse get() {
+                return httpResponse;
+            }
+
+        });
+        return action;
+    }
+}
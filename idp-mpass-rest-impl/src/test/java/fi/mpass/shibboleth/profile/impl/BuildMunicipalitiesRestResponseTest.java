@@ -0,0 +1,226 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.apache.http.HttpStatus;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import fi.mpass.shibboleth.rest.data.ErrorDTO;
+import net.shibboleth.idp.profile.testing.ActionTestingSupport;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.primitive.NonnullSupplier;
+
+/**
+ * Unit tests for {@link BuildMunicipalitiesRestResponse}.
+ */
+public class BuildMunicipalitiesRestResponseTest {
+
+    /** The catalog of the municipalities. */
+    private MunicipalityCatalog catalog;
+
+    /** The HTTP request used by the action. */
+    private MockHttpServletRequest httpRequest;
+
+    /** The HTTP response used by the action. */
+    private MockHttpServletResponse httpResponse;
+
+    /**
+     * Initialize test variables.
+     * @throws ComponentInitializationException
+     */
+    @BeforeMethod
+    public void initTests() throws ComponentInitializationException {
+        catalog = new MunicipalityCatalog();
+        catalog.setId("mockId");
+        catalog.setSupportedLocales(Arrays.asList("fi", "sv"));
+        catalog.setResource(new ByteArrayResource(MunicipalityCatalogTest.DATASET.getBytes(StandardCharsets.UTF_8)));
+        catalog.initialize();
+        httpRequest = new MockHttpServletRequest();
+        httpRequest.setMethod(HttpMethod.GET.toString());
+        httpResponse = new MockHttpServletResponse();
+    }
+
+    /**
+     * Tests initialization without the catalog.
+     * @throws ComponentInitializationException
+     */
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoCatalog() throws ComponentInitializationException {
+        new BuildMunicipalitiesRestResponse().initialize();
+    }
+
+    /**
+     * Runs action with unsupported HTTP method.
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidMethod() throws Exception {
+        httpRequest.setMethod(HttpMethod.POST.toString());
+        verifyErrorDTO(initAction(), HttpStatus.SC_METHOD_NOT_ALLOWED);
+    }
+
+    /**
+     * Runs action with unsupported language.
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidLanguage() throws Exception {
+        httpRequest.setParameter("lang", "xx");
+        verifyErrorDTO(initAction(), HttpStatus.SC_BAD_REQUEST);
+    }
+
+    /**
+     * Runs action with unsupported status.
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidStatus() throws Exception {
+        httpRequest.setParameter(BuildMunicipalitiesRestResponse.STATUS_PARAMETER, "production,unknown");
+        verifyErrorDTO(initAction(), HttpStatus.SC_BAD_REQUEST);
+    }
+
+    /**
+     * Runs action with the default language and the second language filtered by the status.
+     * @throws Exception
+     */
+    @Test
+    public void testSuccess() throws Exception {
+        final BuildMunicipalitiesRestResponse action = initAction();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        JsonObject response = decode();
+        Assert.assertEquals(response.get("lang").getAsString(), "FI");
+        Assert.assertEquals(response.getAsJsonArray("response").size(), 5);
+        Assert.assertNotNull(httpResponse.getHeader(HttpHeaders.ETAG));
+
+        httpRequest.setParameter("lang", "sv");
+        httpRequest.setParameter(BuildMunicipalitiesRestResponse.STATUS_PARAMETER, "production");
+        httpResponse = new MockHttpServletResponse();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        response = decode();
+        Assert.assertEquals(response.get("lang").getAsString(), "SV");
+        final JsonArray municipalities = response.getAsJsonArray("response");
+        Assert.assertEquals(municipalities.size(), 2);
+        Assert.assertEquals(municipalities.get(0).getAsJsonObject().get("name").getAsString(), "Helsingfors");
+        Assert.assertEquals(municipalities.get(1).getAsJsonObject().get("status").getAsString(), "production");
+    }
+
+    /**
+     * Runs action with the pagination parameters.
+     * @throws Exception
+     */
+    @Test
+    public void testPagination() throws Exception {
+        httpRequest.setRequestURI("/idp/profile/api/municipalities");
+        httpRequest.setParameter(BuildMunicipalitiesRestResponse.STATUS_PARAMETER, "production,test,design");
+        httpRequest.setParameter(RestResponseWriter.OFFSET_PARAMETER, "1");
+        httpRequest.setParameter(RestResponseWriter.LIMIT_PARAMETER, "2");
+        final BuildMunicipalitiesRestResponse action = initAction();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        Assert.assertEquals(httpResponse.getHeader(RestResponseWriter.TOTAL_COUNT_HEADER), "4");
+        final String links = httpResponse.getHeader(HttpHeaders.LINK);
+        Assert.assertTrue(links.contains("status=production%2Ctest%2Cdesign&offset=3&limit=2>; rel=\"next\""),
+                links);
+        final JsonArray page = decode().getAsJsonArray("response");
+        Assert.assertEquals(page.size(), 2);
+        Assert.assertEquals(page.get(0).getAsJsonObject().get("id").getAsString(), "091");
+        Assert.assertEquals(page.get(1).getAsJsonObject().get("id").getAsString(), "092");
+
+        httpRequest.setParameter(RestResponseWriter.LIMIT_PARAMETER, "0");
+        httpResponse = new MockHttpServletResponse();
+        verifyErrorDTO(action, HttpStatus.SC_BAD_REQUEST);
+    }
+
+    /**
+     * Initializes the action to be tested.
+     * @return The action.
+     * @throws ComponentInitializationException
+     */
+    protected BuildMunicipalitiesRestResponse initAction() throws ComponentInitializationException {
+        final BuildMunicipalitiesRestResponse action = new BuildMunicipalitiesRestResponse();
+        action.setCatalog(catalog);
+        action.setHttpServletRequestSupplier(new NonnullSupplier<HttpServletRequest>() {
+
+            @Override
+            public MockHttpServletRequest get() {
+                return httpRequest;
+            }
+
+        });
+        action.setHttpServletResponseSupplier(new NonnullSupplier<HttpServletResponse>() {
+
+            @Override
+            public MockHttpServletResponse get() {
+                return httpResponse;
+            }
+
+        });
+        action.initialize();
+        return action;
+    }
+
+    /**
+     * Decodes the response body.
+     * @return The decoded JSON object.
+     * @throws UnsupportedEncodingException
+     */
+    protected JsonObject decode() throws UnsupportedEncodingException {
+        return new Gson().fromJson(httpResponse.getContentAsString(), JsonObject.class);
+    }
+
+    /**
+     * Verifies the {@link ErrorDTO} contents produced by the action.
+     * @param action The action to run.
+     * @param code The expected status code.
+     * @throws UnsupportedEncodingException
+     */
+    protected void verifyErrorDTO(final BuildMunicipalitiesRestResponse action, final int code)
+            throws UnsupportedEncodingException {
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), code);
+        final ErrorDTO errorDTO = new Gson().fromJson(httpResponse.getContentAsString(), ErrorDTO.class);
+        Assert.assertNotNull(errorDTO);
+        Assert.assertEquals(errorDTO.getCode(), code);
+    }
+}
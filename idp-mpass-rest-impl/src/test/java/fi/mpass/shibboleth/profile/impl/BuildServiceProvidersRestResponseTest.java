@@ -0,0 +1,202 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.apache.http.HttpStatus;
+import org.mockito.Mockito;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.metadata.IterableMetadataSource;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import fi.mpass.shibboleth.rest.data.ErrorDTO;
+import net.shibboleth.idp.profile.testing.ActionTestingSupport;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.primitive.NonnullSupplier;
+
+/**
+ * Unit tests for {@link BuildServiceProvidersRestResponse}.
+ */
+public class BuildServiceProvidersRestResponseTest {
+
+    /** The catalog of the service providers. */
+    private ServiceProviderCatalog catalog;
+
+    /** The HTTP request used by the action. */
+    private MockHttpServletRequest httpRequest;
+
+    /** The HTTP response used by the action. */
+    private MockHttpServletResponse httpResponse;
+
+    /**
+     * Initialize test variables.
+     * @throws ComponentInitializationException
+     */
+    @BeforeMethod
+    public void initTests() throws ComponentInitializationException {
+        final List<EntityDescriptor> entities = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final EntityDescriptor entity = Mockito.mock(EntityDescriptor.class);
+            Mockito.when(entity.getEntityID()).thenReturn("https://sp" + i + ".example.org/sp");
+            Mockito.when(entity.getSPSSODescriptor(SAMLConstants.SAML20P_NS))
+                .thenReturn(Mockito.mock(SPSSODescriptor.class));
+            entities.add(entity);
+        }
+        final IterableMetadataSource metadataSource = Mockito.mock(IterableMetadataSource.class);
+        Mockito.when(metadataSource.iterator()).thenAnswer(invocation -> entities.iterator());
+        catalog = new ServiceProviderCatalog();
+        catalog.setId("mockId");
+        catalog.setSupportedLocales(Arrays.asList("fi", "sv"));
+        catalog.setMetadataSource(metadataSource);
+        catalog.initialize();
+        httpRequest = new MockHttpServletRequest();
+        httpRequest.setMethod(HttpMethod.GET.toString());
+        httpResponse = new MockHttpServletResponse();
+    }
+
+    /**
+     * Tests initialization without the catalog.
+     * @throws ComponentInitializationException
+     */
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoCatalog() throws ComponentInitializationException {
+        new BuildServiceProvidersRestResponse().initialize();
+    }
+
+    /**
+     * Runs action with unsupported HTTP method.
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidMethod() throws Exception {
+        httpRequest.setMethod(HttpMethod.POST.toString());
+        verifyErrorDTO(initAction(), HttpStatus.SC_METHOD_NOT_ALLOWED);
+    }
+
+    /**
+     * Runs action with unsupported language.
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidLanguage() throws Exception {
+        httpRequest.setParameter("lang", "xx");
+        verifyErrorDTO(initAction(), HttpStatus.SC_BAD_REQUEST);
+    }
+
+    /**
+     * Runs action with the default and the second language, and with the pagination parameters.
+     * @throws Exception
+     */
+    @Test
+    public void testSuccess() throws Exception {
+        final BuildServiceProvidersRestResponse action = initAction();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        JsonObject response = decode();
+        Assert.assertEquals(response.get("lang").getAsString(), "FI");
+        Assert.assertEquals(response.getAsJsonArray("response").size(), 3);
+
+        httpRequest.setParameter("lang", "sv");
+        httpRequest.setParameter(RestResponseWriter.OFFSET_PARAMETER, "2");
+        httpResponse = new MockHttpServletResponse();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getHeader(RestResponseWriter.TOTAL_COUNT_HEADER), "3");
+        response = decode();
+        Assert.assertEquals(response.get("lang").getAsString(), "SV");
+        final JsonArray page = response.getAsJsonArray("response");
+        Assert.assertEquals(page.size(), 1);
+        Assert.assertEquals(page.get(0).getAsJsonObject().get("id").getAsString(), "https://sp2.example.org/sp");
+    }
+
+    /**
+     * Initializes the action to be tested.
+     * @return The action.
+     * @throws ComponentInitializationException
+     */
+    protected BuildServiceProvidersRestResponse initAction() throws ComponentInitializationException {
+        final BuildServiceProvidersRestResponse action = new BuildServiceProvidersRestResponse();
+        action.setCatalog(catalog);
+        action.setHttpServletRequestSupplier(new NonnullSupplier<HttpServletRequest>() {
+
+            @Override
+            public MockHttpServletRequest get() {
+                return httpRequest;
+            }
+
+        });
+        action.setHttpServletResponseSupplier(new NonnullSupplier<HttpServletResponse>() {
+
+            @Override
+            public MockHttpServletResponse get() {
+                return httpResponse;
+            }
+
+        });
+        action.initialize();
+        return action;
+    }
+
+    /**
+     * Decodes the response body.
+     * @return The decoded JSON object.
+     * @throws UnsupportedEncodingException
+     */
+    protected JsonObject decode() throws UnsupportedEncodingException {
+        return new Gson().fromJson(httpResponse.getContentAsString(), JsonObject.class);
+    }
+
+    /**
+     * Verifies the {@link ErrorDTO} contents produced by the action.
+     * @param action The action to run.
+     * @param code The expected status code.
+     * @throws UnsupportedEncodingException
+     */
+    protected void verifyErrorDTO(final BuildServiceProvidersRestResponse action, final int code)
+            throws UnsupportedEncodingException {
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), code);
+        final ErrorDTO errorDTO = new Gson().fromJson(httpResponse.getContentAsString(), ErrorDTO.class);
+        Assert.assertNotNull(errorDTO);
+        Assert.assertEquals(errorDTO.getCode(), code);
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.io.UnsupportedEncodingException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.apache.http.HttpStatus;
+import org.mockito.Mockito;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.ext.saml2mdui.Description;
+import org.opensaml.saml.ext.saml2mdui.DisplayName;
+import org.opensaml.saml.ext.saml2mdui.InformationURL;
+import org.opensaml.saml.ext.saml2mdui.Logo;
+import org.opensaml.saml.ext.saml2mdui.UIInfo;
+import org.opensaml.saml.metadata.IterableMetadataSource;
+import org.opensaml.saml.metadata.resolver.RefreshableMetadataResolver;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.Extensions;
+import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.webflow.execution.RequestContext;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import fi.mpass.shibboleth.rest.data.ErrorDTO;
+import net.shibboleth.idp.profile.testing.ActionTestingSupport;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.primitive.NonnullSupplier;
+
+/**
+ * Unit tests for {@link BuildServicesRestResponse}.
+ */
+public class BuildServicesRestResponseTest {
+
+    /** The entities in the metadata. */
+    private List<EntityDescriptor> entities;
+
+    /** The HTTP request used by the action. */
+    private MockHttpServletRequest httpRequest;
+
+    /** The HTTP response used by the action. */
+    private MockHttpServletResponse httpResponse;
+
+    /**
+     * Initialize test variables.
+     */
+    @BeforeMethod
+    public void initTests() {
+        entities = new ArrayList<>();
+        entities.add(initEntity("https://sp.example.org/sp", initUIInfo()));
+        entities.add(initEntity("https://sp2.example.org/sp", null));
+        final EntityDescriptor idp = Mockito.mock(EntityDescriptor.class);
+        Mockito.when(idp.getEntityID()).thenReturn("https://idp.example.org/idp");
+        entities.add(idp);
+        httpRequest = new MockHttpServletRequest();
+        httpRequest.setMethod(HttpMethod.GET.toString());
+        httpResponse = new MockHttpServletResponse();
+    }
+
+    /**
+     * Tests initialization without the metadata source.
+     * @throws ComponentInitializationException
+     */
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoMetadataSource() throws ComponentInitializationException {
+        final BuildServicesRestResponse action = new BuildServicesRestResponse();
+        action.setSupportedLocales(Arrays.asList("fi"));
+        action.initialize();
+    }
+
+    /**
+     * Runs action with unsupported HTTP method.
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidMethod() throws Exception {
+        httpRequest.setMethod(HttpMethod.POST.toString());
+        verifyErrorDTO(initAction(), HttpStatus.SC_METHOD_NOT_ALLOWED);
+    }
+
+    /**
+     * Runs action with unsupported language.
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidLanguage() throws Exception {
+        httpRequest.setParameter("lang", "xx");
+        verifyErrorDTO(initAction(), HttpStatus.SC_BAD_REQUEST);
+    }
+
+    /**
+     * Runs action with the default and the second language.
+     * @throws Exception
+     */
+    @Test
+    public void testSuccess() throws Exception {
+        final BuildServicesRestResponse action = initAction();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        JsonObject response = decode();
+        Assert.assertEquals(response.get("lang").getAsString(), "FI");
+        final JsonArray services = response.getAsJsonArray("response");
+        Assert.assertEquals(services.size(), 2);
+        final JsonObject service = services.get(0).getAsJsonObject();
+        Assert.assertEquals(service.get("id").getAsString(), "https://sp.example.org/sp");
+        Assert.assertEquals(service.get("title").getAsString(), "Palvelu");
+        Assert.assertEquals(service.get("description").getAsString(), "Kuvaus");
+        Assert.assertEquals(service.get("iconUrl").getAsString(), "https://sp.example.org/logo.png");
+        Assert.assertEquals(service.get("serviceUrl").getAsString(), "https://sp.example.org/fi");
+        Assert.assertEquals(service.get("ssoUrl").getAsString(),
+                "https://idp.example.org/idp/profile/SAML2/Unsolicited/SSO"
+                + "?providerId=https%3A%2F%2Fsp.example.org%2Fsp");
+        final JsonObject plain = services.get(1).getAsJsonObject();
+        Assert.assertEquals(plain.get("title").getAsString(), "https://sp2.example.org/sp");
+        Assert.assertNull(plain.get("description"));
+
+        httpRequest.setParameter("lang", "sv");
+        httpResponse = new MockHttpServletResponse();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        response = decode();
+        Assert.assertEquals(response.get("lang").getAsString(), "SV");
+        final JsonObject swedish = response.getAsJsonArray("response").get(0).getAsJsonObject();
+        Assert.assertEquals(swedish.get("title").getAsString(), "Tjänst");
+        Assert.assertEquals(swedish.get("description").getAsString(), "Kuvaus");
+        Assert.assertEquals(swedish.get("serviceUrl").getAsString(), "https://sp.example.org/sv");
+    }
+
+    /**
+     * Runs action with metadata larger than the streamed chunks.
+     * @throws Exception
+     */
+    @Test
+    public void testLargeMetadata() throws Exception {
+        entities.clear();
+        for (int i = 0; i < 2000; i++) {
+            entities.add(initEntity("https://sp" + i + ".example.org/sp", null));
+        }
+        ActionTestingSupport.assertProceedEvent(initAction().execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        final JsonArray services = decode().getAsJsonArray("response");
+        Assert.assertEquals(services.size(), 2000);
+        Assert.assertEquals(services.get(1999).getAsJsonObject().get("id").getAsString(),
+                "https://sp1999.example.org/sp");
+    }
+
+    /**
+     * Runs action with a page of the services, skipping the entities that are not services.
+     * @throws Exception
+     */
+    @Test
+    public void testPage() throws Exception {
+        entities.add(0, entities.remove(2));
+        entities.add(initEntity("https://sp3.example.org/sp", null));
+        httpRequest.setRequestURI("/idp/profile/api/services");
+        httpRequest.setParameter("offset", "1");
+        httpRequest.setParameter("limit", "1");
+        ActionTestingSupport.assertProceedEvent(initAction().execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        Assert.assertEquals(httpResponse.getHeader(RestResponseWriter.TOTAL_COUNT_HEADER), "3");
+        Assert.assertTrue(httpResponse.getHeader(HttpHeaders.LINK).contains("offset=2&limit=1>; rel=\"next\""));
+        final JsonArray services = decode().getAsJsonArray("response");
+        Assert.assertEquals(services.size(), 1);
+        Assert.assertEquals(services.get(0).getAsJsonObject().get("id").getAsString(),
+                "https://sp2.example.org/sp");
+    }
+
+    /**
+     * Runs action with an invalid page.
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidPage() throws Exception {
+        httpRequest.setParameter("limit", "0");
+        verifyErrorDTO(initAction(), HttpStatus.SC_BAD_REQUEST);
+    }
+
+    /**
+     * Runs action with a refreshable metadata source, revalidating the response.
+     * @throws Exception
+     */
+    @Test
+    public void testNotModified() throws Exception {
+        final IterableMetadataSource metadataSource = Mockito.mock(IterableMetadataSource.class,
+                Mockito.withSettings().extraInterfaces(RefreshableMetadataResolver.class));
+        Mockito.when(metadataSource.iterator()).thenAnswer(invocation -> entities.iterator());
+        Mockito.when(((RefreshableMetadataResolver) metadataSource).getLastUpdate())
+            .thenReturn(Instant.ofEpochSecond(1700000000));
+        final BuildServicesRestResponse action = initAction(metadataSource);
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        final String etag = httpResponse.getHeader(HttpHeaders.ETAG);
+        Assert.assertNotNull(etag);
+        Assert.assertEquals(httpResponse.getDateHeader(HttpHeaders.LAST_MODIFIED), 1700000000000L);
+
+        httpRequest.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        httpResponse = new MockHttpServletResponse();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_NOT_MODIFIED);
+        Assert.assertEquals(httpResponse.getContentAsByteArray().length, 0);
+
+        httpRequest.setParameter("lang", "sv");
+        httpResponse = new MockHttpServletResponse();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        Assert.assertNotEquals(httpResponse.getHeader(HttpHeaders.ETAG), etag);
+    }
+
+    /**
+     * Runs action for pages of a refreshable metadata source, counting the services once per update.
+     * @throws Exception
+     */
+    @Test
+    public void testPageCountCached() throws Exception {
+        final IterableMetadataSource metadataSource = Mockito.mock(IterableMetadataSource.class,
+                Mockito.withSettings().extraInterfaces(RefreshableMetadataResolver.class));
+        Mockito.when(metadataSource.iterator()).thenAnswer(invocation -> entities.iterator());
+        Mockito.when(((RefreshableMetadataResolver) metadataSource).getLastUpdate())
+            .thenReturn(Instant.ofEpochSecond(1700000000));
+        final BuildServicesRestResponse action = initAction(metadataSource);
+        httpRequest.setParameter("offset", "0");
+        httpRequest.setParameter("limit", "1");
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getHeader(RestResponseWriter.TOTAL_COUNT_HEADER), "2");
+        Mockito.verify(metadataSource, Mockito.times(2)).iterator();
+
+        entities.add(initEntity("https://sp3.example.org/sp", null));
+        httpRequest.setParameter("offset", "1");
+        httpResponse = new MockHttpServletResponse();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getHeader(RestResponseWriter.TOTAL_COUNT_HEADER), "2");
+        Mockito.verify(metadataSource, Mockito.times(3)).iterator();
+
+        Mockito.when(((RefreshableMetadataResolver) metadataSource).getLastUpdate())
+            .thenReturn(Instant.ofEpochSecond(1700000060));
+        httpResponse = new MockHttpServletResponse();
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getHeader(RestResponseWriter.TOTAL_COUNT_HEADER), "3");
+        Mockito.verify(metadataSource, Mockito.times(5)).iterator();
+    }
+
+    /**
+     * Initializes the action to be tested.
+     * @return The action.
+     * @throws ComponentInitializationException
+     */
+    protected BuildServicesRestResponse initAction() throws ComponentInitializationException {
+        final IterableMetadataSource metadataSource = Mockito.mock(IterableMetadataSource.class);
+        Mockito.when(metadataSource.iterator()).thenAnswer(invocation -> entities.iterator());
+        return initAction(metadataSource);
+    }
+
+    /**
+     * Initializes the action to be tested with the given metadata source.
+     * @param metadataSource The metadata source.
+     * @return The action.
+     * @throws ComponentInitializationException
+     */
+    protected BuildServicesRestResponse initAction(final IterableMetadataSource metadataSource)
+            throws ComponentInitializationException {
+        final BuildServicesRestResponse action = new BuildServicesRestResponse();
+        action.setMetadataSource(metadataSource);
+        action.setSupportedLocales(Arrays.asList("fi", "sv"));
+        action.setUnsolicitedSsoUrl("https://idp.example.org/idp/profile/SAML2/Unsolicited/SSO");
+        action.setHttpServletRequestSupplier(new NonnullSupplier<HttpServletRequest>() {
+
+            @Override
+            public MockHttpServletRequest get() {
+                return httpRequest;
+            }
+
+        });
+        action.setHttpServletResponseSupplier(new NonnullSupplier<HttpServletResponse>() {
+
+            @Override
+            public MockHttpServletResponse get() {
+                return httpResponse;
+            }
+
+        });
+        action.initialize();
+        return action;
+    }
+
+    /**
+     * Initializes an SP entity with the given UIInfo.
+     * @param entityId The entity ID.
+     * @param uiInfo The UIInfo extension, may be null.
+     * @return The entity descriptor.
+     */
+    protected EntityDescriptor initEntity(final String entityId, final UIInfo uiInfo) {
+        final EntityDescriptor entity = Mockito.mock(EntityDescriptor.class);
+        Mockito.when(entity.getEntityID()).thenReturn(entityId);
+        final SPSSODescriptor spDescriptor = Mockito.mock(SPSSODescriptor.class);
+        Mockito.when(entity.getSPSSODescriptor(SAMLConstants.SAML20P_NS)).thenReturn(spDescriptor);
+        if (uiInfo != null) {
+            final Extensions extensions = Mockito.mock(Extensions.class);
+            Mockito.when(extensions.getUnknownXMLObjects(UIInfo.DEFAULT_ELEMENT_NAME))
+                .thenReturn(Collections.<XMLObject>singletonList(uiInfo));
+            Mockito.when(spDescriptor.getExtensions()).thenReturn(extensions);
+        }
+        return entity;
+    }
+
+    /**
+     * Initializes a UIInfo with Finnish and Swedish names, a description without a language and a logo only in
+     * English.
+     * @return The UIInfo.
+     */
+    protected UIInfo initUIInfo() {
+        final UIInfo uiInfo = Mockito.mock(UIInfo.class);
+        final DisplayName finnish = Mockito.mock(DisplayName.class);
+        Mockito.when(finnish.getXMLLang()).thenReturn("fi");
+        Mockito.when(finnish.getValue()).thenReturn("Palvelu");
+        final DisplayName swedish = Mockito.mock(DisplayName.class);
+        Mockito.when(swedish.getXMLLang()).thenReturn("sv");
+        Mockito.when(swedish.getValue()).thenReturn("Tjänst");
+        Mockito.when(uiInfo.getDisplayNames()).thenReturn(Arrays.asList(finnish, swedish));
+        final Description description = Mockito.mock(Description.class);
+        Mockito.when(description.getValue()).thenReturn("Kuvaus");
+        Mockito.when(uiInfo.getDescriptions()).thenReturn(Collections.singletonList(description));
+        final Logo logo = Mockito.mock(Logo.class);
+        Mockito.when(logo.getXMLLang()).thenReturn("en");
+        Mockito.when(logo.getURI()).thenReturn("https://sp.example.org/logo.png");
+        Mockito.when(uiInfo.getLogos()).thenReturn(Collections.singletonList(logo));
+        final InformationURL finnishUrl = Mockito.mock(InformationURL.class);
+        Mockito.when(finnishUrl.getXMLLang()).thenReturn("fi");
+        Mockito.when(finnishUrl.getURI()).thenReturn("https://sp.example.org/fi");
+        final InformationURL swedishUrl = Mockito.mock(InformationURL.class);
+        Mockito.when(swedishUrl.getXMLLang()).thenReturn("sv");
+        Mockito.when(swedishUrl.getURI()).thenReturn("https://sp.example.org/sv");
+        Mockito.when(uiInfo.getInformationURLs()).thenReturn(Arrays.asList(finnishUrl, swedishUrl));
+        return uiInfo;
+    }
+
+    /**
+     * Decodes the response body.
+     * @return The decoded JSON object.
+     * @throws UnsupportedEncodingException
+     */
+    protected JsonObject decode() throws UnsupportedEncodingException {
+        return new Gson().fromJson(httpResponse.getContentAsString(), JsonObject.class);
+    }
+
+    /**
+     * Verifies the {@link ErrorDTO} contents produced by the action.
+     * @param action The action to run.
+     * @param code The expected status code.
+     * @throws UnsupportedEncodingException
+     */
+    protected void verifyErrorDTO(final BuildServicesRestResponse action, final int code)
+            throws UnsupportedEncodingException {
+        ActionTestingSupport.assertProceedEvent(action.execute((RequestContext) null));
+        Assert.assertEquals(httpResponse.getStatus(), code);
+        final ErrorDTO errorDTO = new Gson().fromJson(httpResponse.getContentAsString(), ErrorDTO.class);
+        Assert.assertNotNull(errorDTO);
+        Assert.assertEquals(errorDTO.getCode(), code);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+
+import org.apache.http.HttpStatus;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import net.shibboleth.shared.logic.ConstraintViolationException;
+
+/**
+ * Unit tests for {@link CachePolicy}.
+ */
+public class CachePolicyTest {
+
+    /**
+     * Tests the Cache-Control header values.
+     */
+    @Test
+    public void testCacheControl() {
+        Assert.assertEquals(new CachePolicy(true, Duration.ZERO, Duration.ZERO, Duration.ZERO).getCacheControl(),
+                "public, no-cache");
+        Assert.assertEquals(new CachePolicy(true, Duration.ofMinutes(5), Duration.ofHours(1), Duration.ofMinutes(1))
+                .getCacheControl(), "public, max-age=300, s-maxage=3600, stale-while-revalidate=60");
+        Assert.assertEquals(new CachePolicy(false, Duration.ofMinutes(5), Duration.ofHours(1), Duration.ZERO)
+                .getCacheControl(), "private, max-age=300");
+    }
+
+    /**
+     * Tests that a negative duration is rejected.
+     */
+    @Test(expectedExceptions = ConstraintViolationException.class)
+    public void testNegative() {
+        new CachePolicy(true, Duration.ofMinutes(-1), Duration.ZERO, Duration.ZERO);
+    }
+
+    /**
+     * Tests the headers of the validated and the error responses with and without a policy.
+     * @throws Exception
+     */
+    @Test
+    public void testResponses() throws Exception {
+        final CachePolicy policy = new CachePolicy(true, Duration.ofMinutes(5), Duration.ZERO, Duration.ZERO);
+        final RestResponseWriter writer = new RestResponseWriter(
+                new ResponseHeaders(Collections.singletonMap("X-Test", "test"), policy, null), null, "test", null);
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest(HttpMethod.GET.name(), "/");
+        MockHttpServletResponse httpResponse = new MockHttpServletResponse();
+        writer.pushHttpResponseProperties(httpRequest, httpResponse);
+        writer.writeResponse(httpRequest, httpResponse,
+                new EncodedResponse("{}".getBytes(StandardCharsets.UTF_8), Instant.now()));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_OK);
+        Assert.assertEquals(httpResponse.getHeader(HttpHeaders.CACHE_CONTROL), policy.getCacheControl());
+        Assert.assertNull(httpResponse.getHeader(HttpHeaders.PRAGMA));
+        Assert.assertEquals(httpResponse.getHeader("X-Test"), "test");
+
+        httpResponse = new MockHttpServletResponse();
+        writer.pushHttpResponseProperties(httpRequest, httpResponse);
+        writer.writeResponse(httpRequest, httpResponse,
+                writer.makeErrorResponse(httpResponse, HttpStatus.SC_BAD_REQUEST, "Invalid", ""));
+        Assert.assertEquals(httpResponse.getHeader(HttpHeaders.CACHE_CONTROL), "no-store");
+
+        final RestResponseWriter defaultWriter = new RestResponseWriter(null, null, "test");
+        httpResponse = new MockHttpServletResponse();
+        defaultWriter.pushHttpResponseProperties(httpRequest, httpResponse);
+        Assert.assertEquals(httpResponse.getHeader(HttpHeaders.PRAGMA), "no-cache");
+        defaultWriter.writeResponse(httpRequest, httpResponse,
+                new EncodedResponse("{}".getBytes(StandardCharsets.UTF_8), Instant.now()));
+        Assert.assertEquals(httpResponse.getHeader(HttpHeaders.CACHE_CONTROL), "no-cache");
+    }
+}
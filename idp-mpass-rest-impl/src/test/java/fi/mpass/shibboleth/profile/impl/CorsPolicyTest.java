@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.http.HttpStatus;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link CorsPolicy}.
+ */
+public class CorsPolicyTest {
+
+    /** The allowed origin. */
+    private static final String ORIGIN = "https://disco.example.org";
+
+    /**
+     * Tests an allowed preflight.
+     */
+    @Test
+    public void testPreflight() {
+        final CorsPolicy policy = new CorsPolicy(Arrays.asList(" " + ORIGIN, "https://other.example.org"),
+                Arrays.asList("get", "HEAD"), Collections.singletonList("If-None-Match"), Duration.ofMinutes(10));
+        final MockHttpServletResponse httpResponse = new MockHttpServletResponse();
+        Assert.assertTrue(policy.writeOptions(initPreflight(ORIGIN, "GET"), httpResponse));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_NO_CONTENT);
+        Assert.assertEquals(httpResponse.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN), ORIGIN);
+        Assert.assertEquals(httpResponse.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS), "GET, HEAD");
+        Assert.assertEquals(httpResponse.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS), "If-None-Match");
+        Assert.assertEquals(httpResponse.getHeader(HttpHeaders.ACCESS_CONTROL_MAX_AGE), "600");
+        Assert.assertEquals(httpResponse.getHeader(HttpHeaders.VARY), HttpHeaders.ORIGIN);
+        Assert.assertNull(httpResponse.getContentType());
+        Assert.assertEquals(httpResponse.getContentLength(), 0);
+    }
+
+    /**
+     * Tests the preflights from a disallowed origin and for a disallowed method.
+     */
+    @Test
+    public void testRejectedPreflight() {
+        final CorsPolicy policy = new CorsPolicy(Collections.singletonList(ORIGIN),
+                Collections.singletonList("GET"), null, Duration.ofHours(1));
+        MockHttpServletResponse httpResponse = new MockHttpServletResponse();
+        Assert.assertFalse(policy.writeOptions(initPreflight("https://evil.example.org", "GET"), httpResponse));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_FORBIDDEN);
+        Assert.assertNull(httpResponse.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        Assert.assertEquals(httpResponse.getHeader(HttpHeaders.VARY), HttpHeaders.ORIGIN);
+        httpResponse = new MockHttpServletResponse();
+        Assert.assertFalse(policy.writeOptions(initPreflight(ORIGIN, "DELETE"), httpResponse));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_FORBIDDEN);
+        Assert.assertFalse(new CorsPolicy(null, Collections.singletonList("GET"), null, Duration.ZERO)
+                .writeOptions(initPreflight(ORIGIN, "GET"), new MockHttpServletResponse()));
+    }
+
+    /**
+     * Tests the OPTIONS requests other than preflights.
+     */
+    @Test
+    public void testOptions() {
+        final CorsPolicy policy = new CorsPolicy(Collections.singletonList(CorsPolicy.ANY_ORIGIN),
+                Collections.singletonList("GET"), null, Duration.ofHours(1));
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest(HttpMethod.OPTIONS.name(), "/");
+        httpRequest.addHeader(HttpHeaders.ORIGIN, ORIGIN);
+        Assert.assertFalse(CorsPolicy.isPreflight(httpRequest));
+        final MockHttpServletResponse httpResponse = new MockHttpServletResponse();
+        Assert.assertTrue(policy.writeOptions(httpRequest, httpResponse));
+        Assert.assertEquals(httpResponse.getStatus(), HttpStatus.SC_NO_CONTENT);
+        Assert.assertEquals(httpResponse.getHeader(HttpHeaders.ALLOW), "GET, OPTIONS");
+        Assert.assertNull(httpResponse.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+    }
+
+    /**
+     * Tests the headers of the actual responses.
+     */
+    @Test
+    public void testActualResponse() {
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest(HttpMethod.GET.name(), "/");
+        MockHttpServletResponse httpResponse = new MockHttpServletResponse();
+        new CorsPolicy(Collections.singletonList(CorsPolicy.ANY_ORIGIN), Collections.singletonList("GET"), null,
+                Duration.ofHours(1)).applyTo(httpRequest, httpResponse);
+        Assert.assertEquals(httpResponse.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN), CorsPolicy.ANY_ORIGIN);
+        Assert.assertNotNull(httpResponse.getHeader(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS));
+        Assert.assertNull(httpResponse.getHeader(HttpHeaders.VARY));
+
+        final CorsPolicy policy = new CorsPolicy(Collections.singletonList(ORIGIN),
+                Collections.singletonList("GET"), null, Duration.ofHours(1));
+        httpResponse = new MockHttpServletResponse();
+        policy.applyTo(httpRequest, httpResponse);
+        Assert.assertNull(httpResponse.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        Assert.assertEquals(httpResponse.getHeader(HttpHeaders.VARY), HttpHeaders.ORIGIN);
+        httpRequest.addHeader(HttpHeaders.ORIGIN, ORIGIN);
+        httpResponse = new MockHttpServletResponse();
+        policy.applyTo(httpRequest, httpResponse);
+        Assert.assertEquals(httpResponse.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN), ORIGIN);
+    }
+
+    /**
+     * Tests that the Vary header set by the policy is retained by the {@link RestResponseWriter}.
+     * @throws Exception
+     */
+    @Test
+    public void testVaryRetained() throws Exception {
+        final RestResponseWriter writer = new RestResponseWriter(new ResponseHeaders(null, null,
+                new CorsPolicy(Collections.singletonList(ORIGIN), Collections.singletonList("GET"), null,
+                        Duration.ofHours(1))), null, "test", null);
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest(HttpMethod.GET.name(), "/");
+        httpRequest.addHeader(HttpHeaders.ORIGIN, ORIGIN);
+        final MockHttpServletResponse httpResponse = new MockHttpServletResponse();
+        writer.pushHttpResponseProperties(httpRequest, httpResponse);
+        writer.setContentLanguage(httpResponse, "fi");
+        writer.writeResponse(httpRequest, httpResponse,
+                new EncodedResponse("{}".getBytes(StandardCharsets.UTF_8), Instant.now()));
+        Assert.assertEquals(httpResponse.getHeader(HttpHeaders.VARY),
+                "Origin, Accept-Encoding, Accept-Language");
+        Assert.assertEquals(httpResponse.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN), ORIGIN);
+    }
+
+    /**
+     * Initializes a preflight request.
+     * @param origin The Origin header value.
+     * @param method The Access-Control-Request-Method header value.
+     * @return The request.
+     */
+    protected MockHttpServletRequest initPreflight(final String origin, final String method) {
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest(HttpMethod.OPTIONS.name(), "/");
+        httpRequest.addHeader(HttpHeaders.ORIGIN, origin);
+        httpRequest.addHeader(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, method);
+        Assert.assertTrue(CorsPolicy.isPreflight(httpRequest));
+        return httpRequest;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.BitSet;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.rest.data.json.JsonByteWriter;
+
+/**
+ * Unit tests for {@link EncodedList}.
+ */
+public class EncodedListTest {
+
+    /** The list to be tested. */
+    private EncodedList list;
+
+    /**
+     * Initialize test variables.
+     */
+    @BeforeMethod
+    public void initTests() {
+        final byte[] body = "{\"lang\":\"FI\",\"response\":[1,{\"a\":2},\"33\"]}".getBytes(StandardCharsets.UTF_8);
+        list = new EncodedList(new EncodedResponse(body, Instant.now()), 25, 39,
+                new int[] { 25, 26, 27, 34, 35, 39, });
+    }
+
+    /**
+     * Tests the pages of the list.
+     * @throws IOException
+     */
+    @Test
+    public void testPages() throws IOException {
+        Assert.assertEquals(list.size(), 3);
+        assertPage(0, 3, "[1,{\"a\":2},\"33\"]");
+        assertPage(0, 1, "[1]");
+        assertPage(1, 1, "[{\"a\":2}]");
+        assertPage(1, 10, "[{\"a\":2},\"33\"]");
+        assertPage(2, 1, "[\"33\"]");
+        assertPage(3, 1, "[]");
+        assertPage(10, 1, "[]");
+    }
+
+    /**
+     * Tests the entity tags of the pages.
+     */
+    @Test
+    public void testPageETags() {
+        final String etag = list.getResponse().getETag();
+        Assert.assertEquals(list.getPageETag(1, 2), etag.substring(0, etag.length() - 1) + "-p1-2\"");
+        Assert.assertNotEquals(list.getPageETag(0, 2), list.getPageETag(1, 2));
+    }
+
+    /**
+     * Tests the lists selected from the list.
+     * @throws IOException
+     */
+    @Test
+    public void testSelect() throws IOException {
+        final BitSet selection = new BitSet();
+        selection.set(0);
+        selection.set(2);
+        list = list.select(new JsonByteWriter(), "FI", selection, Instant.now());
+        Assert.assertEquals(list.size(), 2);
+        Assert.assertEquals(new String(list.getResponse().getBody(), StandardCharsets.UTF_8),
+                "{\"lang\":\"FI\",\"response\":[1,\"33\"]}");
+        assertPage(1, 1, "[\"33\"]");
+        Assert.assertEquals(list.select(new JsonByteWriter(), "FI", new BitSet(), Instant.now()).size(), 0);
+    }
+
+    /**
+     * Tests the construction with invalid array bounds.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidBounds() {
+        new EncodedList(list.getResponse(), 25, 100, new int[0]);
+    }
+
+    /**
+     * Writes the given page and compares it to the expected one.
+     * @param offset The position of the first element of the page.
+     * @param limit The maximum number of the elements in the page.
+     * @param expectedArray The expected array of the page.
+     * @throws IOException
+     */
+    protected void assertPage(final int offset, final int limit, final String expectedArray) throws IOException {
+        final int count = list.getPageSize(offset, limit);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        list.writePage(out, offset, count);
+        Assert.assertEquals(out.toString(StandardCharsets.UTF_8),
+                "{\"lang\":\"FI\",\"response\":" + expectedArray + "}");
+        Assert.assertEquals(list.getPageLength(offset, count), out.size());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.util.Arrays;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link LanguageNegotiator}.
+ */
+public class LanguageNegotiatorTest {
+
+    /** The negotiator to be tested. */
+    private LanguageNegotiator negotiator;
+
+    /**
+     * Initialize test variables.
+     */
+    @BeforeMethod
+    public void initTests() {
+        negotiator = new LanguageNegotiator(Arrays.asList("FI", "SV", "SE-FI", "SMA"));
+    }
+
+    /**
+     * Tests the BCP 47 lookup fallback of single language ranges.
+     */
+    @Test
+    public void testResolve() {
+        Assert.assertEquals(negotiator.getDefaultLocale(), "FI");
+        Assert.assertEquals(resolve("fi"), "FI");
+        Assert.assertEquals(resolve(" sv "), "SV");
+        Assert.assertEquals(resolve("sv-FI"), "SV");
+        Assert.assertEquals(resolve("sv_fi"), "SV");
+        Assert.assertEquals(resolve("sv-Latn-FI-x-private"), "SV");
+        Assert.assertEquals(resolve("se-FI"), "SE-FI");
+        Assert.assertEquals(resolve("se_fi_x"), "SE-FI");
+        Assert.assertNull(resolve("se"));
+        Assert.assertEquals(resolve("sma-NO"), "SMA");
+        Assert.assertNull(resolve("smj"));
+        Assert.assertNull(resolve("svx"));
+        Assert.assertNull(resolve("en"));
+        Assert.assertNull(resolve("f"));
+        Assert.assertNull(resolve(""));
+        Assert.assertEquals(resolve("*"), "FI");
+    }
+
+    /**
+     * Tests the quality values of the Accept-Language header.
+     */
+    @Test
+    public void testAcceptLanguage() {
+        Assert.assertNull(negotiator.negotiateAcceptLanguage(null));
+        Assert.assertNull(negotiator.negotiateAcceptLanguage(""));
+        Assert.assertNull(negotiator.negotiateAcceptLanguage("en-US, de"));
+        Assert.assertEquals(negotiator.negotiateAcceptLanguage("sv-FI"), "SV");
+        Assert.assertEquals(negotiator.negotiateAcceptLanguage("en, sv;q=0.5, fi;q=0.8"), "FI");
+        Assert.assertEquals(negotiator.negotiateAcceptLanguage("sv;q=0.5, fi;q=0.5"), "SV");
+        Assert.assertEquals(negotiator.negotiateAcceptLanguage("fi;q=0, sv;q=0.001"), "SV");
+        Assert.assertEquals(negotiator.negotiateAcceptLanguage("fi;q=1.0, sv"), "FI");
+        Assert.assertEquals(negotiator.negotiateAcceptLanguage("sv;Q = 0.9, fi ; q=0.95 "), "FI");
+        Assert.assertEquals(negotiator.negotiateAcceptLanguage("sv;q=2, fi;q=abc, se-fi;q=0.1"), "SE-FI");
+        Assert.assertEquals(negotiator.negotiateAcceptLanguage("en, *;q=0.1"), "FI");
+        Assert.assertNull(negotiator.negotiateAcceptLanguage("fi;q=0.0000, sv;q=0."));
+    }
+
+    /**
+     * Tests the precedence of the lang parameter over the Accept-Language header.
+     */
+    @Test
+    public void testNegotiate() {
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        Assert.assertEquals(negotiator.negotiate(httpRequest), "FI");
+        httpRequest.addHeader("Accept-Language", "en, sv-FI;q=0.9");
+        Assert.assertEquals(negotiator.negotiate(httpRequest), "SV");
+        httpRequest.setParameter("lang", " ");
+        Assert.assertEquals(negotiator.negotiate(httpRequest), "SV");
+        httpRequest.setParameter("lang", "se_FI");
+        Assert.assertEquals(negotiator.negotiate(httpRequest), "SE-FI");
+        Assert.assertEquals(negotiator.getContentLanguage("SE-FI"), "se-fi");
+        httpRequest.setParameter("lang", " en ");
+        Assert.assertNull(negotiator.negotiate(httpRequest));
+        Assert.assertEquals(LanguageNegotiator.getLanguageParameter(httpRequest), "EN");
+    }
+
+    /**
+     * Resolves the given language range.
+     * @param range The language range.
+     * @return The supported locale, or null if none matches.
+     */
+    protected String resolve(final String range) {
+        return negotiator.resolve(range, 0, range.length());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * Tests an empty histogram.
+     */
+    @Test
+    public void testEmpty() {
+        final LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        Assert.assertEquals(snapshot.getCount(), 0);
+        Assert.assertEquals(snapshot.getMean(), 0);
+        Assert.assertEquals(snapshot.getMax(), 0);
+        Assert.assertEquals(snapshot.getValueAtPercentile(99.0), 0);
+    }
+
+    /**
+     * Tests the percentiles stay within the precision of the buckets.
+     */
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(snapshot.getCount(), 1000);
+        Assert.assertEquals(snapshot.getMean(), 500500);
+        Assert.assertEquals(snapshot.getMax(), 1000000);
+        assertWithinPrecision(snapshot.getValueAtPercentile(50.0), 500000);
+        assertWithinPrecision(snapshot.getValueAtPercentile(90.0), 900000);
+        assertWithinPrecision(snapshot.getValueAtPercentile(99.0), 990000);
+        Assert.assertEquals(snapshot.getValueAtPercentile(100.0), 1000000);
+    }
+
+    /**
+     * Tests the small, negative and too large values.
+     */
+    @Test
+    public void testLimits() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-1);
+        histogram.record(3);
+        histogram.record(Long.MAX_VALUE);
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(snapshot.getCount(), 3);
+        Assert.assertEquals(snapshot.getValueAtPercentile(0.0), 0);
+        Assert.assertEquals(snapshot.getValueAtPercentile(50.0), 3);
+        Assert.assertEquals(snapshot.getMax(), Long.MAX_VALUE);
+    }
+
+    /**
+     * Asserts that the value is at least the expected one, but not more than 1/8 larger.
+     * @param value The value to check.
+     * @param expected The expected value.
+     */
+    protected void assertWithinPrecision(final long value, final long expected) {
+        Assert.assertTrue(value >= expected && value <= expected + expected / 8, value + " for " + expected);
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import fi.mpass.shibboleth.rest.data.MunicipalityDTO;
+import net.shibboleth.shared.component.ComponentInitializationException;
+
+/**
+ * Unit tests for {@link MunicipalityCatalog} and {@link MunicipalityIndex}.
+ */
+public class MunicipalityCatalogTest {
+
+    /** The municipality dataset, including invalid and duplicate entries. */
+    public static final String DATASET = "["
+            + "{\"id\": \"837\", \"status\": \"test\", \"name\": {\"fi\": \"Tampere\", \"SV\": \"Tammerfors\"}},"
+            + "{\"id\": \"091\", \"status\": \"production\","
+            + " \"name\": {\"fi\": \"Helsinki\", \"sv\": \"Helsingfors\"}},"
+            + "{\"id\": \"049\", \"status\": \"Design\", \"name\": \"Espoo\"},"
+            + "{\"id\": \"179\", \"status\": \"retired\", \"name\": {\"en\": \"Jyvaskyla\"}},"
+            + "{\"id\": \"092\", \"status\": \"production\", \"name\": {\"fi\": \"Vantaa\"}},"
+            + "{\"id\": \"091\", \"status\": \"test\", \"name\": \"Duplicate\"},"
+            + "{\"id\": \"999\", \"status\": \"unknown\", \"name\": \"Invalid\"},"
+            + "{\"status\": \"test\", \"name\": \"Missing\"},"
+            + "\"invalid\""
+            + "]";
+
+    /** The catalog to be tested. */
+    private MunicipalityCatalog catalog;
+
+    /**
+     * Initialize test variables.
+     */
+    @BeforeMethod
+    public void initTests() {
+        catalog = new MunicipalityCatalog();
+        catalog.setId("mockId");
+        catalog.setSupportedLocales(Arrays.asList("fi", "sv"));
+    }
+
+    /**
+     * Tests initialization without the dataset resource.
+     * @throws ComponentInitializationException
+     */
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoResource() throws ComponentInitializationException {
+        catalog.initialize();
+    }
+
+    /**
+     * Tests initialization with a dataset that is not a JSON array.
+     * @throws ComponentInitializationException
+     */
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testInvalidDataset() throws ComponentInitializationException {
+        catalog.setResource(new ByteArrayResource("{\"id\": \"091\"}".getBytes(StandardCharsets.UTF_8)));
+        catalog.initialize();
+    }
+
+    /**
+     * Tests that the valid entries are indexed by the code, and the names are localized with fallbacks.
+     * @throws ComponentInitializationException
+     */
+    @Test
+    public void testLoad() throws ComponentInitializationException {
+        catalog.setResource(new ByteArrayResource(DATASET.getBytes(StandardCharsets.UTF_8)));
+        catalog.initialize();
+        final MunicipalityIndex index = catalog.getIndex();
+        Assert.assertEquals(index.size(), 5);
+        Assert.assertEquals(index.indexOf("049"), 0);
+        Assert.assertEquals(index.indexOf("837"), 4);
+        Assert.assertEquals(index.indexOf("999"), -1);
+        Assert.assertEquals(index.getStatus(index.indexOf("091")), MunicipalityIndex.Status.PRODUCTION);
+        Assert.assertEquals(index.getStatus(0), MunicipalityIndex.Status.DESIGN);
+
+        final JsonArray finnish = decode(catalog.getList("FI", MunicipalityIndex.ALL_STATUSES), "FI");
+        Assert.assertEquals(finnish.size(), 5);
+        assertMunicipality(finnish.get(0).getAsJsonObject(), "049", "Espoo", "design");
+        assertMunicipality(finnish.get(1).getAsJsonObject(), "091", "Helsinki", "production");
+        assertMunicipality(finnish.get(3).getAsJsonObject(), "179", "Jyvaskyla", "retired");
+        final JsonArray swedish = decode(catalog.getList("SV", MunicipalityIndex.ALL_STATUSES), "SV");
+        assertMunicipality(swedish.get(1).getAsJsonObject(), "091", "Helsingfors", "production");
+        assertMunicipality(swedish.get(2).getAsJsonObject(), "092", "Vantaa", "production");
+        assertMunicipality(swedish.get(4).getAsJsonObject(), "837", "Tammerfors", "test");
+        Assert.assertNull(catalog.getList("EN", MunicipalityIndex.ALL_STATUSES));
+        catalog.destroy();
+    }
+
+    /**
+     * Tests the lists filtered by the integration status.
+     * @throws ComponentInitializationException
+     */
+    @Test
+    public void testStatusFilter() throws ComponentInitializationException {
+        catalog.setResource(new ByteArrayResource(DATASET.getBytes(StandardCharsets.UTF_8)));
+        catalog.initialize();
+        Assert.assertEquals(MunicipalityIndex.parseStatuses(null), MunicipalityIndex.ALL_STATUSES);
+        Assert.assertEquals(MunicipalityIndex.parseStatuses(" , "), MunicipalityIndex.ALL_STATUSES);
+        Assert.assertEquals(MunicipalityIndex.parseStatuses("production,unknown"), -1);
+
+        final JsonArray production = decode(catalog.getList("FI", MunicipalityIndex.parseStatuses("production")),
+                "FI");
+        Assert.assertEquals(production.size(), 2);
+        Assert.assertEquals(production.get(1).getAsJsonObject().get("id").getAsString(), "092");
+        final EncodedList testOrDesign = catalog.getList("FI", MunicipalityIndex.parseStatuses(" TEST, design"));
+        Assert.assertEquals(testOrDesign.size(), 2);
+        final JsonArray decoded = decode(testOrDesign, "FI");
+        Assert.assertEquals(decoded.get(0).getAsJsonObject().get("id").getAsString(), "049");
+        Assert.assertEquals(decoded.get(1).getAsJsonObject().get("id").getAsString(), "837");
+        Assert.assertSame(catalog.getList("FI", MunicipalityIndex.parseStatuses("design,test")), testOrDesign);
+        catalog.destroy();
+    }
+
+    /**
+     * Tests that the index rejects the localized lists differing in their municipalities or statuses.
+     */
+    @Test
+    public void testMismatchedLists() {
+        final List<MunicipalityDTO> finnish = Arrays.asList(new MunicipalityDTO("049", "Espoo", "design"),
+                new MunicipalityDTO("091", "Helsinki", "production"));
+        final Map<String, List<MunicipalityDTO>> municipalities = new LinkedHashMap<>();
+        municipalities.put("FI", finnish);
+        municipalities.put("SV", Arrays.asList(new MunicipalityDTO("049", "Esbo", "design"),
+                new MunicipalityDTO("091", "Helsingfors", "production")));
+        Assert.assertEquals(new MunicipalityIndex(municipalities, Instant.now()).size(), 2);
+        assertRejected(municipalities, "SV", Arrays.asList(new MunicipalityDTO("049", "Esbo", "design")));
+        assertRejected(municipalities, "SV", Arrays.asList(new MunicipalityDTO("091", "Helsingfors", "production"),
+                new MunicipalityDTO("049", "Esbo", "design")));
+        assertRejected(municipalities, "SV", Arrays.asList(new MunicipalityDTO("049", "Esbo", "design"),
+                new MunicipalityDTO("091", "Helsingfors", "test")));
+    }
+
+    /**
+     * Asserts that the index rejects the given localized list together with the other lists.
+     * @param municipalities The other localized lists.
+     * @param lang The language code of the list.
+     * @param localized The localized list.
+     */
+    protected void assertRejected(final Map<String, List<MunicipalityDTO>> municipalities, final String lang,
+            final List<MunicipalityDTO> localized) {
+        final Map<String, List<MunicipalityDTO>> mismatched = new LinkedHashMap<>(municipalities);
+        mismatched.put(lang, localized);
+        try {
+            new MunicipalityIndex(mismatched, Instant.now());
+            Assert.fail("The mismatched list in " + lang + " was accepted");
+        } catch (final IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains(lang));
+        }
+    }
+
+    /**
+     * Tests that the index is reloaded and swapped when the dataset is modified.
+     * @throws ComponentInitializationException
+     * @throws IOException
+     */
+    @Test
+    public void testReload() throws ComponentInitializationException, IOException {
+        final File file = File.createTempFile("mpassid-municipalities", ".json");
+        file.deleteOnExit();
+        Files.write(file.toPath(), DATASET.getBytes(StandardCharsets.UTF_8));
+        catalog.setResource(new FileSystemResource(file));
+        catalog.initialize();
+        final MunicipalityIndex original = catalog.getIndex();
+
+        catalog.checkReload();
+        Assert.assertSame(catalog.getIndex(), original);
+
+        Files.write(file.toPath(), "[".getBytes(StandardCharsets.UTF_8));
+        Assert.assertTrue(file.setLastModified(file.lastModified() + 10000));
+        catalog.checkReload();
+        Assert.assertSame(catalog.getIndex(), original);
+
+        Files.write(file.toPath(), "[{\"id\": \"091\", \"status\": \"test\", \"name\": \"Helsinki\"}]"
+                .getBytes(StandardCharsets.UTF_8));
+        Assert.assertTrue(file.setLastModified(file.lastModified() + 10000));
+        catalog.checkReload();
+        Assert.assertNotSame(catalog.getIndex(), original);
+        Assert.assertEquals(catalog.getIndex().size(), 1);
+        Assert.assertEquals(catalog.getIndex().getStatus(0), MunicipalityIndex.Status.TEST);
+        catalog.destroy();
+    }
+
+    /**
+     * Asserts the contents of a decoded municipality.
+     * @param municipality The decoded municipality.
+     * @param id The expected code.
+     * @param name The expected name.
+     * @param status The expected status.
+     */
+    protected void assertMunicipality(final JsonObject municipality, final String id, final String name,
+            final String status) {
+        Assert.assertEquals(municipality.get("id").getAsString(), id);
+        Assert.assertEquals(municipality.get("name").getAsString(), name);
+        Assert.assertEquals(municipality.get("status").getAsString(), status);
+    }
+
+    /**
+     * Decodes the municipalities in the given encoded list.
+     * @param list The encoded list.
+     * @param lang The expected language.
+     * @return The decoded municipalities.
+     */
+    protected JsonArray decode(final EncodedList list, final String lang) {
+        Assert.assertNotNull(list);
+        final JsonObject response = new Gson().fromJson(
+                new String(list.getResponse().getBody(), StandardCharsets.UTF_8), JsonObject.class);
+        Assert.assertEquals(response.get("lang").getAsString(), lang);
+        return response.getAsJsonArray("response");
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.time.Duration;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import net.shibboleth.shared.component.ComponentInitializationException;
+
+/**
+ * Unit tests for {@link RateLimiter}.
+ */
+public class RateLimiterTest {
+
+    /** One second in nanoseconds. */
+    private static final long SECOND = Duration.ofSeconds(1).toNanos();
+
+    /** The time of the first request. */
+    private long start;
+
+    /**
+     * Initializes the start time.
+     */
+    @BeforeMethod
+    public void initTests() {
+        start = System.nanoTime();
+    }
+
+    /**
+     * Tests that a client may burst up to the capacity and then regains one request per refill interval.
+     * @throws Exception
+     */
+    @Test
+    public void testBurstAndRefill() throws Exception {
+        final RateLimiter limiter = initLimiter(3, 10);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(limiter.tryAcquire("client", start), 0);
+        }
+        Assert.assertEquals(limiter.tryAcquire("client", start), 1);
+        Assert.assertEquals(limiter.tryAcquire("client", start + SECOND / 2), 1);
+        Assert.assertEquals(limiter.tryAcquire("client", start + SECOND), 0);
+        Assert.assertEquals(limiter.tryAcquire("client", start + SECOND), 1);
+        Assert.assertEquals(limiter.tryAcquire("other", start + SECOND), 0);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(limiter.tryAcquire("client", start + 10 * SECOND), 0);
+        }
+        Assert.assertEquals(limiter.tryAcquire("client", start + 10 * SECOND), 1);
+    }
+
+    /**
+     * Tests that the Retry-After value is rounded up to whole seconds.
+     * @throws Exception
+     */
+    @Test
+    public void testRetryAfter() throws Exception {
+        final RateLimiter limiter = new RateLimiter();
+        limiter.setId("mockLimiter");
+        limiter.setCapacity(1);
+        limiter.setRefillInterval(Duration.ofMillis(2500));
+        limiter.initialize();
+        Assert.assertEquals(limiter.tryAcquire("client", start), 0);
+        Assert.assertEquals(limiter.tryAcquire("client", start), 3);
+        Assert.assertEquals(limiter.tryAcquire("client", start + 2 * SECOND), 1);
+    }
+
+    /**
+     * Tests that the idle clients are evicted when the map is full, and that the others share a bucket meanwhile.
+     * @throws Exception
+     */
+    @Test
+    public void testEviction() throws Exception {
+        final RateLimiter limiter = initLimiter(2, 2);
+        Assert.assertEquals(limiter.tryAcquire("client1", start), 0);
+        Assert.assertEquals(limiter.tryAcquire("client2", start), 0);
+        Assert.assertEquals(limiter.getClientCount(), 2);
+        Assert.assertEquals(limiter.tryAcquire("client3", start), 0);
+        Assert.assertEquals(limiter.tryAcquire("client4", start), 0);
+        Assert.assertEquals(limiter.tryAcquire("client3", start), 1);
+        Assert.assertEquals(limiter.getClientCount(), 2);
+        Assert.assertEquals(limiter.tryAcquire("client3", start + 10 * SECOND), 0);
+        Assert.assertEquals(limiter.getClientCount(), 1);
+    }
+
+    /**
+     * Tests the identification of the clients.
+     * @throws Exception
+     */
+    @Test
+    public void testClientId() throws Exception {
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        httpRequest.setRemoteAddr("192.0.2.1");
+        Assert.assertEquals(initLimiter(1, 1).getClientId(httpRequest), "192.0.2.1");
+
+        final RateLimiter limiter = new RateLimiter();
+        limiter.setId("mockLimiter");
+        limiter.setClientIdHeader("X-Forwarded-For");
+        limiter.initialize();
+        Assert.assertEquals(limiter.getClientId(httpRequest), "unknown");
+        httpRequest.addHeader("X-Forwarded-For", " 198.51.100.1, 192.0.2.2");
+        Assert.assertEquals(limiter.getClientId(httpRequest), "192.0.2.2");
+        httpRequest.addHeader("X-Forwarded-For", "203.0.113.1 ");
+        Assert.assertEquals(limiter.getClientId(httpRequest), "203.0.113.1");
+
+        final RateLimiter twoProxies = new RateLimiter();
+        twoProxies.setId("mockLimiter");
+        twoProxies.setClientIdHeader("X-Forwarded-For");
+        twoProxies.setTrustedProxies(2);
+        twoProxies.initialize();
+        Assert.assertEquals(twoProxies.getClientId(httpRequest), "192.0.2.2");
+        final MockHttpServletRequest direct = new MockHttpServletRequest();
+        direct.addHeader("X-Forwarded-For", "198.51.100.1");
+        Assert.assertEquals(twoProxies.getClientId(direct), "198.51.100.1");
+    }
+
+    /**
+     * Tests that all the requests are allowed when the limiter is not enabled.
+     * @throws Exception
+     */
+    @Test
+    public void testDisabled() throws Exception {
+        final RateLimiter limiter = new RateLimiter();
+        limiter.setId("mockLimiter");
+        limiter.setEnabled(false);
+        limiter.setCapacity(1);
+        limiter.initialize();
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(limiter.tryAcquire(httpRequest), 0);
+        }
+        Assert.assertEquals(limiter.getClientCount(), 0);
+    }
+
+    /**
+     * Initializes a limiter regaining one request per second.
+     * @param capacity The maximum number of requests in a full bucket.
+     * @param maxClients The maximum number of the tracked clients.
+     * @return The initialized limiter.
+     * @throws ComponentInitializationException
+     */
+    protected RateLimiter initLimiter(final int capacity, final int maxClients)
+            throws ComponentInitializationException {
+        final RateLimiter limiter = new RateLimiter();
+        limiter.setId("mockLimiter");
+        limiter.setCapacity(capacity);
+        limiter.setRefillInterval(Duration.ofSeconds(1));
+        limiter.setMaxClients(maxClients);
+        limiter.initialize();
+        return limiter;
+    }
+}
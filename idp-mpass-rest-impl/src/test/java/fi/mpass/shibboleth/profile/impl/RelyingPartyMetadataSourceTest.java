@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.mockito.Mockito;
+import org.opensaml.saml.metadata.IterableMetadataSource;
+import org.opensaml.saml.metadata.resolver.ChainingMetadataResolver;
+import org.opensaml.saml.metadata.resolver.MetadataResolver;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import net.shibboleth.idp.saml.metadata.impl.RelyingPartyMetadataProvider;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.service.ReloadableService;
+import net.shibboleth.shared.service.ServiceException;
+import net.shibboleth.shared.service.ServiceableComponent;
+
+/**
+ * Unit tests for {@link RelyingPartyMetadataSource}.
+ */
+public class RelyingPartyMetadataSourceTest {
+
+    /** The service of the relying-party metadata resolver. */
+    private ReloadableService<MetadataResolver> service;
+
+    /** The component of the service. */
+    private ServiceableComponent<MetadataResolver> component;
+
+    /**
+     * Initialize test variables.
+     */
+    @BeforeMethod
+    @SuppressWarnings("unchecked")
+    public void initTests() {
+        service = Mockito.mock(ReloadableService.class);
+        component = Mockito.mock(ServiceableComponent.class);
+        Mockito.when(service.getServiceableComponent()).thenReturn(component);
+    }
+
+    /**
+     * Tests initialization without the metadata resolver service.
+     * @throws ComponentInitializationException
+     */
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoService() throws ComponentInitializationException {
+        final RelyingPartyMetadataSource source = new RelyingPartyMetadataSource();
+        source.setId("mockId");
+        source.initialize();
+    }
+
+    /**
+     * Tests that the entities of the iterable resolvers are listed in the order of the chain.
+     * @throws ComponentInitializationException
+     */
+    @Test
+    public void testChainedResolvers() throws ComponentInitializationException {
+        final EntityDescriptor first = initEntity("https://sp1.example.org/sp");
+        final EntityDescriptor second = initEntity("https://sp2.example.org/sp");
+        final EntityDescriptor third = initEntity("https://sp3.example.org/sp");
+        final List<MetadataResolver> resolvers = Arrays.asList(initResolver(first, second),
+                Mockito.mock(MetadataResolver.class), initResolver(third));
+        final ChainingMetadataResolver chain = Mockito.mock(ChainingMetadataResolver.class);
+        Mockito.when(chain.getResolvers()).thenReturn(resolvers);
+        final RelyingPartyMetadataProvider provider = Mockito.mock(RelyingPartyMetadataProvider.class);
+        Mockito.when(provider.getEmbeddedResolver()).thenReturn(chain);
+        Mockito.when(component.getComponent()).thenReturn(provider);
+
+        final List<EntityDescriptor> entities = new ArrayList<>();
+        initSource().forEach(entities::add);
+        Assert.assertEquals(entities, Arrays.asList(first, second, third));
+        Mockito.verify(component).close();
+    }
+
+    /**
+     * Tests that the failure of the service is propagated.
+     * @throws ComponentInitializationException
+     */
+    @Test(expectedExceptions = ServiceException.class)
+    public void testServiceFailure() throws ComponentInitializationException {
+        Mockito.when(service.getServiceableComponent()).thenThrow(new ServiceException("mockException"));
+        initSource().iterator();
+    }
+
+    /**
+     * Initializes the source to be tested.
+     * @return The initialized source.
+     * @throws ComponentInitializationException
+     */
+    protected RelyingPartyMetadataSource initSource() throws ComponentInitializationException {
+        final RelyingPartyMetadataSource source = new RelyingPartyMetadataSource();
+        source.setId("mockId");
+        source.setMetadataResolverService(service);
+        source.initialize();
+        return source;
+    }
+
+    /**
+     * Initializes an iterable metadata resolver with the given entities.
+     * @param entities The entities.
+     * @return The metadata resolver.
+     */
+    protected MetadataResolver initResolver(final EntityDescriptor... entities) {
+        final MetadataResolver resolver = Mockito.mock(MetadataResolver.class,
+                Mockito.withSettings().extraInterfaces(IterableMetadataSource.class));
+        Mockito.when(((IterableMetadataSource) resolver).iterator())
+            .thenAnswer(invocation -> Arrays.asList(entities).iterator());
+        return resolver;
+    }
+
+    /**
+     * Initializes an entity descriptor.
+     * @param entityId The entity ID.
+     * @return The entity descriptor.
+     */
+    protected EntityDescriptor initEntity(final String entityId) {
+        final EntityDescriptor entity = Mockito.mock(EntityDescriptor.class);
+        Mockito.when(entity.getEntityID()).thenReturn(entityId);
+        return entity;
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.mockito.Mockito;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.metadata.IterableMetadataSource;
+import org.opensaml.saml.metadata.resolver.impl.FilesystemMetadataResolver;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.Organization;
+import org.opensaml.saml.saml2.metadata.OrganizationDisplayName;
+import org.opensaml.saml.saml2.metadata.OrganizationURL;
+import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import fi.mpass.shibboleth.rest.data.ServiceProviderDTO;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.xml.impl.BasicParserPool;
+
+/**
+ * Unit tests for {@link ServiceProviderCatalog}.
+ */
+public class ServiceProviderCatalogTest {
+
+    /** The entities in the metadata. */
+    private List<EntityDescriptor> entities;
+
+    /** The number of the service providers built by the catalog. */
+    private int built;
+
+    /** The catalog to be tested. */
+    private ServiceProviderCatalog catalog;
+
+    /**
+     * Initialize test variables.
+     * @throws Exception
+     */
+    @BeforeMethod
+    public void initTests() throws Exception {
+        entities = new ArrayList<>();
+        entities.add(initEntity("https://sp2.example.org/sp", "Yritys"));
+        entities.add(initEntity("https://sp1.example.org/sp", "Toinen"));
+        built = 0;
+        catalog = new ServiceProviderCatalog() {
+            @Override
+            protected ServiceProviderDTO buildServiceProvider(final EntityDescriptor entity, final String lang) {
+                built++;
+                return super.buildServiceProvider(entity, lang);
+            }
+        };
+        catalog.setId("mockId");
+        catalog.setSupportedLocales(Arrays.asList("fi", "sv"));
+        final IterableMetadataSource metadataSource = Mockito.mock(IterableMetadataSource.class);
+        Mockito.when(metadataSource.iterator()).thenAnswer(invocation -> entities.iterator());
+        catalog.setMetadataSource(metadataSource);
+    }
+
+    /**
+     * Tests initialization without the metadata source.
+     * @throws ComponentInitializationException
+     */
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testNoMetadataSource() throws ComponentInitializationException {
+        final ServiceProviderCatalog emptyCatalog = new ServiceProviderCatalog();
+        emptyCatalog.setSupportedLocales(Arrays.asList("fi"));
+        emptyCatalog.initialize();
+    }
+
+    /**
+     * Tests the localized organization names and URLs, and the entity ID as the name of last resort.
+     * @throws Exception
+     */
+    @Test
+    public void testServiceProviders() throws Exception {
+        final EntityDescriptor idp = Mockito.mock(EntityDescriptor.class);
+        Mockito.when(idp.getEntityID()).thenReturn("https://idp.example.org/idp");
+        entities.add(idp);
+        entities.add(initEntity("https://sp3.example.org/sp", null));
+        catalog.initialize();
+        final JsonArray finnish = decode(catalog.getList("FI"), "FI");
+        Assert.assertEquals(finnish.size(), 3);
+        Assert.assertEquals(finnish.get(0).getAsJsonObject().get("id").getAsString(), "https://sp1.example.org/sp");
+        Assert.assertEquals(finnish.get(0).getAsJsonObject().get("name").getAsString(), "Toinen");
+        Assert.assertEquals(finnish.get(0).getAsJsonObject().get("url").getAsString(), "https://sp.example.org/fi");
+        Assert.assertEquals(finnish.get(2).getAsJsonObject().get("name").getAsString(), "https://sp3.example.org/sp");
+        Assert.assertNull(finnish.get(2).getAsJsonObject().get("url"));
+        final JsonArray swedish = decode(catalog.getList("SV"), "SV");
+        Assert.assertEquals(swedish.get(1).getAsJsonObject().get("name").getAsString(), "Yritys (sv)");
+        Assert.assertEquals(swedish.get(1).getAsJsonObject().get("url").getAsString(), "https://sp.example.org/sv");
+        Assert.assertNull(catalog.getList("EN"));
+        catalog.destroy();
+    }
+
+    /**
+     * Tests that only the changed entities are re-encoded, and that the lists are swapped only when changed.
+     * @throws Exception
+     */
+    @Test
+    public void testIncrementalRefresh() throws Exception {
+        catalog.initialize();
+        Assert.assertEquals(built, 4);
+        final EncodedList original = catalog.getList("FI");
+
+        Assert.assertFalse(catalog.refresh());
+        Assert.assertEquals(built, 4);
+        Assert.assertSame(catalog.getList("FI"), original);
+
+        entities.set(0, initEntity("https://sp2.example.org/sp", "Yritys"));
+        Assert.assertFalse(catalog.refresh());
+        Assert.assertEquals(built, 4);
+        Assert.assertSame(catalog.getList("FI"), original);
+
+        entities.set(1, initEntity("https://sp1.example.org/sp", "Muutettu"));
+        Assert.assertTrue(catalog.refresh());
+        Assert.assertEquals(built, 6);
+        final EncodedList changed = catalog.getList("FI");
+        Assert.assertNotSame(changed, original);
+        Assert.assertEquals(decode(changed, "FI").get(0).getAsJsonObject().get("name").getAsString(), "Muutettu");
+        Assert.assertEquals(decode(changed, "FI").get(1).getAsJsonObject().get("name").getAsString(), "Yritys");
+
+        entities.remove(0);
+        Assert.assertTrue(catalog.refresh());
+        Assert.assertEquals(built, 6);
+        Assert.assertEquals(catalog.getList("FI").size(), 1);
+        catalog.destroy();
+    }
+
+    /**
+     * Tests the incremental refresh from a reloading metadata resolver over a changing metadata file. The resolver
+     * releases the DOM and creates new descriptor instances on every reload.
+     * @throws Exception
+     */
+    @Test
+    public void testMetadataFileRefresh() throws Exception {
+        InitializationService.initialize();
+        final Path file = Files.createTempFile("metadata", ".xml");
+        Files.writeString(file, initMetadata("Toinen"));
+        final BasicParserPool parserPool = new BasicParserPool();
+        parserPool.initialize();
+        final FilesystemMetadataResolver resolver = new FilesystemMetadataResolver(file.toFile());
+        resolver.setId("mockResolver");
+        resolver.setParserPool(parserPool);
+        resolver.initialize();
+        catalog.setMetadataSource(resolver);
+        try {
+            catalog.initialize();
+            Assert.assertEquals(built, 4);
+            final EncodedList original = catalog.getList("FI");
+            final EntityDescriptor descriptor = resolver.iterator().next();
+
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+            resolver.refresh();
+            Assert.assertNotSame(resolver.iterator().next(), descriptor);
+            Assert.assertFalse(catalog.refresh());
+            Assert.assertEquals(built, 4);
+            Assert.assertSame(catalog.getList("FI"), original);
+
+            Files.writeString(file, initMetadata("Muutettu"));
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 20000));
+            resolver.refresh();
+            Assert.assertTrue(catalog.refresh());
+            Assert.assertEquals(built, 6);
+            final JsonArray finnish = decode(catalog.getList("FI"), "FI");
+            Assert.assertEquals(finnish.get(0).getAsJsonObject().get("name").getAsString(), "Muutettu");
+            Assert.assertEquals(finnish.get(1).getAsJsonObject().get("name").getAsString(), "Yritys");
+        } finally {
+            catalog.destroy();
+            resolver.destroy();
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Tests that the previous lists are kept if the refresh fails.
+     * @throws Exception
+     */
+    @Test
+    public void testRefreshFailure() throws Exception {
+        catalog.initialize();
+        final EncodedList original = catalog.getList("FI");
+        entities.add(null);
+        Assert.assertFalse(catalog.refresh());
+        Assert.assertSame(catalog.getList("FI"), original);
+        catalog.destroy();
+    }
+
+    /**
+     * Initializes an SP entity with the given organization name.
+     * @param entityId The entity ID.
+     * @param name The Finnish name of the organization, null for no organization.
+     * @return The entity descriptor.
+     */
+    protected EntityDescriptor initEntity(final String entityId, final String name) {
+        final EntityDescriptor entity = Mockito.mock(EntityDescriptor.class);
+        Mockito.when(entity.getEntityID()).thenReturn(entityId);
+        final SPSSODescriptor spDescriptor = Mockito.mock(SPSSODescriptor.class);
+        Mockito.when(entity.getSPSSODescriptor(SAMLConstants.SAML20P_NS)).thenReturn(spDescriptor);
+        if (name != null) {
+            final Organization organization = Mockito.mock(Organization.class);
+            final OrganizationDisplayName finnish = Mockito.mock(OrganizationDisplayName.class);
+            Mockito.when(finnish.getXMLLang()).thenReturn("fi");
+            Mockito.when(finnish.getValue()).thenReturn(name);
+            final OrganizationDisplayName swedish = Mockito.mock(OrganizationDisplayName.class);
+            Mockito.when(swedish.getXMLLang()).thenReturn("sv");
+            Mockito.when(swedish.getValue()).thenReturn(name + " (sv)");
+            Mockito.when(organization.getDisplayNames()).thenReturn(Arrays.asList(finnish, swedish));
+            final OrganizationURL finnishUrl = Mockito.mock(OrganizationURL.class);
+            Mockito.when(finnishUrl.getXMLLang()).thenReturn("fi");
+            Mockito.when(finnishUrl.getURI()).thenReturn("https://sp.example.org/fi");
+            final OrganizationURL swedishUrl = Mockito.mock(OrganizationURL.class);
+            Mockito.when(swedishUrl.getXMLLang()).thenReturn("sv");
+            Mockito.when(swedishUrl.getURI()).thenReturn("https://sp.example.org/sv");
+            Mockito.when(organization.getURLs()).thenReturn(Arrays.asList(finnishUrl, swedishUrl));
+            Mockito.when(entity.getOrganization()).thenReturn(organization);
+        }
+        return entity;
+    }
+
+    /**
+     * Builds the metadata of two SPs, the first one with the given organization name.
+     * @param name The Finnish name of the organization of the first SP.
+     * @return The metadata.
+     */
+    protected String initMetadata(final String name) {
+        return "<md:EntitiesDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\">"
+                + initEntityMetadata("https://sp1.example.org/sp", name)
+                + initEntityMetadata("https://sp2.example.org/sp", "Yritys")
+                + "</md:EntitiesDescriptor>";
+    }
+
+    /**
+     * Builds the metadata of an SP with the given organization name.
+     * @param entityId The entity ID.
+     * @param name The Finnish name of the organization.
+     * @return The metadata.
+     */
+    protected String initEntityMetadata(final String entityId, final String name) {
+        return "<md:EntityDescriptor entityID=\"" + entityId + "\">"
+                + "<md:SPSSODescriptor protocolSupportEnumeration=\"" + SAMLConstants.SAML20P_NS + "\">"
+                + "<md:AssertionConsumerService Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-POST\""
+                + " Location=\"" + entityId + "/acs\" index=\"1\"/></md:SPSSODescriptor>"
+                + "<md:Organization><md:OrganizationName xml:lang=\"fi\">" + name + "</md:OrganizationName>"
+                + "<md:OrganizationDisplayName xml:lang=\"fi\">" + name + "</md:OrganizationDisplayName>"
+                + "<md:OrganizationURL xml:lang=\"fi\">" + entityId + "</md:OrganizationURL>"
+                + "</md:Organization></md:EntityDescriptor>";
+    }
+
+    /**
+     * Decodes the service providers in the given encoded list.
+     * @param list The encoded list.
+     * @param lang The expected language.
+     * @return The decoded service providers.
+     */
+    protected JsonArray decode(final EncodedList list, final String lang) {
+        Assert.assertNotNull(list);
+        final JsonObject response = new Gson().fromJson(
+                new String(list.getResponse().getBody(), StandardCharsets.UTF_8), JsonObject.class);
+        Assert.assertEquals(response.get("lang").getAsString(), lang);
+        return response.getAsJsonArray("response");
+    }
+}
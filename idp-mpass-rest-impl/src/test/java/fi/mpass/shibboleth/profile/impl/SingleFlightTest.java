@@ -0,0 +1,199 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.profile.impl;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link SingleFlight}.
+ */
+public class SingleFlightTest {
+
+    /** The executor for the concurrent callers. */
+    private ExecutorService executor;
+
+    /** Released to let the computation finish. */
+    private CountDownLatch release;
+
+    /** Counted down when the computation has started. */
+    private CountDownLatch started;
+
+    /** The number of the computations. */
+    private AtomicInteger computations;
+
+    /**
+     * Initializes the executor and the latches.
+     */
+    @BeforeMethod
+    public void initTests() {
+        executor = Executors.newFixedThreadPool(4);
+        release = new CountDownLatch(1);
+        started = new CountDownLatch(1);
+        computations = new AtomicInteger();
+    }
+
+    /**
+     * Shuts down the executor.
+     */
+    @AfterMethod
+    public void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Tests that the concurrent callers share a single computation.
+     * @throws Exception
+     */
+    @Test
+    public void testCoalesced() throws Exception {
+        final SingleFlight<String, String> flight =
+                new SingleFlight<>(Duration.ofMillis(10), Duration.ofSeconds(5), null);
+        final Future<String> first = executor.submit(() -> flight.get("FI", blockingLoader("fresh", null)));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        final Future<String> second = executor.submit(() -> flight.get("FI", blockingLoader("other", null)));
+        final Future<String> third = executor.submit(() -> flight.get("FI", blockingLoader("other", null)));
+        Thread.sleep(50);
+        Assert.assertFalse(second.isDone());
+        Assert.assertEquals(flight.getInFlight(), 1);
+        release.countDown();
+        Assert.assertEquals(first.get(5, TimeUnit.SECONDS), "fresh");
+        Assert.assertEquals(second.get(5, TimeUnit.SECONDS), "fresh");
+        Assert.assertEquals(third.get(5, TimeUnit.SECONDS), "fresh");
+        Assert.assertEquals(computations.get(), 1);
+        Assert.assertEquals(flight.getInFlight(), 0);
+        Assert.assertEquals(flight.get("FI", key -> "next"), "next");
+    }
+
+    /**
+     * Tests that a failure is propagated to the waiting callers.
+     * @throws Exception
+     */
+    @Test
+    public void testFailure() throws Exception {
+        final SingleFlight<String, String> flight =
+                new SingleFlight<>(Duration.ofMillis(10), Duration.ofSeconds(5), null);
+        final IllegalStateException failure = new IllegalStateException("mockException");
+        final Future<String> first = executor.submit(() -> flight.get("FI", blockingLoader(null, failure)));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        final Future<String> second = executor.submit(() -> flight.get("FI", blockingLoader("other", null)));
+        Thread.sleep(50);
+        release.countDown();
+        assertFailure(first, failure);
+        assertFailure(second, failure);
+        Assert.assertEquals(computations.get(), 1);
+        Assert.assertEquals(flight.getInFlight(), 0);
+    }
+
+    /**
+     * Tests that the waiting callers get the stale value after the maximum wait, and the others keep waiting.
+     * @throws Exception
+     */
+    @Test
+    public void testStale() throws Exception {
+        final SingleFlight<String, String> flight =
+                new SingleFlight<>(Duration.ofMillis(20), Duration.ofSeconds(5),
+                        key -> "FI".equals(key) ? "stale" : null);
+        final Future<String> first = executor.submit(() -> flight.get("FI", blockingLoader("fresh", null)));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(flight.get("FI", key -> "other"), "stale");
+        Assert.assertFalse(first.isDone());
+        release.countDown();
+        Assert.assertEquals(first.get(5, TimeUnit.SECONDS), "fresh");
+        Assert.assertEquals(computations.get(), 1);
+    }
+
+    /**
+     * Tests that the waiting callers without a stale value fail after the maximum wait.
+     * @throws Exception
+     */
+    @Test
+    public void testTimeout() throws Exception {
+        final SingleFlight<String, String> flight = new SingleFlight<>(Duration.ofMillis(10), Duration.ofMillis(20),
+                key -> "FI".equals(key) ? "stale" : null);
+        final Future<String> first = executor.submit(() -> flight.get("SV", blockingLoader("fresh", null)));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        try {
+            flight.get("SV", key -> "other");
+            Assert.fail("Expected an exception");
+        } catch (final IllegalStateException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        Assert.assertFalse(first.isDone());
+        release.countDown();
+        Assert.assertEquals(first.get(5, TimeUnit.SECONDS), "fresh");
+        Assert.assertEquals(computations.get(), 1);
+    }
+
+    /**
+     * Creates a loader blocking until released.
+     * @param value The value to return.
+     * @param failure The exception to throw, or null if the value is returned.
+     * @return The loader.
+     */
+    protected Function<String, String> blockingLoader(final String value, final RuntimeException failure) {
+        return key -> {
+            computations.incrementAndGet();
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return value;
+        };
+    }
+
+    /**
+     * Asserts that the given call failed with the given exception.
+     * @param call The call.
+     * @param failure The expected exception.
+     * @throws Exception
+     */
+    protected void assertFailure(final Future<String> call, final RuntimeException failure) throws Exception {
+        try {
+            call.get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected an exception");
+        } catch (final ExecutionException e) {
+            Assert.assertSame(e.getCause(), failure);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.rest.loadtest;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A closed-loop load generator: each of the concurrent clients sends its next request only once the previous one
+ * has been answered, so the offered load adapts to the latency of the server. The requests answered during the
+ * warm-up are not recorded.
+ * 
+ * <p>As in any closed-loop test, a stalled server also stalls the clients, so the latencies of the requests not
+ * sent meanwhile are missing from the percentiles. The results are meant for comparing the configurations and the
+ * releases with each other on the same machine, not for predicting the latencies under an open arrival rate.</p>
+ */
+public final class ClosedLoopLoad {
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(ClosedLoopLoad.class);
+
+    /** The requests to send. */
+    @Nonnull private final RequestMix mix;
+
+    /** The number of the concurrent clients. */
+    private final int concurrency;
+
+    /** The duration of the warm-up. */
+    @Nonnull private final Duration warmup;
+
+    /** The duration of the measurement. */
+    @Nonnull private final Duration duration;
+
+    /**
+     * Constructor.
+     *
+     * @param requestMix The requests to send.
+     * @param clients The number of the concurrent clients.
+     * @param warmupDuration The duration of the warm-up.
+     * @param measurementDuration The duration of the measurement.
+     */
+    public ClosedLoopLoad(@Nonnull final RequestMix requestMix, final int clients,
+            @Nonnull final Duration warmupDuration, @Nonnull final Duration measurementDuration) {
+        mix = requestMix;
+        concurrency = clients;
+        warmup = warmupDuration;
+        duration = measurementDuration;
+    }
+
+    /**
+     * Runs the load test.
+     *
+     * @return The results of the measurement.
+     * @throws InterruptedException If interrupted while waiting for the clients.
+     */
+    @Nonnull public LoadReport run() throws InterruptedException {
+        final LoadReport report = new LoadReport();
+        final ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        final HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10)).build();
+        final long start = System.nanoTime();
+        final long measurementStart = start + warmup.toNanos();
+        final long end = measurementStart + duration.toNanos();
+        log.info("Warming up {} clients for {}", concurrency, warmup);
+        final List<Runnable> workers = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            workers.add(() -> runClient(httpClient, report, measurementStart, end));
+        }
+        workers.forEach(clients::execute);
+        clients.shutdown();
+        if (!clients.awaitTermination(duration.plus(warmup).plusMinutes(1).toMillis(), TimeUnit.MILLISECONDS)) {
+            log.warn("The clients did not finish in time");
+            clients.shutdownNow();
+        }
+        return report;
+    }
+
+    /**
+     * Sends the requests of a single client until the end of the measurement.
+     *
+     * @param httpClient The HTTP client.
+     * @param report The report to record the answered requests to.
+     * @param measurementStart The start time of the measurement, in nanoseconds.
+     * @param end The end time of the measurement, in nanoseconds.
+     */
+    private void runClient(@Nonnull final HttpClient httpClient, @Nonnull final LoadReport report,
+            final long measurementStart, final long end) {
+        long sent = System.nanoTime();
+        while (sent - end < 0) {
+            final RequestMix.Entry entry = mix.next();
+            try {
+                final HttpResponse<byte[]> response =
+                        httpClient.send(entry.getRequest(), HttpResponse.BodyHandlers.ofByteArray());
+                final long answered = System.nanoTime();
+                if (sent - measurementStart >= 0) {
+                    report.record(entry.getName(), response.statusCode(), answered - sent, response.body().length);
+                }
+            } catch (final IOException e) {
+                log.debug("Request {} failed", entry.getRequest().uri(), e);
+                if (sent - measurementStart >= 0) {
+                    report.recordError(entry.getName());
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            sent = System.nanoTime();
+        }
+    }
+}
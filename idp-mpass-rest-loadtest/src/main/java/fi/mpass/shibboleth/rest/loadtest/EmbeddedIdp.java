@@ -0,0 +1,209 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.rest.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.annotation.Nonnull;
+
+import jakarta.servlet.DispatcherType;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.web.context.ContextLoaderListener;
+import org.springframework.web.context.support.XmlWebApplicationContext;
+import org.springframework.web.servlet.DispatcherServlet;
+
+import net.shibboleth.shared.servlet.impl.RequestResponseContextFilter;
+
+/**
+ * An IdP serving the API flows from an embedded Jetty. The flow definitions, e.g.
+ * <code>flows/api/authnsources/authnsources-flow.xml</code>, are copied as such from the classpath into a temporary
+ * IdP home directory, together with a stub <code>conf/authn/general-authn.xml</code> and message bundles generated
+ * by {@link StubAuthenticationFlows}. The flows are then run by Spring Web Flow under
+ * <code>/idp/profile/api/</code>, like in the IdP.
+ * 
+ * <p>The root context (<code>loadtest/root-context.xml</code>) defines the beans the IdP otherwise provides to the
+ * flows. The <code>mpassid.api.*</code> properties may be set as system properties to compare the configurations.</p>
+ */
+public final class EmbeddedIdp implements AutoCloseable {
+
+    /** The context path of the IdP. */
+    @Nonnull private static final String CONTEXT_PATH = "/idp";
+
+    /** The servlet path of the flows. */
+    @Nonnull private static final String PROFILE_PATH = "/profile";
+
+    /** The location of the flow definitions on the classpath. */
+    @Nonnull private static final String FLOWS_PATTERN = "classpath*:flows/api/**/*.xml";
+
+    /** The location of the stub authentication configuration on the classpath. */
+    @Nonnull private static final String GENERAL_AUTHN = "loadtest/conf/authn/general-authn.xml";
+
+    /** The supported languages of the flows. */
+    @Nonnull private static final List<String> LANGUAGES = Arrays.asList("FI", "SV");
+
+    /** Class logger. */
+    @Nonnull private final Logger log = LoggerFactory.getLogger(EmbeddedIdp.class);
+
+    /** The temporary IdP home directory. */
+    @Nonnull private final Path home;
+
+    /** The embedded Jetty. */
+    @Nonnull private final Server server;
+
+    /**
+     * Constructor.
+     *
+     * @param idpHome The temporary IdP home directory.
+     * @param jetty The embedded Jetty, not started.
+     */
+    private EmbeddedIdp(@Nonnull final Path idpHome, @Nonnull final Server jetty) {
+        home = idpHome;
+        server = jetty;
+    }
+
+    /**
+     * Prepares the IdP home directory and starts the IdP.
+     *
+     * @param flows The number of the stub authentication flows.
+     * @param port The port to listen to, zero for any free port.
+     * @return The started IdP.
+     * @throws Exception If the IdP could not be started.
+     */
+    @Nonnull public static EmbeddedIdp start(final int flows, final int port) throws Exception {
+        final Path home = Files.createTempDirectory("idp-loadtest");
+        copyFlows(home);
+        try (InputStream in = new ClassPathResource(GENERAL_AUTHN).getInputStream()) {
+            final Path target = home.resolve("conf/authn/general-authn.xml");
+            Files.createDirectories(target.getParent());
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        StubAuthenticationFlows.writeMessages(home.resolve("messages"), flows, LANGUAGES);
+        System.setProperty("idp.home", home.toString());
+        System.setProperty("idp.authn.flows", StubAuthenticationFlows.getActiveFlowIds(flows));
+        System.setProperty("loadtest.flows", String.valueOf(flows));
+
+        final Server server = new Server(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        server.setHandler(createContext());
+        final EmbeddedIdp idp = new EmbeddedIdp(home, server);
+        try {
+            server.start();
+        } catch (final Exception e) {
+            idp.close();
+            throw e;
+        }
+        idp.log.info("Started the IdP in {} with {} authentication flows at {}", home, flows, idp.getApiUri());
+        return idp;
+    }
+
+    /**
+     * Get the base URI of the API flows.
+     *
+     * @return The base URI of the API flows.
+     */
+    @Nonnull public URI getApiUri() {
+        final int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+        return URI.create("http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + port
+                + CONTEXT_PATH + PROFILE_PATH + "/api/");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close() throws Exception {
+        try {
+            server.stop();
+        } finally {
+            try (Stream<Path> paths = Files.walk(home)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Creates the servlet context running the flows, with the same servlet and filter mappings as the IdP.
+     *
+     * @return The servlet context.
+     */
+    @Nonnull private static ServletContextHandler createContext() {
+        final ServletContextHandler context = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+        context.setContextPath(CONTEXT_PATH);
+        final XmlWebApplicationContext rootContext = new XmlWebApplicationContext();
+        rootContext.setConfigLocation("classpath:/loadtest/root-context.xml");
+        context.addEventListener(new ContextLoaderListener(rootContext));
+
+        final FilterHolder requestResponseContext = new FilterHolder(new RequestResponseContextFilter());
+        requestResponseContext.setAsyncSupported(true);
+        context.addFilter(requestResponseContext, "/*", EnumSet.of(DispatcherType.REQUEST));
+
+        final XmlWebApplicationContext flowContext = new XmlWebApplicationContext();
+        flowContext.setConfigLocation("classpath:/loadtest/webflow-context.xml");
+        final ServletHolder dispatcher = new ServletHolder("idp", new DispatcherServlet(flowContext));
+        dispatcher.setAsyncSupported(true);
+        dispatcher.setInitOrder(1);
+        context.addServlet(dispatcher, PROFILE_PATH + "/*");
+        return context;
+    }
+
+    /**
+     * Copies the flow definitions and their beans from the classpath into the IdP home directory.
+     *
+     * @param home The IdP home directory.
+     * @throws IOException If the flows could not be copied.
+     */
+    private static void copyFlows(@Nonnull final Path home) throws IOException {
+        final Resource[] resources = new PathMatchingResourcePatternResolver().getResources(FLOWS_PATTERN);
+        if (resources.length == 0) {
+            throw new IOException("No flow definitions found from " + FLOWS_PATTERN);
+        }
+        for (final Resource resource : resources) {
+            final String location = resource.getURL().toString();
+            final Path target = home.resolve(location.substring(location.lastIndexOf("flows/api/")));
+            Files.createDirectories(target.getParent());
+            try (InputStream in = resource.getInputStream()) {
+                Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+}
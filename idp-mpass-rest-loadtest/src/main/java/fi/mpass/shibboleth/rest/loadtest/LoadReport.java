@@ -0,0 +1,193 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.rest.loadtest;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+
+import fi.mpass.shibboleth.profile.impl.LatencyHistogram;
+
+/**
+ * The results of a load test: the throughput, the latency percentiles and the status codes, in total and for each
+ * combination of an endpoint and a lang parameter. The latencies are recorded in {@link LatencyHistogram}s, i.e.
+ * with a relative precision of 12.5 %, like in the metrics of the API.
+ */
+public final class LoadReport {
+
+    /** The name of the row for all the requests. */
+    @Nonnull private static final String TOTAL = "total";
+
+    /** The format of a row of the report. */
+    @Nonnull private static final String ROW_FORMAT = "%-28s %10s %10s %9s %9s %9s %9s %9s %10s  %s%n";
+
+    /** The rows of the report, keyed by their names. */
+    @Nonnull private final ConcurrentMap<String, Row> rows;
+
+    /** Constructor. */
+    public LoadReport() {
+        rows = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Records an answered request.
+     *
+     * @param name The name of the row of the request.
+     * @param status The status code of the response.
+     * @param nanos The latency of the request, in nanoseconds.
+     * @param bytes The size of the response body.
+     */
+    public void record(@Nonnull final String name, final int status, final long nanos, final long bytes) {
+        getRow(name).record(status, nanos, bytes);
+        getRow(TOTAL).record(status, nanos, bytes);
+    }
+
+    /**
+     * Records a request failed without a response, e.g. because of a timeout.
+     *
+     * @param name The name of the row of the request.
+     */
+    public void recordError(@Nonnull final String name) {
+        getRow(name).errors.increment();
+        getRow(TOTAL).errors.increment();
+    }
+
+    /**
+     * Get the number of the answered requests.
+     *
+     * @return The number of the answered requests.
+     */
+    public long getCount() {
+        final Row total = rows.get(TOTAL);
+        return total == null ? 0 : total.latencies.snapshot().getCount();
+    }
+
+    /**
+     * Prints the report.
+     *
+     * @param out The stream to print to.
+     * @param duration The duration of the measurement, for computing the throughput.
+     */
+    public void print(@Nonnull final PrintStream out, @Nonnull final Duration duration) {
+        out.printf(ROW_FORMAT, "Requests", "Count", "Req/s", "Mean ms", "p50 ms", "p99 ms", "p999 ms", "Max ms",
+                "KiB/s", "Status codes (errors)");
+        final Map<String, Row> sorted = new TreeMap<>(rows);
+        sorted.remove(TOTAL);
+        for (final Map.Entry<String, Row> row : sorted.entrySet()) {
+            row.getValue().print(out, row.getKey(), duration);
+        }
+        final Row total = rows.get(TOTAL);
+        if (total != null) {
+            total.print(out, TOTAL, duration);
+        }
+    }
+
+    /**
+     * Get the row of the given name, creating it if needed.
+     *
+     * @param name The name of the row.
+     * @return The row.
+     */
+    @Nonnull private Row getRow(@Nonnull final String name) {
+        final Row row = rows.get(name);
+        return row != null ? row : rows.computeIfAbsent(name, key -> new Row());
+    }
+
+    /**
+     * Formats the given nanoseconds as milliseconds.
+     *
+     * @param nanos The nanoseconds.
+     * @return The formatted milliseconds.
+     */
+    @Nonnull private static String millis(final long nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+
+    /**
+     * The results of the requests of a row.
+     */
+    private static final class Row {
+
+        /** The latencies of the answered requests. */
+        @Nonnull private final LatencyHistogram latencies;
+
+        /** The counts of the status codes. */
+        @Nonnull private final ConcurrentMap<Integer, LongAdder> statuses;
+
+        /** The total size of the response bodies. */
+        @Nonnull private final LongAdder bytes;
+
+        /** The number of the requests failed without a response. */
+        @Nonnull private final LongAdder errors;
+
+        /** Constructor. */
+        private Row() {
+            latencies = new LatencyHistogram();
+            statuses = new ConcurrentHashMap<>();
+            bytes = new LongAdder();
+            errors = new LongAdder();
+        }
+
+        /**
+         * Records an answered request.
+         *
+         * @param status The status code of the response.
+         * @param nanos The latency of the request, in nanoseconds.
+         * @param size The size of the response body.
+         */
+        private void record(final int status, final long nanos, final long size) {
+            latencies.record(nanos);
+            statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+            bytes.add(size);
+        }
+
+        /**
+         * Prints the row.
+         *
+         * @param out The stream to print to.
+         * @param name The name of the row.
+         * @param duration The duration of the measurement.
+         */
+        private void print(@Nonnull final PrintStream out, @Nonnull final String name,
+                @Nonnull final Duration duration) {
+            final LatencyHistogram.Snapshot snapshot = latencies.snapshot();
+            final double seconds = duration.toNanos() / 1e9;
+            final StringBuilder codes = new StringBuilder();
+            for (final Map.Entry<Integer, LongAdder> status : new TreeMap<>(statuses).entrySet()) {
+                codes.append(status.getKey()).append('=').append(status.getValue().sum()).append(' ');
+            }
+            codes.append('(').append(errors.sum()).append(')');
+            out.printf(ROW_FORMAT, name, snapshot.getCount(), String.format("%.1f", snapshot.getCount() / seconds),
+                    millis(snapshot.getMean()), millis(snapshot.getValueAtPercentile(50)),
+                    millis(snapshot.getValueAtPercentile(99)), millis(snapshot.getValueAtPercentile(99.9)),
+                    millis(snapshot.getMax()), String.format("%.1f", bytes.sum() / 1024.0 / seconds), codes);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.rest.loadtest;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The options of the load test, given as <code>--name=value</code> command line arguments.
+ */
+public final class LoadTestOptions {
+
+    /** The number of the concurrent clients, each sending its next request once the previous one is answered. */
+    private final int concurrency;
+
+    /** The duration of the measurement. */
+    @Nonnull private final Duration duration;
+
+    /** The duration of the warm-up before the measurement. */
+    @Nonnull private final Duration warmup;
+
+    /** The weighted mix of the endpoints, e.g. <code>authnsources:80,authntags:20</code>. */
+    @Nonnull private final String endpoints;
+
+    /** The weighted mix of the lang parameters, e.g. <code>fi:70,sv:30</code>. */
+    @Nonnull private final String langs;
+
+    /** The Accept-Encoding header of the requests, or null if not sent. */
+    @Nullable private final String acceptEncoding;
+
+    /** The number of the stub authentication flows in the embedded IdP. */
+    private final int flows;
+
+    /** The port of the embedded IdP, zero for any free port. */
+    private final int port;
+
+    /** The base URL of an already running IdP to be tested instead of the embedded one, or null. */
+    @Nullable private final URI url;
+
+    /**
+     * Constructor.
+     *
+     * @param values The option values, keyed by their names.
+     */
+    private LoadTestOptions(@Nonnull final Map<String, String> values) {
+        concurrency = Integer.parseInt(values.getOrDefault("concurrency", "16"));
+        duration = Duration.parse(values.getOrDefault("duration", "PT30S"));
+        warmup = Duration.parse(values.getOrDefault("warmup", "PT10S"));
+        endpoints = values.getOrDefault("endpoints", "authnsources:80,authntags:20");
+        langs = values.getOrDefault("langs", "fi:70,sv:30");
+        acceptEncoding = values.get("encoding");
+        flows = Integer.parseInt(values.getOrDefault("flows", "50"));
+        port = Integer.parseInt(values.getOrDefault("port", "0"));
+        url = values.containsKey("url") ? URI.create(values.get("url")) : null;
+        if (concurrency < 1 || flows < 1 || duration.isNegative() || duration.isZero() || warmup.isNegative()) {
+            throw new IllegalArgumentException("The concurrency, flows and duration must be positive");
+        }
+    }
+
+    /**
+     * Parses the options from the given command line arguments.
+     *
+     * @param args The command line arguments.
+     * @return The options.
+     * @throws IllegalArgumentException If an argument is not a valid option.
+     */
+    @Nonnull public static LoadTestOptions parse(@Nonnull final String[] args) {
+        final Map<String, String> values = new HashMap<>();
+        for (final String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Invalid option " + arg + ", expected --name=value");
+            }
+            values.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        return new LoadTestOptions(values);
+    }
+
+    /**
+     * Get the number of the concurrent clients.
+     *
+     * @return The number of the concurrent clients.
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Get the duration of the measurement.
+     *
+     * @return The duration of the measurement.
+     */
+    @Nonnull public Duration getDuration() {
+        return duration;
+    }
+
+    /**
+     * Get the duration of the warm-up before the measurement.
+     *
+     * @return The duration of the warm-up.
+     */
+    @Nonnull public Duration getWarmup() {
+        return warmup;
+    }
+
+    /**
+     * Get the weighted mix of the endpoints.
+     *
+     * @return The weighted mix of the endpoints.
+     */
+    @Nonnull public String getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Get the weighted mix of the lang parameters.
+     *
+     * @return The weighted mix of the lang parameters.
+     */
+    @Nonnull public String getLangs() {
+        return langs;
+    }
+
+    /**
+     * Get the Accept-Encoding header of the requests.
+     *
+     * @return The Accept-Encoding header, or null if not sent.
+     */
+    @Nullable public String getAcceptEncoding() {
+        return acceptEncoding;
+    }
+
+    /**
+     * Get the number of the stub authentication flows in the embedded IdP.
+     *
+     * @return The number of the stub authentication flows.
+     */
+    public int getFlows() {
+        return flows;
+    }
+
+    /**
+     * Get the port of the embedded IdP.
+     *
+     * @return The port, zero for any free port.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Get the base URL of an already running IdP to be tested instead of the embedded one.
+     *
+     * @return The base URL, or null if the embedded IdP is tested.
+     */
+    @Nullable public URI getUrl() {
+        return url;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "concurrency=" + concurrency + ", duration=" + duration + ", warmup=" + warmup + ", endpoints="
+                + endpoints + ", langs=" + langs + ", encoding=" + acceptEncoding + ", flows=" + flows;
+    }
+}
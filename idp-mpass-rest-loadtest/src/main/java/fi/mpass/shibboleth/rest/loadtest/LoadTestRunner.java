@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.rest.loadtest;
+
+import java.net.URI;
+
+/**
+ * The entry point of the load test jar. Starts the {@link EmbeddedIdp}, unless the URL of a running IdP is given,
+ * drives the API flows with the {@link ClosedLoopLoad} and prints the {@link LoadReport}.
+ * 
+ * <p>The options are given as <code>--name=value</code> arguments, see {@link LoadTestOptions}, e.g.
+ * <code>--concurrency=32 --duration=PT1M --langs=fi:70,sv:25,xx:5</code>.</p>
+ */
+public final class LoadTestRunner {
+
+    /** Constructor. */
+    private LoadTestRunner() {
+    }
+
+    /**
+     * Runs the load test.
+     *
+     * @param args The options.
+     * @throws Exception If the IdP could not be started or the test was interrupted.
+     */
+    public static void main(final String[] args) throws Exception {
+        final LoadTestOptions options = LoadTestOptions.parse(args);
+        EmbeddedIdp idp = null;
+        try {
+            URI apiUri = options.getUrl();
+            if (apiUri == null) {
+                idp = EmbeddedIdp.start(options.getFlows(), options.getPort());
+                apiUri = idp.getApiUri();
+            }
+            final RequestMix mix = new RequestMix(apiUri, options.getEndpoints(), options.getLangs(),
+                    options.getAcceptEncoding());
+            System.out.println("Load test of " + apiUri + " with " + options);
+            final LoadReport report =
+                    new ClosedLoopLoad(mix, options.getConcurrency(), options.getWarmup(), options.getDuration())
+                        .run();
+            report.print(System.out, options.getDuration());
+        } finally {
+            if (idp != null) {
+                idp.close();
+            }
+        }
+    }
+}
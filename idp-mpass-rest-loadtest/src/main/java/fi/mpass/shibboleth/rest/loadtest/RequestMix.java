@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.rest.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The weighted mix of the requests sent by the load generator: each combination of an endpoint and a lang
+ * parameter is picked with the product of their weights. The requests are built once and reused.
+ */
+public final class RequestMix {
+
+    /** The lang mix value for the requests without the lang parameter. */
+    @Nonnull public static final String NO_LANG = "none";
+
+    /** The timeout of a single request. */
+    @Nonnull private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    /** The requests of the mix. */
+    @Nonnull private final List<Entry> entries;
+
+    /** The cumulative weights of the requests, in the order of the entries. */
+    @Nonnull private final long[] cumulativeWeights;
+
+    /**
+     * Constructor.
+     *
+     * @param baseUri The base URI of the flows, e.g. <code>http://localhost:8080/idp/profile/api/</code>.
+     * @param endpoints The weighted mix of the endpoints, e.g. <code>authnsources:80,authntags:20</code>.
+     * @param langs The weighted mix of the lang parameters, e.g. <code>fi:70,sv:30,none:0</code>.
+     * @param acceptEncoding The Accept-Encoding header of the requests, or null if not sent.
+     */
+    public RequestMix(@Nonnull final URI baseUri, @Nonnull final String endpoints, @Nonnull final String langs,
+            @Nullable final String acceptEncoding) {
+        entries = new ArrayList<>();
+        final List<String[]> langWeights = parseWeights(langs);
+        final List<Long> weights = new ArrayList<>();
+        for (final String[] endpoint : parseWeights(endpoints)) {
+            for (final String[] lang : langWeights) {
+                final String query = NO_LANG.equals(lang[0]) ? "" : "?lang=" + lang[0];
+                final HttpRequest.Builder builder = HttpRequest.newBuilder(baseUri.resolve(endpoint[0] + query))
+                        .timeout(REQUEST_TIMEOUT).GET();
+                if (acceptEncoding != null) {
+                    builder.header("Accept-Encoding", acceptEncoding);
+                }
+                entries.add(new Entry(endpoint[0], lang[0], builder.build()));
+                weights.add(Long.parseLong(endpoint[1]) * Long.parseLong(lang[1]));
+            }
+        }
+        cumulativeWeights = new long[weights.size()];
+        long total = 0;
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            total += weights.get(i);
+            cumulativeWeights[i] = total;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("The total weight of the request mix must be positive");
+        }
+    }
+
+    /**
+     * Picks the next request at random according to the weights.
+     *
+     * @return The next request.
+     */
+    @Nonnull public Entry next() {
+        final long value = ThreadLocalRandom.current().nextLong(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (value < cumulativeWeights[i]) {
+                return entries.get(i);
+            }
+        }
+        return entries.get(entries.size() - 1);
+    }
+
+    /**
+     * Parses a weighted mix of the form <code>name:weight,name:weight</code>. The weight defaults to one.
+     *
+     * @param mix The weighted mix.
+     * @return The names and their weights.
+     */
+    @Nonnull private static List<String[]> parseWeights(@Nonnull final String mix) {
+        final List<String[]> weights = new ArrayList<>();
+        for (final String item : mix.split(",")) {
+            final String[] parts = item.trim().split(":");
+            if (parts[0].isEmpty() || parts.length > 2 || parts.length == 2 && Long.parseLong(parts[1]) < 0) {
+                throw new IllegalArgumentException("Invalid weighted mix " + mix + ", expected name:weight,...");
+            }
+            weights.add(new String[] {parts[0], parts.length == 2 ? parts[1] : "1"});
+        }
+        return weights;
+    }
+
+    /**
+     * A request of the mix.
+     */
+    public static final class Entry {
+
+        /** The endpoint of the request. */
+        @Nonnull private final String endpoint;
+
+        /** The lang parameter of the request, or {@value RequestMix#NO_LANG}. */
+        @Nonnull private final String lang;
+
+        /** The request. */
+        @Nonnull private final HttpRequest request;
+
+        /**
+         * Constructor.
+         *
+         * @param requestEndpoint The endpoint of the request.
+         * @param requestLang The lang parameter of the request.
+         * @param httpRequest The request.
+         */
+        private Entry(@Nonnull final String requestEndpoint, @Nonnull final String requestLang,
+                @Nonnull final HttpRequest httpRequest) {
+            endpoint = requestEndpoint;
+            lang = requestLang;
+            request = httpRequest;
+        }
+
+        /**
+         * Get the name of the report row of the request, i.e. the endpoint and the lang parameter.
+         *
+         * @return The name of the report row.
+         */
+        @Nonnull public String getName() {
+            return endpoint + " lang=" + lang;
+        }
+
+        /**
+         * Get the request.
+         *
+         * @return The request.
+         */
+        @Nonnull public HttpRequest getRequest() {
+            return request;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.rest.loadtest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.StringJoiner;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.idp.authn.AuthenticationFlowDescriptor;
+import net.shibboleth.idp.saml.authn.principal.AuthnContextClassRefPrincipal;
+
+/**
+ * The stub authentication flows of the embedded IdP, published as <code>shibboleth.AvailableAuthenticationFlows</code>,
+ * and the message bundles with their titles.
+ */
+public final class StubAuthenticationFlows {
+
+    /** The number of distinct tags spread over the flows. */
+    private static final int TAG_COUNT = 8;
+
+    /** The base name of the message bundles. */
+    @Nonnull private static final String BUNDLE = "mpassid-messages";
+
+    /** Constructor. */
+    private StubAuthenticationFlows() {
+    }
+
+    /**
+     * Creates the given number of authentication flows, each supporting two of the tags.
+     *
+     * @param count The number of the flows.
+     * @return The authentication flows.
+     */
+    @Nonnull public static List<AuthenticationFlowDescriptor> create(final int count) {
+        final List<AuthenticationFlowDescriptor> flows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final AuthenticationFlowDescriptor flow = new AuthenticationFlowDescriptor();
+            flow.setId("authn/source" + i);
+            final List<Principal> principals = new ArrayList<>();
+            principals.add(new AuthnContextClassRefPrincipal("urn:mpass.id:authntag:tag" + i % TAG_COUNT));
+            principals.add(new AuthnContextClassRefPrincipal("urn:mpass.id:authntag:tag" + (i + 1) % TAG_COUNT));
+            flow.setSupportedPrincipals(principals);
+            flows.add(flow);
+        }
+        return flows;
+    }
+
+    /**
+     * Get the active flow identifiers of the given number of flows, in the format of <code>idp.authn.flows</code>.
+     *
+     * @param count The number of the flows.
+     * @return The active flow identifiers.
+     */
+    @Nonnull public static String getActiveFlowIds(final int count) {
+        final StringJoiner activeFlowIds = new StringJoiner("|");
+        for (int i = 0; i < count; i++) {
+            activeFlowIds.add("source" + i);
+        }
+        return activeFlowIds.toString();
+    }
+
+    /**
+     * Writes the message bundles of the given number of flows: the locale-independent additional info and the
+     * localized titles and icon URLs in each language.
+     *
+     * @param directory The directory to write to.
+     * @param count The number of the flows.
+     * @param languages The language codes.
+     * @throws IOException If the bundles could not be written.
+     */
+    public static void writeMessages(@Nonnull final Path directory, final int count,
+            @Nonnull final List<String> languages) throws IOException {
+        final Properties additionalInfo = new Properties();
+        for (int i = 0; i < TAG_COUNT; i++) {
+            additionalInfo.setProperty("tag" + i + ".title", "tag.tag" + i);
+        }
+        for (int i = 0; i < count; i += 2) {
+            additionalInfo.setProperty("source" + i + ".isRegistry", "true");
+        }
+        store(additionalInfo, directory.resolve(BUNDLE + ".properties"));
+        for (final String language : languages) {
+            final Properties messages = new Properties();
+            for (int i = 0; i < count; i++) {
+                messages.setProperty("source" + i + ".title", "Lähde " + i + " (" + language + ")");
+                messages.setProperty("source" + i + ".iconUrl",
+                        "https://example.org/" + language + "/source" + i + ".png");
+            }
+            for (int i = 0; i < TAG_COUNT; i++) {
+                messages.setProperty("tag.tag" + i, "Tägi " + i + " (" + language + ")");
+            }
+            store(messages, directory.resolve(BUNDLE + "_" + language.toLowerCase(Locale.ROOT) + ".properties"));
+        }
+    }
+
+    /**
+     * Stores the given properties, escaping the non-ASCII characters.
+     *
+     * @param properties The properties.
+     * @param file The file to write to.
+     * @throws IOException If the file could not be written.
+     */
+    private static void store(@Nonnull final Properties properties, @Nonnull final Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        try (OutputStream out = Files.newOutputStream(file)) {
+            properties.store(out, null);
+        }
+    }
+}